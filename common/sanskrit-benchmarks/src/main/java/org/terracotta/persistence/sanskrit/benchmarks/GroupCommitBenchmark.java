@@ -0,0 +1,118 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.persistence.sanskrit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.terracotta.json.ObjectMapperFactory;
+import org.terracotta.persistence.sanskrit.ObjectMapperSupplier;
+import org.terracotta.persistence.sanskrit.SanskritException;
+import org.terracotta.persistence.sanskrit.SanskritImpl;
+import org.terracotta.persistence.sanskrit.file.FileBasedFilesystemDirectory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Measures the changes per second applied to a Sanskrit append log in the default temporary directory, depending on
+ * the group commit window, for a single caller and for concurrent callers.
+ * <p>
+ * Every change is durable when {@code applyChange} returns, so the throughput of a single caller is bounded by the
+ * latency of two forces and only gets worse with a window, while concurrent callers share the forces of a group
+ * commit. Compaction is disabled so that only appends are measured.
+ * <p>
+ * Run with {@code java -cp <classpath> org.terracotta.persistence.sanskrit.benchmarks.GroupCommitBenchmark}, and
+ * {@code -Djava.io.tmpdir=<dir>} to measure another filesystem.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupCommitBenchmark {
+
+  @Param({"0", "100", "500", "2000"})
+  public long windowMicros;
+
+  private final AtomicInteger callers = new AtomicInteger();
+  private Path directory;
+  private SanskritImpl sanskrit;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, SanskritException {
+    directory = Files.createTempDirectory("sanskrit-benchmark");
+    ObjectMapperSupplier objectMapperSupplier = ObjectMapperSupplier.notVersioned(new ObjectMapperFactory().create());
+    sanskrit = new SanskritImpl(new FileBasedFilesystemDirectory(directory), objectMapperSupplier, 0, Duration.of(windowMicros, ChronoUnit.MICROS));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    sanskrit.close();
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Caller {
+    String key;
+    long value;
+
+    @Setup(Level.Trial)
+    public void setUp(GroupCommitBenchmark benchmark) {
+      key = "key" + benchmark.callers.incrementAndGet();
+    }
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void singleCaller(Caller caller) throws SanskritException {
+    sanskrit.setLong(caller.key, caller.value++);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void concurrentCallers(Caller caller) throws SanskritException {
+    sanskrit.setLong(caller.key, caller.value++);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(GroupCommitBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.persistence.sanskrit.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.terracotta.json.ObjectMapperFactory;
+import org.terracotta.persistence.sanskrit.ObjectMapperSupplier;
+import org.terracotta.persistence.sanskrit.RecordFormat;
+import org.terracotta.persistence.sanskrit.SanskritException;
+import org.terracotta.persistence.sanskrit.SanskritImpl;
+import org.terracotta.persistence.sanskrit.file.FileBasedFilesystemDirectory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the time taken to load a Sanskrit append log of the default temporary directory, which replays all its
+ * records, for the text and the binary record formats.
+ * <p>
+ * The log is written once per trial by concurrent callers, so that group commit keeps its writing short. Compaction is
+ * disabled so that every record is replayed.
+ * <p>
+ * Run with {@code java -cp <classpath> org.terracotta.persistence.sanskrit.benchmarks.ReplayBenchmark}, and
+ * {@code -Djava.io.tmpdir=<dir>} to measure another filesystem.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReplayBenchmark {
+
+  private static final int WRITERS = 16;
+  private static final int KEYS = 1000;
+
+  @Param({"TEXT", "BINARY"})
+  public RecordFormat format;
+
+  @Param({"30000"})
+  public int records;
+
+  private Path directory;
+  private ObjectMapperSupplier objectMapperSupplier;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    directory = Files.createTempDirectory("sanskrit-benchmark");
+    objectMapperSupplier = ObjectMapperSupplier.notVersioned(new ObjectMapperFactory().create());
+    SanskritImpl sanskrit = new SanskritImpl(new FileBasedFilesystemDirectory(directory), objectMapperSupplier, 0, Duration.ZERO, format);
+    ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+    try {
+      List<Future<Object>> writers = new ArrayList<>();
+      for (int writer = 0; writer < WRITERS; writer++) {
+        int first = writer;
+        writers.add(executor.submit(() -> {
+          for (int record = first; record < records; record += WRITERS) {
+            sanskrit.setString("key" + (record % KEYS), "value" + record);
+          }
+          return null;
+        }));
+      }
+      for (Future<Object> writer : writers) {
+        writer.get();
+      }
+    } finally {
+      executor.shutdown();
+      sanskrit.close();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public SanskritImpl load() throws SanskritException {
+    SanskritImpl sanskrit = new SanskritImpl(new FileBasedFilesystemDirectory(directory), objectMapperSupplier);
+    sanskrit.close();
+    return sanskrit;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(ReplayBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.persistence.sanskrit;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.terracotta.persistence.sanskrit.HashUtils.DIGEST_LENGTH;
+
+/**
+ * A record of a binary append log.
+ * <p>
+ * A binary append log starts with {@link #MAGIC}, whose last byte is the version of the binary format, then holds
+ * records made of:
+ * <ul>
+ *   <li>the length of the body, as an int</li>
+ *   <li>the body: the record type as a byte, the object mapper version and the timestamp as UTF-8 strings prefixed
+ *   with their length as a short, the digest of the previous record for a snapshot, and the JSON as UTF-8 prefixed
+ *   with its length as an int</li>
+ *   <li>the digest of the record</li>
+ * </ul>
+ * The digest of a change is the hash of the digest of the previous record followed by the body, so that records are
+ * chained as in a text log. A snapshot holds the state as of the record it was taken at, and the digest of that record
+ * in its body: it stands for that record in the chain, so the records following it are chained to its base. The
+ * digest of a snapshot only covers its body.
+ */
+final class BinaryRecord {
+  static final byte[] MAGIC = {0, 'S', 'K', 1};
+
+  static final byte CHANGE = 1;
+  static final byte SNAPSHOT = 2;
+
+  private final byte type;
+  private final String version;
+  private final String timestamp;
+  private final byte[] base;
+  private final ByteBuffer jsonBytes;
+  private final ByteBuffer body;
+  private final byte[] digest;
+
+  private BinaryRecord(byte type, String version, String timestamp, byte[] base, ByteBuffer jsonBytes, ByteBuffer body, byte[] digest) {
+    this.type = type;
+    this.version = version;
+    this.timestamp = timestamp;
+    this.base = base;
+    this.jsonBytes = jsonBytes;
+    this.body = body;
+    this.digest = digest;
+  }
+
+  static BinaryRecord change(String version, String timestamp, String json, byte[] previousDigest) {
+    ByteBuffer body = encodeBody(CHANGE, version, timestamp, null, json);
+    return new BinaryRecord(CHANGE, version, timestamp, null, jsonOf(body), body, changeDigest(body, previousDigest));
+  }
+
+  static BinaryRecord snapshot(String version, String timestamp, String json, byte[] base) {
+    ByteBuffer body = encodeBody(SNAPSHOT, version, timestamp, base, json);
+    return new BinaryRecord(SNAPSHOT, version, timestamp, base, jsonOf(body), body, HashUtils.generateDigest(body));
+  }
+
+  private static ByteBuffer encodeBody(byte type, String version, String timestamp, byte[] base, String json) {
+    byte[] versionBytes = version.getBytes(StandardCharsets.UTF_8);
+    byte[] timestampBytes = timestamp.getBytes(StandardCharsets.UTF_8);
+    byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+    int length = 1 + 2 + versionBytes.length + 2 + timestampBytes.length + (base == null ? 0 : DIGEST_LENGTH) + 4 + jsonBytes.length;
+
+    ByteBuffer body = ByteBuffer.allocate(length);
+    body.put(type);
+    body.putShort((short) versionBytes.length).put(versionBytes);
+    body.putShort((short) timestampBytes.length).put(timestampBytes);
+    if (base != null) {
+      body.put(base);
+    }
+    body.putInt(jsonBytes.length).put(jsonBytes);
+    body.flip();
+    return body;
+  }
+
+  private static ByteBuffer jsonOf(ByteBuffer body) {
+    ByteBuffer fields = body.duplicate();
+    byte type = fields.get();
+    fields.position(fields.position() + (fields.getShort() & 0xffff));
+    fields.position(fields.position() + (fields.getShort() & 0xffff));
+    if (type != CHANGE) {
+      fields.position(fields.position() + DIGEST_LENGTH);
+    }
+    fields.getInt();
+    return fields.slice();
+  }
+
+  private static byte[] changeDigest(ByteBuffer body, byte[] previousDigest) {
+    return previousDigest == null ? HashUtils.generateDigest(body) : HashUtils.generateDigest(ByteBuffer.wrap(previousDigest), body);
+  }
+
+  /**
+   * Reads the record at the position of the log, and moves the position after it. The content of the record is not
+   * copied: the log must not be modified while the record is used.
+   *
+   * @return the record, or null if the log ends before a complete record, which is then a torn write
+   * @throws SanskritException if the record is malformed
+   */
+  static BinaryRecord read(ByteBuffer log) throws SanskritException {
+    if (log.remaining() < 4) {
+      return null;
+    }
+    int length = log.getInt(log.position());
+    if (length <= 0) {
+      throw new SanskritException("Invalid record length: " + length);
+    }
+    if (length > log.remaining() - 4 - DIGEST_LENGTH) {
+      return null;
+    }
+
+    ByteBuffer body = slice(log, log.position() + 4, length);
+    byte[] digest = new byte[DIGEST_LENGTH];
+    log.position(log.position() + 4 + length);
+    log.get(digest);
+
+    try {
+      ByteBuffer fields = body.duplicate();
+      byte type = fields.get();
+      if (type != CHANGE && type != SNAPSHOT) {
+        throw new SanskritException("Invalid record type: " + type);
+      }
+      String version = readString(fields, fields.getShort() & 0xffff);
+      String timestamp = readString(fields, fields.getShort() & 0xffff);
+      byte[] base = null;
+      if (type != CHANGE) {
+        base = new byte[DIGEST_LENGTH];
+        fields.get(base);
+      }
+      int jsonLength = fields.getInt();
+      if (jsonLength != fields.remaining()) {
+        throw new SanskritException("Invalid record: JSON length " + jsonLength + " but " + fields.remaining() + " bytes left");
+      }
+
+      return new BinaryRecord(type, version, timestamp, base, fields, body, digest);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      // lengths inconsistent with the body
+      throw new SanskritException("Invalid record", e);
+    }
+  }
+
+  static boolean isBinary(ByteBuffer log) {
+    return log.hasRemaining() && log.get(log.position()) == MAGIC[0];
+  }
+
+  /**
+   * @return false if the log ends before the magic bytes
+   */
+  static boolean readMagic(ByteBuffer log) throws SanskritException {
+    if (log.remaining() < MAGIC.length) {
+      return false;
+    }
+    byte[] magic = new byte[MAGIC.length];
+    log.get(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new SanskritException("Unsupported binary append log format: " + HashUtils.toHexText(magic));
+    }
+    return true;
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+    ByteBuffer slice = buffer.duplicate();
+    slice.limit(position + length).position(position);
+    return slice.slice();
+  }
+
+  private static String readString(ByteBuffer fields, int length) {
+    ByteBuffer bytes = slice(fields, fields.position(), length);
+    fields.position(fields.position() + length);
+    return StandardCharsets.UTF_8.decode(bytes).toString();
+  }
+
+  /**
+   * Checks the digest of this record against its content and the digest of the previous record.
+   */
+  void checkDigest(byte[] previousDigest) throws SanskritException {
+    byte[] expected = type == CHANGE ? changeDigest(body, previousDigest) : HashUtils.generateDigest(body);
+    if (!Arrays.equals(digest, expected)) {
+      throw new SanskritException("Hash mismatch. Got: " + HashUtils.toHexText(digest) + ". Computed: " + HashUtils.toHexText(expected));
+    }
+  }
+
+  /**
+   * @return the count of bytes of the encoded record
+   */
+  int size() {
+    return 4 + body.remaining() + DIGEST_LENGTH;
+  }
+
+  ByteBuffer encode() {
+    ByteBuffer frame = ByteBuffer.allocate(size());
+    frame.putInt(body.remaining());
+    frame.put(body.duplicate());
+    frame.put(digest);
+    frame.flip();
+    return frame;
+  }
+
+  byte getType() {
+    return type;
+  }
+
+  boolean isSnapshot() {
+    return type != CHANGE;
+  }
+
+  String getVersion() {
+    return version;
+  }
+
+  String getTimestamp() {
+    return timestamp;
+  }
+
+  byte[] getBase() {
+    return base;
+  }
+
+  /**
+   * Decodes the JSON of a record read from a log.
+   */
+  String getJson() {
+    return StandardCharsets.UTF_8.decode(jsonBytes.duplicate()).toString();
+  }
+
+  byte[] getDigest() {
+    return digest;
+  }
+
+  /**
+   * @return the digest the next record is chained to: the base of a snapshot, the digest of a change
+   */
+  byte[] getChainedDigest() {
+    return type == CHANGE ? digest : base;
+  }
+}
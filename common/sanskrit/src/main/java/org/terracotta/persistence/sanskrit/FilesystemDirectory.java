@@ -30,4 +30,15 @@ public interface FilesystemDirectory {
   void delete(String filename) throws IOException;
 
   void backup(String filename) throws IOException;
+
+  /**
+   * Atomically moves a file over another one, replacing it if it exists. The move is only durable once
+   * {@link #sync()} returns.
+   */
+  void move(String source, String target) throws IOException;
+
+  /**
+   * Makes the changes to the entries of the directory durable.
+   */
+  void sync() throws IOException;
 }
@@ -23,23 +23,39 @@ import java.util.Map;
 
 /**
  * Matches up the record hashes to the hashes found in the hash files.
+ * <p>
+ * The two final hashes are normally those of consecutive records. A hash file written by a group commit also records
+ * how many records that write held, and the records between the final hashes are accepted only if the later write
+ * held them as well.
  */
 public class HashChecker {
   private static final Logger LOGGER = LoggerFactory.getLogger(HashChecker.class);
 
   private final Map<String, String> hashes = new HashMap<>(2);
+  private final Map<String, Integer> writeSizes = new HashMap<>(2);
   private boolean laterHash;
   private String removedFirst;
+  private int hashesBetween;
   private int hashCount;
 
   public HashChecker(String hash0, String hash1) {
-    LOGGER.trace("HashChecker({}, {})", hash0, hash1);
+    this(hash0, 1, hash1, 1);
+  }
+
+  /**
+   * @param writeSize0 the number of records written along with the hash of the first hash file
+   * @param writeSize1 the number of records written along with the hash of the second hash file
+   */
+  public HashChecker(String hash0, int writeSize0, String hash1, int writeSize1) {
+    LOGGER.trace("HashChecker({}, {}, {}, {})", hash0, writeSize0, hash1, writeSize1);
     if (hash0 != null) {
       hashes.put(hash0, "hash0");
+      writeSizes.put(hash0, writeSize0);
       hashCount++;
     }
     if (hash1 != null) {
       hashes.put(hash1, "hash1");
+      writeSizes.put(hash1, writeSize1);
       hashCount++;
     }
   }
@@ -62,7 +78,8 @@ public class HashChecker {
         removedFirst = removed;
       }
     } else {
-      if (removedFirst != null) {
+      // only the earlier records of the write of the later hash can be between the final hashes
+      if (removedFirst != null && ++hashesBetween >= writeSizes.get(hashes.keySet().iterator().next())) {
         throw new SanskritException("Found extra hash between final hashes: " + hash);
       }
     }
@@ -71,6 +88,13 @@ public class HashChecker {
     return true;
   }
 
+  /**
+   * @return true if all the hashes of the hash files were matched to records
+   */
+  public boolean foundAll() {
+    return hashes.isEmpty();
+  }
+
   public String done() throws SanskritException {
     if (!hashes.isEmpty()) {
       throw new SanskritException("Hash existed but no matching record: " + hashes);
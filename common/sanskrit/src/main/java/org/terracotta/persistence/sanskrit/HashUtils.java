@@ -18,6 +18,7 @@ package org.terracotta.persistence.sanskrit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -37,6 +38,22 @@ public class HashUtils {
       0xba, 0x69, 0x49, 0x45, 0xd8, 0x1b, 0x49, 0xc9
   );
 
+  /**
+   * Count of bytes of a digest: the SHA-512 hash truncated to 160 bits.
+   */
+  public static final int DIGEST_LENGTH = 20;
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  // a digester is reset by digest(): it can be reused by the next hash of the same thread
+  private static final ThreadLocal<MessageDigest> DIGESTERS = ThreadLocal.withInitial(() -> {
+    try {
+      return MessageDigest.getInstance("SHA-512");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError("Missing hash algorithm: SHA-512");
+    }
+  });
+
   private static byte[] toBytes(int... ints) {
     byte[] bytes = new byte[ints.length];
 
@@ -58,27 +75,49 @@ public class HashUtils {
   }
 
   public static String generateHash(byte[] input) {
-    return toHexText(Arrays.copyOf(digest(input), 20));
+    return toHexText(generateDigest(ByteBuffer.wrap(input)));
   }
 
-  private static byte[] digest(byte[] input) {
-    try {
-      MessageDigest digester = MessageDigest.getInstance("SHA-512");
-      digester.update(input);
-      digester.update(PRIVATE_BYTES);
-      return digester.digest();
-    } catch (NoSuchAlgorithmException e) {
-      throw new AssertionError("Missing hash algorithm: SHA-512");
+  /**
+   * Computes the binary form of a hash: {@code toHexText(generateDigest(inputs))} is the hash of the concatenated
+   * inputs. The buffers are not consumed.
+   */
+  public static byte[] generateDigest(ByteBuffer... inputs) {
+    MessageDigest digester = DIGESTERS.get();
+    for (ByteBuffer input : inputs) {
+      digester.update(input.duplicate());
     }
+    digester.update(PRIVATE_BYTES);
+    return Arrays.copyOf(digester.digest(), DIGEST_LENGTH);
   }
 
-  private static String toHexText(byte[] input) {
-    StringBuilder sb = new StringBuilder(input.length * 2);
+  public static String toHexText(byte[] input) {
+    char[] chars = new char[input.length * 2];
+
+    for (int i = 0; i < input.length; i++) {
+      chars[2 * i] = HEX_DIGITS[(input[i] >> 4) & 0xf];
+      chars[2 * i + 1] = HEX_DIGITS[input[i] & 0xf];
+    }
+
+    return new String(chars);
+  }
 
-    for (byte b : input) {
-      sb.append(String.format("%02x", b));
+  public static byte[] fromHexText(String input) throws SanskritException {
+    if (input.length() % 2 != 0) {
+      throw new SanskritException("Invalid hash: " + input);
     }
 
-    return sb.toString();
+    byte[] bytes = new byte[input.length() / 2];
+
+    for (int i = 0; i < bytes.length; i++) {
+      int high = Character.digit(input.charAt(2 * i), 16);
+      int low = Character.digit(input.charAt(2 * i + 1), 16);
+      if (high < 0 || low < 0) {
+        throw new SanskritException("Invalid hash: " + input);
+      }
+      bytes[i] = (byte) ((high << 4) | low);
+    }
+
+    return bytes;
   }
 }
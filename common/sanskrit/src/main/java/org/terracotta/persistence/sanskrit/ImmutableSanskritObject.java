@@ -0,0 +1,211 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.persistence.sanskrit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.NumericNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+/**
+ * A version of Sanskrit data which never changes, and so can be handed out to readers without being copied.
+ * <p>
+ * The values are held in a {@link PersistentMap}: a {@link String}, a {@link Long}, a nested
+ * {@code ImmutableSanskritObject} or, for the external values which are not objects, a {@link JsonNode} which is
+ * never handed out. A change produces a new version through an {@link Updater}, which only copies the path to the
+ * changed keys and shares everything else with the previous version.
+ */
+final class ImmutableSanskritObject implements SanskritObject {
+  private final ObjectMapperSupplier objectMapperSupplier;
+  private final PersistentMap<String, Object> mappings;
+
+  private ImmutableSanskritObject(ObjectMapperSupplier objectMapperSupplier, PersistentMap<String, Object> mappings) {
+    this.objectMapperSupplier = objectMapperSupplier;
+    this.mappings = mappings;
+  }
+
+  static ImmutableSanskritObject empty(ObjectMapperSupplier objectMapperSupplier) {
+    return new ImmutableSanskritObject(objectMapperSupplier, PersistentMap.empty());
+  }
+
+  /**
+   * @return the object itself if it is immutable already, or an immutable copy
+   */
+  static ImmutableSanskritObject copyOf(ObjectMapperSupplier objectMapperSupplier, SanskritObject object) {
+    if (object instanceof ImmutableSanskritObject) {
+      return (ImmutableSanskritObject) object;
+    }
+    Updater updater = new Updater(empty(objectMapperSupplier));
+    object.accept(updater);
+    return updater.get();
+  }
+
+  @Override
+  public void accept(SanskritVisitor visitor) {
+    mappings.forEach((key, value) -> {
+      if (value instanceof String) {
+        visitor.setString(key, (String) value);
+      } else if (value instanceof Long) {
+        visitor.setLong(key, (Long) value);
+      } else if (value instanceof ImmutableSanskritObject) {
+        visitor.setObject(key, (ImmutableSanskritObject) value);
+      } else {
+        // a copy, as the visitor might keep it
+        visitor.setExternal(key, ((JsonNode) value).deepCopy(), null);
+      }
+    });
+  }
+
+  @Override
+  public <T> T getObject(String key, Class<T> type, String version) {
+    Object value = mappings.get(key);
+    if (value == null) {
+      return null;
+    }
+    if (!(value instanceof JsonNode) && type.isInstance(value)) {
+      return type.cast(value);
+    }
+    JsonNode jsonNode = toJsonNode(value);
+    if (type.isInstance(jsonNode)) {
+      return type.cast(jsonNode);
+    }
+    try {
+      return type.cast(objectMapperSupplier.getObjectMapper(version).treeToValue(jsonNode, type));
+    } catch (JsonProcessingException e) {
+      // should never happen because the json in the append log
+      // has already been serialized by sanskrit and cannot be updated by a user
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public String getString(String key) {
+    return (String) mappings.get(key);
+  }
+
+  @Override
+  public Long getLong(String key) {
+    Object value = mappings.get(key);
+    return value instanceof JsonNode ? (Long) ((NumericNode) value).longValue() : (Long) value;
+  }
+
+  @Override
+  public SanskritObject getObject(String key) {
+    return (ImmutableSanskritObject) mappings.get(key);
+  }
+
+  /**
+   * @return a new tree, which the caller can modify
+   */
+  private JsonNode toJsonNode(Object value) {
+    if (value instanceof String) {
+      return TextNode.valueOf((String) value);
+    } else if (value instanceof Long) {
+      return LongNode.valueOf((Long) value);
+    } else if (value instanceof ImmutableSanskritObject) {
+      ObjectNode objectNode = objectMapperSupplier.getObjectMapper().createObjectNode();
+      ((ImmutableSanskritObject) value).accept(new JsonSanskritChangeVisitor(objectMapperSupplier, objectNode));
+      return objectNode;
+    } else {
+      return ((JsonNode) value).deepCopy();
+    }
+  }
+
+  /**
+   * Applies changes to a version of the data, each one producing a new version.
+   */
+  static class Updater implements MutableSanskritObject {
+    private ImmutableSanskritObject current;
+
+    Updater(ImmutableSanskritObject current) {
+      this.current = current;
+    }
+
+    ImmutableSanskritObject get() {
+      return current;
+    }
+
+    private void set(String key, Object value) {
+      current = new ImmutableSanskritObject(current.objectMapperSupplier, current.mappings.put(key, value));
+    }
+
+    @Override
+    public void setString(String key, String value) {
+      set(key, value);
+    }
+
+    @Override
+    public void setLong(String key, long value) {
+      set(key, value);
+    }
+
+    @Override
+    public void setObject(String key, SanskritObject value) {
+      set(key, copyOf(current.objectMapperSupplier, value));
+    }
+
+    @Override
+    public <T> void setExternal(String key, T value, String version) {
+      if (value instanceof SanskritObject) {
+        setObject(key, (SanskritObject) value);
+        return;
+      }
+      JsonNode jsonNode = value instanceof JsonNode ? ((JsonNode) value).deepCopy() : current.objectMapperSupplier.getObjectMapper(version).valueToTree(value);
+      // held as they are read back from the append log
+      if (jsonNode.isTextual()) {
+        set(key, jsonNode.textValue());
+      } else if (jsonNode.isIntegralNumber() && jsonNode.canConvertToLong()) {
+        set(key, jsonNode.longValue());
+      } else if (jsonNode.isObject()) {
+        setObject(key, new SanskritObjectImpl(current.objectMapperSupplier, (ObjectNode) jsonNode));
+      } else {
+        set(key, jsonNode);
+      }
+    }
+
+    @Override
+    public void removeKey(String key) {
+      current = new ImmutableSanskritObject(current.objectMapperSupplier, current.mappings.remove(key));
+    }
+
+    @Override
+    public <T> T getObject(String key, Class<T> type, String version) {
+      return current.getObject(key, type, version);
+    }
+
+    @Override
+    public String getString(String key) {
+      return current.getString(key);
+    }
+
+    @Override
+    public Long getLong(String key) {
+      return current.getLong(key);
+    }
+
+    @Override
+    public SanskritObject getObject(String key) {
+      return current.getObject(key);
+    }
+
+    @Override
+    public void accept(SanskritVisitor visitor) {
+      current.accept(visitor);
+    }
+  }
+}
@@ -23,14 +23,24 @@ import java.util.Map;
 
 public class JsonUtils {
   public static void parse(ObjectMapperSupplier objectMapperSupplier, String version, String json, MutableSanskritObject result) throws SanskritException {
+    apply(objectMapperSupplier, version, readTree(objectMapperSupplier, version, json), result);
+  }
+
+  /**
+   * Parses the JSON of a record without applying it, so that records can be parsed concurrently.
+   */
+  public static JsonNode readTree(ObjectMapperSupplier objectMapperSupplier, String version, String json) throws SanskritException {
     try {
-      JsonNode jsonNode = objectMapperSupplier.getObjectMapper(version).readTree(json);
-      jsonNodeToSanskritObject(objectMapperSupplier, version, result, jsonNode);
+      return objectMapperSupplier.getObjectMapper(version).readTree(json);
     } catch (IOException e) {
       throw new SanskritException(e);
     }
   }
 
+  public static void apply(ObjectMapperSupplier objectMapperSupplier, String version, JsonNode jsonNode, MutableSanskritObject result) throws SanskritException {
+    jsonNodeToSanskritObject(objectMapperSupplier, version, result, jsonNode);
+  }
+
   private static void jsonNodeToSanskritObject(ObjectMapperSupplier objectMapperSupplier, String version, MutableSanskritObject sanskritObject, JsonNode jsonNode) throws SanskritException {
     for (Map.Entry<String, JsonNode> field : (Iterable<Map.Entry<String, JsonNode>>) jsonNode::fields) {
       String key = field.getKey();
@@ -72,4 +72,9 @@ public class LockReleasingSanskrit implements Sanskrit {
   public void reset() throws SanskritException {
     underlying.reset();
   }
+
+  @Override
+  public void compact() throws SanskritException {
+    underlying.compact();
+  }
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.persistence.sanskrit;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable map, as a hash array mapped trie: an update returns a new map which shares with the previous one all
+ * the nodes which are not on the path to the updated key, so that it copies at most one node per level of the trie.
+ * <p>
+ * Each level of the trie consumes 5 bits of the hash of the key. Keys whose hashes are equal are held in a collision
+ * node once all the bits are consumed.
+ */
+final class PersistentMap<K, V> {
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(new BitmapNode<>(0, new Object[0]), 0);
+
+  private final Node<K, V> root;
+  private final int size;
+
+  private PersistentMap(Node<K, V> root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <K, V> PersistentMap<K, V> empty() {
+    return (PersistentMap<K, V>) EMPTY;
+  }
+
+  int size() {
+    return size;
+  }
+
+  V get(K key) {
+    return root.get(hash(key), 0, key);
+  }
+
+  PersistentMap<K, V> put(K key, V value) {
+    int[] added = new int[1];
+    Node<K, V> newRoot = root.put(hash(key), 0, key, value, added);
+    return newRoot == root ? this : new PersistentMap<>(newRoot, size + added[0]);
+  }
+
+  PersistentMap<K, V> remove(K key) {
+    Node<K, V> newRoot = root.remove(hash(key), 0, key);
+    if (newRoot == root) {
+      return this;
+    }
+    return newRoot == null ? empty() : new PersistentMap<>(newRoot, size - 1);
+  }
+
+  void forEach(BiConsumer<? super K, ? super V> action) {
+    root.forEach(action);
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private interface Node<K, V> {
+    V get(int hash, int shift, K key);
+
+    /**
+     * @return this node if the key is already mapped to the value
+     */
+    Node<K, V> put(int hash, int shift, K key, V value, int[] added);
+
+    /**
+     * @return this node if the key is not mapped, null if the node is left empty
+     */
+    Node<K, V> remove(int hash, int shift, K key);
+
+    void forEach(BiConsumer<? super K, ? super V> action);
+  }
+
+  private static final class Leaf<K, V> {
+    final int hash;
+    final K key;
+    final V value;
+
+    Leaf(int hash, K key, V value) {
+      this.hash = hash;
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  /**
+   * A node holding, for each 5 bits of hash present in the bitmap, either a leaf or a child node.
+   */
+  private static final class BitmapNode<K, V> implements Node<K, V> {
+    private final int bitmap;
+    private final Object[] slots;
+
+    BitmapNode(int bitmap, Object[] slots) {
+      this.bitmap = bitmap;
+      this.slots = slots;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(int hash, int shift, K key) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return null;
+      }
+      Object slot = slots[index(bit)];
+      if (slot instanceof Leaf) {
+        Leaf<K, V> leaf = (Leaf<K, V>) slot;
+        return leaf.key.equals(key) ? leaf.value : null;
+      }
+      return ((Node<K, V>) slot).get(hash, shift + BITS, key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Node<K, V> put(int hash, int shift, K key, V value, int[] added) {
+      int bit = bit(hash, shift);
+      int index = index(bit);
+      if ((bitmap & bit) == 0) {
+        Object[] newSlots = new Object[slots.length + 1];
+        System.arraycopy(slots, 0, newSlots, 0, index);
+        newSlots[index] = new Leaf<>(hash, key, value);
+        System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+        added[0] = 1;
+        return new BitmapNode<>(bitmap | bit, newSlots);
+      }
+
+      Object slot = slots[index];
+      Object newSlot;
+      if (slot instanceof Leaf) {
+        Leaf<K, V> leaf = (Leaf<K, V>) slot;
+        if (leaf.key.equals(key)) {
+          if (leaf.value == value) {
+            return this;
+          }
+          newSlot = new Leaf<>(hash, key, value);
+        } else {
+          added[0] = 1;
+          newSlot = merge(leaf, new Leaf<>(hash, key, value), shift + BITS);
+        }
+      } else {
+        Node<K, V> child = (Node<K, V>) slot;
+        newSlot = child.put(hash, shift + BITS, key, value, added);
+        if (newSlot == child) {
+          return this;
+        }
+      }
+      return withSlot(index, newSlot);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Node<K, V> remove(int hash, int shift, K key) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      int index = index(bit);
+      Object slot = slots[index];
+      if (slot instanceof Leaf) {
+        if (!((Leaf<K, V>) slot).key.equals(key)) {
+          return this;
+        }
+        return withoutSlot(bit, index);
+      }
+
+      Node<K, V> child = (Node<K, V>) slot;
+      Node<K, V> newChild = child.remove(hash, shift + BITS, key);
+      if (newChild == child) {
+        return this;
+      }
+      if (newChild == null) {
+        return withoutSlot(bit, index);
+      }
+      // a child left with a single leaf is replaced by the leaf, so that the trie stays as shallow as possible
+      Leaf<K, V> single = singleLeaf(newChild);
+      return withSlot(index, single == null ? newChild : single);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+      for (Object slot : slots) {
+        if (slot instanceof Leaf) {
+          Leaf<K, V> leaf = (Leaf<K, V>) slot;
+          action.accept(leaf.key, leaf.value);
+        } else {
+          ((Node<K, V>) slot).forEach(action);
+        }
+      }
+    }
+
+    private Node<K, V> withSlot(int index, Object slot) {
+      Object[] newSlots = slots.clone();
+      newSlots[index] = slot;
+      return new BitmapNode<>(bitmap, newSlots);
+    }
+
+    private Node<K, V> withoutSlot(int bit, int index) {
+      if (slots.length == 1) {
+        return null;
+      }
+      Object[] newSlots = new Object[slots.length - 1];
+      System.arraycopy(slots, 0, newSlots, 0, index);
+      System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+      return new BitmapNode<>(bitmap & ~bit, newSlots);
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    private static int bit(int hash, int shift) {
+      return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static <K, V> Node<K, V> merge(Leaf<K, V> first, Leaf<K, V> second, int shift) {
+      if (shift >= Integer.SIZE) {
+        return new CollisionNode<>(first.hash, new Leaf<?, ?>[]{first, second});
+      }
+      int firstBit = bit(first.hash, shift);
+      int secondBit = bit(second.hash, shift);
+      if (firstBit == secondBit) {
+        return new BitmapNode<>(firstBit, new Object[]{merge(first, second, shift + BITS)});
+      }
+      Object[] slots = Integer.compareUnsigned(firstBit, secondBit) < 0 ? new Object[]{first, second} : new Object[]{second, first};
+      return new BitmapNode<>(firstBit | secondBit, slots);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Leaf<K, V> singleLeaf(Node<K, V> node) {
+      if (node instanceof BitmapNode) {
+        Object[] slots = ((BitmapNode<K, V>) node).slots;
+        return slots.length == 1 && slots[0] instanceof Leaf ? (Leaf<K, V>) slots[0] : null;
+      }
+      Leaf<?, ?>[] leaves = ((CollisionNode<K, V>) node).leaves;
+      return leaves.length == 1 ? (Leaf<K, V>) leaves[0] : null;
+    }
+  }
+
+  /**
+   * A node holding the leaves whose keys have the same hash.
+   */
+  private static final class CollisionNode<K, V> implements Node<K, V> {
+    private final int hash;
+    private final Leaf<?, ?>[] leaves;
+
+    CollisionNode(int hash, Leaf<?, ?>[] leaves) {
+      this.hash = hash;
+      this.leaves = leaves;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(int hash, int shift, K key) {
+      int index = indexOf(key);
+      return index < 0 ? null : (V) leaves[index].value;
+    }
+
+    @Override
+    public Node<K, V> put(int hash, int shift, K key, V value, int[] added) {
+      int index = indexOf(key);
+      Leaf<?, ?>[] newLeaves;
+      if (index < 0) {
+        newLeaves = Arrays.copyOf(leaves, leaves.length + 1);
+        newLeaves[leaves.length] = new Leaf<>(hash, key, value);
+        added[0] = 1;
+      } else {
+        if (leaves[index].value == value) {
+          return this;
+        }
+        newLeaves = leaves.clone();
+        newLeaves[index] = new Leaf<>(hash, key, value);
+      }
+      return new CollisionNode<>(this.hash, newLeaves);
+    }
+
+    @Override
+    public Node<K, V> remove(int hash, int shift, K key) {
+      int index = indexOf(key);
+      if (index < 0) {
+        return this;
+      }
+      if (leaves.length == 1) {
+        return null;
+      }
+      Leaf<?, ?>[] newLeaves = new Leaf<?, ?>[leaves.length - 1];
+      System.arraycopy(leaves, 0, newLeaves, 0, index);
+      System.arraycopy(leaves, index + 1, newLeaves, index, leaves.length - index - 1);
+      return new CollisionNode<>(this.hash, newLeaves);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+      for (Leaf<?, ?> leaf : leaves) {
+        action.accept((K) leaf.key, (V) leaf.value);
+      }
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < leaves.length; i++) {
+        if (Objects.equals(leaves[i].key, key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.persistence.sanskrit;
+
+/**
+ * The format in which records are appended to a Sanskrit append log.
+ */
+public enum RecordFormat {
+  /**
+   * Records made of text lines: a format version, a timestamp, the JSON of the change and a hexadecimal hash.
+   * This is the format understood by all the versions of Sanskrit.
+   */
+  TEXT,
+
+  /**
+   * Length-prefixed binary records with binary digests, which are not split into lines on replay. A text append log
+   * is upgraded in place to this format when it is loaded: it cannot be read by the versions of Sanskrit which only
+   * understand {@link #TEXT}.
+   */
+  BINARY
+}
@@ -22,15 +22,33 @@ import org.terracotta.persistence.sanskrit.change.SanskritChange;
 import org.terracotta.persistence.sanskrit.change.UnsetKeySanskritChange;
 
 import java.io.IOException;
+import java.time.Duration;
 
 import static org.terracotta.persistence.sanskrit.Owner.own;
 
 public interface Sanskrit extends AutoCloseable {
 
   static Sanskrit init(FilesystemDirectory filesystemDirectory, ObjectMapperSupplier objectMapperSupplier) throws SanskritException {
+    return init(filesystemDirectory, objectMapperSupplier, null);
+  }
+
+  /**
+   * @param groupCommitWindow how long a write waits for the changes applied concurrently to join it, or {@code null}
+   *                          to write each change on its own so that the log stays readable after a downgrade
+   */
+  static Sanskrit init(FilesystemDirectory filesystemDirectory, ObjectMapperSupplier objectMapperSupplier, Duration groupCommitWindow) throws SanskritException {
+    return init(filesystemDirectory, objectMapperSupplier, groupCommitWindow, RecordFormat.TEXT);
+  }
+
+  /**
+   * @param groupCommitWindow how long a write waits for the changes applied concurrently to join it, or {@code null}
+   *                          to write each change on its own so that the log stays readable after a downgrade
+   * @param recordFormat      the format of the records of a new append log, see {@link RecordFormat}
+   */
+  static Sanskrit init(FilesystemDirectory filesystemDirectory, ObjectMapperSupplier objectMapperSupplier, Duration groupCommitWindow, RecordFormat recordFormat) throws SanskritException {
     try (
         Owner<DirectoryLock, IOException> lockOwner = own(filesystemDirectory.lock(), IOException.class);
-        Owner<SanskritImpl, SanskritException> sanskritOwner = own(new SanskritImpl(filesystemDirectory, objectMapperSupplier), SanskritException.class)
+        Owner<SanskritImpl, SanskritException> sanskritOwner = own(new SanskritImpl(filesystemDirectory, objectMapperSupplier, SanskritImpl.DEFAULT_COMPACTION_THRESHOLD, groupCommitWindow, recordFormat), SanskritException.class)
     ) {
       return new LockReleasingSanskrit(
           new PersistentFailSanskrit(
@@ -72,4 +90,12 @@ public interface Sanskrit extends AutoCloseable {
   MutableSanskritObject newMutableSanskritObject();
 
   void reset() throws SanskritException;
+
+  /**
+   * Rewrites the append log so that it only holds what is needed to rebuild the current state. Changes can still be
+   * applied meanwhile.
+   * <p>
+   * A compacted log starts with a snapshot record, which the versions predating snapshots cannot read.
+   */
+  void compact() throws SanskritException;
 }
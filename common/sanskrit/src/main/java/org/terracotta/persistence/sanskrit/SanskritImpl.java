@@ -15,16 +15,19 @@
  */
 package org.terracotta.persistence.sanskrit;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terracotta.persistence.sanskrit.change.SanskritChange;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Deque;
@@ -32,6 +35,10 @@ import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -39,7 +46,20 @@ import static org.terracotta.persistence.sanskrit.MarkableLineParser.LS;
 
 /**
  * The main class for reading and writing a Sanskrit append log.
- * This class is intended to be used by a single thread and so it is not thread-safe.
+ * <p>
+ * The data is held in immutable versions: reads use the last version made durable without locking nor copying, and
+ * each change produces a new version sharing the unchanged parts of the previous one.
+ * <p>
+ * Changes can be applied concurrently: they are ordered in the log as they are applied to the state and each caller
+ * returns once its own record is durable. By default each record is written on its own, followed by its hash file
+ * update. When a group commit window is given, records queued while another caller is writing are written together,
+ * in one contiguous write followed by one hash file update, which is a group commit, and the caller starting a write
+ * waits for that long beforehand so that more records can join it.
+ * <p>
+ * The hash file of a group of several records also holds their count, so that the records between the two final
+ * hashes left by a crash are only accepted if they were written together with the later one. Group commit is opt-in
+ * because the versions predating it cannot read such a hash file: a log ending with a group of several records cannot
+ * be read after a downgrade.
  */
 public class SanskritImpl implements Sanskrit {
   private static final Logger LOGGER = LoggerFactory.getLogger(SanskritImpl.class);
@@ -47,98 +67,157 @@ public class SanskritImpl implements Sanskrit {
   private static final String APPEND_LOG_FILE = "append.log";
   private static final String HASH_0_FILE = "hash0";
   private static final String HASH_1_FILE = "hash1";
+  private static final String COMPACT_LOG_FILE = "compact.log";
   private static final String FORMAT_VERSION = "format version: ";
+  private static final String SNAPSHOT = "snapshot: ";
+  private static final String NO_HASH = "none";
+  private static final int HASH_LENGTH = 40;
+  // a final hash followed by the number of records of a group commit write, as 8 hex digits
+  private static final int GROUP_HASH_LENGTH = HASH_LENGTH + 8;
+
+  /**
+   * Count of records appended after the last snapshot which triggers a compaction of the append log: none by default.
+   * A compacted log starts with a snapshot record, which the versions predating snapshots cannot read, so compacting
+   * automatically would prevent a downgrade.
+   */
+  static final int DEFAULT_COMPACTION_THRESHOLD = 0;
+
+  /**
+   * Count of records of a binary log verified and parsed in parallel before being applied, which bounds the count of
+   * parsed records held in memory.
+   */
+  private static final int REPLAY_BATCH_SIZE = 4096;
+
+  /**
+   * Bytes of a binary log read at once during its replay. The window only grows to hold a record larger than it.
+   */
+  private static final int REPLAY_WINDOW_SIZE = 4 * 1024 * 1024;
 
   private final FilesystemDirectory filesystemDirectory;
   private final ObjectMapperSupplier objectMapperSupplier;
+  private final int compactionThreshold;
+  private final boolean groupCommit;
+  private final long groupCommitWindowNanos;
+  private final RecordFormat recordFormat;
+
+  // guards the state, the hash chain and the records not yet durable
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition written = lock.newCondition();
+  private final Condition windowElapsed = lock.newCondition();
+  private final ByteArrayOutputStream pendingEntries = new ByteArrayOutputStream();
+  private String pendingHash;
+  private ImmutableSanskritObject pendingData;
+  private long appendedSequence;
+  private long durableSequence;
+  private boolean writing;
+  private SanskritException writeFailure;
+  private boolean compacting;
+  // changes on each init(), so that a compaction started before a reset is dropped
+  private long logGeneration;
 
-  private volatile MutableSanskritObject data;
+  // the last version applied, guarded by the lock, and the last version made durable
+  private ImmutableSanskritObject data;
+  private volatile ImmutableSanskritObject committedData;
   private volatile String lastHash;
   private volatile String nextHashFile;
+  private volatile int recordsSinceSnapshot;
+  private volatile boolean binaryLog;
 
   public SanskritImpl(FilesystemDirectory filesystemDirectory, ObjectMapperSupplier objectMapperSupplier) throws SanskritException {
+    this(filesystemDirectory, objectMapperSupplier, DEFAULT_COMPACTION_THRESHOLD);
+  }
+
+  /**
+   * @param compactionThreshold the count of records appended after the last snapshot which triggers a compaction,
+   *                            or 0 to only compact on {@link #compact()}
+   */
+  public SanskritImpl(FilesystemDirectory filesystemDirectory, ObjectMapperSupplier objectMapperSupplier, int compactionThreshold) throws SanskritException {
+    this(filesystemDirectory, objectMapperSupplier, compactionThreshold, null);
+  }
+
+  /**
+   * @param compactionThreshold the count of records appended after the last snapshot which triggers a compaction,
+   *                            or 0 to only compact on {@link #compact()}
+   * @param groupCommitWindow   how long a caller about to write waits for concurrent changes to join its write,
+   *                            {@link Duration#ZERO} to only group the changes queued while another write is running,
+   *                            or {@code null} to write each change on its own, which keeps the log readable by the
+   *                            versions predating group commit
+   */
+  public SanskritImpl(FilesystemDirectory filesystemDirectory, ObjectMapperSupplier objectMapperSupplier, int compactionThreshold, Duration groupCommitWindow) throws SanskritException {
+    this(filesystemDirectory, objectMapperSupplier, compactionThreshold, groupCommitWindow, RecordFormat.TEXT);
+  }
+
+  /**
+   * @param compactionThreshold the count of records appended after the last snapshot which triggers a compaction,
+   *                            or 0 to only compact on {@link #compact()}
+   * @param groupCommitWindow   how long a caller about to write waits for concurrent changes to join its write,
+   *                            {@link Duration#ZERO} to only group the changes queued while another write is running,
+   *                            or {@code null} to write each change on its own, which keeps the log readable by the
+   *                            versions predating group commit
+   * @param recordFormat        the format of the records of a new append log. A text append log is upgraded to the
+   *                            binary format when loaded if it is requested, while a binary log stays binary.
+   */
+  public SanskritImpl(FilesystemDirectory filesystemDirectory, ObjectMapperSupplier objectMapperSupplier, int compactionThreshold, Duration groupCommitWindow, RecordFormat recordFormat) throws SanskritException {
+    if (compactionThreshold < 0) {
+      throw new IllegalArgumentException("Compaction threshold cannot be negative");
+    }
+    if (groupCommitWindow != null && groupCommitWindow.isNegative()) {
+      throw new IllegalArgumentException("Group commit window cannot be negative");
+    }
     this.filesystemDirectory = filesystemDirectory;
     this.objectMapperSupplier = objectMapperSupplier;
-    init();
+    this.compactionThreshold = compactionThreshold;
+    this.groupCommit = groupCommitWindow != null;
+    this.groupCommitWindowNanos = groupCommit ? groupCommitWindow.toNanos() : 0;
+    this.recordFormat = recordFormat;
+    lock.lock();
+    try {
+      init();
+    } finally {
+      lock.unlock();
+    }
   }
 
   private void init() throws SanskritException {
+    logGeneration++;
     lastHash = null;
     nextHashFile = null;
-    this.data = newMutableSanskritObject();
+    recordsSinceSnapshot = 0;
+    writeFailure = null;
+    this.data = ImmutableSanskritObject.empty(objectMapperSupplier);
+    this.committedData = data;
 
     try {
+      // a compacted log which was not moved in place yet: the append log still holds the same snapshot
+      filesystemDirectory.delete(COMPACT_LOG_FILE);
+
       List<String> filesToDelete = new ArrayList<>();
       String hash0 = getHashFromFile(HASH_0_FILE, filesToDelete);
       String hash1 = getHashFromFile(HASH_1_FILE, filesToDelete);
-      HashChecker hashChecker = new HashChecker(hash0, hash1);
+      HashChecker hashChecker = new HashChecker(finalHash(hash0), writeSize(hash0), finalHash(hash1), writeSize(hash1));
 
-      MutableSanskritObject result = newMutableSanskritObject();
+      AtomicReference<MutableSanskritObject> result = new AtomicReference<>(newMutableSanskritObject());
 
+      binaryLog = recordFormat == RecordFormat.BINARY;
       try (FileData appendLog = filesystemDirectory.getFileData(APPEND_LOG_FILE)) {
         if (appendLog != null) {
-          InputStream appendLogStream = new BufferedInputStream(Channels.newInputStream(appendLog));
-          MarkableLineParser parser = new MarkableLineParser(appendLogStream);
-          Stream<String> lines = parser.lines();
-          Stream<Deque<String>> records = groupByEmptyLines(lines);
-
-          AtomicReference<SanskritException> error = new AtomicReference<>();
-          AtomicLong counter = new AtomicLong();
-          try {
-            records.forEach(record -> {
-              try {
-                if (record.size() < 3) {
-                  throw new SanskritException("Invalid record");
-                }
-
-                long idx = counter.incrementAndGet();
-
-                String timestamp;
-                String version;
-                String first = record.removeFirst();
-                if (first.startsWith(FORMAT_VERSION)) {
-                  // V2 and so on
-                  timestamp = record.removeFirst();
-                  version = first.substring(16);
-                } else {
-                  // V1 change format don't have a version flag
-                  timestamp = first;
-                  version = "";
-                }
-                String hash = record.removeLast();
-                String json = String.join(LS, record);
-
-                LOGGER.trace("init(): record {}: timestamp={}, version={}, hash={}, json={}", idx, timestamp, version, hash, json);
-
-                hash = checkHash(timestamp, json, hash);
-                String hashedHash = HashUtils.generateHash(hash);
-                boolean acceptRecord = hashChecker.check(hashedHash);
-
-                LOGGER.trace("init(): record {}: hash={}, hashedHash={}, acceptRecord={}", idx, hash, hashedHash, acceptRecord);
-
-                if (acceptRecord) {
-                  parser.mark();
-                  JsonUtils.parse(objectMapperSupplier, version, json, result);
-                  onNewRecord(timestamp, json);
-                  lastHash = hash;
-                }
-              } catch (SanskritException e) {
-                error.set(e);
-                throw new UncheckedSanskritException(e);
-              }
-            });
-          } catch (UncheckedSanskritException e) {
-            if (error.get() != null) {
-              throw error.get();
-            } else {
-              throw e;
-            }
+          long mark;
+          ByteBuffer firstByte = ByteBuffer.allocate(1);
+          appendLog.read(firstByte);
+          firstByte.flip();
+          appendLog.position(0);
+          if (BinaryRecord.isBinary(firstByte)) {
+            binaryLog = true;
+            mark = replayBinary(appendLog, hashChecker, result);
+          } else {
+            binaryLog = false;
+            mark = replayText(new BufferedInputStream(Channels.newInputStream(appendLog)), hashChecker, result);
           }
 
-          long mark = parser.getMark();
           if (mark == 0) {
             filesToDelete.add("append.log");
-          } else {
+            binaryLog = recordFormat == RecordFormat.BINARY;
+          } else if (mark < appendLog.size()) {
             try {
               appendLog.truncate(mark);
             } catch (IOException e) {
@@ -161,23 +240,259 @@ public class SanskritImpl implements Sanskrit {
 
       nextHashFile = hashChecker.nextHashFile();
 
-      this.data = result;
+      this.data = ImmutableSanskritObject.copyOf(objectMapperSupplier, result.get());
+      this.committedData = data;
     } catch (IOException e) {
       throw new SanskritException(e);
     }
+
+    if (!binaryLog && recordFormat == RecordFormat.BINARY) {
+      // upgrade in place: a text log is compacted into a binary one
+      compactLog(false);
+    }
+  }
+
+  private long replayText(InputStream appendLogStream, HashChecker hashChecker, AtomicReference<MutableSanskritObject> result) throws SanskritException {
+    MarkableLineParser parser = new MarkableLineParser(appendLogStream);
+    Stream<String> lines = parser.lines();
+    Stream<Deque<String>> records = groupByEmptyLines(lines);
+
+    AtomicReference<SanskritException> error = new AtomicReference<>();
+    AtomicLong counter = new AtomicLong();
+    try {
+      records.forEach(record -> {
+        try {
+          if (record.size() < 3) {
+            throw new SanskritException("Invalid record");
+          }
+
+          long idx = counter.incrementAndGet();
+
+          String timestamp;
+          String version;
+          String snapshot = null;
+          String first = record.removeFirst();
+          if (first.startsWith(FORMAT_VERSION)) {
+            // V2 and so on
+            version = first.substring(16);
+            if (record.peekFirst().startsWith(SNAPSHOT)) {
+              snapshot = record.removeFirst();
+            }
+            timestamp = record.removeFirst();
+          } else {
+            // V1 change format don't have a version flag
+            timestamp = first;
+            version = "";
+          }
+          if (record.size() < 2) {
+            throw new SanskritException("Invalid record");
+          }
+          String hash = record.removeLast();
+          String json = String.join(LS, record);
+
+          LOGGER.trace("init(): record {}: timestamp={}, version={}, snapshot={}, hash={}, json={}", idx, timestamp, version, snapshot, hash, json);
+
+          if (snapshot == null) {
+            hash = checkHash(timestamp, json, hash);
+          } else {
+            // the snapshot stands for the record it was taken at
+            hash = checkSnapshotHash(snapshot, timestamp, json, hash);
+          }
+
+          if (acceptRecord(idx, version, timestamp, snapshot != null, json, null, hash, HashUtils.generateHash(hash), hashChecker, result)) {
+            parser.mark();
+          }
+        } catch (SanskritException e) {
+          error.set(e);
+          throw new UncheckedSanskritException(e);
+        }
+      });
+    } catch (UncheckedSanskritException e) {
+      if (error.get() != null) {
+        throw error.get();
+      } else {
+        throw e;
+      }
+    }
+
+    return parser.getMark();
+  }
+
+  /**
+   * Replays a binary log in batches of records, read through a window of the log which moves on once all the records
+   * it holds are applied. The records of a batch are verified and parsed in parallel: the digest of a record only
+   * depends on its content and on the digest stored in the previous record, whose own digest is checked in the same
+   * way. Each batch is then matched against the hash files and applied in order.
+   */
+  private long replayBinary(FileData appendLog, HashChecker hashChecker, AtomicReference<MutableSanskritObject> result) throws IOException, SanskritException {
+    ByteBuffer window = ByteBuffer.allocate(REPLAY_WINDOW_SIZE);
+    boolean end = fill(appendLog, window);
+    if (!BinaryRecord.readMagic(window)) {
+      // torn write of the first record
+      return 0;
+    }
+
+    long position = BinaryRecord.MAGIC.length;
+    long mark = 0;
+    long count = 0;
+    byte[] previousDigest = null;
+    SanskritException malformed = null;
+    while (true) {
+      // the record boundaries are found from the lengths, without reading the content
+      List<BinaryRecord> records = new ArrayList<>();
+      try {
+        BinaryRecord record;
+        while ((record = BinaryRecord.read(window)) != null) {
+          records.add(record);
+        }
+      } catch (SanskritException e) {
+        malformed = e;
+      }
+
+      byte[] windowDigest = previousDigest;
+      for (int from = 0; from < records.size(); from += REPLAY_BATCH_SIZE) {
+        List<ReplayedRecord> batch = IntStream.range(from, Math.min(from + REPLAY_BATCH_SIZE, records.size()))
+            .parallel()
+            .mapToObj(idx -> verifyBinaryRecord(records.get(idx), idx == 0 ? windowDigest : records.get(idx - 1).getChainedDigest()))
+            .collect(Collectors.toList());
+
+        for (ReplayedRecord replayed : batch) {
+          BinaryRecord record = replayed.record;
+          position += record.size();
+          count++;
+
+          LOGGER.trace("init(): record {}: timestamp={}, version={}, type={}, json={}", count, record.getTimestamp(), record.getVersion(), record.getType(), replayed.json);
+
+          if (replayed.failure != null) {
+            throw replayed.failure;
+          }
+          if (record.isSnapshot() && lastHash != null && !lastHash.equals(HashUtils.toHexText(record.getBase()))) {
+            throw new SanskritException("Snapshot not chained to the previous record. Got: " + HashUtils.toHexText(record.getBase()) + ". Expected: " + lastHash);
+          }
+          if (acceptRecord(count, record.getVersion(), record.getTimestamp(), record.isSnapshot(), replayed.json, replayed.tree, replayed.hash, replayed.hashedHash, hashChecker, result)) {
+            mark = position;
+          }
+        }
+      }
+      if (!records.isEmpty()) {
+        previousDigest = records.get(records.size() - 1).getChainedDigest();
+      }
+
+      if (malformed != null || end) {
+        break;
+      }
+      // the records of the window are applied: it moves on from the record it ends in, growing if that one fills it
+      if (window.remaining() == window.capacity()) {
+        window = ByteBuffer.allocate(2 * window.capacity()).put(window);
+      } else {
+        window.compact();
+      }
+      end = fill(appendLog, window);
+    }
+
+    if (malformed != null) {
+      if (!hashChecker.foundAll()) {
+        throw malformed;
+      }
+      // not covered by a hash file: torn write of the last record
+      LOGGER.trace("init(): malformed record after the last recorded hash", malformed);
+    }
+    return mark;
+  }
+
+  /**
+   * Reads from the current position of the file until the buffer is full, then flips it.
+   *
+   * @return true if the end of the file was reached
+   */
+  private static boolean fill(FileData fileData, ByteBuffer buffer) throws IOException {
+    boolean end = false;
+    while (buffer.hasRemaining()) {
+      if (fileData.read(buffer) < 0) {
+        end = true;
+        break;
+      }
+    }
+    buffer.flip();
+    return end;
+  }
+
+  /**
+   * Does the work of the replay which does not depend on the records before: checking the digest, computing the hash
+   * matched against the hash files, decoding and parsing the JSON.
+   */
+  private ReplayedRecord verifyBinaryRecord(BinaryRecord record, byte[] previousDigest) {
+    ReplayedRecord replayed = new ReplayedRecord(record);
+    try {
+      replayed.json = record.getJson();
+      record.checkDigest(previousDigest);
+      // a snapshot stands for the record it was taken at
+      replayed.hash = HashUtils.toHexText(record.getChainedDigest());
+      replayed.hashedHash = HashUtils.generateHash(replayed.hash);
+      replayed.tree = JsonUtils.readTree(objectMapperSupplier, record.getVersion(), replayed.json);
+    } catch (SanskritException e) {
+      replayed.failure = e;
+    }
+    return replayed;
+  }
+
+  private static class ReplayedRecord {
+    final BinaryRecord record;
+    String json;
+    String hash;
+    String hashedHash;
+    JsonNode tree;
+    SanskritException failure;
+
+    ReplayedRecord(BinaryRecord record) {
+      this.record = record;
+    }
+  }
+
+  /**
+   * @param tree the parsed JSON, or null to parse it if the record is accepted
+   */
+  private boolean acceptRecord(long idx, String version, String timestamp, boolean snapshot, String json, JsonNode tree, String hash, String hashedHash, HashChecker hashChecker, AtomicReference<MutableSanskritObject> result) throws SanskritException {
+    boolean acceptRecord = hashChecker.check(hashedHash);
+
+    LOGGER.trace("init(): record {}: hash={}, hashedHash={}, acceptRecord={}", idx, hash, hashedHash, acceptRecord);
+
+    if (acceptRecord) {
+      if (snapshot) {
+        // a snapshot holds the whole state: what was read before is superseded
+        result.set(newMutableSanskritObject());
+        recordsSinceSnapshot = 0;
+      } else {
+        recordsSinceSnapshot++;
+      }
+      if (tree == null) {
+        JsonUtils.parse(objectMapperSupplier, version, json, result.get());
+      } else {
+        JsonUtils.apply(objectMapperSupplier, version, tree, result.get());
+      }
+      onNewRecord(timestamp, json);
+      lastHash = hash;
+    }
+    return acceptRecord;
   }
 
   String getHashToDelete(HashChecker hashChecker) throws SanskritException {
     return hashChecker.done();
   }
 
+  /**
+   * Called for each record replayed from the append log. The JSON of a snapshot record holds the whole state.
+   */
   protected void onNewRecord(String timestamp, String json) throws SanskritException {
   }
 
+  /**
+   * @return the content of the hash file, which is a final hash possibly followed by the size of its group commit write
+   */
   private String getHashFromFile(String hashFile, List<String> filesToDelete) throws SanskritException {
     LOGGER.trace("getHashFromFile({}, {})", hashFile, filesToDelete);
 
-    ByteBuffer hashBuffer = ByteBuffer.allocate(40);
+    ByteBuffer hashBuffer;
 
     try (FileData fileData = filesystemDirectory.getFileData(hashFile)) {
       if (fileData == null) {
@@ -185,16 +500,17 @@ public class SanskritImpl implements Sanskrit {
         return null;
       }
 
-      if (fileData.size() > 40) {
+      if (fileData.size() > GROUP_HASH_LENGTH) {
         throw new SanskritException("Hash file too long: " + hashFile);
       }
 
-      if (fileData.size() < 40) {
+      if (fileData.size() != HASH_LENGTH && fileData.size() != GROUP_HASH_LENGTH) {
         filesToDelete.add(hashFile);
         LOGGER.trace("getHashFromFile({}): <none>, {}", hashFile, filesToDelete);
         return null;
       }
 
+      hashBuffer = ByteBuffer.allocate((int) fileData.size());
       while (hashBuffer.hasRemaining()) {
         int read = fileData.read(hashBuffer);
         if (read == -1) {
@@ -211,6 +527,21 @@ public class SanskritImpl implements Sanskrit {
     return hash;
   }
 
+  private static String finalHash(String hashFileContent) {
+    return hashFileContent == null ? null : hashFileContent.substring(0, HASH_LENGTH);
+  }
+
+  private static int writeSize(String hashFileContent) throws SanskritException {
+    if (hashFileContent == null || hashFileContent.length() == HASH_LENGTH) {
+      return 1;
+    }
+    try {
+      return Integer.parseUnsignedInt(hashFileContent.substring(HASH_LENGTH), 16);
+    } catch (NumberFormatException e) {
+      throw new SanskritException("Invalid group commit size in hash file: " + hashFileContent);
+    }
+  }
+
   String checkHash(String timestamp, String json, String hash) throws SanskritException {
     String expectedHash = calculateHash(timestamp, json);
     if (!hash.equals(expectedHash)) {
@@ -219,6 +550,47 @@ public class SanskritImpl implements Sanskrit {
     return hash;
   }
 
+  String checkSnapshotHash(String snapshot, String timestamp, String json, String hash) throws SanskritException {
+    String base = snapshot.substring(SNAPSHOT.length());
+    if (lastHash != null && !lastHash.equals(base)) {
+      throw new SanskritException("Snapshot not chained to the previous record. Got: " + base + ". Expected: " + lastHash);
+    }
+    String expectedHash = calculateSnapshotHash(base, timestamp, json);
+    if (!hash.equals(expectedHash)) {
+      throw new SanskritException("Hash mismatch. Got: " + hash + ". Computed: " + expectedHash);
+    }
+    return base;
+  }
+
+  /**
+   * A snapshot record holds the state as of the record it was taken at, which is no longer in the log once it has been
+   * compacted: the hash of that record is stored in the snapshot line, which is part of the hashed data. The snapshot
+   * then stands for that record, whose hash the next records are chained to, and which the hash files may hold.
+   */
+  String calculateSnapshotHash(String base, String timestamp, String json) {
+    LOGGER.trace("calculateSnapshotHash({}, {}, {})", base, timestamp, json);
+    if (NO_HASH.equals(base)) {
+      return HashUtils.generateHash(
+          SNAPSHOT + base,
+          LS,
+          timestamp,
+          LS,
+          json
+      );
+    } else {
+      return HashUtils.generateHash(
+          base,
+          LS,
+          LS,
+          SNAPSHOT + base,
+          LS,
+          timestamp,
+          LS,
+          json
+      );
+    }
+  }
+
   String calculateHash(String timestamp, String json) {
     LOGGER.trace("calculateHash({}, {})", timestamp, json);
     if (lastHash == null) {
@@ -249,23 +621,180 @@ public class SanskritImpl implements Sanskrit {
 
   @Override
   public String getString(String key) {
-    return data.getString(key);
+    return committedData.getString(key);
   }
 
   @Override
   public Long getLong(String key) {
-    return data.getLong(key);
+    return committedData.getLong(key);
   }
 
   @Override
   public SanskritObject getObject(String key) {
-    return CopyUtils.makeCopy(objectMapperSupplier, data.getObject(key));
+    return committedData.getObject(key);
   }
 
   @Override
   public void applyChange(SanskritChange change) throws SanskritException {
-    change.accept(data);
-    appendChange(change);
+    boolean compact;
+    lock.lock();
+    try {
+      checkWriteFailure();
+      ImmutableSanskritObject.Updater updater = new ImmutableSanskritObject.Updater(data);
+      change.accept(updater);
+      data = updater.get();
+      long sequence = appendChange(change);
+      recordsSinceSnapshot++;
+      awaitDurable(sequence);
+
+      compact = compactionThreshold > 0 && recordsSinceSnapshot >= compactionThreshold && !compacting;
+    } finally {
+      lock.unlock();
+    }
+    if (compact) {
+      compact();
+    }
+  }
+
+  /**
+   * Rewrites the append log as a snapshot record holding the current state, so that replaying it costs O(live state)
+   * instead of O(history).
+   * <p>
+   * Changes keep being applied while the snapshot is serialized and written aside: only then is the tail of the log,
+   * holding the records appended in the meantime, copied after the snapshot and the result moved over the append log.
+   * The snapshot stands for the last record it covers, which the records of the tail are chained to. A crash at any
+   * point leaves either the full log or the compacted one in place, both ending with the same committed record.
+   */
+  @Override
+  public void compact() throws SanskritException {
+    lock.lock();
+    try {
+      compactLog(true);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Must be called with the lock held, which is released while the snapshot is written if {@code releaseLock} is set.
+   */
+  private void compactLog(boolean releaseLock) throws SanskritException {
+    // only one compaction at a time, and the end of the log must be the last record
+    while (compacting || writing) {
+      written.awaitUninterruptibly();
+    }
+    checkWriteFailure();
+    writePending(false);
+    if (lastHash == null) {
+      // nothing was ever written
+      return;
+    }
+
+    ImmutableSanskritObject snapshotData = data;
+    String base = lastHash;
+    boolean binary = binaryLog || recordFormat == RecordFormat.BINARY;
+    int snapshotRecords = recordsSinceSnapshot;
+    long generation = logGeneration;
+    long snapshotEnd = appendLogSize();
+
+    compacting = true;
+    try {
+      if (releaseLock) {
+        lock.unlock();
+      }
+      try {
+        writeSnapshot(snapshotData, base, binary);
+      } finally {
+        if (releaseLock) {
+          lock.lock();
+        }
+      }
+
+      while (writing) {
+        written.awaitUninterruptibly();
+      }
+      if (generation != logGeneration) {
+        // reset in the meantime
+        filesystemDirectory.delete(COMPACT_LOG_FILE);
+        return;
+      }
+      checkWriteFailure();
+      appendTail(snapshotEnd);
+      filesystemDirectory.move(COMPACT_LOG_FILE, APPEND_LOG_FILE);
+      // the next records are appended to the compacted log, they must not be lost with the move on a crash
+      filesystemDirectory.sync();
+    } catch (IOException e) {
+      throw new SanskritException(e);
+    } finally {
+      compacting = false;
+      written.signalAll();
+    }
+
+    binaryLog = binary;
+    recordsSinceSnapshot -= snapshotRecords;
+  }
+
+  private void writeSnapshot(ImmutableSanskritObject snapshotData, String base, boolean binary) throws SanskritException {
+    JsonSanskritChangeVisitor visitor = new JsonSanskritChangeVisitor(objectMapperSupplier);
+    snapshotData.accept(visitor);
+    String json = visitor.getJson(null);
+    String timestamp = getTimestamp();
+    String version = objectMapperSupplier.getCurrentVersion();
+    LOGGER.trace("compact(): {}", json);
+
+    ByteBuffer[] compacted;
+    if (binary) {
+      BinaryRecord snapshot = BinaryRecord.snapshot(version, timestamp, json, HashUtils.fromHexText(base));
+      compacted = new ByteBuffer[]{ByteBuffer.wrap(BinaryRecord.MAGIC), snapshot.encode()};
+    } else {
+      String hash = calculateSnapshotHash(base, timestamp, json);
+      String logEntry = (FORMAT_VERSION + version) + LS + SNAPSHOT + base + LS + timestamp + LS + json + LS + hash + LS + LS;
+      compacted = new ByteBuffer[]{StandardCharsets.UTF_8.encode(logEntry)};
+    }
+
+    try {
+      filesystemDirectory.delete(COMPACT_LOG_FILE);
+      try (FileData compactLog = filesystemDirectory.create(COMPACT_LOG_FILE, false)) {
+        write(compactLog, compacted);
+      }
+    } catch (IOException e) {
+      throw new SanskritException(e);
+    }
+  }
+
+  /**
+   * Copies the records appended after {@code snapshotEnd} to the compacted log, and forces it even if there were
+   * none. Must be called with the lock held, while no write is running.
+   */
+  private void appendTail(long snapshotEnd) throws SanskritException, IOException {
+    try (
+        FileData appendLog = filesystemDirectory.getFileData(APPEND_LOG_FILE);
+        FileData compactLog = filesystemDirectory.create(COMPACT_LOG_FILE, true)
+    ) {
+      long tail = appendLog.size() - snapshotEnd;
+      if (tail > 0) {
+        LOGGER.trace("compact(): tail of {} bytes", tail);
+        compactLog.position(compactLog.size());
+        appendLog.position(snapshotEnd);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(tail, 64 * 1024));
+        while (appendLog.read(buffer) >= 0) {
+          buffer.flip();
+          while (buffer.hasRemaining()) {
+            compactLog.write(buffer);
+          }
+          buffer.clear();
+        }
+      }
+      compactLog.force(false);
+    }
+  }
+
+  private long appendLogSize() throws SanskritException {
+    try (FileData appendLog = filesystemDirectory.getFileData(APPEND_LOG_FILE)) {
+      return appendLog == null ? 0 : appendLog.size();
+    } catch (IOException e) {
+      throw new SanskritException(e);
+    }
   }
 
   @Override
@@ -275,20 +804,29 @@ public class SanskritImpl implements Sanskrit {
 
   @Override
   public void reset() throws SanskritException {
+    lock.lock();
     try {
+      while (writing || compacting) {
+        written.awaitUninterruptibly();
+      }
+      // the callers which queued entries expect them in the log which is backed up
+      writePending(false);
       filesystemDirectory.delete(HASH_0_FILE);
       filesystemDirectory.delete(HASH_1_FILE);
+      filesystemDirectory.delete(COMPACT_LOG_FILE);
       filesystemDirectory.backup(APPEND_LOG_FILE);
       init();
     } catch (IOException e) {
       throw new SanskritException(e);
+    } finally {
+      lock.unlock();
     }
   }
 
-  private void appendChange(SanskritChange change) throws SanskritException {
+  private long appendChange(SanskritChange change) throws SanskritException {
     String json = changeAsJson(change);
     LOGGER.trace("appendChange(): {}", json);
-    appendChange(json);
+    return appendChange(json);
   }
 
   private String changeAsJson(SanskritChange change) throws SanskritException {
@@ -297,42 +835,150 @@ public class SanskritImpl implements Sanskrit {
     return visitor.getJson(null);// latest current serializer will be used
   }
 
-  private void appendChange(String json) throws SanskritException {
+  private long appendChange(String json) throws SanskritException {
     String timestamp = getTimestamp();
-    appendRecord(timestamp, json);
+    return appendRecord(timestamp, json);
   }
 
-  void appendRecord(String timestamp, String json) throws SanskritException {
+  long appendRecord(String timestamp, String json) throws SanskritException {
     LOGGER.trace("appendRecord({}, {})", timestamp, json);
+    if (binaryLog) {
+      BinaryRecord record = BinaryRecord.change(objectMapperSupplier.getCurrentVersion(), timestamp, json, lastHash == null ? null : HashUtils.fromHexText(lastHash));
+      return enqueueEntry(record.encode(), HashUtils.toHexText(record.getDigest()));
+    }
     String hash = calculateHash(timestamp, json);
-    appendEntry((FORMAT_VERSION + objectMapperSupplier.getCurrentVersion()) + LS + timestamp + LS + json + LS + hash + LS + LS, hash);
+    return enqueueEntry(StandardCharsets.UTF_8.encode((FORMAT_VERSION + objectMapperSupplier.getCurrentVersion()) + LS + timestamp + LS + json + LS + hash + LS + LS), hash);
   }
 
   private String getTimestamp() {
     return Instant.now().toString();
   }
 
-  private void appendEntry(String logEntry, String entryHash) throws SanskritException {
-    LOGGER.trace("appendEntry({}, {})", logEntry, entryHash);
+  /**
+   * Queues an entry to be written after the entries already queued. The hash chain moves on right away, so that the
+   * next entry can be queued before this one is durable.
+   *
+   * @return the sequence number to wait for with {@link #awaitDurable(long)}
+   */
+  private long enqueueEntry(ByteBuffer logEntry, String entryHash) {
+    LOGGER.trace("enqueueEntry({}, {})", logEntry.remaining(), entryHash);
+    pendingEntries.write(logEntry.array(), logEntry.arrayOffset() + logEntry.position(), logEntry.remaining());
+    pendingHash = entryHash;
+    pendingData = data;
+    lastHash = entryHash;
+    return ++appendedSequence;
+  }
+
+  /**
+   * Waits until the entry with the given sequence number is durable, writing the queued entries if no other caller is
+   * writing. Must be called with the lock held, which is released while waiting and writing if group commit is enabled.
+   * Otherwise the lock is kept while writing, so that the entry is written on its own.
+   */
+  private void awaitDurable(long sequence) throws SanskritException {
+    while (durableSequence < sequence) {
+      checkWriteFailure();
+      if (writing) {
+        written.awaitUninterruptibly();
+      } else if (groupCommit) {
+        awaitGroupCommitWindow();
+        writePending(true);
+      } else {
+        writePending(false);
+      }
+    }
+  }
+
+  private void awaitGroupCommitWindow() {
+    if (groupCommitWindowNanos == 0) {
+      return;
+    }
+    // other callers cannot write while this one is waiting for them to queue their entries
+    writing = true;
+    try {
+      long remaining = groupCommitWindowNanos;
+      while (remaining > 0) {
+        remaining = windowElapsed.awaitNanos(remaining);
+      }
+    } catch (InterruptedException e) {
+      // the entries are written earlier: the caller still waits for them to be durable
+      Thread.currentThread().interrupt();
+    } finally {
+      writing = false;
+    }
+  }
+
+  /**
+   * Writes all the queued entries: the append log is forced once, then the hash file of the last entry is written
+   * and forced once. Must be called with the lock held, which can be released during the IO so that other callers can
+   * queue the entries of the next write.
+   */
+  private void writePending(boolean releaseLock) throws SanskritException {
+    if (pendingEntries.size() == 0) {
+      return;
+    }
+
+    byte[] logEntries = pendingEntries.toByteArray();
+    String entryHash = pendingHash;
+    ImmutableSanskritObject entryData = pendingData;
+    long sequence = appendedSequence;
+    long entryCount = sequence - durableSequence;
+    pendingEntries.reset();
+    pendingHash = null;
+    pendingData = null;
+
+    writing = true;
+    if (releaseLock) {
+      lock.unlock();
+    }
+    try {
+      appendEntries(logEntries, entryHash, entryCount);
+      committedData = entryData;
+    } catch (SanskritException e) {
+      writeFailure = e;
+      throw e;
+    } finally {
+      if (releaseLock) {
+        lock.lock();
+      }
+      writing = false;
+      written.signalAll();
+    }
+    durableSequence = sequence;
+  }
+
+  private void appendEntries(byte[] logEntries, String entryHash, long entryCount) throws SanskritException {
+    LOGGER.trace("appendEntries({}, {}, {})", logEntries.length, entryHash, entryCount);
     String finalHash = HashUtils.generateHash(entryHash);
-    LOGGER.trace("appendEntry({}): finalHash: {}", entryHash, finalHash);
+    LOGGER.trace("appendEntries({}): finalHash: {}", entryHash, finalHash);
 
     try (
         FileData appendLog = getAppendLogForAppend();
         FileData hashFile = createNewHashFile()
     ) {
-      write(appendLog, logEntry);
-      write(hashFile, finalHash);
+      if (binaryLog && appendLog.position() == 0) {
+        write(appendLog, ByteBuffer.wrap(BinaryRecord.MAGIC), ByteBuffer.wrap(logEntries));
+      } else {
+        write(appendLog, ByteBuffer.wrap(logEntries));
+      }
+      if (entryCount > 1) {
+        write(hashFile, finalHash + String.format("%08x", entryCount));
+      } else {
+        write(hashFile, finalHash);
+      }
 
       nextHashFile = flipHashFile();
       filesystemDirectory.delete(nextHashFile);
-
-      lastHash = entryHash;
     } catch (IOException e) {
       throw new SanskritException(e);
     }
   }
 
+  private void checkWriteFailure() throws SanskritException {
+    if (writeFailure != null) {
+      throw new SanskritException("Append log could not be written", writeFailure);
+    }
+  }
+
   private String flipHashFile() {
     if (Objects.equals(nextHashFile, HASH_0_FILE)) {
       return HASH_1_FILE;
@@ -360,11 +1006,15 @@ public class SanskritImpl implements Sanskrit {
   }
 
   private void write(FileData fileData, String text) throws SanskritException {
-    try {
-      ByteBuffer bytes = StandardCharsets.UTF_8.encode(text);
+    write(fileData, StandardCharsets.UTF_8.encode(text));
+  }
 
-      while (bytes.hasRemaining()) {
-        fileData.write(bytes);
+  private void write(FileData fileData, ByteBuffer... buffers) throws SanskritException {
+    try {
+      for (ByteBuffer bytes : buffers) {
+        while (bytes.hasRemaining()) {
+          fileData.write(bytes);
+        }
       }
 
       fileData.force(false);
@@ -28,6 +28,7 @@ import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -88,6 +89,25 @@ public class FileBasedFilesystemDirectory implements FilesystemDirectory {
     org.terracotta.utilities.io.Files.deleteIfExists(path);
   }
 
+  @Override
+  public void move(String source, String target) throws IOException {
+    Files.move(directory.resolve(source), directory.resolve(target), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  @Override
+  public void sync() throws IOException {
+    FileChannel directoryChannel;
+    try {
+      directoryChannel = FileChannel.open(directory, READ);
+    } catch (IOException e) {
+      // a directory cannot be opened on every platform, where the entries are made durable by the filesystem itself
+      return;
+    }
+    try (FileChannel channel = directoryChannel) {
+      channel.force(true);
+    }
+  }
+
   @Override
   public void backup(String filename) throws IOException {
     String time = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd.HHmmss.SSS"));
@@ -117,6 +117,30 @@ public class HashCheckerTest {
     checker.check("e");
   }
 
+  @Test
+  public void hashesBetweenHashesOfGroupCommit() throws Exception {
+    HashChecker checker = new HashChecker("c", 1, "f", 3);
+    assertTrue(checker.check("a"));
+    assertTrue(checker.check("b"));
+    assertTrue(checker.check("c"));
+    assertTrue(checker.check("d"));
+    assertTrue(checker.check("e"));
+    assertTrue(checker.check("f"));
+    assertFalse(checker.check("g"));
+    assertEquals("hash0", checker.done());
+    assertEquals("hash0", checker.nextHashFile());
+  }
+
+  @Test(expected = SanskritException.class)
+  public void moreHashesBetweenHashesThanGroupCommit() throws Exception {
+    HashChecker checker = new HashChecker("c", 3, "f", 2);
+    assertTrue(checker.check("a"));
+    assertTrue(checker.check("b"));
+    assertTrue(checker.check("c"));
+    assertTrue(checker.check("d"));
+    checker.check("e");
+  }
+
   @Test(expected = SanskritException.class)
   public void duplicateHashes() throws Exception {
     HashChecker checker = new HashChecker("e", "f");
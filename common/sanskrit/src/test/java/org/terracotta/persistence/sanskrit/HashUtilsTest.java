@@ -17,6 +17,10 @@ package org.terracotta.persistence.sanskrit;
 
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class HashUtilsTest {
@@ -31,6 +35,19 @@ public class HashUtilsTest {
     assertEquals("e65287c61b6fa7e061f62f9fe1979a1dde62e447", HashUtils.generateHash("a", "b", "c"));
   }
 
+  @Test
+  public void digest() throws Exception {
+    byte[] digest = HashUtils.generateDigest(ByteBuffer.wrap("a".getBytes(StandardCharsets.UTF_8)), ByteBuffer.wrap("bc".getBytes(StandardCharsets.UTF_8)));
+    assertEquals(HashUtils.DIGEST_LENGTH, digest.length);
+    assertEquals("e65287c61b6fa7e061f62f9fe1979a1dde62e447", HashUtils.toHexText(digest));
+    assertArrayEquals(digest, HashUtils.fromHexText("e65287c61b6fa7e061f62f9fe1979a1dde62e447"));
+  }
+
+  @Test(expected = SanskritException.class)
+  public void invalidHexText() throws Exception {
+    HashUtils.fromHexText("e65287c61b6fa7e061f62f9fe1979a1dde62e44g");
+  }
+
   @Test
   public void multiByteCharacter() {
     assertEquals("f72730c87ac92d97c723605ac7bc33fe16e92255", HashUtils.generateHash("Ɵ"));
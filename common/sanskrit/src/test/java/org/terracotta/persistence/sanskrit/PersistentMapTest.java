@@ -0,0 +1,110 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.persistence.sanskrit;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PersistentMapTest {
+  @Test
+  public void empty() {
+    PersistentMap<String, String> map = PersistentMap.empty();
+    assertEquals(0, map.size());
+    assertNull(map.get("A"));
+    assertSame(map, map.remove("A"));
+  }
+
+  @Test
+  public void putGetRemove() {
+    PersistentMap<String, String> map = PersistentMap.<String, String>empty().put("A", "B").put("C", "D");
+    assertEquals(2, map.size());
+    assertEquals("B", map.get("A"));
+    assertEquals("D", map.get("C"));
+
+    PersistentMap<String, String> replaced = map.put("A", "E");
+    assertEquals(2, replaced.size());
+    assertEquals("E", replaced.get("A"));
+
+    PersistentMap<String, String> removed = replaced.remove("A");
+    assertEquals(1, removed.size());
+    assertNull(removed.get("A"));
+    assertEquals("D", removed.get("C"));
+  }
+
+  @Test
+  public void previousVersionsUnchanged() {
+    PersistentMap<String, String> map1 = PersistentMap.<String, String>empty().put("A", "B");
+    PersistentMap<String, String> map2 = map1.put("A", "C").put("D", "E");
+    PersistentMap<String, String> map3 = map2.remove("A");
+
+    assertEquals(1, map1.size());
+    assertEquals("B", map1.get("A"));
+    assertNull(map1.get("D"));
+    assertEquals("C", map2.get("A"));
+    assertEquals("E", map2.get("D"));
+    assertNull(map3.get("A"));
+  }
+
+  @Test
+  public void sameValueKeepsVersion() {
+    PersistentMap<String, String> map = PersistentMap.<String, String>empty().put("A", "B");
+    assertSame(map, map.put("A", "B"));
+  }
+
+  @Test
+  public void collisions() {
+    // "Aa" and "BB" have the same hash code
+    PersistentMap<String, String> map = PersistentMap.<String, String>empty().put("Aa", "1").put("BB", "2");
+    assertEquals(2, map.size());
+    assertEquals("1", map.get("Aa"));
+    assertEquals("2", map.get("BB"));
+
+    PersistentMap<String, String> removed = map.remove("Aa");
+    assertEquals(1, removed.size());
+    assertNull(removed.get("Aa"));
+    assertEquals("2", removed.get("BB"));
+    assertEquals(0, removed.remove("BB").size());
+  }
+
+  @Test
+  public void matchesHashMap() {
+    Random random = new Random(0);
+    Map<Integer, Integer> expected = new HashMap<>();
+    PersistentMap<Integer, Integer> map = PersistentMap.empty();
+    for (int i = 0; i < 100_000; i++) {
+      int key = random.nextInt(5_000);
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        map = map.remove(key);
+      } else {
+        expected.put(key, i);
+        map = map.put(key, i);
+      }
+    }
+
+    assertEquals(expected.size(), map.size());
+    Map<Integer, Integer> actual = new HashMap<>();
+    map.forEach(actual::put);
+    assertEquals(expected, actual);
+  }
+}
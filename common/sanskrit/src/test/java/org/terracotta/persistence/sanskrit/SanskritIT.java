@@ -21,9 +21,15 @@ import org.junit.rules.TemporaryFolder;
 import org.terracotta.json.ObjectMapperFactory;
 import org.terracotta.persistence.sanskrit.file.FileBasedFilesystemDirectory;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 
 public class SanskritIT {
   private final ObjectMapperSupplier objectMapperSupplier = ObjectMapperSupplier.notVersioned(new ObjectMapperFactory().create());
@@ -55,6 +61,82 @@ public class SanskritIT {
     }
   }
 
+  @Test
+  public void binaryWriteRead() throws Exception {
+    Path root = folder.newFolder().toPath();
+    FilesystemDirectory filesystemDirectory = new FileBasedFilesystemDirectory(root);
+
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier, Duration.ZERO, RecordFormat.BINARY)) {
+      for (int i = 0; i < 100; i++) {
+        sanskrit.setLong("key" + (i % 10), i);
+      }
+    }
+
+    // the log is mapped in memory to be replayed
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      for (int i = 0; i < 10; i++) {
+        assertEquals(Long.valueOf(90 + i), sanskrit.getLong("key" + i));
+      }
+      sanskrit.setString("key0", "value0");
+    }
+
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      assertEquals("value0", sanskrit.getString("key0"));
+    }
+  }
+
+  @Test
+  public void killedBetweenCompactedLogMoveAndNextAppend() throws Exception {
+    Path root = folder.newFolder().toPath();
+
+    Process process = new ProcessBuilder(
+        Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+        "-cp", System.getProperty("java.class.path"),
+        CompactAndHalt.class.getName(), root.toString()
+    ).inheritIO().start();
+    assertEquals(CompactAndHalt.HALTED, process.waitFor());
+
+    assertFalse(Files.exists(root.resolve("compact.log")));
+    FilesystemDirectory filesystemDirectory = new FileBasedFilesystemDirectory(root);
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      for (int i = 0; i < 10; i++) {
+        assertEquals(Long.valueOf(90 + i), sanskrit.getLong("key" + i));
+      }
+      assertNull(sanskrit.getString("next"));
+      sanskrit.setString("next", "value");
+    }
+
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      assertEquals(Long.valueOf(90), sanskrit.getLong("key0"));
+      assertEquals("value", sanskrit.getString("next"));
+    }
+  }
+
+  /**
+   * Compacts the log of the directory given as argument, and halts the JVM once the compacted log is moved in place,
+   * before anything else is appended to it.
+   */
+  public static class CompactAndHalt {
+    static final int HALTED = 42;
+
+    public static void main(String[] args) throws Exception {
+      FilesystemDirectory filesystemDirectory = new FileBasedFilesystemDirectory(Paths.get(args[0])) {
+        @Override
+        public void sync() throws IOException {
+          super.sync();
+          Runtime.getRuntime().halt(HALTED);
+        }
+      };
+
+      Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, ObjectMapperSupplier.notVersioned(new ObjectMapperFactory().create()));
+      for (int i = 0; i < 100; i++) {
+        sanskrit.setLong("key" + (i % 10), i);
+      }
+      sanskrit.compact();
+      sanskrit.setString("next", "value");
+    }
+  }
+
   @Test(expected = SanskritException.class)
   @SuppressWarnings("try")
   public void locking() throws Exception {
@@ -21,14 +21,29 @@ import org.terracotta.json.ObjectMapperFactory;
 import org.terracotta.persistence.sanskrit.change.SanskritChange;
 import org.terracotta.persistence.sanskrit.change.SanskritChangeBuilder;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 import static org.terracotta.persistence.sanskrit.MarkableLineParser.LS;
 
@@ -424,15 +439,18 @@ public class SanskritTest {
 
       sanskrit.setObject("key", object);
 
-      SanskritObjectImpl recoveredObject1 = (SanskritObjectImpl) sanskrit.getObject("key");
-      recoveredObject1.setString("A", "C");
-      SanskritObjectImpl recoveredSubObject1 = (SanskritObjectImpl) recoveredObject1.getObject("D");
-      recoveredSubObject1.setString("F", "H");
+      object.setString("A", "C");
+      subObject.setString("F", "H");
+
+      SanskritObject recoveredObject1 = sanskrit.getObject("key");
+      assertFalse(recoveredObject1 instanceof MutableSanskritObject);
+      assertEquals("B", recoveredObject1.getString("A"));
+      SanskritObject recoveredSubObject1 = recoveredObject1.getObject("D");
+      assertFalse(recoveredSubObject1 instanceof MutableSanskritObject);
+      assertEquals("G", recoveredSubObject1.getString("F"));
 
-      SanskritObjectImpl recoveredObject2 = (SanskritObjectImpl) sanskrit.getObject("key");
-      assertEquals("B", recoveredObject2.getString("A"));
-      SanskritObjectImpl recoveredSubObject2 = (SanskritObjectImpl) recoveredObject2.getObject("D");
-      assertEquals("G", recoveredSubObject2.getString("F"));
+      SanskritObject recoveredObject2 = sanskrit.getObject("key");
+      assertSame(recoveredObject1, recoveredObject2);
 
       assertNull(sanskrit.getObject("unknown"));
       assertNull(recoveredObject1.getObject("unknown"));
@@ -463,6 +481,493 @@ public class SanskritTest {
     }
   }
 
+  @Test
+  public void compactRewritesLogAsSnapshot() throws Exception {
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      SanskritObjectImpl object = new SanskritObjectImpl(objectMapperSupplier);
+      object.setString("subkey", "abc");
+
+      sanskrit.setString("key1", "value1");
+      sanskrit.setString("key1", "value2");
+      sanskrit.setLong("key2", 2L);
+      sanskrit.setString("key3", "value3");
+      sanskrit.removeKey("key3");
+      sanskrit.setObject("key4", object);
+      sanskrit.compact();
+
+      assertEquals(1, countRecords(getFileText("append.log")));
+      assertEquals("value2", sanskrit.getString("key1"));
+    }
+
+    assertNullFiles("compact.log");
+    loadAndAssertState(makeMap("key1", "value2", "key2", 2L, "key4", makeMap("subkey", "abc")), "key3");
+
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      sanskrit.setString("key5", "value5");
+    }
+
+    assertEquals(2, countRecords(getFileText("append.log")));
+    loadAndAssertState(makeMap("key1", "value2", "key2", 2L, "key4", makeMap("subkey", "abc"), "key5", "value5"), "key3");
+  }
+
+  @Test
+  public void compactEmpty() throws Exception {
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      sanskrit.compact();
+    }
+
+    assertNullFiles("append.log", "compact.log", "hash0", "hash1");
+  }
+
+  @Test
+  public void compactAutomatically() throws Exception {
+    try (SanskritImpl sanskrit = new SanskritImpl(filesystemDirectory, objectMapperSupplier, 3)) {
+      for (int i = 0; i < 7; i++) {
+        sanskrit.setLong("key", i);
+      }
+    }
+
+    // 2 compactions, then a snapshot followed by a single record
+    assertEquals(2, countRecords(getFileText("append.log")));
+    loadAndAssertState(makeMap("key", 6L));
+  }
+
+  @Test
+  public void crashBeforeCompactedLogIsMoved() throws Exception {
+    MemoryFilesystemDirectory failingMoveDirectory = new MemoryFilesystemDirectory() {
+      @Override
+      public void move(String source, String target) throws IOException {
+        throw new IOException("crash");
+      }
+    };
+    filesystemDirectory = failingMoveDirectory;
+
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      sanskrit.setString("key1", "value1");
+      sanskrit.setString("key2", "value2");
+      try {
+        sanskrit.compact();
+        fail("Expected SanskritException");
+      } catch (SanskritException e) {
+        // expected
+      }
+    }
+
+    // the full log is still in place
+    assertEquals(2, countRecords(getFileText("append.log")));
+    loadAndAssertState(makeMap("key1", "value1", "key2", "value2"));
+    assertNullFiles("compact.log");
+  }
+
+  @Test
+  public void crashAfterCompactedLogIsMoved() throws Exception {
+    AtomicReference<byte[]> appendLogBeforeMove = new AtomicReference<>();
+    filesystemDirectory = new MemoryFilesystemDirectory() {
+      @Override
+      public void move(String source, String target) throws IOException {
+        appendLogBeforeMove.set(getFileBytes(target));
+        super.move(source, target);
+      }
+
+      @Override
+      public void sync() throws IOException {
+        super.sync();
+        appendLogBeforeMove.set(null);
+      }
+    };
+
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      sanskrit.setString("key1", "value1");
+      sanskrit.setString("key2", "value2");
+      sanskrit.compact();
+      sanskrit.setString("key3", "value3");
+    }
+
+    // crash: a move which was not made durable by syncing the directory is undone
+    byte[] appendLog = appendLogBeforeMove.get();
+    if (appendLog != null) {
+      byte[] compactLog = getFileBytes("append.log");
+      filesystemDirectory.delete("append.log");
+      createFileWithContent("compact.log", compactLog);
+      createFileWithContent("append.log", appendLog);
+    }
+
+    // the change appended after the move is still there
+    loadAndAssertState(makeMap("key1", "value1", "key2", "value2", "key3", "value3"));
+    assertEquals(2, countRecords(getFileText("append.log")));
+  }
+
+  @Test
+  public void writesDuringCompactionAreKeptAfterSnapshot() throws Exception {
+    AtomicReference<Sanskrit> compacted = new AtomicReference<>();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    filesystemDirectory = new MemoryFilesystemDirectory() {
+      @Override
+      public FileData create(String filename, boolean canExist) throws IOException {
+        Sanskrit sanskrit = compacted.getAndSet(null);
+        if (filename.equals("compact.log") && sanskrit != null) {
+          // the snapshot is being written: changes are not blocked and go to the tail
+          try {
+            executor.submit(() -> {
+              sanskrit.setString("key3", "value3");
+              return null;
+            }).get(10, TimeUnit.SECONDS);
+          } catch (Exception e) {
+            throw new AssertionError(e);
+          }
+        }
+        return super.create(filename, canExist);
+      }
+    };
+
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      sanskrit.setString("key1", "value1");
+      sanskrit.setString("key2", "value2");
+      compacted.set(sanskrit);
+      sanskrit.compact();
+      assertEquals("value3", sanskrit.getString("key3"));
+      sanskrit.setString("key4", "value4");
+    } finally {
+      executor.shutdown();
+    }
+
+    assertEquals(3, countRecords(getFileText("append.log")));
+    assertNullFiles("compact.log");
+    loadAndAssertState(makeMap("key1", "value1", "key2", "value2", "key3", "value3", "key4", "value4"));
+  }
+
+  @Test
+  public void snapshotNotChainedToPreviousRecord() throws Exception {
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      sanskrit.setString("key1", "value1");
+      sanskrit.setString("key2", "value2");
+      sanskrit.compact();
+      sanskrit.setString("key3", "value3");
+    }
+
+    String appendLog = getFileText("append.log");
+    String snapshotLine = appendLog.split(LS)[1];
+    filesystemDirectory.delete("append.log");
+    createFileWithContent("append.log", appendLog.replace(snapshotLine, "snapshot: " + NO_MATCH_HASH));
+
+    loadAndFail();
+  }
+
+  @Test
+  public void groupCommit() throws Exception {
+    AtomicInteger hashFileWrites = countHashFileWrites();
+
+    int threads = 8;
+    String hashBeforeBatch;
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier, Duration.ofSeconds(1))) {
+      sanskrit.setLong("key0", 0L);
+      hashBeforeBatch = getFileText("hash0");
+      setLongsConcurrently(sanskrit, threads);
+    }
+
+    // the changes applied within the window were written together, and their hash file holds their count
+    assertEquals(2, hashFileWrites.get());
+    assertEquals(threads + 1, countRecords(getFileText("append.log")));
+    assertNullFiles("hash0");
+    String groupHash = getFileText("hash1");
+    assertEquals(String.format("%08x", threads), groupHash.substring(40));
+
+    Map<String, Object> expected = makeMap();
+    for (int i = 0; i <= threads; i++) {
+      expected.put("key" + i, (long) i);
+    }
+    loadAndAssertState(expected);
+
+    // crash after the hash file of the batch is written but before the previous one is deleted
+    createFileWithContent("hash0", hashBeforeBatch);
+    loadAndAssertState(expected);
+    assertNullFiles("hash0");
+
+    // without their count, the records between the final hashes are not known to be written with the later one
+    createFileWithContent("hash0", hashBeforeBatch);
+    filesystemDirectory.delete("hash1");
+    createFileWithContent("hash1", groupHash.substring(0, 40));
+    loadAndFail();
+  }
+
+  @Test
+  public void noGroupCommitByDefault() throws Exception {
+    AtomicInteger hashFileWrites = countHashFileWrites();
+
+    int threads = 8;
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      sanskrit.setLong("key0", 0L);
+      setLongsConcurrently(sanskrit, threads);
+    }
+
+    // each record is followed by its own final hash, as the versions predating group commit expect
+    assertEquals(threads + 1, hashFileWrites.get());
+    assertEquals(threads + 1, countRecords(getFileText("append.log")));
+
+    Map<String, Object> expected = makeMap();
+    for (int i = 0; i <= threads; i++) {
+      expected.put("key" + i, (long) i);
+    }
+    loadAndAssertState(expected);
+  }
+
+  private AtomicInteger countHashFileWrites() {
+    AtomicInteger hashFileWrites = new AtomicInteger();
+    filesystemDirectory = new MemoryFilesystemDirectory() {
+      @Override
+      public FileData create(String filename, boolean canExist) throws IOException {
+        if (filename.startsWith("hash")) {
+          hashFileWrites.incrementAndGet();
+        }
+        return super.create(filename, canExist);
+      }
+    };
+    return hashFileWrites;
+  }
+
+  private static void setLongsConcurrently(Sanskrit sanskrit, int threads) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<Void>> futures = new ArrayList<>();
+      for (int i = 1; i <= threads; i++) {
+        long value = i;
+        futures.add(executor.submit(() -> {
+          start.await();
+          sanskrit.setLong("key" + value, value);
+          // durable before returning
+          assertEquals(Long.valueOf(value), sanskrit.getLong("key" + value));
+          return null;
+        }));
+      }
+      start.countDown();
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void binaryRecords() throws Exception {
+    try (Sanskrit sanskrit = initBinary()) {
+      SanskritObjectImpl object = new SanskritObjectImpl(objectMapperSupplier);
+      object.setString("subkey", "\u019f");
+      sanskrit.setString("key1", "value1");
+      sanskrit.setLong("key2", 2L);
+      sanskrit.setObject("key3", object);
+      sanskrit.removeKey("key1");
+    }
+
+    assertBinaryAppendLog();
+    assertNullFiles("hash0");
+    Map<String, Object> expected = makeMap("key2", 2L, "key3", makeMap("subkey", "\u019f"));
+    loadAndAssertState(expected, "key1");
+
+    // a binary log stays binary
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      sanskrit.setString("key4", "value4");
+    }
+    assertBinaryAppendLog();
+    expected.put("key4", "value4");
+    loadAndAssertState(expected, "key1");
+  }
+
+  @Test
+  public void binaryCompaction() throws Exception {
+    try (Sanskrit sanskrit = initBinary()) {
+      sanskrit.setString("key1", "value1");
+      sanskrit.setString("key2", "value2");
+      sanskrit.compact();
+      sanskrit.setString("key3", "value3");
+    }
+
+    assertBinaryAppendLog();
+    loadAndAssertState(makeMap("key1", "value1", "key2", "value2", "key3", "value3"));
+  }
+
+  @Test
+  public void textLogUpgradedToBinary() throws Exception {
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      sanskrit.setString("key1", "value1");
+      sanskrit.setString("key2", "value2");
+      sanskrit.removeKey("key2");
+    }
+    assertEquals('f', getFileBytes("append.log")[0]);
+
+    try (Sanskrit sanskrit = initBinary()) {
+      assertBinaryAppendLog();
+      assertEquals("value1", sanskrit.getString("key1"));
+      sanskrit.setString("key3", "value3");
+    }
+
+    assertBinaryAppendLog();
+    assertNullFiles("compact.log");
+    loadAndAssertState(makeMap("key1", "value1", "key3", "value3"), "key2");
+  }
+
+  @Test
+  public void crashBeforeUpgradedLogIsMoved() throws Exception {
+    try (Sanskrit sanskrit = Sanskrit.init(filesystemDirectory, objectMapperSupplier)) {
+      sanskrit.setString("key1", "value1");
+    }
+
+    MemoryFilesystemDirectory textDirectory = filesystemDirectory;
+    filesystemDirectory = new MemoryFilesystemDirectory() {
+      @Override
+      public void move(String source, String target) throws IOException {
+        throw new IOException("crash");
+      }
+    };
+    createFileWithContent("append.log", getFileText(textDirectory, "append.log"));
+    createFileWithContent("hash0", getFileText(textDirectory, "hash0"));
+
+    try {
+      initBinary();
+      fail("Expected SanskritException");
+    } catch (SanskritException e) {
+      // expected
+    }
+
+    // the text log is still in place
+    assertEquals(1, countRecords(getFileText("append.log")));
+    loadAndAssertState(makeMap("key1", "value1"));
+  }
+
+  @Test
+  public void binaryTornWrite() throws Exception {
+    try (Sanskrit sanskrit = initBinary()) {
+      sanskrit.setString("key1", "value1");
+      sanskrit.setString("key2", "value2");
+    }
+    byte[] appendLog = getFileBytes("append.log");
+
+    // the last record is partially written, and the hash files were not updated
+    filesystemDirectory.delete("append.log");
+    createFileWithContent("append.log", Arrays.copyOf(appendLog, appendLog.length + 30));
+    loadAndAssertState(makeMap("key1", "value1", "key2", "value2"));
+    assertEquals(appendLog.length, getFileBytes("append.log").length);
+  }
+
+  @Test
+  public void binaryRecordTampered() throws Exception {
+    try (Sanskrit sanskrit = initBinary()) {
+      sanskrit.setString("key1", "value1");
+      sanskrit.setString("key2", "value2");
+    }
+    byte[] appendLog = getFileBytes("append.log");
+    String text = new String(appendLog, StandardCharsets.ISO_8859_1);
+    int index = text.indexOf("value1");
+    appendLog[index] = 'V';
+
+    filesystemDirectory.delete("append.log");
+    createFileWithContent("append.log", appendLog);
+    loadAndFail();
+  }
+
+  @Test
+  public void binaryReplayOfManyRecords() throws Exception {
+    ByteArrayOutputStream appendLog = new ByteArrayOutputStream();
+    appendLog.write(BinaryRecord.MAGIC);
+    byte[] digest = null;
+    int count = 10_000;
+    for (int i = 0; i < count; i++) {
+      String json = "{\"key" + (i % 100) + "\":" + i + "}";
+      BinaryRecord record = BinaryRecord.change("", "2019-01-01T00:00:00Z", json, digest);
+      appendLog.write(record.encode().array());
+      digest = record.getDigest();
+    }
+    createFileWithContent("append.log", appendLog.toByteArray());
+    createFileWithContent("hash0", HashUtils.generateHash(HashUtils.toHexText(digest)));
+
+    Map<String, Object> expected = makeMap();
+    for (int i = count - 100; i < count; i++) {
+      expected.put("key" + (i % 100), (long) i);
+    }
+    loadAndAssertState(expected);
+
+    // the chain is checked across the batches verified in parallel
+    byte[] bytes = appendLog.toByteArray();
+    String text = new String(bytes, StandardCharsets.ISO_8859_1);
+    bytes[text.indexOf(":5000}")] = '=';
+    filesystemDirectory.delete("append.log");
+    createFileWithContent("append.log", bytes);
+    loadAndFail();
+  }
+
+  @Test
+  public void binaryReplayOverSeveralWindows() throws Exception {
+    // records spanning several replay windows, one of them larger than a window
+    char[] chars = new char[1_500_000];
+    Arrays.fill(chars, 'a');
+    String medium = new String(chars);
+    chars = new char[5_000_000];
+    Arrays.fill(chars, 'b');
+    String large = new String(chars);
+
+    ByteArrayOutputStream appendLog = new ByteArrayOutputStream();
+    appendLog.write(BinaryRecord.MAGIC);
+    byte[] digest = null;
+    Map<String, Object> expected = makeMap();
+    for (int i = 0; i < 8; i++) {
+      String value = i == 5 ? large : medium + i;
+      BinaryRecord record = BinaryRecord.change("", "2019-01-01T00:00:00Z", "{\"key" + i + "\":\"" + value + "\"}", digest);
+      appendLog.write(record.encode().array());
+      digest = record.getDigest();
+      expected.put("key" + i, value);
+    }
+    int length = appendLog.size();
+    // the last record is partially written, and the hash files were not updated
+    BinaryRecord torn = BinaryRecord.change("", "2019-01-01T00:00:00Z", "{\"torn\":\"" + large + "\"}", digest);
+    appendLog.write(torn.encode().array(), 0, 3_000_000);
+    createFileWithContent("append.log", appendLog.toByteArray());
+    createFileWithContent("hash0", HashUtils.generateHash(HashUtils.toHexText(digest)));
+
+    loadAndAssertState(expected, "torn");
+    assertEquals(length, getFileBytes("append.log").length);
+  }
+
+  private Sanskrit initBinary() throws SanskritException {
+    return Sanskrit.init(filesystemDirectory, objectMapperSupplier, Duration.ZERO, RecordFormat.BINARY);
+  }
+
+  private void assertBinaryAppendLog() throws IOException {
+    byte[] appendLog = getFileBytes("append.log");
+    assertArrayEquals(BinaryRecord.MAGIC, Arrays.copyOf(appendLog, BinaryRecord.MAGIC.length));
+  }
+
+  private byte[] getFileBytes(String filename) throws IOException {
+    try (FileData fileData = filesystemDirectory.getFileData(filename)) {
+      ByteBuffer bytes = ByteBuffer.allocate((int) fileData.size());
+      fileData.read(bytes);
+      return bytes.array();
+    }
+  }
+
+  private static String getFileText(FilesystemDirectory directory, String filename) throws IOException {
+    try (FileData fileData = directory.getFileData(filename)) {
+      ByteBuffer bytes = ByteBuffer.allocate((int) fileData.size());
+      fileData.read(bytes);
+      bytes.flip();
+      return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+  }
+
+  private void createFileWithContent(String filename, byte[] content) throws Exception {
+    try (FileData fileData = filesystemDirectory.create(filename, false)) {
+      ByteBuffer bytes = ByteBuffer.wrap(content);
+
+      while (bytes.hasRemaining()) {
+        fileData.write(bytes);
+      }
+    }
+  }
+
+  private static int countRecords(String appendLog) {
+    return appendLog.split(LS + LS).length;
+  }
+
   private static String lines(String... lines) {
     StringBuilder sb = new StringBuilder();
     for (String line : lines) {
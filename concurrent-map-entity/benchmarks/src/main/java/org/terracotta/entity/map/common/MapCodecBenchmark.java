@@ -0,0 +1,132 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the legacy serialization based map codec with the binary one, for a put operation and a value response
+ * round trip.
+ * <p>
+ * Run with {@code java -cp <classpath> org.terracotta.entity.map.common.MapCodecBenchmark}, adding
+ * {@code -prof gc} to the JMH options to compare allocation rates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MapCodecBenchmark {
+
+  @Param({"String", "Long", "ValueWrapper"})
+  public String valueType;
+
+  private PutOperation put;
+  private MapValueResponse response;
+  private byte[] legacyPut;
+  private byte[] binaryPut;
+  private byte[] legacyResponse;
+  private byte[] binaryResponse;
+
+  @Setup
+  public void setUp() throws IOException {
+    Object key;
+    Object value;
+    switch (valueType) {
+      case "String":
+        key = "key-123456";
+        value = "a value of a reasonable size for a clustered map entry";
+        break;
+      case "Long":
+        key = 123456L;
+        value = 654321L;
+        break;
+      case "ValueWrapper":
+        key = new ValueWrapper(42, new byte[32]);
+        value = new ValueWrapper(43, new byte[256]);
+        break;
+      default:
+        throw new AssertionError(valueType);
+    }
+    put = new PutOperation(key, value);
+    response = new MapValueResponse(value);
+    legacyPut = OperationCodec.encode(put);
+    binaryPut = BinaryCodec.encode(put);
+    legacyResponse = ResponseCodec.encode(response);
+    binaryResponse = BinaryCodec.encode(response);
+  }
+
+  @Benchmark
+  public byte[] legacyEncodeOperation() throws IOException {
+    return OperationCodec.encode(put);
+  }
+
+  @Benchmark
+  public byte[] binaryEncodeOperation() throws IOException {
+    return BinaryCodec.encode(put);
+  }
+
+  @Benchmark
+  public MapOperation legacyDecodeOperation() throws IOException {
+    return OperationCodec.decode(legacyPut);
+  }
+
+  @Benchmark
+  public MapOperation binaryDecodeOperation() throws IOException {
+    return BinaryCodec.decodeOperation(binaryPut);
+  }
+
+  @Benchmark
+  public byte[] legacyEncodeResponse() throws IOException {
+    return ResponseCodec.encode(response);
+  }
+
+  @Benchmark
+  public byte[] binaryEncodeResponse() throws IOException {
+    return BinaryCodec.encode(response);
+  }
+
+  @Benchmark
+  public MapResponse legacyDecodeResponse() throws IOException {
+    return ResponseCodec.decode(legacyResponse);
+  }
+
+  @Benchmark
+  public MapResponse binaryDecodeResponse() throws IOException {
+    return BinaryCodec.decodeResponse(binaryResponse);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(MapCodecBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map;
+
+import org.terracotta.entity.InvokeFuture;
+import org.terracotta.entity.map.common.IterateOperation;
+import org.terracotta.entity.map.common.MapOperation;
+import org.terracotta.entity.map.common.MapResponse;
+import org.terracotta.entity.map.common.PageResponse;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Lazily iterates over the server side map, fetching bounded pages on demand. When prefetching, the request for the
+ * next page is sent as soon as a page is received, so that it travels while the current page is being consumed.
+ * <p>
+ * The server keeps no state for the iteration: each page is requested from the position the previous one ended at, so
+ * that the iteration goes on after a failover, however long it was left idle. Nothing is read from the server until the
+ * first call to {@link #hasNext()} or {@link #next()}, and {@link #close() closing} the iterator only stops it.
+ */
+class PagedIterator<T> implements Iterator<T>, AutoCloseable {
+
+  interface Invoker {
+    InvokeFuture<MapResponse> invokeAsync(MapOperation operation);
+  }
+
+  private final Invoker invoker;
+  private final IterateOperation.Kind kind;
+  private final int pageSize;
+  private final boolean prefetch;
+  private final Function<Object, T> decoder;
+  private final Consumer<Object> remover;
+
+  private Iterator<Object> page;
+  private InvokeFuture<MapResponse> nextPage;
+  private long position = IterateOperation.START;
+  private Object lastKey;
+  private boolean closed;
+
+  /**
+   * @param decoder decodes the keys or entries of the pages
+   * @param remover removes the mapping of an encoded key
+   */
+  PagedIterator(Invoker invoker, IterateOperation.Kind kind, int pageSize, boolean prefetch, Function<Object, T> decoder, Consumer<Object> remover) {
+    this.invoker = invoker;
+    this.kind = kind;
+    this.pageSize = pageSize;
+    this.prefetch = prefetch;
+    this.decoder = decoder;
+    this.remover = remover;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (page == null || !page.hasNext()) {
+      if (closed || (nextPage == null && position == IterateOperation.END)) {
+        return false;
+      }
+      fetch();
+    }
+    return true;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Object element = page.next();
+    lastKey = kind == IterateOperation.Kind.ENTRIES ? ((Map.Entry<?, ?>) element).getKey() : element;
+    return decoder.apply(element);
+  }
+
+  /**
+   * Removes the mapping of the key last returned, whatever its value is by now.
+   */
+  @Override
+  public void remove() {
+    if (lastKey == null) {
+      throw new IllegalStateException();
+    }
+    remover.accept(lastKey);
+    lastKey = null;
+  }
+
+  /**
+   * Stops the iteration, which has no more elements afterwards.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    page = null;
+    nextPage = null;
+  }
+
+  private void fetch() {
+    if (nextPage == null) {
+      nextPage = invoker.invokeAsync(new IterateOperation(kind, position, pageSize));
+    }
+    PageResponse response;
+    try {
+      response = (PageResponse) nextPage.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while fetching the next page of the iteration", e);
+    } catch (Exception e) {
+      throw new RuntimeException("Exception while fetching the next page of the iteration", e);
+    } finally {
+      nextPage = null;
+    }
+    position = response.getPosition();
+    page = response.getElements().iterator();
+    if (prefetch && !response.isLast()) {
+      nextPage = invoker.invokeAsync(new IterateOperation(kind, position, pageSize));
+    }
+  }
+}
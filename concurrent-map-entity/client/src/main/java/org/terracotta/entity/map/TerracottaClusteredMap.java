@@ -15,18 +15,24 @@
  */
 package org.terracotta.entity.map;
 
+import org.terracotta.entity.EndpointDelegate;
 import org.terracotta.entity.EntityClientEndpoint;
+import org.terracotta.entity.InvokeFuture;
+import org.terracotta.entity.MessageCodecException;
+import org.terracotta.entity.map.common.BinaryEncodedOperation;
 import org.terracotta.entity.map.common.BooleanResponse;
 import org.terracotta.entity.map.common.ClearOperation;
+import org.terracotta.entity.map.common.ClusteredMapCodec;
 import org.terracotta.entity.map.common.ConcurrentClusteredMap;
 import org.terracotta.entity.map.common.ConditionalRemoveOperation;
 import org.terracotta.entity.map.common.ConditionalReplaceOperation;
 import org.terracotta.entity.map.common.ContainsKeyOperation;
+import org.terracotta.entity.map.common.ContainsKeysOperation;
 import org.terracotta.entity.map.common.ContainsValueOperation;
-import org.terracotta.entity.map.common.EntrySetOperation;
-import org.terracotta.entity.map.common.EntrySetResponse;
+import org.terracotta.entity.map.common.GetAllOperation;
 import org.terracotta.entity.map.common.GetOperation;
-import org.terracotta.entity.map.common.KeySetOperation;
+import org.terracotta.entity.map.common.HandshakeOperation;
+import org.terracotta.entity.map.common.IterateOperation;
 import org.terracotta.entity.map.common.KeySetResponse;
 import org.terracotta.entity.map.common.MapOperation;
 import org.terracotta.entity.map.common.MapResponse;
@@ -35,34 +41,97 @@ import org.terracotta.entity.map.common.PutAllOperation;
 import org.terracotta.entity.map.common.PutIfAbsentOperation;
 import org.terracotta.entity.map.common.PutIfPresentOperation;
 import org.terracotta.entity.map.common.PutOperation;
+import org.terracotta.entity.map.common.RemoveAllOperation;
 import org.terracotta.entity.map.common.RemoveOperation;
 import org.terracotta.entity.map.common.SizeOperation;
 import org.terracotta.entity.map.common.SizeResponse;
 import org.terracotta.entity.map.common.ValueCollectionResponse;
-import org.terracotta.entity.map.common.ValuesOperation;
 
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
 import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static org.terracotta.entity.map.ValueCodecFactory.getCodecForClass;
 
+/**
+ * Client side of a clustered map.
+ * <p>
+ * Iterators over {@link #keySet()}, {@link #values()} and {@link #entrySet()} read the map a page at a time, in the
+ * order of the hashes of the keys. The server keeps no state for them: each page is requested from the hash the
+ * previous one ended at, so that an iteration goes on after a failover, and one abandoned early needs no cleanup. They
+ * implement {@link AutoCloseable}, closing one only stops it.
+ * <p>
+ * Writes carry no time: the active server stamps them with its own clock, and replicates that time to the passive
+ * servers, so that every server computes the same expiry for the written mappings.
+ * <p>
+ * Messages use the binary wire format of {@link ClusteredMapCodec} only once the server acknowledged it, and the
+ * serialization of entity version 1 with servers predating it.
+ */
 @SuppressWarnings("unchecked")
 public class TerracottaClusteredMap<K, V> implements ConcurrentClusteredMap<K, V> {
 
+  public static final int DEFAULT_ITERATION_PAGE_SIZE = 1000;
+
+  // threads waiting on the responses of asynchronous operations
+  private static final int COMPLETER_THREADS = 8;
+
   private final EntityClientEndpoint<MapOperation, MapResponse> endpoint;
 
+  // whether the server acknowledged the binary wire format
+  private final boolean binary;
+
   private Class<K> keyClass;
   private Class<V> valueClass;
   private ValueCodec<K> keyValueCodec;
   private ValueCodec<V> valueValueCodec;
 
+  private volatile int iterationPageSize = DEFAULT_ITERATION_PAGE_SIZE;
+  private volatile boolean iterationPrefetch = true;
+
+  // waits on the responses of asynchronous operations, whose futures are then completed from the common pool
+  private ThreadPoolExecutor completer;
+  private final Set<CompletableFuture<MapResponse>> pending = ConcurrentHashMap.newKeySet();
+  private boolean closed;
+
   public TerracottaClusteredMap(EntityClientEndpoint<MapOperation, MapResponse> endpoint) {
     this.endpoint = endpoint;
+    MapResponse handshake = invokeWithReturn(new HandshakeOperation(ClusteredMapCodec.WIRE_VERSION));
+    // servers predating the binary wire format answer with the size of the map
+    this.binary = handshake instanceof BooleanResponse && ((BooleanResponse) handshake).isTrue();
+    this.endpoint.setDelegate(new EndpointDelegate<MapResponse>() {
+      @Override
+      public void handleMessage(MapResponse messageFromServer) {
+      }
+
+      @Override
+      public byte[] createExtendedReconnectData() {
+        return binary ? ByteBuffer.allocate(Integer.BYTES).putInt(ClusteredMapCodec.WIRE_VERSION).array() : new byte[0];
+      }
+
+      @Override
+      public void didDisconnectUnexpectedly() {
+      }
+    });
   }
 
   @Override
@@ -73,20 +142,55 @@ public class TerracottaClusteredMap<K, V> implements ConcurrentClusteredMap<K, V
     valueValueCodec = getCodecForClass(valueClass);
   }
 
+  /**
+   * Sets the maximum number of elements fetched per round trip when iterating over the key set, values or entry set.
+   * Keys sharing a hash are always fetched together, even if more than the page size.
+   *
+   * @param pageSize the page size
+   */
+  public void setIterationPageSize(int pageSize) {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("Page size must be strictly positive: " + pageSize);
+    }
+    this.iterationPageSize = pageSize;
+  }
+
+  /**
+   * Enables or disables requesting the next page of an iteration while the current one is consumed.
+   *
+   * @param prefetch {@code true} to prefetch pages
+   */
+  public void setIterationPrefetch(boolean prefetch) {
+    this.iterationPrefetch = prefetch;
+  }
+
   @Override
   public void close() {
+    synchronized (this) {
+      closed = true;
+      if (completer != null) {
+        completer.shutdownNow();
+      }
+    }
+    for (CompletableFuture<MapResponse> future : pending) {
+      future.completeExceptionally(new IllegalStateException("Map closed before the operation completed"));
+    }
     this.endpoint.close();
   }
 
   @Override
   public int size() {
-    Long size = ((SizeResponse)invokeWithReturn(new SizeOperation())).getSize();
+    return toSize((SizeResponse) invokeWithReturn(new SizeOperation()));
+  }
+
+  private static int toSize(SizeResponse response) {
+    long size = response.getSize();
     if (size > Integer.MAX_VALUE) {
       return Integer.MAX_VALUE;
     } else if (size <= 0) {
       return 0;
     } else {
-      return size.intValue();
+      return (int) size;
     }
   }
 
@@ -135,14 +239,82 @@ public class TerracottaClusteredMap<K, V> implements ConcurrentClusteredMap<K, V
     return valueValueCodec.decode(mapValueResponse.getValue());
   }
 
+  private void removeEncoded(Object key) {
+    invokeWithReturn(new RemoveOperation(key));
+  }
+
   private MapResponse invokeWithReturn(MapOperation operation) {
+    try {
+      return invokeAsync(operation).get();
+    } catch (Exception e) {
+      throw new RuntimeException("Exception while processing map operation " + operation, e);
+    }
+  }
+
+  /**
+   * Sends {@code operation} right away, and waits on its response from one of the completer threads, so that a slow
+   * operation only holds up the later ones once every completer thread is busy. The returned future is completed from
+   * the common pool, which keeps dependent stages off the completer threads.
+   */
+  private CompletableFuture<MapResponse> invokeCompletable(MapOperation operation) {
+    CompletableFuture<MapResponse> result = new CompletableFuture<MapResponse>();
+    try {
+      InvokeFuture<MapResponse> future = invokeAsync(operation);
+      pending.add(result);
+      result.whenComplete((response, failure) -> pending.remove(result));
+      completer().execute(() -> {
+        MapResponse response;
+        try {
+          response = future.get();
+        } catch (InterruptedException e) {
+          future.interrupt();
+          complete(result, null, new RuntimeException("Interrupted while processing map operation " + operation, e));
+          return;
+        } catch (Exception e) {
+          complete(result, null, new RuntimeException("Exception while processing map operation " + operation, e));
+          return;
+        }
+        complete(result, response, null);
+      });
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  private static void complete(CompletableFuture<MapResponse> result, MapResponse response, Throwable failure) {
+    ForkJoinPool.commonPool().execute(() -> {
+      if (failure == null) {
+        result.complete(response);
+      } else {
+        result.completeExceptionally(failure);
+      }
+    });
+  }
+
+  private synchronized ThreadPoolExecutor completer() {
+    if (closed) {
+      throw new IllegalStateException("Map closed");
+    }
+    if (completer == null) {
+      AtomicInteger threads = new AtomicInteger();
+      completer = new ThreadPoolExecutor(COMPLETER_THREADS, COMPLETER_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+        Thread thread = new Thread(r, "clustered-map-completer-" + threads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      completer.allowCoreThreadTimeOut(true);
+    }
+    return completer;
+  }
+
+  private InvokeFuture<MapResponse> invokeAsync(MapOperation operation) {
     try {
       return endpoint.beginInvoke()
-          .message(operation)
+          .message(binary ? new BinaryEncodedOperation(operation) : operation)
           .replicate(operation.operationType().replicate())
-          .invoke()
-          .get();
-    } catch (Exception e) {
+          .invoke();
+    } catch (MessageCodecException e) {
       throw new RuntimeException("Exception while processing map operation " + operation, e);
     }
   }
@@ -163,32 +335,135 @@ public class TerracottaClusteredMap<K, V> implements ConcurrentClusteredMap<K, V
 
   @Override
   public Set<K> keySet() {
-    Set<K> result = new HashSet<K>();
-    KeySetResponse keySetResponse = (KeySetResponse) invokeWithReturn(new KeySetOperation());
-    for (Object o : keySetResponse.getKeySet()) {
-      result.add(keyValueCodec.decode(o));
-    }
-    return result;
+    return new AbstractSet<K>() {
+      @Override
+      public Iterator<K> iterator() {
+        return new PagedIterator<K>(TerracottaClusteredMap.this::invokeAsync, IterateOperation.Kind.KEYS, iterationPageSize, iterationPrefetch, keyValueCodec::decode, TerracottaClusteredMap.this::removeEncoded);
+      }
+
+      @Override
+      public Spliterator<K> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.CONCURRENT | Spliterator.DISTINCT | Spliterator.NONNULL);
+      }
+
+      @Override
+      public Stream<K> stream() {
+        return closingStream(iterator(), Spliterator.CONCURRENT | Spliterator.DISTINCT | Spliterator.NONNULL);
+      }
+
+      @Override
+      public int size() {
+        return TerracottaClusteredMap.this.size();
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return containsKey(o);
+      }
+
+      @Override
+      public boolean remove(Object o) {
+        return TerracottaClusteredMap.this.remove(o) != null;
+      }
+
+      @Override
+      public void clear() {
+        TerracottaClusteredMap.this.clear();
+      }
+    };
   }
 
   @Override
   public Collection<V> values() {
-    ArrayList<V> result = new ArrayList<V>();
-    ValueCollectionResponse response = (ValueCollectionResponse) invokeWithReturn(new ValuesOperation());
-    for (Object o : response.getValues()) {
-      result.add(valueValueCodec.decode(o));
-    }
-    return result;
+    return new AbstractCollection<V>() {
+      @Override
+      public Iterator<V> iterator() {
+        // the keys come along, to remove their mappings
+        return new PagedIterator<V>(TerracottaClusteredMap.this::invokeAsync, IterateOperation.Kind.ENTRIES, iterationPageSize, iterationPrefetch,
+            o -> valueValueCodec.decode(((Entry<Object, Object>) o).getValue()), TerracottaClusteredMap.this::removeEncoded);
+      }
+
+      @Override
+      public Spliterator<V> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.CONCURRENT | Spliterator.NONNULL);
+      }
+
+      @Override
+      public Stream<V> stream() {
+        return closingStream(iterator(), Spliterator.CONCURRENT | Spliterator.NONNULL);
+      }
+
+      @Override
+      public int size() {
+        return TerracottaClusteredMap.this.size();
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return containsValue(o);
+      }
+
+      @Override
+      public void clear() {
+        TerracottaClusteredMap.this.clear();
+      }
+    };
   }
 
   @Override
   public Set<Map.Entry<K, V>> entrySet() {
-    HashSet<Entry<K, V>> result = new HashSet<Entry<K, V>>();
-    EntrySetResponse response = (EntrySetResponse) invokeWithReturn(new EntrySetOperation());
-    for (Entry<Object, Object> entry : response.getEntrySet()) {
-      result.add(new AbstractMap.SimpleEntry<K, V > (keyValueCodec.decode(entry.getKey()), valueValueCodec.decode(entry.getValue())));
-    }
-    return result;
+    return new AbstractSet<Entry<K, V>>() {
+      @Override
+      public Iterator<Entry<K, V>> iterator() {
+        return new PagedIterator<Entry<K, V>>(TerracottaClusteredMap.this::invokeAsync, IterateOperation.Kind.ENTRIES, iterationPageSize, iterationPrefetch, o -> {
+          Entry<Object, Object> entry = (Entry<Object, Object>) o;
+          return new AbstractMap.SimpleEntry<K, V>(keyValueCodec.decode(entry.getKey()), valueValueCodec.decode(entry.getValue()));
+        }, TerracottaClusteredMap.this::removeEncoded);
+      }
+
+      @Override
+      public Spliterator<Entry<K, V>> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.CONCURRENT | Spliterator.DISTINCT | Spliterator.NONNULL);
+      }
+
+      @Override
+      public Stream<Entry<K, V>> stream() {
+        return closingStream(iterator(), Spliterator.CONCURRENT | Spliterator.DISTINCT | Spliterator.NONNULL);
+      }
+
+      @Override
+      public int size() {
+        return TerracottaClusteredMap.this.size();
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        if (!(o instanceof Entry)) {
+          return false;
+        }
+        Entry<?, ?> entry = (Entry<?, ?>) o;
+        V value = get(entry.getKey());
+        return value != null && value.equals(entry.getValue());
+      }
+
+      @Override
+      public boolean remove(Object o) {
+        if (!(o instanceof Entry)) {
+          return false;
+        }
+        Entry<?, ?> entry = (Entry<?, ?>) o;
+        return TerracottaClusteredMap.this.remove(entry.getKey(), entry.getValue());
+      }
+
+      @Override
+      public void clear() {
+        TerracottaClusteredMap.this.clear();
+      }
+    };
+  }
+
+  private static <T> Stream<T> closingStream(Iterator<T> iterator, int characteristics) {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, characteristics), false).onClose(((PagedIterator<T>) iterator)::close);
   }
 
   @Override
@@ -221,4 +496,134 @@ public class TerracottaClusteredMap<K, V> implements ConcurrentClusteredMap<K, V
     MapValueResponse response = (MapValueResponse) invokeWithReturn(operation);
     return valueValueCodec.decode(response.getValue());
   }
+
+  @Override
+  public Map<K, V> getAll(Collection<? extends K> keys) {
+    List<K> keyList = new ArrayList<K>(keys);
+    return toMap(keyList, (ValueCollectionResponse) invokeWithReturn(new GetAllOperation(encodeKeys(keyList))));
+  }
+
+  @Override
+  public Map<K, V> removeAll(Collection<? extends K> keys) {
+    List<K> keyList = new ArrayList<K>(keys);
+    return toMap(keyList, (ValueCollectionResponse) invokeWithReturn(new RemoveAllOperation(encodeKeys(keyList))));
+  }
+
+  @Override
+  public Set<K> containsKeys(Collection<? extends K> keys) {
+    return toKeySet((KeySetResponse) invokeWithReturn(new ContainsKeysOperation(encodeKeys(keys))));
+  }
+
+  private List<Object> encodeKeys(Collection<? extends K> keys) {
+    List<Object> encoded = new ArrayList<Object>(keys.size());
+    for (K key : keys) {
+      encoded.add(keyValueCodec.encode(key));
+    }
+    return encoded;
+  }
+
+  private Map<K, V> toMap(List<K> keys, ValueCollectionResponse response) {
+    Map<K, V> result = new HashMap<K, V>();
+    Iterator<K> keyIterator = keys.iterator();
+    for (Object value : response.getValues()) {
+      K key = keyIterator.next();
+      if (value != null) {
+        result.put(key, valueValueCodec.decode(value));
+      }
+    }
+    return result;
+  }
+
+  private Set<K> toKeySet(KeySetResponse response) {
+    Set<K> result = new HashSet<K>();
+    for (Object key : response.getKeySet()) {
+      result.add(keyValueCodec.decode(key));
+    }
+    return result;
+  }
+
+  private V toValue(MapResponse response) {
+    return valueValueCodec.decode(((MapValueResponse) response).getValue());
+  }
+
+  private static Boolean toBoolean(MapResponse response) {
+    return ((BooleanResponse) response).isTrue();
+  }
+
+  @Override
+  public CompletableFuture<V> getAsync(K key) {
+    return invokeCompletable(new GetOperation(keyValueCodec.encode(key))).thenApply(this::toValue);
+  }
+
+  @Override
+  public CompletableFuture<V> putAsync(K key, V value) {
+    return invokeCompletable(new PutOperation(keyValueCodec.encode(key), valueValueCodec.encode(value))).thenApply(this::toValue);
+  }
+
+  @Override
+  public CompletableFuture<V> removeAsync(K key) {
+    return invokeCompletable(new RemoveOperation(keyValueCodec.encode(key))).thenApply(this::toValue);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> removeAsync(K key, V value) {
+    return invokeCompletable(new ConditionalRemoveOperation(keyValueCodec.encode(key), valueValueCodec.encode(value))).thenApply(TerracottaClusteredMap::toBoolean);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> containsKeyAsync(K key) {
+    return invokeCompletable(new ContainsKeyOperation(keyValueCodec.encode(key))).thenApply(TerracottaClusteredMap::toBoolean);
+  }
+
+  @Override
+  public CompletableFuture<V> putIfAbsentAsync(K key, V value) {
+    return invokeCompletable(new PutIfAbsentOperation(keyValueCodec.encode(key), valueValueCodec.encode(value))).thenApply(this::toValue);
+  }
+
+  @Override
+  public CompletableFuture<V> replaceAsync(K key, V value) {
+    return invokeCompletable(new PutIfPresentOperation(keyValueCodec.encode(key), valueValueCodec.encode(value))).thenApply(this::toValue);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> replaceAsync(K key, V oldValue, V newValue) {
+    MapOperation operation = new ConditionalReplaceOperation(keyValueCodec.encode(key), valueValueCodec.encode(oldValue), valueValueCodec.encode(newValue));
+    return invokeCompletable(operation).thenApply(TerracottaClusteredMap::toBoolean);
+  }
+
+  @Override
+  public CompletableFuture<Integer> sizeAsync() {
+    return invokeCompletable(new SizeOperation()).thenApply(response -> toSize((SizeResponse) response));
+  }
+
+  @Override
+  public CompletableFuture<Void> putAllAsync(Map<? extends K, ? extends V> m) {
+    HashMap<Object, Object> input = new HashMap<Object, Object>();
+    for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+      input.put(keyValueCodec.encode(entry.getKey()), valueValueCodec.encode(entry.getValue()));
+    }
+    return invokeCompletable(new PutAllOperation(input)).thenApply(response -> null);
+  }
+
+  @Override
+  public CompletableFuture<Void> clearAsync() {
+    return invokeCompletable(new ClearOperation()).thenApply(response -> null);
+  }
+
+  @Override
+  public CompletableFuture<Map<K, V>> getAllAsync(Collection<? extends K> keys) {
+    List<K> keyList = new ArrayList<K>(keys);
+    return invokeCompletable(new GetAllOperation(encodeKeys(keyList))).thenApply(response -> toMap(keyList, (ValueCollectionResponse) response));
+  }
+
+  @Override
+  public CompletableFuture<Map<K, V>> removeAllAsync(Collection<? extends K> keys) {
+    List<K> keyList = new ArrayList<K>(keys);
+    return invokeCompletable(new RemoveAllOperation(encodeKeys(keyList))).thenApply(response -> toMap(keyList, (ValueCollectionResponse) response));
+  }
+
+  @Override
+  public CompletableFuture<Set<K>> containsKeysAsync(Collection<? extends K> keys) {
+    return invokeCompletable(new ContainsKeysOperation(encodeKeys(keys))).thenApply(response -> toKeySet((KeySetResponse) response));
+  }
 }
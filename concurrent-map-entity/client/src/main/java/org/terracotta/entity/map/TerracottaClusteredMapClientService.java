@@ -20,24 +20,28 @@ import org.terracotta.entity.EntityClientService;
 import org.terracotta.entity.MessageCodec;
 import org.terracotta.entity.map.common.ClusteredMapCodec;
 import org.terracotta.entity.map.common.ConcurrentClusteredMap;
+import org.terracotta.entity.map.common.ConcurrentClusteredMapConfiguration;
 import org.terracotta.entity.map.common.MapOperation;
 import org.terracotta.entity.map.common.MapResponse;
 
 @SuppressWarnings("rawtypes")
-public class TerracottaClusteredMapClientService implements EntityClientService<ConcurrentClusteredMap, Void, MapOperation, MapResponse, Object> {
+public class TerracottaClusteredMapClientService implements EntityClientService<ConcurrentClusteredMap, ConcurrentClusteredMapConfiguration, MapOperation, MapResponse, Object> {
   @Override
   public boolean handlesEntityType(Class<ConcurrentClusteredMap> cls) {
     return cls == ConcurrentClusteredMap.class;
   }
 
   @Override
-  public byte[] serializeConfiguration(Void configuration) {
-    return new byte[0];
+  public byte[] serializeConfiguration(ConcurrentClusteredMapConfiguration configuration) {
+    if (configuration == null) {
+      return new byte[0];
+    }
+    return configuration.encode();
   }
 
   @Override
-  public Void deserializeConfiguration(byte[] configuration) {
-    return null;
+  public ConcurrentClusteredMapConfiguration deserializeConfiguration(byte[] configuration) {
+    return ConcurrentClusteredMapConfiguration.decode(configuration);
   }
 
   @SuppressWarnings("unchecked")
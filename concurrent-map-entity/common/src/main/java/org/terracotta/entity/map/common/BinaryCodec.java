@@ -0,0 +1,484 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compact binary encoding of {@link MapOperation}s and {@link MapResponse}s.
+ * <p>
+ * A payload starts with the {@link #WIRE_VERSION} byte, followed by the operation or response type ordinal and its
+ * fields. Strings, longs, integers, byte arrays and {@link ValueWrapper}s as well as map entries are written directly;
+ * any other value falls back on Java serialization.
+ */
+class BinaryCodec {
+
+  static final byte WIRE_VERSION = 1;
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte LONG = 2;
+  private static final byte INTEGER = 3;
+  private static final byte BYTES = 4;
+  private static final byte VALUE_WRAPPER = 5;
+  private static final byte SERIALIZED = 6;
+  private static final byte ENTRY = 7;
+
+  private static final IterateOperation.Kind[] ITERATION_KINDS = IterateOperation.Kind.values();
+  private static final MapOperation.Type[] OPERATION_TYPES = MapOperation.Type.values();
+  private static final MapResponse.Type[] RESPONSE_TYPES = MapResponse.Type.values();
+
+  /**
+   * @return whether {@code payload} is in this format rather than the Java serialization of {@link OperationCodec} and
+   * {@link ResponseCodec}, whose streams never start with the {@link #WIRE_VERSION} byte
+   */
+  static boolean isBinary(byte[] payload) {
+    return payload.length > 0 && payload[0] == WIRE_VERSION;
+  }
+
+  static byte[] encode(MapOperation operation) throws IOException {
+    Writer writer = new Writer();
+    writer.putByte(WIRE_VERSION);
+    putOperation(writer, operation);
+    return writer.toByteArray();
+  }
+
+  private static void putOperation(Writer writer, MapOperation operation) throws IOException {
+    writer.putByte((byte) operation.operationType().ordinal());
+    switch (operation.operationType()) {
+      case GET:
+      case REMOVE:
+      case CONTAINS_KEY:
+        writer.putValue(((KeyedOperation) operation).getKey());
+        break;
+      case PUT: {
+        PutOperation put = (PutOperation) operation;
+        writer.putValue(put.getKey());
+        writer.putValue(put.getValue());
+        break;
+      }
+      case PUT_IF_ABSENT: {
+        PutIfAbsentOperation put = (PutIfAbsentOperation) operation;
+        writer.putValue(put.getKey());
+        writer.putValue(put.getValue());
+        break;
+      }
+      case PUT_IF_PRESENT: {
+        PutIfPresentOperation put = (PutIfPresentOperation) operation;
+        writer.putValue(put.getKey());
+        writer.putValue(put.getValue());
+        break;
+      }
+      case CONDITIONAL_REMOVE: {
+        ConditionalRemoveOperation remove = (ConditionalRemoveOperation) operation;
+        writer.putValue(remove.getKey());
+        writer.putValue(remove.getValue());
+        break;
+      }
+      case CONDITIONAL_REPLACE: {
+        ConditionalReplaceOperation replace = (ConditionalReplaceOperation) operation;
+        writer.putValue(replace.getKey());
+        writer.putValue(replace.getOldValue());
+        writer.putValue(replace.getNewValue());
+        break;
+      }
+      case CONTAINS_VALUE:
+        writer.putValue(((ContainsValueOperation) operation).getValue());
+        break;
+      case PUT_ALL: {
+        PutAllOperation putAll = (PutAllOperation) operation;
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> map = (Map<Object, Object>) putAll.getMap();
+        writer.putInt(map.size());
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+          writer.putValue(entry.getKey());
+          writer.putValue(entry.getValue());
+        }
+        break;
+      }
+      case SIZE:
+      case CLEAR:
+      case KEY_SET:
+      case VALUES:
+      case ENTRY_SET:
+        break;
+      case ITERATE: {
+        IterateOperation iterate = (IterateOperation) operation;
+        writer.putByte((byte) iterate.getKind().ordinal());
+        writer.putLong(iterate.getPosition());
+        writer.putInt(iterate.getPageSize());
+        break;
+      }
+      case GET_ALL:
+        writer.putValues(((GetAllOperation) operation).getKeys());
+        break;
+      case REMOVE_ALL:
+        writer.putValues(((RemoveAllOperation) operation).getKeys());
+        break;
+      case CONTAINS_KEYS:
+        writer.putValues(((ContainsKeysOperation) operation).getKeys());
+        break;
+      case EVICT: {
+        EvictOperation evict = (EvictOperation) operation;
+        writer.putValue(evict.getKey());
+        writer.putLong(evict.getVersion());
+        writer.putByte((byte) (evict.isExpired() ? 1 : 0));
+        break;
+      }
+      case REPLICATION: {
+        ReplicationOperation replication = (ReplicationOperation) operation;
+        writer.putLong(replication.getTimestamp());
+        putOperation(writer, replication.getOperation());
+        break;
+      }
+      default:
+        throw new IllegalArgumentException("Unknown map operation type " + operation.operationType());
+    }
+  }
+
+  static MapOperation decodeOperation(byte[] payload) throws IOException {
+    try {
+      return getOperation(header(payload));
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("Truncated or corrupted map operation", e);
+    }
+  }
+
+  private static MapOperation getOperation(ByteBuffer buffer) throws IOException {
+    MapOperation.Type type = OPERATION_TYPES[buffer.get()];
+    switch (type) {
+      case GET:
+        return new GetOperation(getValue(buffer));
+      case REMOVE:
+        return new RemoveOperation(getValue(buffer));
+      case CONTAINS_KEY:
+        return new ContainsKeyOperation(getValue(buffer));
+      case PUT:
+        return new PutOperation(getValue(buffer), getValue(buffer));
+      case PUT_IF_ABSENT:
+        return new PutIfAbsentOperation(getValue(buffer), getValue(buffer));
+      case PUT_IF_PRESENT:
+        return new PutIfPresentOperation(getValue(buffer), getValue(buffer));
+      case CONDITIONAL_REMOVE:
+        return new ConditionalRemoveOperation(getValue(buffer), getValue(buffer));
+      case CONDITIONAL_REPLACE:
+        return new ConditionalReplaceOperation(getValue(buffer), getValue(buffer), getValue(buffer));
+      case CONTAINS_VALUE:
+        return new ContainsValueOperation(getValue(buffer));
+      case PUT_ALL: {
+        int size = buffer.getInt();
+        Map<Object, Object> map = new HashMap<Object, Object>(capacityFor(size));
+        for (int i = 0; i < size; i++) {
+          map.put(getValue(buffer), getValue(buffer));
+        }
+        return new PutAllOperation(map);
+      }
+      case SIZE:
+        return new SizeOperation();
+      case CLEAR:
+        return new ClearOperation();
+      case KEY_SET:
+        return new KeySetOperation();
+      case VALUES:
+        return new ValuesOperation();
+      case ENTRY_SET:
+        return new EntrySetOperation();
+      case ITERATE:
+        return new IterateOperation(ITERATION_KINDS[buffer.get()], buffer.getLong(), buffer.getInt());
+      case GET_ALL:
+        return new GetAllOperation(getValueList(buffer));
+      case REMOVE_ALL:
+        return new RemoveAllOperation(getValueList(buffer));
+      case CONTAINS_KEYS:
+        return new ContainsKeysOperation(getValueList(buffer));
+      case EVICT:
+        return new EvictOperation(getValue(buffer), buffer.getLong(), buffer.get() != 0);
+      case REPLICATION: {
+        long timestamp = buffer.getLong();
+        return new ReplicationOperation(getOperation(buffer), timestamp);
+      }
+      default:
+        throw new IllegalArgumentException("Unknown map operation type " + type);
+    }
+  }
+
+  static byte[] encode(MapResponse response) throws IOException {
+    Writer writer = new Writer();
+    writer.putByte(WIRE_VERSION);
+    writer.putByte((byte) response.responseType().ordinal());
+    switch (response.responseType()) {
+      case NULL:
+        break;
+      case BOOLEAN:
+        writer.putByte(((BooleanResponse) response).isTrue() ? (byte) 1 : (byte) 0);
+        break;
+      case SIZE:
+        writer.putLong(((SizeResponse) response).getSize());
+        break;
+      case MAP_VALUE:
+        writer.putValue(((MapValueResponse) response).getValue());
+        break;
+      case KEY_SET:
+        writer.putValues(((KeySetResponse) response).getKeySet());
+        break;
+      case VALUE_COLLECTION:
+        writer.putValues(((ValueCollectionResponse) response).getValues());
+        break;
+      case ENTRY_SET: {
+        Set<Map.Entry<Object, Object>> entrySet = ((EntrySetResponse) response).getEntrySet();
+        writer.putInt(entrySet.size());
+        for (Map.Entry<Object, Object> entry : entrySet) {
+          writer.putValue(entry.getKey());
+          writer.putValue(entry.getValue());
+        }
+        break;
+      }
+      case PAGE: {
+        PageResponse page = (PageResponse) response;
+        writer.putLong(page.getPosition());
+        writer.putValues(page.getElements());
+        break;
+      }
+      default:
+        throw new IllegalArgumentException("Unknown map response type " + response.responseType());
+    }
+    return writer.toByteArray();
+  }
+
+  static MapResponse decodeResponse(byte[] payload) throws IOException {
+    try {
+      ByteBuffer buffer = header(payload);
+      MapResponse.Type type = RESPONSE_TYPES[buffer.get()];
+      switch (type) {
+        case NULL:
+          return new NullResponse();
+        case BOOLEAN:
+          return new BooleanResponse(buffer.get() != 0);
+        case SIZE:
+          return new SizeResponse(buffer.getLong());
+        case MAP_VALUE:
+          return new MapValueResponse(getValue(buffer));
+        case KEY_SET: {
+          int size = buffer.getInt();
+          Set<Object> keySet = new HashSet<Object>(capacityFor(size));
+          for (int i = 0; i < size; i++) {
+            keySet.add(getValue(buffer));
+          }
+          return new KeySetResponse(keySet);
+        }
+        case VALUE_COLLECTION:
+          return new ValueCollectionResponse(getValueList(buffer));
+        case ENTRY_SET: {
+          int size = buffer.getInt();
+          Set<Map.Entry<Object, Object>> entrySet = new HashSet<Map.Entry<Object, Object>>(capacityFor(size));
+          for (int i = 0; i < size; i++) {
+            entrySet.add(new AbstractMap.SimpleEntry<Object, Object>(getValue(buffer), getValue(buffer)));
+          }
+          return new EntrySetResponse(entrySet);
+        }
+        case PAGE: {
+          long position = buffer.getLong();
+          return new PageResponse(position, getValueList(buffer));
+        }
+        default:
+          throw new IllegalArgumentException("Unknown map response type " + type);
+      }
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("Truncated or corrupted map response", e);
+    }
+  }
+
+  private static ByteBuffer header(byte[] payload) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(payload);
+    byte version = buffer.get();
+    if (version != WIRE_VERSION) {
+      throw new IOException("Unsupported wire version " + version);
+    }
+    return buffer;
+  }
+
+  private static int capacityFor(int size) {
+    return (int) (size / 0.75f) + 1;
+  }
+
+  static byte[] encodeValue(Object value) throws IOException {
+    Writer writer = new Writer();
+    writer.putValue(value);
+    return writer.toByteArray();
+  }
+
+  static Object getValue(ByteBuffer buffer) throws IOException {
+    byte tag = buffer.get();
+    switch (tag) {
+      case NULL:
+        return null;
+      case STRING: {
+        if (buffer.hasArray()) {
+          int length = buffer.getInt();
+          String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+          buffer.position(buffer.position() + length);
+          return string;
+        }
+        return new String(getBytes(buffer), UTF_8);
+      }
+      case LONG:
+        return buffer.getLong();
+      case INTEGER:
+        return buffer.getInt();
+      case BYTES:
+        return getBytes(buffer);
+      case VALUE_WRAPPER: {
+        int hashCode = buffer.getInt();
+        return new ValueWrapper(hashCode, getBytes(buffer));
+      }
+      case ENTRY:
+        return new AbstractMap.SimpleEntry<Object, Object>(getValue(buffer), getValue(buffer));
+      case SERIALIZED: {
+        ObjectInputStream input;
+        if (buffer.hasArray()) {
+          int length = buffer.getInt();
+          input = new ObjectInputStream(new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), length));
+          buffer.position(buffer.position() + length);
+        } else {
+          input = new ObjectInputStream(new ByteArrayInputStream(getBytes(buffer)));
+        }
+        try {
+          return input.readObject();
+        } catch (ClassNotFoundException e) {
+          throw new IOException(e);
+        }
+      }
+      default:
+        throw new IOException("Unknown value tag " + tag);
+    }
+  }
+
+  private static List<Object> getValueList(ByteBuffer buffer) throws IOException {
+    int size = buffer.getInt();
+    List<Object> values = new ArrayList<Object>(size);
+    for (int i = 0; i < size; i++) {
+      values.add(getValue(buffer));
+    }
+    return values;
+  }
+
+  private static byte[] getBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Growable heap buffer; the encoded payload is copied once into an exactly sized array at the end.
+   */
+  private static class Writer {
+    private ByteBuffer buffer = ByteBuffer.allocate(64);
+
+    void putByte(byte value) {
+      ensureRemaining(1);
+      buffer.put(value);
+    }
+
+    void putInt(int value) {
+      ensureRemaining(Integer.BYTES);
+      buffer.putInt(value);
+    }
+
+    void putLong(long value) {
+      ensureRemaining(Long.BYTES);
+      buffer.putLong(value);
+    }
+
+    void putBytes(byte[] bytes) {
+      putInt(bytes.length);
+      ensureRemaining(bytes.length);
+      buffer.put(bytes);
+    }
+
+    void putValues(Collection<Object> values) throws IOException {
+      putInt(values.size());
+      for (Object value : values) {
+        putValue(value);
+      }
+    }
+
+    void putValue(Object value) throws IOException {
+      if (value == null) {
+        putByte(NULL);
+      } else if (value instanceof String) {
+        putByte(STRING);
+        putBytes(((String) value).getBytes(UTF_8));
+      } else if (value instanceof Long) {
+        putByte(LONG);
+        putLong((Long) value);
+      } else if (value instanceof Integer) {
+        putByte(INTEGER);
+        putInt((Integer) value);
+      } else if (value instanceof byte[]) {
+        putByte(BYTES);
+        putBytes((byte[]) value);
+      } else if (value instanceof ValueWrapper) {
+        ValueWrapper wrapper = (ValueWrapper) value;
+        putByte(VALUE_WRAPPER);
+        putInt(wrapper.hashCode());
+        putBytes(wrapper.getValue());
+      } else if (value instanceof Map.Entry) {
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) value;
+        putByte(ENTRY);
+        putValue(entry.getKey());
+        putValue(entry.getValue());
+      } else {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+          output.writeObject(value);
+        }
+        putByte(SERIALIZED);
+        putBytes(bytes.toByteArray());
+      }
+    }
+
+    byte[] toByteArray() {
+      byte[] bytes = new byte[buffer.position()];
+      System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+      return bytes;
+    }
+
+    private void ensureRemaining(int size) {
+      if (buffer.remaining() < size) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+      }
+    }
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Marker requesting an operation to be encoded with the binary wire format, used by the clients that negotiated it
+ * through a {@link HandshakeOperation}, and by the servers for the operations they send to themselves.
+ */
+public class BinaryEncodedOperation implements MapOperation {
+  private final MapOperation operation;
+
+  public BinaryEncodedOperation(MapOperation operation) {
+    this.operation = operation;
+  }
+
+  public MapOperation getOperation() {
+    return operation;
+  }
+
+  @Override
+  public Type operationType() {
+    return operation.operationType();
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    operation.writeTo(output);
+  }
+}
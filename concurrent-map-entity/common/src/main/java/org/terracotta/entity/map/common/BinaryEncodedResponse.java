@@ -0,0 +1,45 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Server side marker requesting a response to be encoded with the binary wire format, used for the clients that
+ * negotiated it through a {@link HandshakeOperation}.
+ */
+public class BinaryEncodedResponse implements MapResponse {
+  private final MapResponse response;
+
+  public BinaryEncodedResponse(MapResponse response) {
+    this.response = response;
+  }
+
+  public MapResponse getResponse() {
+    return response;
+  }
+
+  @Override
+  public Type responseType() {
+    return response.responseType();
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    response.writeTo(output);
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes single keys or values with the binary wire format, for storage outside of the Java heap.
+ */
+public final class BinaryValues {
+
+  private BinaryValues() {
+  }
+
+  public static byte[] encode(Object value) throws IOException {
+    return BinaryCodec.encodeValue(value);
+  }
+
+  /**
+   * Decodes a value starting at the position of the buffer, leaving the buffer positioned right after it.
+   */
+  public static Object decode(ByteBuffer buffer) throws IOException {
+    try {
+      return BinaryCodec.getValue(buffer);
+    } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+      throw new IOException("Truncated or corrupted value", e);
+    }
+  }
+}
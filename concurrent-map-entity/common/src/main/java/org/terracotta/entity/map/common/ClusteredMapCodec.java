@@ -21,11 +21,26 @@ import org.terracotta.entity.MessageCodecException;
 import java.io.IOException;
 
 
+/**
+ * Messages are encoded with the Java serialization spoken by entity version 1, unless wrapped for the compact
+ * {@link BinaryCodec} format: a client wraps its operations in a {@link BinaryEncodedOperation} once the server
+ * acknowledged the {@link HandshakeOperation}, and the server then wraps its responses to that client in a
+ * {@link BinaryEncodedResponse}. Decoding detects the format of each payload, so that clients and servers predating the
+ * binary format keep working with the others.
+ */
 public class ClusteredMapCodec implements MessageCodec<MapOperation, MapResponse> {
 
+  /**
+   * The binary wire format version this codec supports.
+   */
+  public static final int WIRE_VERSION = BinaryCodec.WIRE_VERSION;
+
   @Override
   public byte[] encodeMessage(MapOperation message) throws MessageCodecException {
     try {
+      if (message instanceof BinaryEncodedOperation) {
+        return BinaryCodec.encode(((BinaryEncodedOperation) message).getOperation());
+      }
       return OperationCodec.encode(message);
     } catch (IOException e) {
       throw new MessageCodecException("something wrong happend", e);
@@ -35,6 +50,9 @@ public class ClusteredMapCodec implements MessageCodec<MapOperation, MapResponse
   @Override
   public MapOperation decodeMessage(byte[] payload) throws MessageCodecException {
     try {
+      if (BinaryCodec.isBinary(payload)) {
+        return BinaryCodec.decodeOperation(payload);
+      }
       return OperationCodec.decode(payload);
     } catch (IOException e) {
       throw new MessageCodecException("something wrong happend", e);
@@ -44,6 +62,9 @@ public class ClusteredMapCodec implements MessageCodec<MapOperation, MapResponse
   @Override
   public byte[] encodeResponse(MapResponse response) throws MessageCodecException {
     try {
+      if (response instanceof BinaryEncodedResponse) {
+        return BinaryCodec.encode(((BinaryEncodedResponse) response).getResponse());
+      }
       return ResponseCodec.encode(response);
     } catch (IOException e) {
       throw new MessageCodecException("something wrong happend", e);
@@ -53,6 +74,9 @@ public class ClusteredMapCodec implements MessageCodec<MapOperation, MapResponse
   @Override
   public MapResponse decodeResponse(byte[] payload) throws MessageCodecException {
     try {
+      if (BinaryCodec.isBinary(payload)) {
+        return BinaryCodec.decodeResponse(payload);
+      }
       return ResponseCodec.decode(payload);
     } catch (IOException e) {
       throw new MessageCodecException("something wrong happend", e);
@@ -17,9 +17,18 @@ package org.terracotta.entity.map.common;
 
 import org.terracotta.connection.entity.Entity;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
 
 public interface ConcurrentClusteredMap<K, V> extends ConcurrentMap<K, V>, Entity {
+  /**
+   * The entity version, bumped whenever the messages exchanged with the server change incompatibly, so that
+   * fetching a map from a server of another version fails up front rather than on its first unknown message. The
+   * binary wire format of {@link ClusteredMapCodec} is negotiated per client, and needs no new version.
+   */
   long VERSION = 1;
 
   /**
@@ -29,4 +38,62 @@ public interface ConcurrentClusteredMap<K, V> extends ConcurrentMap<K, V>, Entit
    * @param valueClass the value class
    */
   void setTypes(Class<K> keyClass, Class<V> valueClass);
+
+  /**
+   * Retrieves the mappings of several keys in a single round trip.
+   *
+   * @param keys the keys to look up
+   * @return the mappings of the keys present in the map
+   */
+  Map<K, V> getAll(Collection<? extends K> keys);
+
+  /**
+   * Removes the mappings of several keys in a single round trip.
+   *
+   * @param keys the keys to remove
+   * @return the mappings that were removed
+   */
+  Map<K, V> removeAll(Collection<? extends K> keys);
+
+  /**
+   * Checks the presence of several keys in a single round trip.
+   *
+   * @param keys the keys to check
+   * @return the keys present in the map
+   */
+  Set<K> containsKeys(Collection<? extends K> keys);
+
+  /*
+   * Asynchronous variants: each one sends its request right away and returns without waiting for the response, so that
+   * a single thread can have many operations in flight. Futures are completed as their responses arrive, outside of
+   * the threads waiting on them, and those still pending when the map is closed fail.
+   */
+
+  CompletableFuture<V> getAsync(K key);
+
+  CompletableFuture<V> putAsync(K key, V value);
+
+  CompletableFuture<V> removeAsync(K key);
+
+  CompletableFuture<Boolean> removeAsync(K key, V value);
+
+  CompletableFuture<Boolean> containsKeyAsync(K key);
+
+  CompletableFuture<V> putIfAbsentAsync(K key, V value);
+
+  CompletableFuture<V> replaceAsync(K key, V value);
+
+  CompletableFuture<Boolean> replaceAsync(K key, V oldValue, V newValue);
+
+  CompletableFuture<Integer> sizeAsync();
+
+  CompletableFuture<Void> putAllAsync(Map<? extends K, ? extends V> map);
+
+  CompletableFuture<Void> clearAsync();
+
+  CompletableFuture<Map<K, V>> getAllAsync(Collection<? extends K> keys);
+
+  CompletableFuture<Map<K, V>> removeAllAsync(Collection<? extends K> keys);
+
+  CompletableFuture<Set<K>> containsKeysAsync(Collection<? extends K> keys);
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Creation time configuration of a {@link ConcurrentClusteredMap}.
+ * <p>
+ * The concurrency is the number of stripes the key space is split into on the server: operations on keys belonging to
+ * different stripes can be executed in parallel, and each stripe is synchronized to passives separately.
+ * <p>
+ * When an off-heap resource is named, the server stores the map content in off-heap memory reserved from that
+ * resource instead of on the heap.
+ * <p>
+ * A map can be bounded to a maximum number of entries, beyond which the server evicts the entries least recently
+ * used, as approximated by a CLOCK policy. Entries can also be given a time to live, counted from their last write,
+ * after which they are no longer visible to reads and get removed.
+ */
+public class ConcurrentClusteredMapConfiguration {
+
+  public static final int DEFAULT_CONCURRENCY = 16;
+  public static final long UNBOUNDED = 0L;
+  public static final long NO_EXPIRY = 0L;
+
+  private final int concurrency;
+  private final String offHeapResource;
+  private final long capacity;
+  private final long timeToLiveMillis;
+
+  public ConcurrentClusteredMapConfiguration(int concurrency) {
+    this(concurrency, null);
+  }
+
+  public ConcurrentClusteredMapConfiguration(int concurrency, String offHeapResource) {
+    this(concurrency, offHeapResource, UNBOUNDED, NO_EXPIRY, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param concurrency the number of stripes
+   * @param offHeapResource the off-heap resource backing the map, or {@code null} for an on-heap map
+   * @param capacity the maximum number of entries, or {@link #UNBOUNDED}
+   * @param timeToLive the time to live of entries, or {@link #NO_EXPIRY}
+   * @param unit the unit of {@code timeToLive}
+   */
+  public ConcurrentClusteredMapConfiguration(int concurrency, String offHeapResource, long capacity, long timeToLive, TimeUnit unit) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("Concurrency must be strictly positive: " + concurrency);
+    }
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    if (timeToLive < 0) {
+      throw new IllegalArgumentException("Time to live must be positive: " + timeToLive);
+    }
+    this.concurrency = concurrency;
+    this.offHeapResource = offHeapResource;
+    this.capacity = capacity;
+    this.timeToLiveMillis = unit.toMillis(timeToLive);
+  }
+
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  /**
+   * @return the name of the off-heap resource backing the map, or {@code null} for an on-heap map
+   */
+  public String getOffHeapResource() {
+    return offHeapResource;
+  }
+
+  /**
+   * @return the maximum number of entries, or {@link #UNBOUNDED}
+   */
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the time to live of entries in milliseconds, or {@link #NO_EXPIRY}
+   */
+  public long getTimeToLiveMillis() {
+    return timeToLiveMillis;
+  }
+
+  public boolean isEvicting() {
+    return capacity != UNBOUNDED || timeToLiveMillis != NO_EXPIRY;
+  }
+
+  public byte[] encode() {
+    if (!isEvicting()) {
+      if (offHeapResource == null) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(concurrency).array();
+      }
+      byte[] resource = offHeapResource.getBytes(UTF_8);
+      return ByteBuffer.allocate(Integer.BYTES * 2 + resource.length).putInt(concurrency).putInt(resource.length).put(resource).array();
+    }
+    // the eviction settings trail the resource name, whose length is -1 for an on-heap map
+    byte[] resource = offHeapResource == null ? new byte[0] : offHeapResource.getBytes(UTF_8);
+    return ByteBuffer.allocate(Integer.BYTES * 2 + resource.length + Long.BYTES * 2)
+        .putInt(concurrency)
+        .putInt(offHeapResource == null ? -1 : resource.length).put(resource)
+        .putLong(capacity).putLong(timeToLiveMillis)
+        .array();
+  }
+
+  /**
+   * Decodes a configuration, falling back on the defaults for the empty configuration sent by older clients.
+   */
+  public static ConcurrentClusteredMapConfiguration decode(byte[] configuration) {
+    if (configuration == null || configuration.length == 0) {
+      return new ConcurrentClusteredMapConfiguration(DEFAULT_CONCURRENCY);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(configuration);
+    int concurrency = buffer.getInt();
+    if (!buffer.hasRemaining()) {
+      return new ConcurrentClusteredMapConfiguration(concurrency);
+    }
+    int length = buffer.getInt();
+    String offHeapResource = null;
+    if (length >= 0) {
+      byte[] resource = new byte[length];
+      buffer.get(resource);
+      offHeapResource = new String(resource, UTF_8);
+    }
+    if (!buffer.hasRemaining()) {
+      return new ConcurrentClusteredMapConfiguration(concurrency, offHeapResource);
+    }
+    long capacity = buffer.getLong();
+    long timeToLiveMillis = buffer.getLong();
+    return new ConcurrentClusteredMapConfiguration(concurrency, offHeapResource, capacity, timeToLiveMillis, TimeUnit.MILLISECONDS);
+  }
+}
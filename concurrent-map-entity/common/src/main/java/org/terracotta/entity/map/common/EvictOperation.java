@@ -0,0 +1,74 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Removes a mapping the active server decided to evict, or found expired.
+ * <p>
+ * This operation is only ever sent by the active entity to itself, so that the removal is replicated to passives in the
+ * same order as the client operations on the same key. It only removes the mapping if it is still at the version the
+ * decision was made on: any write since then, even of an equal value, keeps it.
+ */
+public class EvictOperation implements KeyedOperation {
+  private final Object key;
+  private final long version;
+  private final boolean expired;
+
+  public EvictOperation(Object key, long version, boolean expired) {
+    this.key = key;
+    this.version = version;
+    this.expired = expired;
+  }
+
+  @Override
+  public Object getKey() {
+    return key;
+  }
+
+  /**
+   * @return the version of the mapping to remove
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return {@code true} if the mapping outlived its time to live, {@code false} if it is evicted to honor the capacity
+   */
+  public boolean isExpired() {
+    return expired;
+  }
+
+  @Override
+  public Type operationType() {
+    return Type.EVICT;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    PrimitiveCodec.writeTo(output, key);
+    output.writeLong(version);
+    output.writeBoolean(expired);
+  }
+
+  static EvictOperation readFrom(DataInput dataInput) throws IOException {
+    return new EvictOperation(PrimitiveCodec.readFrom(dataInput), dataInput.readLong(), dataInput.readBoolean());
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Sent by a client right after fetching the map to announce the binary wire format it understands. It is always encoded
+ * with the serialization format of entity version 1, as a {@link SizeOperation} followed by the wire version: servers
+ * predating the binary format ignore the version and answer with a {@link SizeResponse}, the others acknowledge the
+ * format with a {@link BooleanResponse}.
+ */
+public class HandshakeOperation implements MapOperation {
+  private final int wireVersion;
+
+  public HandshakeOperation(int wireVersion) {
+    this.wireVersion = wireVersion;
+  }
+
+  public int getWireVersion() {
+    return wireVersion;
+  }
+
+  @Override
+  public Type operationType() {
+    return Type.HANDSHAKE;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    output.writeInt(wireVersion);
+  }
+
+  static HandshakeOperation readFrom(DataInput input) throws IOException {
+    return new HandshakeOperation(input.readInt());
+  }
+}
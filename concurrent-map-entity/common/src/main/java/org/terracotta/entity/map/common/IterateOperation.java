@@ -0,0 +1,83 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Requests a page of an iteration over the map. The mappings are read in the order of the hashes of their keys: the
+ * first page is requested from the {@link #START} position, and each following one from the position returned in the
+ * previous {@link PageResponse}, until it is {@link #END}. The server keeps no state between pages, so that an iteration
+ * resumes wherever it stopped, even on another server after a failover.
+ */
+public class IterateOperation implements MapOperation {
+
+  public static final long START = 0L;
+  public static final long END = 1L << Integer.SIZE;
+
+  public enum Kind {
+    KEYS,
+    ENTRIES
+  }
+
+  private static final Kind[] KINDS = Kind.values();
+
+  private final Kind kind;
+  private final long position;
+  private final int pageSize;
+
+  public IterateOperation(Kind kind, long position, int pageSize) {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("Page size must be strictly positive: " + pageSize);
+    }
+    if (position < START || position > END) {
+      throw new IllegalArgumentException("Position must be in [" + START + ", " + END + "]: " + position);
+    }
+    this.kind = kind;
+    this.position = position;
+    this.pageSize = pageSize;
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public long getPosition() {
+    return position;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  @Override
+  public Type operationType() {
+    return Type.ITERATE;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    output.writeByte(kind.ordinal());
+    output.writeLong(position);
+    output.writeInt(pageSize);
+  }
+
+  static IterateOperation readFrom(DataInput input) throws IOException {
+    return new IterateOperation(KINDS[input.readByte()], input.readLong(), input.readInt());
+  }
+}
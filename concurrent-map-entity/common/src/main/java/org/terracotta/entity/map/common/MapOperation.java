@@ -62,7 +62,27 @@ public interface MapOperation extends EntityMessage {
     PUT_IF_ABSENT,
     PUT_IF_PRESENT,
     CONDITIONAL_REMOVE,
-    CONDITIONAL_REPLACE;
+    CONDITIONAL_REPLACE,
+    ITERATE {
+      @Override
+      public boolean replicate() { return false; }
+    },
+    GET_ALL {
+      @Override
+      public boolean replicate() { return false; }
+    },
+    REMOVE_ALL,
+    CONTAINS_KEYS {
+      @Override
+      public boolean replicate() { return false; }
+    },
+    EVICT,
+    REPLICATION,
+    // never sent as such, see HandshakeOperation
+    HANDSHAKE {
+      @Override
+      public boolean replicate() { return false; }
+    };
 
     public boolean replicate() {
       return true;
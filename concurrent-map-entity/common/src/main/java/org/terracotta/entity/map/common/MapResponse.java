@@ -32,6 +32,7 @@ public interface MapResponse extends EntityResponse {
     KEY_SET,
     VALUE_COLLECTION,
     ENTRY_SET,
+    PAGE,
   }
 
   Type responseType();
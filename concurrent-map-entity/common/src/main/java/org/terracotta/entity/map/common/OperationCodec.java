@@ -17,14 +17,27 @@ package org.terracotta.entity.map.common;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
 
+/**
+ * The Java serialization of the operations, spoken by the clients predating the {@link BinaryCodec} format and by the
+ * ones which could not negotiate it.
+ */
 class OperationCodec {
   public static MapOperation decode(byte[] bytes) throws IOException {
     ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes));
+    MapOperation operation = read(input);
+    if (operation.operationType() == MapOperation.Type.SIZE && input.available() >= Integer.BYTES) {
+      return HandshakeOperation.readFrom(input);
+    }
+    return operation;
+  }
+
+  static MapOperation read(DataInput input) throws IOException {
     byte type = input.readByte();
 
     switch (MapOperation.Type.values()[type]) {
@@ -58,6 +71,18 @@ class OperationCodec {
         return ConditionalRemoveOperation.readFrom(input);
       case CONDITIONAL_REPLACE:
         return ConditionalReplaceOperation.readFrom(input);
+      case ITERATE:
+        return IterateOperation.readFrom(input);
+      case GET_ALL:
+        return GetAllOperation.readFrom(input);
+      case REMOVE_ALL:
+        return RemoveAllOperation.readFrom(input);
+      case CONTAINS_KEYS:
+        return ContainsKeysOperation.readFrom(input);
+      case EVICT:
+        return EvictOperation.readFrom(input);
+      case REPLICATION:
+        return ReplicationOperation.readFrom(input);
       default:
         throw new IllegalArgumentException("Unknown map operation type " + type);
     }
@@ -67,7 +92,12 @@ class OperationCodec {
     ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
     ObjectOutputStream output = new ObjectOutputStream(byteOut);
 
-    output.writeByte(operation.operationType().ordinal());
+    if (operation.operationType() == MapOperation.Type.HANDSHAKE) {
+      // read as a size operation by the servers predating the handshake
+      output.writeByte(MapOperation.Type.SIZE.ordinal());
+    } else {
+      output.writeByte(operation.operationType().ordinal());
+    }
     operation.writeTo(output);
 
     output.close();
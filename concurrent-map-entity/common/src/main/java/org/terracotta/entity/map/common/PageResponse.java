@@ -0,0 +1,64 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A bounded page of keys or entries, along with the position to request the next page from. The position is
+ * {@link IterateOperation#END} once the iteration is complete.
+ */
+public class PageResponse implements MapResponse {
+  private final long position;
+  private final List<Object> elements;
+
+  public PageResponse(long position, List<Object> elements) {
+    this.position = position;
+    this.elements = elements;
+  }
+
+  public long getPosition() {
+    return position;
+  }
+
+  public boolean isLast() {
+    return position == IterateOperation.END;
+  }
+
+  public List<Object> getElements() {
+    return elements;
+  }
+
+  @Override
+  public Type responseType() {
+    return Type.PAGE;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    output.writeLong(position);
+    PrimitiveCodec.writeTo(output, elements);
+  }
+
+  @SuppressWarnings("unchecked")
+  static PageResponse readFrom(DataInput input) throws IOException {
+    long position = input.readLong();
+    return new PageResponse(position, (List<Object>) PrimitiveCodec.readFrom(input));
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Replicates a write the active server applied, along with the time of the active server it was applied at.
+ * <p>
+ * This operation is only ever sent by the active entity to itself, and only runs on passives: the client operations of
+ * a map with a capacity or a time to live are executed on the active alone. Passives then decide on expiry from the
+ * same time as the active did, and never from a client clock.
+ */
+public class ReplicationOperation implements MapOperation {
+  private final MapOperation operation;
+  private final long timestamp;
+
+  public ReplicationOperation(MapOperation operation, long timestamp) {
+    this.operation = operation;
+    this.timestamp = timestamp;
+  }
+
+  /**
+   * @return the client operation to apply
+   */
+  public MapOperation getOperation() {
+    return operation;
+  }
+
+  /**
+   * @return the time the active applied the operation at, in milliseconds since the epoch
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  @Override
+  public Type operationType() {
+    return Type.REPLICATION;
+  }
+
+  @Override
+  public void writeTo(DataOutput output) throws IOException {
+    output.writeLong(timestamp);
+    output.writeByte(operation.operationType().ordinal());
+    operation.writeTo(output);
+  }
+
+  static ReplicationOperation readFrom(DataInput dataInput) throws IOException {
+    long timestamp = dataInput.readLong();
+    return new ReplicationOperation(OperationCodec.read(dataInput), timestamp);
+  }
+}
@@ -22,6 +22,10 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
 
+/**
+ * The Java serialization of the responses, sent to the clients predating the {@link BinaryCodec} format and to the ones
+ * which could not negotiate it.
+ */
 class ResponseCodec {
   public static MapResponse decode(byte[] bytes) throws IOException {
     ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes));
@@ -42,6 +46,8 @@ class ResponseCodec {
         return ValueCollectionResponse.readFrom(input);
       case ENTRY_SET:
         return EntrySetResponse.readFrom(input);
+      case PAGE:
+        return PageResponse.readFrom(input);
       default:
         throw new IllegalArgumentException("Unknown map response type " + type);
     }
@@ -0,0 +1,201 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.common;
+
+import org.junit.Test;
+import org.terracotta.entity.MessageCodecException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ClusteredMapCodecTest {
+
+  private final ClusteredMapCodec codec = new ClusteredMapCodec();
+
+  @Test
+  public void testWrappedOperationsUseBinaryFormat() throws Exception {
+    byte[] payload = codec.encodeMessage(new BinaryEncodedOperation(new PutOperation("key", 42L)));
+    assertThat(payload[0], is(BinaryCodec.WIRE_VERSION));
+
+    PutOperation decoded = (PutOperation) codec.decodeMessage(payload);
+    assertThat(decoded.getKey(), is("key"));
+    assertThat(decoded.getValue(), is(42L));
+  }
+
+  @Test
+  public void testOperationsUseVersion1Format() throws Exception {
+    byte[] payload = codec.encodeMessage(new ConditionalReplaceOperation(1, "old", "new"));
+    assertThat(BinaryCodec.isBinary(payload), is(false));
+
+    ConditionalReplaceOperation decoded = (ConditionalReplaceOperation) OperationCodec.decode(payload);
+    assertThat(decoded.getKey(), is((Object) 1));
+    assertThat(decoded.getOldValue(), is((Object) "old"));
+    assertThat(decoded.getNewValue(), is((Object) "new"));
+  }
+
+  @Test
+  public void testVersion1OperationsAreDecoded() throws Exception {
+    ConditionalReplaceOperation decoded = (ConditionalReplaceOperation) codec.decodeMessage(OperationCodec.encode(new ConditionalReplaceOperation(1, "old", "new")));
+    assertThat(decoded.getKey(), is((Object) 1));
+    assertThat(decoded.getOldValue(), is((Object) "old"));
+    assertThat(decoded.getNewValue(), is((Object) "new"));
+  }
+
+  @Test
+  public void testHandshake() throws Exception {
+    byte[] payload = codec.encodeMessage(new HandshakeOperation(ClusteredMapCodec.WIRE_VERSION));
+    // what servers predating the handshake read
+    assertThat(OperationCodec.read(new ObjectInputStream(new ByteArrayInputStream(payload))), instanceOf(SizeOperation.class));
+
+    HandshakeOperation decoded = (HandshakeOperation) codec.decodeMessage(payload);
+    assertThat(decoded.getWireVersion(), is(ClusteredMapCodec.WIRE_VERSION));
+    assertThat(codec.decodeMessage(codec.encodeMessage(new SizeOperation())), instanceOf(SizeOperation.class));
+  }
+
+  @Test
+  public void testValueTypes() throws Exception {
+    ValueWrapper wrapper = new ValueWrapper(7, new byte[] {1, 2, 3});
+    Object[] values = {null, "\u00e9t\u00e9", 1L, 2, wrapper, Arrays.asList("a", "b")};
+    for (Object value : values) {
+      GetOperation decoded = (GetOperation) decode(new GetOperation(value));
+      assertThat(decoded.getKey(), is(value));
+    }
+    byte[] bytes = (byte[]) ((GetOperation) decode(new GetOperation(new byte[] {4, 5}))).getKey();
+    assertThat(bytes.length, is(2));
+  }
+
+  @Test
+  public void testPutAll() throws Exception {
+    Map<Object, Object> map = new HashMap<Object, Object>();
+    for (long i = 0; i < 100; i++) {
+      map.put(i, Long.toString(i));
+    }
+    PutAllOperation decoded = (PutAllOperation) decode(new PutAllOperation(map));
+    assertThat(decoded.getMap(), is((Object) map));
+  }
+
+  @Test
+  public void testEvict() throws Exception {
+    EvictOperation decoded = (EvictOperation) decode(new EvictOperation("key", 42L, true));
+    assertThat(decoded.getKey(), is((Object) "key"));
+    assertThat(decoded.getVersion(), is(42L));
+    assertThat(decoded.isExpired(), is(true));
+  }
+
+  @Test
+  public void testReplication() throws Exception {
+    ReplicationOperation decoded = (ReplicationOperation) decode(new ReplicationOperation(new PutIfAbsentOperation("key", "value"), 1234L));
+    assertThat(decoded.getTimestamp(), is(1234L));
+    PutIfAbsentOperation operation = (PutIfAbsentOperation) decoded.getOperation();
+    assertThat(operation.getKey(), is((Object) "key"));
+    assertThat(operation.getValue(), is((Object) "value"));
+
+    Map<Object, Object> map = Collections.<Object, Object>singletonMap("key", "value");
+    decoded = (ReplicationOperation) decode(new ReplicationOperation(new PutAllOperation(map), 1234L));
+    assertThat(decoded.getTimestamp(), is(1234L));
+    assertThat(((PutAllOperation) decoded.getOperation()).getMap(), is((Object) map));
+  }
+
+  @Test
+  public void testIteration() throws Exception {
+    IterateOperation decoded = (IterateOperation) decode(new IterateOperation(IterateOperation.Kind.ENTRIES, 0xFFFFFFFFL, 7));
+    assertThat(decoded.getKind(), is(IterateOperation.Kind.ENTRIES));
+    assertThat(decoded.getPosition(), is(0xFFFFFFFFL));
+    assertThat(decoded.getPageSize(), is(7));
+    decoded = (IterateOperation) decode(new IterateOperation(IterateOperation.Kind.KEYS, 42L, 7));
+    assertThat(decoded.getKind(), is(IterateOperation.Kind.KEYS));
+    assertThat(decoded.getPosition(), is(42L));
+
+    PageResponse page = (PageResponse) decode(new PageResponse(IterateOperation.END, Arrays.<Object>asList(1L, 2L)));
+    assertThat(page.isLast(), is(true));
+    assertThat(page.getElements(), is(Arrays.<Object>asList(1L, 2L)));
+    page = (PageResponse) decode(new PageResponse(42L, Collections.emptyList()));
+    assertThat(page.isLast(), is(false));
+    assertThat(page.getPosition(), is(42L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIterationPositionIsBounded() {
+    new IterateOperation(IterateOperation.Kind.KEYS, IterateOperation.END + 1, 7);
+  }
+
+  @Test
+  public void testConfigurationEncoding() throws Exception {
+    ConcurrentClusteredMapConfiguration decoded = ConcurrentClusteredMapConfiguration.decode(new ConcurrentClusteredMapConfiguration(4, "primary").encode());
+    assertThat(decoded.getConcurrency(), is(4));
+    assertThat(decoded.getOffHeapResource(), is("primary"));
+    assertThat(decoded.isEvicting(), is(false));
+
+    decoded = ConcurrentClusteredMapConfiguration.decode(new ConcurrentClusteredMapConfiguration(4, null, 1000, 2, TimeUnit.SECONDS).encode());
+    assertThat(decoded.getOffHeapResource(), nullValue());
+    assertThat(decoded.getCapacity(), is(1000L));
+    assertThat(decoded.getTimeToLiveMillis(), is(2000L));
+  }
+
+  @Test
+  public void testWrappedResponsesUseBinaryFormat() throws Exception {
+    byte[] payload = codec.encodeResponse(new BinaryEncodedResponse(new MapValueResponse("value")));
+    assertThat(payload[0], is(BinaryCodec.WIRE_VERSION));
+    assertThat(((MapValueResponse) codec.decodeResponse(payload)).getValue(), is("value"));
+  }
+
+  @Test
+  public void testResponsesUseVersion1Format() throws Exception {
+    byte[] payload = codec.encodeResponse(new MapValueResponse("value"));
+    assertThat(BinaryCodec.isBinary(payload), is(false));
+    assertThat(((MapValueResponse) ResponseCodec.decode(payload)).getValue(), is("value"));
+    assertThat(((MapValueResponse) codec.decodeResponse(payload)).getValue(), is("value"));
+  }
+
+  @Test(expected = MessageCodecException.class)
+  public void testTruncatedOperationsAreRejected() throws Exception {
+    byte[] payload = codec.encodeMessage(new BinaryEncodedOperation(new PutOperation("key", 42L)));
+    codec.decodeMessage(Arrays.copyOf(payload, payload.length - 1));
+  }
+
+  @Test
+  public void testBinaryResponses() throws Exception {
+    assertThat(decode(new NullResponse()), instanceOf(NullResponse.class));
+    assertThat(((BooleanResponse) decode(new BooleanResponse(true))).isTrue(), is(true));
+    assertThat(((SizeResponse) decode(new SizeResponse(Long.MAX_VALUE))).getSize(), is(Long.MAX_VALUE));
+    assertThat(((MapValueResponse) decode(new MapValueResponse(null))).getValue(), nullValue());
+    assertThat(((KeySetResponse) decode(new KeySetResponse(new HashSet<Object>(Arrays.<Object>asList(1L, 2L))))).getKeySet(), containsInAnyOrder((Object) 1L, 2L));
+    assertThat(((ValueCollectionResponse) decode(new ValueCollectionResponse(Arrays.<Object>asList("a", "b")))).getValues(), containsInAnyOrder((Object) "a", "b"));
+    Map.Entry<Object, Object> entry = new AbstractMap.SimpleEntry<Object, Object>("k", "v");
+    assertThat(((EntrySetResponse) decode(new EntrySetResponse(Collections.singleton(entry)))).getEntrySet(), containsInAnyOrder(entry));
+  }
+
+  private MapOperation decode(MapOperation operation) throws Exception {
+    return codec.decodeMessage(codec.encodeMessage(new BinaryEncodedOperation(operation)));
+  }
+
+  private MapResponse decode(MapResponse response) throws Exception {
+    return codec.decodeResponse(codec.encodeResponse(new BinaryEncodedResponse(response)));
+  }
+}
@@ -19,8 +19,10 @@ import org.junit.Test;
 import org.terracotta.connection.Connection;
 import org.terracotta.connection.ConnectionFactory;
 import org.terracotta.connection.entity.EntityRef;
+import org.terracotta.entity.map.TerracottaClusteredMap;
 import org.terracotta.entity.map.TerracottaClusteredMapClientService;
 import org.terracotta.entity.map.common.ConcurrentClusteredMap;
+import org.terracotta.entity.map.common.ConcurrentClusteredMapConfiguration;
 import org.terracotta.entity.map.server.TerracottaClusteredMapService;
 import org.terracotta.passthrough.PassthroughClusterControl;
 import org.terracotta.passthrough.PassthroughConnection;
@@ -30,10 +32,20 @@ import org.terracotta.passthrough.PassthroughTestHelpers;
 
 import java.io.Serializable;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
@@ -125,6 +137,157 @@ public class ClusteredConcurrentMapPassthroughTest {
     assertThat(clusteredMap.entrySet().size(), is(3));
   }
 
+  @Test
+  public void testBatchOperations() throws Exception {
+    clusteredMap.put(1L, "One");
+    clusteredMap.put(2L, "Two");
+    clusteredMap.put(3L, "Three");
+
+    Map<Long, String> all = clusteredMap.getAll(Arrays.asList(1L, 2L, 4L));
+    assertThat(all.size(), is(2));
+    assertThat(all.get(1L), is("One"));
+    assertThat(all.get(2L), is("Two"));
+
+    assertThat(clusteredMap.containsKeys(Arrays.asList(2L, 3L, 4L)), containsInAnyOrder(2L, 3L));
+
+    Map<Long, String> removed = clusteredMap.removeAll(Arrays.asList(1L, 3L, 5L));
+    assertThat(removed.keySet(), containsInAnyOrder(1L, 3L));
+    assertThat(clusteredMap.size(), is(1));
+  }
+
+  @Test
+  public void testAsyncOperations() throws Exception {
+    List<CompletableFuture<String>> puts = new ArrayList<>();
+    for (long i = 0; i < 100; i++) {
+      puts.add(clusteredMap.putAsync(i, Long.toString(i)));
+    }
+    for (CompletableFuture<String> put : puts) {
+      assertThat(put.get(), nullValue());
+    }
+    assertThat(clusteredMap.sizeAsync().get(), is(100));
+    assertThat(clusteredMap.getAsync(42L).get(), is("42"));
+    assertThat(clusteredMap.replaceAsync(42L, "42", "forty-two").get(), is(true));
+    assertThat(clusteredMap.removeAsync(42L).get(), is("forty-two"));
+    assertThat(clusteredMap.containsKeyAsync(42L).get(), is(false));
+    clusteredMap.clearAsync().get();
+    assertThat(clusteredMap.isEmpty(), is(true));
+  }
+
+  @Test
+  public void testPagedIteration() throws Exception {
+    ((TerracottaClusteredMap) clusteredMap).setIterationPageSize(7);
+    for (long i = 0; i < 100; i++) {
+      clusteredMap.put(i, Long.toString(i));
+    }
+
+    Set<Long> keys = new HashSet<>();
+    for (Long key : clusteredMap.keySet()) {
+      keys.add(key);
+    }
+    assertThat(keys.size(), is(100));
+    assertThat(clusteredMap.values().stream().count(), is(100L));
+    for (Map.Entry<Long, String> entry : clusteredMap.entrySet()) {
+      assertThat(entry.getValue(), is(Long.toString(entry.getKey())));
+    }
+
+    Iterator<Long> iterator = clusteredMap.keySet().iterator();
+    iterator.next();
+    ((TerracottaClusteredMap) clusteredMap).setIterationPrefetch(false);
+    assertThat(clusteredMap.keySet().contains(42L), is(true));
+    assertThat(clusteredMap.keySet().size(), is(100));
+
+    ((AutoCloseable) iterator).close();
+    assertThat(iterator.hasNext(), is(false));
+    // abandoned iterations keep nothing on the server
+    for (int i = 0; i < 100; i++) {
+      clusteredMap.keySet().iterator().next();
+      clusteredMap.values().iterator();
+    }
+    assertThat(clusteredMap.entrySet().stream().count(), is(100L));
+  }
+
+  @Test
+  public void testIteratorRemove() throws Exception {
+    ((TerracottaClusteredMap) clusteredMap).setIterationPageSize(7);
+    for (long i = 0; i < 100; i++) {
+      clusteredMap.put(i, Long.toString(i));
+    }
+
+    for (Iterator<Long> iterator = clusteredMap.keySet().iterator(); iterator.hasNext(); ) {
+      if (iterator.next() % 2 == 0) {
+        iterator.remove();
+      }
+    }
+    assertThat(clusteredMap.size(), is(50));
+    for (Iterator<String> iterator = clusteredMap.values().iterator(); iterator.hasNext(); ) {
+      if (Long.parseLong(iterator.next()) % 3 == 0) {
+        iterator.remove();
+      }
+    }
+    assertThat(clusteredMap.size(), is(33));
+    for (Iterator<Map.Entry<Long, String>> iterator = clusteredMap.entrySet().iterator(); iterator.hasNext(); ) {
+      iterator.next();
+      iterator.remove();
+    }
+    assertThat(clusteredMap.isEmpty(), is(true));
+  }
+
+  @Test
+  public void testWithConfiguredConcurrency() throws Exception {
+    Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
+    EntityRef<ConcurrentClusteredMap, Object, Object> entityRef = connection.getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, "striped-map");
+    entityRef.create(new ConcurrentClusteredMapConfiguration(4));
+    ConcurrentClusteredMap<Long, String> map = entityRef.fetchEntity(null);
+    map.setTypes(Long.class, String.class);
+
+    for (long i = 0; i < 100; i++) {
+      map.put(i, Long.toString(i));
+    }
+    assertThat(map.size(), is(100));
+    for (long i = 0; i < 100; i++) {
+      assertThat(map.get(i), is(Long.toString(i)));
+    }
+    map.clear();
+    assertThat(map.isEmpty(), is(true));
+    map.close();
+  }
+
+  @Test
+  public void testWithCapacity() throws Exception {
+    Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
+    EntityRef<ConcurrentClusteredMap, Object, Object> entityRef = connection.getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, "bounded-map");
+    entityRef.create(new ConcurrentClusteredMapConfiguration(4, null, 10, ConcurrentClusteredMapConfiguration.NO_EXPIRY, TimeUnit.MILLISECONDS));
+    ConcurrentClusteredMap<Long, String> map = entityRef.fetchEntity(null);
+    map.setTypes(Long.class, String.class);
+
+    for (long i = 0; i < 100; i++) {
+      map.put(i, Long.toString(i));
+    }
+    // eviction is approximate, the map may briefly hold a few entries over its capacity
+    assertThat(map.size(), lessThan(20));
+    assertThat(map.get(99L), is("99"));
+    map.close();
+  }
+
+  @Test
+  public void testWithTimeToLive() throws Exception {
+    Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
+    EntityRef<ConcurrentClusteredMap, Object, Object> entityRef = connection.getEntityRef(ConcurrentClusteredMap.class, ConcurrentClusteredMap.VERSION, "expiring-map");
+    entityRef.create(new ConcurrentClusteredMapConfiguration(4, null, ConcurrentClusteredMapConfiguration.UNBOUNDED, 100, TimeUnit.MILLISECONDS));
+    ConcurrentClusteredMap<Long, String> map = entityRef.fetchEntity(null);
+    map.setTypes(Long.class, String.class);
+
+    map.put(1L, "one");
+    assertThat(map.get(1L), is("one"));
+    Thread.sleep(200);
+    assertThat(map.get(1L), nullValue());
+    assertThat(map.containsKey(1L), is(false));
+
+    map.put(1L, "uno");
+    assertThat(map.get(1L), is("uno"));
+    map.close();
+  }
+
   @Test
   public void testWithCustomType() throws Exception {
     Connection connection = ConnectionFactory.connect(URI.create(CLUSTER_URI), new Properties());
@@ -19,45 +19,124 @@ import org.terracotta.entity.ActiveInvokeContext;
 import org.terracotta.entity.ActiveServerEntity;
 import org.terracotta.entity.ClientDescriptor;
 import org.terracotta.entity.ConcurrencyStrategy;
+import org.terracotta.entity.EntityUserException;
+import org.terracotta.entity.ExecutionStrategy;
+import org.terracotta.entity.IEntityMessenger;
+import org.terracotta.entity.MessageCodecException;
 import org.terracotta.entity.PassiveSynchronizationChannel;
+import org.terracotta.entity.StateDumpCollector;
+import org.terracotta.entity.map.common.BinaryEncodedOperation;
+import org.terracotta.entity.map.common.BinaryEncodedResponse;
 import org.terracotta.entity.map.common.BooleanResponse;
+import org.terracotta.entity.map.common.ClusteredMapCodec;
 import org.terracotta.entity.map.common.ConditionalRemoveOperation;
 import org.terracotta.entity.map.common.ConditionalReplaceOperation;
 import org.terracotta.entity.map.common.ContainsKeyOperation;
+import org.terracotta.entity.map.common.ContainsKeysOperation;
 import org.terracotta.entity.map.common.ContainsValueOperation;
 import org.terracotta.entity.map.common.EntrySetResponse;
+import org.terracotta.entity.map.common.EvictOperation;
+import org.terracotta.entity.map.common.GetAllOperation;
 import org.terracotta.entity.map.common.GetOperation;
+import org.terracotta.entity.map.common.HandshakeOperation;
+import org.terracotta.entity.map.common.IterateOperation;
+import org.terracotta.entity.map.common.KeyedOperation;
 import org.terracotta.entity.map.common.KeySetResponse;
 import org.terracotta.entity.map.common.MapOperation;
 import org.terracotta.entity.map.common.MapResponse;
 import org.terracotta.entity.map.common.MapValueResponse;
 import org.terracotta.entity.map.common.NullResponse;
+import org.terracotta.entity.map.common.PageResponse;
 import org.terracotta.entity.map.common.PutAllOperation;
 import org.terracotta.entity.map.common.PutIfAbsentOperation;
 import org.terracotta.entity.map.common.PutIfPresentOperation;
 import org.terracotta.entity.map.common.PutOperation;
+import org.terracotta.entity.map.common.RemoveAllOperation;
 import org.terracotta.entity.map.common.RemoveOperation;
+import org.terracotta.entity.map.common.ReplicationOperation;
 import org.terracotta.entity.map.common.SizeResponse;
 import org.terracotta.entity.map.common.ValueCollectionResponse;
 
+import java.nio.ByteBuffer;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class ActiveTerracottaClusteredMap implements ActiveServerEntity<MapOperation, MapResponse>  {
 
-  private static final int CONCURRENCY_KEY = 42;
+  // mappings read at once from the storage when synchronizing a concurrency key to a passive
+  private static final int SYNC_PAGE_SIZE = 256;
+
+  private final MapConcurrencyStrategy concurrencyStrategy;
 
   // TODO Given the way a passive becomes active - this does not work ...
-  private final ConcurrentMap<Object, Object> map = new ConcurrentHashMap<Object, Object>();
-  
+  private final HashOrderedMap map;
+
+  // applies the writes, also keeping the stamps and the tracker up to date
+  private final MapWriter writer;
+
+  // eviction and expiry, null for an unbounded map without time to live
+  private final MappingStamps stamps;
+  private final EvictionTracker tracker;
+  private final IEntityMessenger<MapOperation, MapResponse> messenger;
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong expirations = new AtomicLong();
+
+  // clients which negotiated the binary wire format
+  private final Set<ClientDescriptor> binaryClients = ConcurrentHashMap.newKeySet();
+
+  public ActiveTerracottaClusteredMap(int concurrency) {
+    this(concurrency, new OnHeapConcurrentMap());
+  }
+
+  ActiveTerracottaClusteredMap(int concurrency, HashOrderedMap map) {
+    this(concurrency, map, null, null, null);
+  }
+
+  /**
+   * Creates a map evicting the keys selected by {@code tracker}. Evictions are applied through messages sent to self
+   * with {@code messenger}, so that passives remove exactly the same mappings, in the same order. Writes are applied at
+   * the time of this server, and reach the passives through {@link ReplicationOperation}s carrying that time.
+   */
+  ActiveTerracottaClusteredMap(int concurrency, HashOrderedMap map, MappingStamps stamps, EvictionTracker tracker, IEntityMessenger<MapOperation, MapResponse> messenger) {
+    this.concurrencyStrategy = new MapConcurrencyStrategy(concurrency);
+    this.map = map;
+    this.stamps = stamps;
+    this.tracker = tracker;
+    this.messenger = messenger;
+    this.writer = new MapWriter(map, stamps, tracker);
+  }
+
+  /**
+   * @return the number of mappings evicted to honor the capacity
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * @return the number of mappings removed because they outlived their time to live
+   */
+  public long getExpirationCount() {
+    return expirations.get();
+  }
+
+  @Override
+  public void addStateTo(StateDumpCollector stateDumpCollector) {
+    stateDumpCollector.addState("size", String.valueOf(map.size()));
+    stateDumpCollector.addState("evictions", String.valueOf(evictions.get()));
+    stateDumpCollector.addState("expirations", String.valueOf(expirations.get()));
+  }
+
   @Override
   public void connected(ClientDescriptor clientDescriptor) {
   }
@@ -65,40 +144,57 @@ public class ActiveTerracottaClusteredMap implements ActiveServerEntity<MapOpera
   @Override
   public ActiveServerEntity.ReconnectHandler startReconnect() {
     return (ClientDescriptor clientDescriptor, byte[] extendedReconnectData)->{
-    // Do nothing.
+      // clients that negotiated the binary wire format send its version back when reconnecting
+      if (extendedReconnectData != null && extendedReconnectData.length >= Integer.BYTES
+          && ByteBuffer.wrap(extendedReconnectData).getInt() >= ClusteredMapCodec.WIRE_VERSION) {
+        binaryClients.add(clientDescriptor);
+      }
     };
   }
 
   @Override
   public void disconnected(ClientDescriptor clientDescriptor) {
+    binaryClients.remove(clientDescriptor);
   }
 
   @Override
-  public MapResponse invokeActive(ActiveInvokeContext<MapResponse> context, MapOperation input) {
+  public MapResponse invokeActive(ActiveInvokeContext<MapResponse> context, MapOperation input) throws EntityUserException {
+    try {
+      MapResponse response = invoke(context, input);
+      // the handshake is acknowledged in the format of entity version 1, and messages sent to self have no client
+      ClientDescriptor client = context.getClientDescriptor();
+      if (input.operationType() != MapOperation.Type.HANDSHAKE && client != null && binaryClients.contains(client)) {
+        return new BinaryEncodedResponse(response);
+      }
+      return response;
+    } catch (StorageFullException e) {
+      throw new EntityUserException(e.getMessage(), e);
+    }
+  }
+
+  private MapResponse invoke(ActiveInvokeContext<MapResponse> context, MapOperation input) {
     MapResponse response;
-    
+    long now = now();
+
     switch (input.operationType()) {
       case PUT: {
-        PutOperation putOperation = (PutOperation) input;
-        Object key = putOperation.getKey();
-        Object old = map.get(key);
-        map.put(key, putOperation.getValue());
-        response = new MapValueResponse(old);
+        PutOperation operation = (PutOperation) input;
+        response = new MapValueResponse(writer.put(operation.getKey(), operation.getValue(), now));
         break;
       }
       case GET: {
         Object key = ((GetOperation) input).getKey();
-        response = new MapValueResponse(map.get(key));
+        response = new MapValueResponse(read(key));
         break;
       }
       case REMOVE: {
         Object key = ((RemoveOperation) input).getKey();
-        response = new MapValueResponse(map.remove(key));
+        response = new MapValueResponse(writer.remove(key, now));
         break;
       }
       case CONTAINS_KEY: {
         Object key = ((ContainsKeyOperation) input).getKey();
-        response = new BooleanResponse(map.containsKey(key));
+        response = new BooleanResponse(read(key) != null);
         break;
       }
       case CONTAINS_VALUE: {
@@ -107,15 +203,16 @@ public class ActiveTerracottaClusteredMap implements ActiveServerEntity<MapOpera
         break;
       }
       case CLEAR: {
-        map.clear();
+        writer.clear();
         // There is no response from the clear.
         response = new NullResponse();
         break;
       }
       case PUT_ALL: {
+        PutAllOperation operation = (PutAllOperation) input;
         @SuppressWarnings("unchecked")
-        Map<Object, Object> newValues = (Map<Object, Object>) ((PutAllOperation)input).getMap();
-        map.putAll(newValues);
+        Map<Object, Object> newValues = (Map<Object, Object>) operation.getMap();
+        writer.putAll(newValues, now);
         // There is no response from a put all.
         response = new NullResponse();
         break;
@@ -145,32 +242,177 @@ public class ActiveTerracottaClusteredMap implements ActiveServerEntity<MapOpera
         break;
       }
       case PUT_IF_ABSENT: {
+        // Conditional operations decide expiry at the time of this server, which is replicated to the passives with them.
         PutIfAbsentOperation operation = (PutIfAbsentOperation) input;
-        response = new MapValueResponse(map.putIfAbsent(operation.getKey(), operation.getValue()));
+        response = new MapValueResponse(writer.putIfAbsent(operation.getKey(), operation.getValue(), now));
         break;
       }
       case PUT_IF_PRESENT: {
         PutIfPresentOperation operation = (PutIfPresentOperation) input;
-        response = new MapValueResponse(map.replace(operation.getKey(), operation.getValue()));
+        response = new MapValueResponse(writer.putIfPresent(operation.getKey(), operation.getValue(), now));
         break;
       }
       case CONDITIONAL_REMOVE: {
         ConditionalRemoveOperation operation = (ConditionalRemoveOperation) input;
-        response = new BooleanResponse(map.remove(operation.getKey(), operation.getValue()));
+        response = new BooleanResponse(writer.remove(operation.getKey(), operation.getValue(), now));
         break;
       }
       case CONDITIONAL_REPLACE: {
         ConditionalReplaceOperation operation = (ConditionalReplaceOperation) input;
-        response = new BooleanResponse(map.replace(operation.getKey(), operation.getOldValue(), operation.getNewValue()));
+        response = new BooleanResponse(writer.replace(operation.getKey(), operation.getOldValue(), operation.getNewValue(), now));
+        break;
+      }
+      case GET_ALL: {
+        List<Object> keys = ((GetAllOperation) input).getKeys();
+        List<Object> values = new ArrayList<Object>(keys.size());
+        for (Object key : keys) {
+          values.add(read(key));
+        }
+        response = new ValueCollectionResponse(values);
+        break;
+      }
+      case REMOVE_ALL: {
+        response = new ValueCollectionResponse(writer.removeAll(((RemoveAllOperation) input).getKeys(), now));
+        break;
+      }
+      case CONTAINS_KEYS: {
+        Set<Object> keySet = new HashSet<Object>();
+        for (Object key : ((ContainsKeysOperation) input).getKeys()) {
+          if (read(key) != null) {
+            keySet.add(key);
+          }
+        }
+        response = new KeySetResponse(keySet);
         break;
       }
+      case ITERATE: {
+        response = nextPage((IterateOperation) input);
+        break;
+      }
+      case EVICT: {
+        evict((EvictOperation) input);
+        // Sent to self, nobody reads the response.
+        return new NullResponse();
+      }
+      case HANDSHAKE: {
+        HandshakeOperation operation = (HandshakeOperation) input;
+        if (operation.getWireVersion() >= ClusteredMapCodec.WIRE_VERSION) {
+          binaryClients.add(context.getClientDescriptor());
+          return new BooleanResponse(true);
+        } else {
+          return new BooleanResponse(false);
+        }
+      }
       default:
         // Unknown message type.
         throw new AssertionError("Unsupported message type: " + input.operationType());
     }
+    if (tracker != null && input.operationType().replicate()) {
+      replicate(input, now);
+      scheduleEvictions();
+    }
     return response;
   }
 
+  private Object read(Object key) {
+    Object value = map.get(key);
+    if (value != null && tracker != null) {
+      if (stamps.isExpired(key, tracker.now())) {
+        // expired: hide it right away, and have it removed everywhere
+        scheduleEviction(key, true);
+        return null;
+      }
+      tracker.accessed(key);
+    }
+    return value;
+  }
+
+  /**
+   * @return the time of this server, which all the expiry decisions are taken at
+   */
+  private long now() {
+    return tracker == null ? MappingStamps.NO_TIMESTAMP : tracker.now();
+  }
+
+  /**
+   * Has the passives apply {@code operation} at {@code timestamp}, as it was applied here. The client operation is not
+   * retired before its replication is.
+   */
+  private void replicate(MapOperation operation, long timestamp) {
+    try {
+      // the operations sent to self only exist since the binary wire format, so every server reading them understands it
+      messenger.messageSelfAndDeferRetirement(operation, new BinaryEncodedOperation(new ReplicationOperation(operation, timestamp)));
+    } catch (MessageCodecException e) {
+      throw new AssertionError("Unable to replicate " + operation.operationType(), e);
+    }
+  }
+
+  private void evict(EvictOperation operation) {
+    if (writer.evict(operation.getKey(), operation.getVersion())) {
+      if (operation.isExpired()) {
+        expirations.incrementAndGet();
+      } else {
+        evictions.incrementAndGet();
+      }
+    } else {
+      // written since it was selected
+      tracker.abandoned(operation.getKey());
+    }
+  }
+
+  private void scheduleEvictions() {
+    for (EvictionTracker.Victim victim : tracker.select(map.size())) {
+      if (victim.getVersion() == MappingStamps.NO_VERSION) {
+        tracker.abandoned(victim.getKey());
+      } else {
+        sendEviction(victim.getKey(), victim.getVersion(), victim.isExpired());
+      }
+    }
+  }
+
+  private void scheduleEviction(Object key, boolean expired) {
+    if (tracker.markPending(key)) {
+      long version = stamps.version(key);
+      if (version == MappingStamps.NO_VERSION) {
+        tracker.abandoned(key);
+      } else {
+        sendEviction(key, version, expired);
+      }
+    }
+  }
+
+  private void sendEviction(Object key, long version, boolean expired) {
+    try {
+      messenger.messageSelf(new BinaryEncodedOperation(new EvictOperation(key, version, expired)));
+    } catch (MessageCodecException e) {
+      // the mapping stays, and gets selected again later
+      tracker.abandoned(key);
+    }
+  }
+
+  /**
+   * Reads the page of the iteration starting at the position requested: the iteration keeps no state here, so that it
+   * goes on from the same position on another active.
+   */
+  private PageResponse nextPage(IterateOperation operation) {
+    List<Map.Entry<Object, Object>> entries = new ArrayList<Map.Entry<Object, Object>>(Math.min(operation.getPageSize(), 1024));
+    long position = map.page(operation.getPosition(), operation.getPageSize(), entries);
+    List<Object> elements = new ArrayList<Object>(entries.size());
+    for (Map.Entry<Object, Object> entry : entries) {
+      switch (operation.getKind()) {
+        case KEYS:
+          elements.add(entry.getKey());
+          break;
+        case ENTRIES:
+          elements.add(new AbstractMap.SimpleEntry<Object, Object>(entry.getKey(), entry.getValue()));
+          break;
+        default:
+          throw new AssertionError("Unsupported iteration kind: " + operation.getKind());
+      }
+    }
+    return new PageResponse(position, elements);
+  }
+
   @Override
   public void createNew() {
   }
@@ -181,28 +423,139 @@ public class ActiveTerracottaClusteredMap implements ActiveServerEntity<MapOpera
 
   @Override
   public void destroy() {
-    map.clear();
+    writer.clear();
   }
 
+  /**
+   * Spreads key-addressed operations over {@code concurrency} stripes, numbered from {@code 1} to {@code concurrency},
+   * based on the hash of the key. Read-only operations spanning several keys run on the universal key, mutative ones
+   * on the management key so that they are ordered with respect to every stripe.
+   */
   public static class MapConcurrencyStrategy implements ConcurrencyStrategy<MapOperation> {
 
+    private final int concurrency;
+
+    public MapConcurrencyStrategy(int concurrency) {
+      if (concurrency < 1) {
+        throw new IllegalArgumentException("Concurrency must be strictly positive: " + concurrency);
+      }
+      this.concurrency = concurrency;
+    }
+
     @Override
     public int concurrencyKey(MapOperation operation) {
-      return CONCURRENCY_KEY;
+      switch (operation.operationType()) {
+        case GET:
+        case PUT:
+        case REMOVE:
+        case CONTAINS_KEY:
+        case PUT_IF_ABSENT:
+        case PUT_IF_PRESENT:
+        case CONDITIONAL_REMOVE:
+        case CONDITIONAL_REPLACE:
+        case EVICT:
+          return concurrencyKeyFor(((KeyedOperation) operation).getKey());
+        case SIZE:
+        case CONTAINS_VALUE:
+        case KEY_SET:
+        case VALUES:
+        case ENTRY_SET:
+        case ITERATE:
+        case GET_ALL:
+        case CONTAINS_KEYS:
+        case HANDSHAKE:
+          return UNIVERSAL_KEY;
+        case CLEAR:
+        case PUT_ALL:
+        case REMOVE_ALL:
+          return MANAGEMENT_KEY;
+        case REPLICATION:
+          return concurrencyKey(((ReplicationOperation) operation).getOperation());
+        default:
+          throw new AssertionError("Unsupported message type: " + operation.operationType());
+      }
+    }
+
+    /**
+     * Each concurrency key covers a range of the unsigned hashes ordering the storage, so that its mappings can be
+     * synchronized by paging through that range only.
+     */
+    int concurrencyKeyFor(Object key) {
+      return 1 + (int) ((Integer.toUnsignedLong(HashOrderedMap.hash(key)) * concurrency) >>> Integer.SIZE);
+    }
+
+    /**
+     * @return the smallest unsigned hash of the keys of {@code concurrencyKey}, which for {@code concurrency + 1} is
+     * {@link HashOrderedMap#END}
+     */
+    long startOf(int concurrencyKey) {
+      return (((long) (concurrencyKey - 1) << Integer.SIZE) + concurrency - 1) / concurrency;
     }
 
     @Override
     public Set<Integer> getKeysForSynchronization() {
-      return Collections.singleton(CONCURRENCY_KEY);
+      Set<Integer> keys = new LinkedHashSet<Integer>();
+      for (int i = 1; i <= concurrency; i++) {
+        keys.add(i);
+      }
+      return keys;
+    }
+  }
+
+  /**
+   * Runs every operation of a map without capacity nor time to live where the client asked for it. The writes to any
+   * other map only run on the active, which replicates them along with its own time as {@link ReplicationOperation}s.
+   */
+  public static class MapExecutionStrategy implements ExecutionStrategy<MapOperation> {
+
+    private final boolean evicting;
+
+    public MapExecutionStrategy(boolean evicting) {
+      this.evicting = evicting;
+    }
+
+    @Override
+    public Location getExecutionLocation(MapOperation operation) {
+      switch (operation.operationType()) {
+        case REPLICATION:
+          return Location.PASSIVE;
+        case EVICT:
+          return Location.BOTH;
+        default:
+          if (!operation.operationType().replicate()) {
+            return Location.ACTIVE;
+          }
+          return evicting ? Location.ACTIVE : Location.BOTH;
+      }
     }
   }
 
   @Override
   public void synchronizeKeyToPassive(PassiveSynchronizationChannel<MapOperation> syncChannel, int concurrencyKey) {
-    if (concurrencyKey != CONCURRENCY_KEY) {
-      throw new IllegalArgumentException("concurrencyKey should only be " + CONCURRENCY_KEY);
+    if (concurrencyKey < 1 || concurrencyKey > concurrencyStrategy.concurrency) {
+      throw new IllegalArgumentException("concurrencyKey should be in [1, " + concurrencyStrategy.concurrency + "]: " + concurrencyKey);
     }
 
-    syncChannel.synchronizeToPassive(new SyncOperation(map));
+    Map<Object, Object> stripe = new HashMap<Object, Object>();
+    Map<Object, MappingStamps.Stamp> stripeStamps = stamps == null ? null : new HashMap<Object, MappingStamps.Stamp>();
+    List<Map.Entry<Object, Object>> page = new ArrayList<Map.Entry<Object, Object>>(SYNC_PAGE_SIZE);
+    long end = concurrencyStrategy.startOf(concurrencyKey + 1);
+    for (long position = concurrencyStrategy.startOf(concurrencyKey); position < end; page.clear()) {
+      position = map.page(position, SYNC_PAGE_SIZE, page);
+      for (Map.Entry<Object, Object> entry : page) {
+        // the last page may run into the next concurrency key
+        if (concurrencyStrategy.concurrencyKeyFor(entry.getKey()) == concurrencyKey) {
+          stripe.put(entry.getKey(), entry.getValue());
+          if (stamps != null) {
+            MappingStamps.Stamp stamp = stamps.get(entry.getKey());
+            if (stamp != null) {
+              stripeStamps.put(entry.getKey(), stamp);
+            }
+          }
+        }
+      }
+    }
+    long lastVersion = stamps == null ? MappingStamps.NO_VERSION : stamps.lastVersion(concurrencyKey);
+    syncChannel.synchronizeToPassive(new SyncOperation(stripe, stripeStamps, concurrencyKey, lastVersion));
   }
 }
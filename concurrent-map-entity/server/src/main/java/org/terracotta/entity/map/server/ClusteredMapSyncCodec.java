@@ -22,7 +22,6 @@ import org.terracotta.entity.map.common.MapOperation;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -44,9 +43,18 @@ class ClusteredMapSyncCodec implements SyncMessageCodec<MapOperation> {
             ByteArrayOutputStream raw = new ByteArrayOutputStream();
             ObjectOutputStream out = new ObjectOutputStream(raw);
             Map<Object, Object> elements = operation.getObjectMap();
+            Map<Object, MappingStamps.Stamp> stamps = operation.getStamps();
+            out.writeBoolean(stamps != null);
+            out.writeLong(operation.getLastVersion());
+            out.writeInt(elements.size());
             for (Map.Entry<Object, Object> next : elements.entrySet()) {
                 out.writeObject(next.getKey());
                 out.writeObject(next.getValue());
+                if (stamps != null) {
+                    MappingStamps.Stamp stamp = stamps.get(next.getKey());
+                    out.writeLong(stamp == null ? MappingStamps.NO_VERSION : stamp.getVersion());
+                    out.writeLong(stamp == null ? Long.MAX_VALUE : stamp.getExpiry());
+                }
             }
             out.close();
             byte[] bytes = raw.toByteArray();
@@ -61,28 +69,27 @@ class ClusteredMapSyncCodec implements SyncMessageCodec<MapOperation> {
         try {
             InputStream is = new ByteArrayInputStream(payload);
             ObjectInputStream dis = new ObjectInputStream(is);
+            boolean stamped = dis.readBoolean();
+            long lastVersion = dis.readLong();
+            int size = dis.readInt();
             Map<Object, Object> map = new HashMap<Object, Object>();
-            Object key = readKey(dis);
-            while (null != key) {
-              Object value = dis.readObject();
-              map.put(key, value);
-              key = readKey(dis);
+            Map<Object, MappingStamps.Stamp> stamps = stamped ? new HashMap<Object, MappingStamps.Stamp>() : null;
+            for (int i = 0; i < size; i++) {
+              Object key = dis.readObject();
+              map.put(key, dis.readObject());
+              if (stamped) {
+                long version = dis.readLong();
+                long expiry = dis.readLong();
+                if (version != MappingStamps.NO_VERSION) {
+                  stamps.put(key, new MappingStamps.Stamp(version, expiry));
+                }
+              }
             }
-            return new SyncOperation(map);
+            return new SyncOperation(map, stamps, concurrencyKey, lastVersion);
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
         } catch (ClassNotFoundException e) {
           throw new RuntimeException(e);
         }
     }
-    
-    private Object readKey(ObjectInputStream objectInputStream) throws ClassNotFoundException, IOException {
-        Object key = null;
-        try {
-            key = objectInputStream.readObject();
-        } catch (EOFException e) {
-            // This means that we have reached the last key-value pair.
-        }
-        return key;
-    }
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks the recency of the keys of a map on the active server, and selects the keys to evict or found expired.
+ * <p>
+ * Recency is approximated with the CLOCK algorithm: every key sits in a ring together with a reference bit set on each
+ * access. Looking for a victim walks the ring, giving a second chance to referenced keys by clearing their bit. This
+ * keeps reads down to a volatile write and avoids any global lock or ordering structure on the access path. Expiry and
+ * versions come from the {@link MappingStamps} of the map.
+ * <p>
+ * The tracker never removes anything itself: the keys it selects are marked pending until the matching
+ * {@link org.terracotta.entity.map.common.EvictOperation} is applied, or abandoned, which keeps them from being selected
+ * twice. Pending keys count as already evicted when sizing the next selection.
+ */
+class EvictionTracker {
+
+  // number of ring steps spent looking for expired keys on each selection
+  private static final int SWEEP_BUDGET = 8;
+
+  private final long capacity;
+  private final MappingStamps stamps;
+  private final LongSupplier clock;
+
+  private final ConcurrentMap<Object, Node> nodes = new ConcurrentHashMap<Object, Node>();
+  private final Queue<Node> ring = new ConcurrentLinkedQueue<Node>();
+  private final AtomicLong pendingCount = new AtomicLong();
+
+  EvictionTracker(long capacity, MappingStamps stamps, LongSupplier clock) {
+    this.capacity = capacity;
+    this.stamps = stamps;
+    this.clock = clock;
+  }
+
+  /**
+   * @return the current time of the active server, for decisions which are not replicated
+   */
+  long now() {
+    return clock.getAsLong();
+  }
+
+  /**
+   * Records a write of {@code key}.
+   */
+  void written(Object key) {
+    nodes.computeIfAbsent(key, k -> {
+      Node node = new Node(k);
+      ring.offer(node);
+      return node;
+    }).referenced = true;
+  }
+
+  /**
+   * Records a read of {@code key}.
+   */
+  void accessed(Object key) {
+    Node node = nodes.get(key);
+    if (node != null) {
+      node.referenced = true;
+    }
+  }
+
+  void removed(Object key) {
+    Node node = nodes.remove(key);
+    if (node != null) {
+      unmarkPending(node);
+    }
+  }
+
+  void cleared() {
+    for (Object key : nodes.keySet()) {
+      removed(key);
+    }
+    ring.clear();
+  }
+
+  /**
+   * Marks {@code key} as pending eviction.
+   *
+   * @return {@code false} if the key is untracked or already pending
+   */
+  boolean markPending(Object key) {
+    Node node = nodes.get(key);
+    return node != null && markPending(node);
+  }
+
+  /**
+   * Makes {@code key} selectable again after its eviction did not go through.
+   */
+  void abandoned(Object key) {
+    Node node = nodes.get(key);
+    if (node != null) {
+      unmarkPending(node);
+    }
+  }
+
+  /**
+   * Walks a bounded section of the ring, collecting the keys to evict so that a map of {@code size} entries gets back
+   * within capacity, as well as the expired keys met on the way. Every returned key is marked pending.
+   * <p>
+   * Selection is incremental: when most keys are referenced, a single call may not find enough victims and the map
+   * stays slightly over capacity until the next one.
+   *
+   * @return the selected keys, each paired with the version of its mapping and whether it expired
+   */
+  List<Victim> select(long size) {
+    long excess = capacity == 0 ? 0 : size - pendingCount.get() - capacity;
+    long budget = Math.max(excess, 0) * 2 + SWEEP_BUDGET;
+    List<Victim> victims = Collections.emptyList();
+    long now = clock.getAsLong();
+    for (long i = 0; i < budget; i++) {
+      Node node = ring.poll();
+      if (node == null) {
+        break;
+      }
+      if (nodes.get(node.key) != node) {
+        // removed, or removed and written again under a new node
+        continue;
+      }
+      ring.offer(node);
+      if (node.pending) {
+        continue;
+      }
+      if (stamps.isExpired(node.key, now)) {
+        if (markPending(node)) {
+          victims = add(victims, new Victim(node.key, stamps.version(node.key), true));
+          excess--;
+        }
+      } else if (excess > 0) {
+        if (node.referenced) {
+          node.referenced = false;
+        } else if (markPending(node)) {
+          victims = add(victims, new Victim(node.key, stamps.version(node.key), false));
+          excess--;
+        }
+      } else if (!stamps.hasTimeToLive()) {
+        break;
+      }
+    }
+    return victims;
+  }
+
+  private boolean markPending(Node node) {
+    if (node.markPending()) {
+      pendingCount.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  private void unmarkPending(Node node) {
+    if (node.unmarkPending()) {
+      pendingCount.decrementAndGet();
+    }
+  }
+
+  private static List<Victim> add(List<Victim> victims, Victim victim) {
+    if (victims.isEmpty()) {
+      victims = new ArrayList<Victim>();
+    }
+    victims.add(victim);
+    return victims;
+  }
+
+  static class Victim {
+    private final Object key;
+    private final long version;
+    private final boolean expired;
+
+    Victim(Object key, long version, boolean expired) {
+      this.key = key;
+      this.version = version;
+      this.expired = expired;
+    }
+
+    Object getKey() {
+      return key;
+    }
+
+    long getVersion() {
+      return version;
+    }
+
+    boolean isExpired() {
+      return expired;
+    }
+  }
+
+  private static class Node {
+    private final Object key;
+    private volatile boolean referenced;
+    private volatile boolean pending;
+
+    Node(Object key) {
+      this.key = key;
+    }
+
+    synchronized boolean markPending() {
+      if (pending) {
+        return false;
+      }
+      pending = true;
+      return true;
+    }
+
+    synchronized boolean unmarkPending() {
+      if (!pending) {
+        return false;
+      }
+      pending = false;
+      return true;
+    }
+  }
+}
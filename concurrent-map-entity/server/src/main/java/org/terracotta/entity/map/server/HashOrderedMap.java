@@ -0,0 +1,177 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.entity.map.common.IterateOperation;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntConsumer;
+
+/**
+ * A {@link ConcurrentMap} which can be read page by page in the order of the unsigned hashes of its keys, from any hash
+ * on. Reading this way keeps no state between pages, so that an iteration can be resumed from the hash it reached on
+ * any server holding the same mappings.
+ * <p>
+ * The iteration is weakly consistent: the mappings present all along are read exactly once, the ones added or removed
+ * in the meantime may or may not be.
+ */
+interface HashOrderedMap extends ConcurrentMap<Object, Object> {
+
+  /**
+   * The position of the smallest unsigned hash, which starts an iteration on the wire.
+   */
+  long START = IterateOperation.START;
+
+  /**
+   * The position past the largest unsigned hash, which also ends an iteration on the wire.
+   */
+  long END = IterateOperation.END;
+
+  /**
+   * The count of slots whose mappings are collected at once while paging.
+   */
+  int RANGE_SLOTS = 64;
+
+  /**
+   * Adds to {@code page}, in hash order, the mappings whose unsigned hash is at least {@code from}: at most
+   * {@code count} of them, unless more share the first hash, since the mappings sharing a hash are never split across
+   * pages.
+   *
+   * @return the hash to read the next page from, or {@link #END} once the last mapping was read
+   */
+  long page(long from, int count, List<Map.Entry<Object, Object>> page);
+
+  /**
+   * The hash ordering the mapping of {@code key}, the same on every server, and spread over the high bits which pick
+   * the segments and slots of the maps. Byte arrays are hashed by content, as they are compared.
+   */
+  static int hash(Object key) {
+    int hash = key instanceof byte[] ? Arrays.hashCode((byte[]) key) : key.hashCode();
+    return hash * 0x9E3779B9;
+  }
+
+  /**
+   * Reads a page out of the table of a segment of a map: a linear probing hash table holding the mappings of the
+   * hashes in {@code [start, end)}, in which a mapping is looked for from the slot indexed by the bits of its hash
+   * following the {@code hashShift} ones picking the segment.
+   * <p>
+   * The slots are scanned by ranges of {@link #RANGE_SLOTS}, the mappings of the slots of a range all preceding the
+   * first free slot from its last one on. A probe never runs for more than the capacity of the table, so that each
+   * slot is looked at once when a range covers the whole table.
+   *
+   * @param read called with the slot of each mapping of the page, in hash order
+   * @return the hash to read the next page from, which is {@code end} once the last mapping of the table was read
+   * @see #page(long, int, List)
+   */
+  static long page(Table table, int hashShift, long start, long end, long from, int count, boolean emptyPage, IntConsumer read) {
+    int capacity = table.capacity();
+    int tableShift = Integer.SIZE - Integer.numberOfTrailingZeros(capacity);
+    long[] candidates = new long[RANGE_SLOTS];
+    int size = 0;
+    long position = from;
+    int first = ((int) from << hashShift) >>> tableShift;
+    while (size < count && position < end) {
+      int last = Math.min(first + RANGE_SLOTS, capacity) - 1;
+      long to = last == capacity - 1 ? end : start + (((long) (last + 1) << tableShift) >>> hashShift);
+      for (int step = 0; step < capacity; step++) {
+        int slot = (first + step) & (capacity - 1);
+        if (table.isFree(slot)) {
+          if (step >= last - first) {
+            break;
+          }
+        } else {
+          int hash = table.hashAt(slot);
+          long unsignedHash = Integer.toUnsignedLong(hash);
+          if (unsignedHash >= position && unsignedHash < to) {
+            if (size == candidates.length) {
+              candidates = Arrays.copyOf(candidates, size * 2);
+            }
+            candidates[size++] = candidate(hash, slot);
+          }
+        }
+      }
+      position = to;
+      first = last + 1;
+    }
+
+    int cut = cut(candidates, size, count, emptyPage);
+    for (int i = 0; i < cut; i++) {
+      read.accept(indexOf(candidates[i]));
+    }
+    return cut < size ? hashOf(candidates[cut]) : position;
+  }
+
+  /**
+   * Sorts candidate mappings, each packed by {@link #candidate(int, int)}, and picks the ones making a page of at most
+   * {@code count} mappings.
+   *
+   * @param emptyPage whether the page holds nothing yet, in which case the candidates sharing the first hash all make
+   *                  it, even more than {@code count} of them
+   * @return how many of the sorted candidates make the page, the first one left out giving the next page
+   */
+  static int cut(long[] candidates, int size, int count, boolean emptyPage) {
+    Arrays.sort(candidates, 0, size);
+    if (size <= count) {
+      return size;
+    }
+    int cut = count;
+    while (cut > 0 && hashOf(candidates[cut]) == hashOf(candidates[cut - 1])) {
+      cut--;
+    }
+    if (cut == 0 && emptyPage) {
+      // all the candidates of the page share a hash
+      cut = count;
+      while (cut < size && hashOf(candidates[cut]) == hashOf(candidates[cut - 1])) {
+        cut++;
+      }
+    }
+    return cut;
+  }
+
+  /**
+   * Packs a mapping with its hash in the high bits, sign flipped so that candidates sort in unsigned hash order, and
+   * its index in the low bits.
+   */
+  static long candidate(int hash, int index) {
+    return (long) (hash ^ Integer.MIN_VALUE) << Integer.SIZE | index;
+  }
+
+  static long hashOf(long candidate) {
+    return Integer.toUnsignedLong((int) (candidate >>> Integer.SIZE) ^ Integer.MIN_VALUE);
+  }
+
+  static int indexOf(long candidate) {
+    return (int) candidate;
+  }
+
+  /**
+   * The slots of the table of a segment, guarded by its lock while paging.
+   */
+  interface Table {
+
+    /**
+     * @return the count of slots of the table, a power of two
+     */
+    int capacity();
+
+    boolean isFree(int slot);
+
+    int hashAt(int slot);
+  }
+}
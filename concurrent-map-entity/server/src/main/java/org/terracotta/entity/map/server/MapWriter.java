@@ -0,0 +1,171 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Applies the mutative operations to the storage of a map, identically on the active and on the passives.
+ * <p>
+ * For a map with a time to live, a mapping expired at the timestamp of an operation, the time of the active server when
+ * it applied it, is treated as absent by that operation. Since those timestamps are replicated with the operations,
+ * the active and the passives reach the same
+ * decisions, and the expired mapping itself stays until its {@link org.terracotta.entity.map.common.EvictOperation} is
+ * applied. Operations of a given key are applied one at a time, as they all run on the concurrency key of that key.
+ */
+class MapWriter {
+
+  private final ConcurrentMap<Object, Object> map;
+  // null for a map which neither evicts nor expires
+  private final MappingStamps stamps;
+  // only on the active
+  private final EvictionTracker tracker;
+
+  MapWriter(ConcurrentMap<Object, Object> map, MappingStamps stamps, EvictionTracker tracker) {
+    this.map = map;
+    this.stamps = stamps;
+    this.tracker = tracker;
+  }
+
+  /**
+   * @return the previous value, {@code null} if absent or expired at {@code timestamp}
+   */
+  Object put(Object key, Object value, long timestamp) {
+    boolean expired = isExpired(key, timestamp);
+    Object previous = map.put(key, value);
+    written(key, timestamp);
+    return expired ? null : previous;
+  }
+
+  /**
+   * @return the previous value, {@code null} if absent or expired at {@code now}
+   */
+  Object remove(Object key, long now) {
+    boolean expired = isExpired(key, now);
+    Object previous = map.remove(key);
+    removed(key);
+    return expired ? null : previous;
+  }
+
+  Object putIfAbsent(Object key, Object value, long timestamp) {
+    if (isExpired(key, timestamp)) {
+      map.put(key, value);
+      written(key, timestamp);
+      return null;
+    }
+    Object previous = map.putIfAbsent(key, value);
+    if (previous == null) {
+      written(key, timestamp);
+    }
+    return previous;
+  }
+
+  Object putIfPresent(Object key, Object value, long timestamp) {
+    if (isExpired(key, timestamp)) {
+      return null;
+    }
+    Object previous = map.replace(key, value);
+    if (previous != null) {
+      written(key, timestamp);
+    }
+    return previous;
+  }
+
+  boolean remove(Object key, Object value, long timestamp) {
+    if (isExpired(key, timestamp)) {
+      return false;
+    }
+    boolean removed = map.remove(key, value);
+    if (removed) {
+      removed(key);
+    }
+    return removed;
+  }
+
+  boolean replace(Object key, Object oldValue, Object newValue, long timestamp) {
+    if (isExpired(key, timestamp)) {
+      return false;
+    }
+    boolean replaced = map.replace(key, oldValue, newValue);
+    if (replaced) {
+      written(key, timestamp);
+    }
+    return replaced;
+  }
+
+  void putAll(Map<Object, Object> values, long timestamp) {
+    map.putAll(values);
+    for (Object key : values.keySet()) {
+      written(key, timestamp);
+    }
+  }
+
+  List<Object> removeAll(List<Object> keys, long now) {
+    List<Object> values = new ArrayList<Object>(keys.size());
+    for (Object key : keys) {
+      values.add(remove(key, now));
+    }
+    return values;
+  }
+
+  void clear() {
+    map.clear();
+    if (stamps != null) {
+      stamps.cleared();
+    }
+    if (tracker != null) {
+      tracker.cleared();
+    }
+  }
+
+  /**
+   * Removes the mapping of {@code key} if it is still at {@code version}.
+   *
+   * @return {@code true} if the mapping was removed
+   */
+  boolean evict(Object key, long version) {
+    if (stamps.version(key) != version || map.remove(key) == null) {
+      return false;
+    }
+    removed(key);
+    return true;
+  }
+
+  private boolean isExpired(Object key, long timestamp) {
+    return stamps != null && stamps.isExpired(key, timestamp);
+  }
+
+  private void written(Object key, long timestamp) {
+    if (stamps != null) {
+      stamps.written(key, timestamp);
+    }
+    if (tracker != null) {
+      tracker.written(key);
+    }
+  }
+
+  private void removed(Object key) {
+    if (stamps != null) {
+      stamps.removed(key);
+    }
+    if (tracker != null) {
+      tracker.removed(key);
+    }
+  }
+}
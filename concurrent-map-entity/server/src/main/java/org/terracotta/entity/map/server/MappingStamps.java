@@ -0,0 +1,136 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versions and expiry times of the mappings of an evicting map, maintained identically on the active and the passives.
+ * <p>
+ * Stamps only change as replicated operations are applied, and only depend on those operations: expiry times derive
+ * from the time the active applied the operations at, never from the local clock. Versions are drawn from a counter per
+ * concurrency key, which sees the writes of its keys in the same order everywhere, and are never reused, so that a
+ * version identifies a single write even across a removal of the mapping.
+ */
+class MappingStamps {
+
+  static final long NO_VERSION = 0L;
+
+  /**
+   * Timestamp of the writes applied without a time, which never expire nor consider a mapping expired.
+   */
+  static final long NO_TIMESTAMP = 0L;
+
+  private final ActiveTerracottaClusteredMap.MapConcurrencyStrategy strategy;
+  private final long timeToLiveMillis;
+  private final AtomicLong[] versions;
+  private final ConcurrentMap<Object, Stamp> stamps = new ConcurrentHashMap<Object, Stamp>();
+
+  MappingStamps(int concurrency, long timeToLiveMillis) {
+    this.strategy = new ActiveTerracottaClusteredMap.MapConcurrencyStrategy(concurrency);
+    this.timeToLiveMillis = timeToLiveMillis;
+    this.versions = new AtomicLong[concurrency];
+    for (int i = 0; i < concurrency; i++) {
+      versions[i] = new AtomicLong();
+    }
+  }
+
+  boolean hasTimeToLive() {
+    return timeToLiveMillis != 0;
+  }
+
+  /**
+   * Records a write of {@code key} issued at {@code timestamp}, which restarts its time to live.
+   *
+   * @return the new version of the mapping
+   */
+  long written(Object key, long timestamp) {
+    long version = versions[strategy.concurrencyKeyFor(key) - 1].incrementAndGet();
+    long expiry = timeToLiveMillis == 0 || timestamp == NO_TIMESTAMP ? Long.MAX_VALUE : timestamp + timeToLiveMillis;
+    stamps.put(key, new Stamp(version, expiry));
+    return version;
+  }
+
+  void removed(Object key) {
+    stamps.remove(key);
+  }
+
+  void cleared() {
+    stamps.clear();
+  }
+
+  /**
+   * @return the version of the mapping of {@code key}, or {@link #NO_VERSION} if untracked
+   */
+  long version(Object key) {
+    Stamp stamp = stamps.get(key);
+    return stamp == null ? NO_VERSION : stamp.version;
+  }
+
+  /**
+   * @return {@code true} if the mapping of {@code key} outlived its time to live at {@code now}, never for
+   * {@link #NO_TIMESTAMP}
+   */
+  boolean isExpired(Object key, long now) {
+    if (now == NO_TIMESTAMP) {
+      return false;
+    }
+    Stamp stamp = stamps.get(key);
+    return stamp != null && now >= stamp.expiry;
+  }
+
+  Stamp get(Object key) {
+    return stamps.get(key);
+  }
+
+  long lastVersion(int concurrencyKey) {
+    return versions[concurrencyKey - 1].get();
+  }
+
+  /**
+   * Restores the version counter of {@code concurrencyKey} synchronized from the active.
+   */
+  void synchronizeVersions(int concurrencyKey, long lastVersion) {
+    versions[concurrencyKey - 1].accumulateAndGet(lastVersion, Math::max);
+  }
+
+  /**
+   * Restores the stamp of {@code key} synchronized from the active.
+   */
+  void synchronize(Object key, Stamp stamp) {
+    stamps.put(key, stamp);
+  }
+
+  static class Stamp {
+    private final long version;
+    private final long expiry;
+
+    Stamp(long version, long expiry) {
+      this.version = version;
+      this.expiry = expiry;
+    }
+
+    long getVersion() {
+      return version;
+    }
+
+    long getExpiry() {
+      return expiry;
+    }
+  }
+}
@@ -0,0 +1,609 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.entity.map.common.BinaryValues;
+import org.terracotta.offheapresource.OffHeapResource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link HashOrderedMap} keeping its keys and values serialized in direct memory reserved from an
+ * {@link OffHeapResource}.
+ * <p>
+ * Each mapping is stored as a single chunk holding the lengths of the encoded key and value followed by both. The map
+ * is split into segments by the hash of the key, as many as the capacity of the resource affords: each segment
+ * allocates its chunks with a {@link PageAllocator} of its own, and indexes them in an open addressing table which is
+ * itself a chunk of that allocator, so that neither the mappings nor their index live on heap. Keys and values are
+ * matched by comparing their encoding in place, without decoding anything. A write that cannot be stored fails with a
+ * {@link StorageFullException} and leaves the map unchanged.
+ * <p>
+ * The high bits of the hash pick the segment, and the following ones the slot of the table, so that the slots of the
+ * segments follow the order of the hashes, whatever the capacity of the tables.
+ * <p>
+ * Reads hold the read lock of their segment and writes its write lock, which keeps a chunk from being freed while read
+ * and serializes the use of the segment allocator.
+ */
+class OffHeapConcurrentMap extends AbstractMap<Object, Object> implements HashOrderedMap {
+
+  static final int MAX_SEGMENTS = 16;
+
+  // count of pages of the resource per segment, as each segment may keep a partly used page per size class
+  private static final int PAGES_PER_SEGMENT = 64;
+
+  private static final long ABSENT = -1L;
+
+  // chunk header: key length, then value length
+  private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+  // results of an update: keep the current mapping, or remove it
+  private static final byte[] KEEP = new byte[0];
+  private static final byte[] REMOVE = new byte[0];
+
+  private final Segment[] segments;
+  private final int segmentShift;
+
+  OffHeapConcurrentMap(OffHeapResource resource) {
+    this(resource, PageAllocator.DEFAULT_PAGE_SIZE, segmentsFor(resource.capacity(), PageAllocator.DEFAULT_PAGE_SIZE));
+  }
+
+  OffHeapConcurrentMap(OffHeapResource resource, int pageSize, int segmentCount) {
+    if (Integer.bitCount(segmentCount) != 1) {
+      throw new IllegalArgumentException("Segment count must be a power of two: " + segmentCount);
+    }
+    int segmentBits = Integer.numberOfTrailingZeros(segmentCount);
+    this.segments = new Segment[segmentCount];
+    this.segmentShift = Integer.SIZE - segmentBits;
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment(new PageAllocator(resource, pageSize), segmentBits, (long) i << segmentShift, (long) (i + 1) << segmentShift);
+    }
+  }
+
+  /**
+   * @return as many segments as keep the pages they partly use a small part of a resource of {@code capacity} bytes
+   */
+  static int segmentsFor(long capacity, int pageSize) {
+    long segments = capacity / ((long) pageSize * PAGES_PER_SEGMENT);
+    return (int) Long.highestOneBit(Math.max(1, Math.min(segments, MAX_SEGMENTS)));
+  }
+
+  @Override
+  public int size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.count;
+    }
+    return (int) Math.min(size, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    for (Segment segment : segments) {
+      if (segment.count != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Object get(Object key) {
+    byte[] encodedKey = encode(key);
+    int hash = HashOrderedMap.hash(key);
+    return segmentFor(hash).get(hash, encodedKey);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    byte[] encodedKey = encode(key);
+    int hash = HashOrderedMap.hash(key);
+    return segmentFor(hash).containsKey(hash, encodedKey);
+  }
+
+  @Override
+  public Object put(Object key, Object value) {
+    byte[] encodedValue = encode(checkValue(value));
+    return update(key, true, address -> encodedValue);
+  }
+
+  @Override
+  public Object remove(Object key) {
+    return update(key, true, address -> REMOVE);
+  }
+
+  @Override
+  public Object putIfAbsent(Object key, Object value) {
+    byte[] encodedValue = encode(checkValue(value));
+    return update(key, true, address -> address == ABSENT ? encodedValue : KEEP);
+  }
+
+  @Override
+  public Object replace(Object key, Object value) {
+    byte[] encodedValue = encode(checkValue(value));
+    return update(key, true, address -> address == ABSENT ? KEEP : encodedValue);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    if (value == null) {
+      return false;
+    }
+    byte[] encodedKey = encode(key);
+    byte[] encodedValue = encode(value);
+    int hash = HashOrderedMap.hash(key);
+    Segment segment = segmentFor(hash);
+    boolean[] removed = new boolean[1];
+    segment.update(hash, encodedKey, false, address -> {
+      if (address != ABSENT && segment.valueEquals(address, encodedValue)) {
+        removed[0] = true;
+        return REMOVE;
+      }
+      return KEEP;
+    });
+    return removed[0];
+  }
+
+  @Override
+  public boolean replace(Object key, Object oldValue, Object newValue) {
+    byte[] encodedOldValue = encode(checkValue(oldValue));
+    byte[] encodedNewValue = encode(checkValue(newValue));
+    byte[] encodedKey = encode(key);
+    int hash = HashOrderedMap.hash(key);
+    Segment segment = segmentFor(hash);
+    boolean[] replaced = new boolean[1];
+    segment.update(hash, encodedKey, false, address -> {
+      if (address != ABSENT && segment.valueEquals(address, encodedOldValue)) {
+        replaced[0] = true;
+        return encodedNewValue;
+      }
+      return KEEP;
+    });
+    return replaced[0];
+  }
+
+  @Override
+  public void clear() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  @Override
+  public long page(long from, int count, List<Entry<Object, Object>> page) {
+    long position = from;
+    while (position != END) {
+      Segment segment = segments[(int) (position >>> segmentShift)];
+      position = segment.page(position, count - page.size(), page);
+      if (page.size() >= count || position != segment.end) {
+        break;
+      }
+    }
+    return position;
+  }
+
+  @Override
+  public Set<Entry<Object, Object>> entrySet() {
+    return new AbstractSet<Entry<Object, Object>>() {
+      @Override
+      public Iterator<Entry<Object, Object>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return OffHeapConcurrentMap.this.size();
+      }
+
+      @Override
+      public void clear() {
+        OffHeapConcurrentMap.this.clear();
+      }
+    };
+  }
+
+  private interface Update {
+    /**
+     * @param address the chunk currently holding the key, or {@link #ABSENT}
+     * @return the encoded value to map the key to, {@link #KEEP} or {@link #REMOVE}
+     */
+    byte[] apply(long address);
+  }
+
+  private Object update(Object key, boolean decodePrevious, Update update) {
+    byte[] encodedKey = encode(key);
+    int hash = HashOrderedMap.hash(key);
+    return segmentFor(hash).update(hash, encodedKey, decodePrevious, update);
+  }
+
+  private Segment segmentFor(int hash) {
+    return segments[(int) (Integer.toUnsignedLong(hash) >>> segmentShift)];
+  }
+
+  private static boolean matches(ByteBuffer memory, int offset, byte[] bytes) {
+    for (int i = 0; i < bytes.length; i++) {
+      if (memory.get(offset + i) != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void put(ByteBuffer memory, int offset, byte[] bytes) {
+    ByteBuffer target = memory.duplicate();
+    target.position(offset);
+    target.put(bytes);
+  }
+
+  private static Object decode(ByteBuffer memory, int offset, int length) {
+    ByteBuffer buffer = memory.duplicate();
+    buffer.limit(offset + length).position(offset);
+    try {
+      return BinaryValues.decode(buffer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static byte[] encode(Object value) {
+    try {
+      return BinaryValues.encode(value);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static Object checkValue(Object value) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+    return value;
+  }
+
+  /**
+   * A part of the map with its own lock, allocator and table, holding the mappings of a range of hashes.
+   * <p>
+   * The table is a linear probing hash table of {@link #SLOT_SIZE} bytes slots, each holding the address of a chunk
+   * followed by the hash of its key, or {@link #ABSENT}. A mapping is looked for from the slot indexed by the bits of
+   * its hash following the ones picking the segment, so that the mappings of a range of slots are found between the
+   * first slot of the range and the first free slot after its last one. Removals shift the following slots back
+   * instead of leaving tombstones.
+   */
+  private static final class Segment implements Table {
+    private static final int SLOT_SIZE = 16;
+    private static final int MIN_CAPACITY = 16;
+
+    private final Lock readLock;
+    private final Lock writeLock;
+    private final PageAllocator allocator;
+    // the bits of the hashes picking the segment, and the range of hashes they pick
+    private final int hashShift;
+    private final long start;
+    private final long end;
+
+    // allocated on the first write, guarded by the lock
+    private long table = ABSENT;
+    private ByteBuffer tableMemory;
+    private int tableOffset;
+    private int capacity;
+    private int tableShift;
+
+    private volatile int count;
+
+    Segment(PageAllocator allocator, int hashShift, long start, long end) {
+      ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+      this.readLock = lock.readLock();
+      this.writeLock = lock.writeLock();
+      this.allocator = allocator;
+      this.hashShift = hashShift;
+      this.start = start;
+      this.end = end;
+    }
+
+    Object get(int hash, byte[] key) {
+      readLock.lock();
+      try {
+        int slot = find(hash, key);
+        return slot < 0 ? null : valueOf(addressAt(slot));
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    boolean containsKey(int hash, byte[] key) {
+      readLock.lock();
+      try {
+        return find(hash, key) >= 0;
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    /**
+     * Atomically applies {@code update} to the current mapping of {@code key}, and stores its result.
+     *
+     * @return the value previously mapped to the key if {@code decodePrevious}, {@code null} otherwise
+     */
+    Object update(int hash, byte[] key, boolean decodePrevious, Update update) {
+      writeLock.lock();
+      try {
+        int slot = find(hash, key);
+        long old = slot < 0 ? ABSENT : addressAt(slot);
+        Object previous = decodePrevious && old != ABSENT ? valueOf(old) : null;
+
+        byte[] value = update.apply(old);
+        if (value == KEEP || (value == REMOVE && old == ABSENT)) {
+          return previous;
+        }
+
+        if (value == REMOVE) {
+          allocator.free(old);
+          delete(slot);
+          count--;
+        } else if (slot < 0) {
+          // grows the table first, so that a failure to store the mapping leaves nothing behind
+          ensureCapacity(count + 1);
+          insert(hash, store(key, value));
+          count++;
+        } else {
+          long address = store(key, value);
+          allocator.free(old);
+          tableMemory.putLong(slotOffset(slot), address);
+        }
+        return previous;
+      } finally {
+        writeLock.unlock();
+      }
+    }
+
+    void clear() {
+      writeLock.lock();
+      try {
+        if (table != ABSENT) {
+          for (int slot = 0; slot < capacity; slot++) {
+            long address = addressAt(slot);
+            if (address != ABSENT) {
+              allocator.free(address);
+            }
+          }
+          allocator.free(table);
+          table = ABSENT;
+          tableMemory = null;
+          capacity = 0;
+          count = 0;
+        }
+        allocator.releaseEmptyPages();
+      } finally {
+        writeLock.unlock();
+      }
+    }
+
+    /**
+     * @see HashOrderedMap#page(long, int, List)
+     * @return the hash to read the next page from, which is {@link #end} once the last mapping of the segment was read
+     */
+    long page(long from, int count, List<Entry<Object, Object>> page) {
+      readLock.lock();
+      try {
+        if (table == ABSENT) {
+          return end;
+        }
+        return HashOrderedMap.page(this, hashShift, start, end, from, count, page.isEmpty(), slot -> {
+          long address = addressAt(slot);
+          page.add(new SimpleImmutableEntry<Object, Object>(keyOf(address), valueOf(address)));
+        });
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    @Override
+    public int capacity() {
+      return capacity;
+    }
+
+    @Override
+    public boolean isFree(int slot) {
+      return addressAt(slot) == ABSENT;
+    }
+
+    private int find(int hash, byte[] key) {
+      if (table == ABSENT) {
+        return -1;
+      }
+      for (int slot = home(hash); ; slot = (slot + 1) & (capacity - 1)) {
+        long address = addressAt(slot);
+        if (address == ABSENT) {
+          return -1;
+        }
+        if (hashAt(slot) == hash && keyEquals(address, key)) {
+          return slot;
+        }
+      }
+    }
+
+    private void insert(int hash, long address) {
+      int slot = home(hash);
+      while (addressAt(slot) != ABSENT) {
+        slot = (slot + 1) & (capacity - 1);
+      }
+      tableMemory.putLong(slotOffset(slot), address);
+      tableMemory.putInt(slotOffset(slot) + Long.BYTES, hash);
+    }
+
+    private void delete(int slot) {
+      int mask = capacity - 1;
+      int hole = slot;
+      for (int next = (slot + 1) & mask; ; next = (next + 1) & mask) {
+        long address = addressAt(next);
+        if (address == ABSENT) {
+          break;
+        }
+        int hash = hashAt(next);
+        // a mapping can fill the hole unless its home slot lies after the hole
+        if (((next - home(hash)) & mask) >= ((next - hole) & mask)) {
+          tableMemory.putLong(slotOffset(hole), address);
+          tableMemory.putInt(slotOffset(hole) + Long.BYTES, hash);
+          hole = next;
+        }
+      }
+      tableMemory.putLong(slotOffset(hole), ABSENT);
+    }
+
+    /**
+     * Keeps the table at most three quarters full, doubling its capacity when needed.
+     */
+    private void ensureCapacity(int mappings) {
+      if (table != ABSENT && mappings <= capacity - (capacity >>> 2)) {
+        return;
+      }
+      int newCapacity = table == ABSENT ? MIN_CAPACITY : capacity << 1;
+      long newTable = allocator.allocate(newCapacity * SLOT_SIZE);
+
+      long oldTable = table;
+      ByteBuffer oldMemory = tableMemory;
+      int oldOffset = tableOffset;
+      int oldCapacity = capacity;
+
+      table = newTable;
+      tableMemory = allocator.memory(newTable);
+      tableOffset = PageAllocator.offset(newTable);
+      capacity = newCapacity;
+      tableShift = Integer.SIZE - Integer.numberOfTrailingZeros(newCapacity);
+      for (int slot = 0; slot < newCapacity; slot++) {
+        tableMemory.putLong(slotOffset(slot), ABSENT);
+      }
+
+      if (oldTable != ABSENT) {
+        for (int slot = 0; slot < oldCapacity; slot++) {
+          long address = oldMemory.getLong(oldOffset + slot * SLOT_SIZE);
+          if (address != ABSENT) {
+            insert(oldMemory.getInt(oldOffset + slot * SLOT_SIZE + Long.BYTES), address);
+          }
+        }
+        allocator.free(oldTable);
+      }
+    }
+
+    private int home(int hash) {
+      return (hash << hashShift) >>> tableShift;
+    }
+
+    private int slotOffset(int slot) {
+      return tableOffset + slot * SLOT_SIZE;
+    }
+
+    private long addressAt(int slot) {
+      return tableMemory.getLong(slotOffset(slot));
+    }
+
+    @Override
+    public int hashAt(int slot) {
+      return tableMemory.getInt(slotOffset(slot) + Long.BYTES);
+    }
+
+    private long store(byte[] key, byte[] value) {
+      long address = allocator.allocate(HEADER_SIZE + key.length + value.length);
+      ByteBuffer memory = allocator.memory(address);
+      int offset = PageAllocator.offset(address);
+      memory.putInt(offset, key.length);
+      memory.putInt(offset + Integer.BYTES, value.length);
+      put(memory, offset + HEADER_SIZE, key);
+      put(memory, offset + HEADER_SIZE + key.length, value);
+      return address;
+    }
+
+    private boolean keyEquals(long address, byte[] key) {
+      ByteBuffer memory = allocator.memory(address);
+      int offset = PageAllocator.offset(address);
+      return memory.getInt(offset) == key.length && matches(memory, offset + HEADER_SIZE, key);
+    }
+
+    private boolean valueEquals(long address, byte[] value) {
+      ByteBuffer memory = allocator.memory(address);
+      int offset = PageAllocator.offset(address);
+      return memory.getInt(offset + Integer.BYTES) == value.length
+          && matches(memory, offset + HEADER_SIZE + memory.getInt(offset), value);
+    }
+
+    private Object keyOf(long address) {
+      ByteBuffer memory = allocator.memory(address);
+      int offset = PageAllocator.offset(address);
+      return decode(memory, offset + HEADER_SIZE, memory.getInt(offset));
+    }
+
+    private Object valueOf(long address) {
+      ByteBuffer memory = allocator.memory(address);
+      int offset = PageAllocator.offset(address);
+      int keyLength = memory.getInt(offset);
+      return decode(memory, offset + HEADER_SIZE + keyLength, memory.getInt(offset + Integer.BYTES));
+    }
+  }
+
+  /**
+   * Weakly consistent iteration, decoding the mappings a page at a time.
+   */
+  private class EntryIterator implements Iterator<Entry<Object, Object>> {
+    private static final int PAGE_SIZE = 64;
+
+    private long position;
+    private Iterator<Entry<Object, Object>> page = Collections.emptyIterator();
+    private Object lastKey;
+
+    @Override
+    public boolean hasNext() {
+      while (!page.hasNext()) {
+        if (position == END) {
+          return false;
+        }
+        List<Entry<Object, Object>> entries = new ArrayList<Entry<Object, Object>>();
+        position = page(position, PAGE_SIZE, entries);
+        page = entries.iterator();
+      }
+      return true;
+    }
+
+    @Override
+    public Entry<Object, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Entry<Object, Object> entry = page.next();
+      lastKey = entry.getKey();
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      if (lastKey == null) {
+        throw new IllegalStateException();
+      }
+      OffHeapConcurrentMap.this.remove(lastKey);
+      lastKey = null;
+    }
+  }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * A {@link HashOrderedMap} keeping its keys and values on heap.
+ * <p>
+ * The map is split into segments by the high bits of the hash of the key, each with its own lock and linear probing
+ * hash table, in which a mapping is looked for from the slot indexed by the bits of its hash following the ones picking
+ * the segment. The slots of the segments thus follow the order of the hashes, whatever the capacity of the tables.
+ * Removals shift the following slots back instead of leaving tombstones.
+ * <p>
+ * Reads hold the read lock of their segment and writes its write lock.
+ */
+class OnHeapConcurrentMap extends AbstractMap<Object, Object> implements HashOrderedMap {
+
+  static final int SEGMENTS = 16;
+
+  // results of an update: keep the current mapping, or remove it
+  private static final Object KEEP = new Object();
+  private static final Object REMOVE = new Object();
+
+  private final Segment[] segments = new Segment[SEGMENTS];
+  private final int segmentShift;
+
+  OnHeapConcurrentMap() {
+    int segmentBits = Integer.numberOfTrailingZeros(SEGMENTS);
+    this.segmentShift = Integer.SIZE - segmentBits;
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment(segmentBits, (long) i << segmentShift, (long) (i + 1) << segmentShift);
+    }
+  }
+
+  @Override
+  public int size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.count;
+    }
+    return (int) Math.min(size, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    for (Segment segment : segments) {
+      if (segment.count != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public Object get(Object key) {
+    int hash = HashOrderedMap.hash(key);
+    return segmentFor(hash).get(hash, key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public Object put(Object key, Object value) {
+    checkValue(value);
+    return update(key, current -> value);
+  }
+
+  @Override
+  public Object remove(Object key) {
+    return update(key, current -> REMOVE);
+  }
+
+  @Override
+  public Object putIfAbsent(Object key, Object value) {
+    checkValue(value);
+    return update(key, current -> current == null ? value : KEEP);
+  }
+
+  @Override
+  public Object replace(Object key, Object value) {
+    checkValue(value);
+    return update(key, current -> current == null ? KEEP : value);
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    if (value == null) {
+      return false;
+    }
+    boolean[] removed = new boolean[1];
+    update(key, current -> {
+      if (value.equals(current)) {
+        removed[0] = true;
+        return REMOVE;
+      }
+      return KEEP;
+    });
+    return removed[0];
+  }
+
+  @Override
+  public boolean replace(Object key, Object oldValue, Object newValue) {
+    checkValue(oldValue);
+    checkValue(newValue);
+    boolean[] replaced = new boolean[1];
+    update(key, current -> {
+      if (oldValue.equals(current)) {
+        replaced[0] = true;
+        return newValue;
+      }
+      return KEEP;
+    });
+    return replaced[0];
+  }
+
+  @Override
+  public void clear() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  @Override
+  public long page(long from, int count, List<Entry<Object, Object>> page) {
+    long position = from;
+    while (position != END) {
+      Segment segment = segments[(int) (position >>> segmentShift)];
+      position = segment.page(position, count - page.size(), page);
+      if (page.size() >= count || position != segment.end) {
+        break;
+      }
+    }
+    return position;
+  }
+
+  @Override
+  public Set<Entry<Object, Object>> entrySet() {
+    return new AbstractSet<Entry<Object, Object>>() {
+      @Override
+      public Iterator<Entry<Object, Object>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return OnHeapConcurrentMap.this.size();
+      }
+
+      @Override
+      public void clear() {
+        OnHeapConcurrentMap.this.clear();
+      }
+    };
+  }
+
+  /**
+   * Atomically maps {@code key} to the result of {@code update}, applied to its current value or {@code null}: a new
+   * value, {@link #KEEP} or {@link #REMOVE}.
+   *
+   * @return the value previously mapped to the key
+   */
+  private Object update(Object key, UnaryOperator<Object> update) {
+    int hash = HashOrderedMap.hash(key);
+    return segmentFor(hash).update(hash, key, update);
+  }
+
+  private Segment segmentFor(int hash) {
+    return segments[(int) (Integer.toUnsignedLong(hash) >>> segmentShift)];
+  }
+
+  private static void checkValue(Object value) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+  }
+
+  /**
+   * A part of the map with its own lock and table, holding the mappings of a range of hashes.
+   */
+  private static final class Segment implements Table {
+    private static final int MIN_CAPACITY = 16;
+
+    private final Lock readLock;
+    private final Lock writeLock;
+    // the bits of the hashes picking the segment, and the range of hashes they pick
+    private final int hashShift;
+    private final long start;
+    private final long end;
+
+    // guarded by the lock, a slot being free when its key is null
+    private int[] hashes;
+    private Object[] keys;
+    private Object[] values;
+    private int tableShift;
+
+    private volatile int count;
+
+    Segment(int hashShift, long start, long end) {
+      ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+      this.readLock = lock.readLock();
+      this.writeLock = lock.writeLock();
+      this.hashShift = hashShift;
+      this.start = start;
+      this.end = end;
+      allocate(MIN_CAPACITY);
+    }
+
+    Object get(int hash, Object key) {
+      readLock.lock();
+      try {
+        int slot = find(hash, key);
+        return slot < 0 ? null : values[slot];
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    Object update(int hash, Object key, UnaryOperator<Object> update) {
+      writeLock.lock();
+      try {
+        int slot = find(hash, key);
+        Object previous = slot < 0 ? null : values[slot];
+
+        Object value = update.apply(previous);
+        if (value == KEEP || (value == REMOVE && previous == null)) {
+          return previous;
+        }
+
+        if (value == REMOVE) {
+          delete(slot);
+          count--;
+        } else if (slot < 0) {
+          ensureCapacity(count + 1);
+          insert(hash, key, value);
+          count++;
+        } else {
+          values[slot] = value;
+        }
+        return previous;
+      } finally {
+        writeLock.unlock();
+      }
+    }
+
+    void clear() {
+      writeLock.lock();
+      try {
+        allocate(MIN_CAPACITY);
+        count = 0;
+      } finally {
+        writeLock.unlock();
+      }
+    }
+
+    /**
+     * @see HashOrderedMap#page(long, int, List)
+     * @return the hash to read the next page from, which is {@link #end} once the last mapping of the segment was read
+     */
+    long page(long from, int count, List<Entry<Object, Object>> page) {
+      readLock.lock();
+      try {
+        return HashOrderedMap.page(this, hashShift, start, end, from, count, page.isEmpty(),
+            slot -> page.add(new SimpleImmutableEntry<Object, Object>(keys[slot], values[slot])));
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    @Override
+    public int capacity() {
+      return keys.length;
+    }
+
+    @Override
+    public boolean isFree(int slot) {
+      return keys[slot] == null;
+    }
+
+    @Override
+    public int hashAt(int slot) {
+      return hashes[slot];
+    }
+
+    private int find(int hash, Object key) {
+      for (int slot = home(hash); keys[slot] != null; slot = (slot + 1) & (keys.length - 1)) {
+        if (hashes[slot] == hash && key.equals(keys[slot])) {
+          return slot;
+        }
+      }
+      return -1;
+    }
+
+    private void insert(int hash, Object key, Object value) {
+      int slot = home(hash);
+      while (keys[slot] != null) {
+        slot = (slot + 1) & (keys.length - 1);
+      }
+      hashes[slot] = hash;
+      keys[slot] = key;
+      values[slot] = value;
+    }
+
+    private void delete(int slot) {
+      int mask = keys.length - 1;
+      int hole = slot;
+      for (int next = (slot + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+        // a mapping can fill the hole unless its home slot lies after the hole
+        if (((next - home(hashes[next])) & mask) >= ((next - hole) & mask)) {
+          hashes[hole] = hashes[next];
+          keys[hole] = keys[next];
+          values[hole] = values[next];
+          hole = next;
+        }
+      }
+      keys[hole] = null;
+      values[hole] = null;
+    }
+
+    /**
+     * Keeps the table at most three quarters full, doubling its capacity when needed.
+     */
+    private void ensureCapacity(int mappings) {
+      int capacity = keys.length;
+      if (mappings <= capacity - (capacity >>> 2)) {
+        return;
+      }
+      int[] oldHashes = hashes;
+      Object[] oldKeys = keys;
+      Object[] oldValues = values;
+      allocate(capacity << 1);
+      for (int slot = 0; slot < capacity; slot++) {
+        if (oldKeys[slot] != null) {
+          insert(oldHashes[slot], oldKeys[slot], oldValues[slot]);
+        }
+      }
+    }
+
+    private void allocate(int capacity) {
+      hashes = new int[capacity];
+      keys = new Object[capacity];
+      values = new Object[capacity];
+      tableShift = Integer.SIZE - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private int home(int hash) {
+      return (hash << hashShift) >>> tableShift;
+    }
+  }
+
+  /**
+   * Weakly consistent iteration, reading the mappings a page at a time.
+   */
+  private class EntryIterator implements Iterator<Entry<Object, Object>> {
+    private static final int PAGE_SIZE = 64;
+
+    private long position;
+    private Iterator<Entry<Object, Object>> page = Collections.emptyIterator();
+    private Object lastKey;
+
+    @Override
+    public boolean hasNext() {
+      while (!page.hasNext()) {
+        if (position == END) {
+          return false;
+        }
+        List<Entry<Object, Object>> entries = new ArrayList<Entry<Object, Object>>();
+        position = page(position, PAGE_SIZE, entries);
+        page = entries.iterator();
+      }
+      return true;
+    }
+
+    @Override
+    public Entry<Object, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Entry<Object, Object> entry = page.next();
+      lastKey = entry.getKey();
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      if (lastKey == null) {
+        throw new IllegalStateException();
+      }
+      OnHeapConcurrentMap.this.remove(lastKey);
+      lastKey = null;
+    }
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.terracotta.offheapresource.OffHeapResource;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Allocates chunks of direct memory out of pages reserved from an {@link OffHeapResource}.
+ * <p>
+ * Each page is reserved and allocated once, then carved into chunks of a single power of two size class, slab style.
+ * Chunks are identified by an address combining the index of their page and their offset in it. A page left empty goes
+ * to a small pool of pages reused by any size class, and is released to the resource beyond that. Chunks larger than a
+ * page get a dedicated page of their own, released as soon as the chunk is freed.
+ * <p>
+ * Since direct memory only returns to the system once its buffer is collected, released pages may briefly outlive
+ * their reservation: pooling empty pages keeps this down to pages which are not needed any more.
+ * <p>
+ * An allocator is not thread safe: callers serialize allocating and freeing, and must not free a chunk while it is
+ * being read. {@link OffHeapConcurrentMap} gives each of its segments an allocator of its own, used under the lock of
+ * the segment, so that segments never contend on allocation.
+ */
+class PageAllocator {
+
+  static final int DEFAULT_PAGE_SIZE = 64 * 1024;
+
+  private static final int MIN_CHUNK_SHIFT = 4;
+  private static final int MAX_EMPTY_PAGES = 4;
+
+  private final OffHeapResource resource;
+  private final int pageSize;
+  private final Deque<Page>[] partialPages;
+  private final Deque<Page> emptyPages = new ArrayDeque<Page>();
+  private final Deque<Integer> freeIndexes = new ArrayDeque<Integer>();
+
+  private Page[] pages = new Page[16];
+  private int pageCount;
+
+  @SuppressWarnings("unchecked")
+  PageAllocator(OffHeapResource resource, int pageSize) {
+    if (Integer.bitCount(pageSize) != 1 || pageSize < (1 << MIN_CHUNK_SHIFT)) {
+      throw new IllegalArgumentException("Page size must be a power of two of at least " + (1 << MIN_CHUNK_SHIFT) + " bytes: " + pageSize);
+    }
+    this.resource = resource;
+    this.pageSize = pageSize;
+    this.partialPages = new Deque[Integer.numberOfTrailingZeros(pageSize) - MIN_CHUNK_SHIFT + 1];
+    for (int i = 0; i < partialPages.length; i++) {
+      partialPages[i] = new ArrayDeque<Page>();
+    }
+  }
+
+  /**
+   * Allocates a chunk of at least {@code size} bytes.
+   *
+   * @return the address of the chunk
+   * @throws StorageFullException if the resource cannot cover a new page
+   */
+  long allocate(int size) {
+    if (size > pageSize) {
+      Page page = reservePage(size, size);
+      return address(page.index, page.take());
+    }
+    int sizeClass = sizeClass(size);
+    Deque<Page> partial = partialPages[sizeClass];
+    Page page = partial.peek();
+    if (page == null) {
+      page = emptyPages.poll();
+      if (page == null) {
+        page = reservePage(pageSize, 1 << (sizeClass + MIN_CHUNK_SHIFT));
+      } else {
+        page.reset(1 << (sizeClass + MIN_CHUNK_SHIFT));
+      }
+      partial.push(page);
+    }
+    int offset = page.take();
+    if (page.isFull()) {
+      partial.poll();
+    }
+    return address(page.index, offset);
+  }
+
+  void free(long address) {
+    Page page = pages[pageIndex(address)];
+    boolean wasFull = page.isFull();
+    page.give(offset(address));
+    if (page.memory.capacity() > pageSize) {
+      releasePage(page);
+      return;
+    }
+    Deque<Page> partial = partialPages[sizeClass(page.chunkSize)];
+    if (page.isEmpty()) {
+      if (!wasFull) {
+        partial.remove(page);
+      }
+      if (emptyPages.size() < MAX_EMPTY_PAGES) {
+        emptyPages.push(page);
+      } else {
+        releasePage(page);
+      }
+    } else if (wasFull) {
+      partial.push(page);
+    }
+  }
+
+  /**
+   * Releases the pooled empty pages to the resource.
+   */
+  void releaseEmptyPages() {
+    for (Page page = emptyPages.poll(); page != null; page = emptyPages.poll()) {
+      releasePage(page);
+    }
+  }
+
+  /**
+   * @return the page holding the chunk at {@code address}, to be accessed at {@link #offset(long)}
+   */
+  ByteBuffer memory(long address) {
+    return pages[pageIndex(address)].memory;
+  }
+
+  static int offset(long address) {
+    return (int) address;
+  }
+
+  private static int pageIndex(long address) {
+    return (int) (address >>> 32);
+  }
+
+  private static long address(int pageIndex, int offset) {
+    return ((long) pageIndex << 32) | (offset & 0xffffffffL);
+  }
+
+  private static int sizeClass(int size) {
+    int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1 << MIN_CHUNK_SHIFT) - 1);
+    return shift - MIN_CHUNK_SHIFT;
+  }
+
+  private Page reservePage(int size, int chunkSize) {
+    if (!resource.reserve(size)) {
+      throw new StorageFullException("Off-heap resource exhausted: cannot reserve a page of " + size + " bytes, " + resource.available() + " available");
+    }
+    ByteBuffer memory;
+    try {
+      memory = ByteBuffer.allocateDirect(size);
+    } catch (OutOfMemoryError e) {
+      resource.release(size);
+      throw new StorageFullException("Cannot allocate a page of " + size + " bytes of direct memory: " + e.getMessage());
+    }
+    Integer free = freeIndexes.poll();
+    int index = free == null ? pageCount++ : free;
+    Page page = new Page(index, memory, chunkSize);
+    if (index >= pages.length) {
+      pages = Arrays.copyOf(pages, pages.length * 2);
+    }
+    pages[index] = page;
+    return page;
+  }
+
+  private void releasePage(Page page) {
+    pages[page.index] = null;
+    freeIndexes.push(page.index);
+    resource.release(page.memory.capacity());
+  }
+
+  private static class Page {
+    private final int index;
+    private final ByteBuffer memory;
+    private int chunkSize;
+    // offsets of the chunks freed since the page was reset, and of the first chunk never handed out
+    private int[] freed = new int[8];
+    private int freedCount;
+    private int untouched;
+    private int live;
+
+    Page(int index, ByteBuffer memory, int chunkSize) {
+      this.index = index;
+      this.memory = memory;
+      this.chunkSize = chunkSize;
+    }
+
+    void reset(int chunkSize) {
+      this.chunkSize = chunkSize;
+      this.freedCount = 0;
+      this.untouched = 0;
+      this.live = 0;
+    }
+
+    int take() {
+      live++;
+      if (freedCount > 0) {
+        return freed[--freedCount];
+      }
+      int offset = untouched;
+      untouched += chunkSize;
+      return offset;
+    }
+
+    void give(int offset) {
+      live--;
+      if (freedCount == freed.length) {
+        freed = Arrays.copyOf(freed, freed.length * 2);
+      }
+      freed[freedCount++] = offset;
+    }
+
+    boolean isFull() {
+      return freedCount == 0 && untouched + chunkSize > memory.capacity();
+    }
+
+    boolean isEmpty() {
+      return live == 0;
+    }
+  }
+}
@@ -15,55 +15,155 @@
  */
 package org.terracotta.entity.map.server;
 
-import org.omg.CORBA.Object;
+import org.terracotta.entity.EntityUserException;
 import org.terracotta.entity.InvokeContext;
 import org.terracotta.entity.PassiveServerEntity;
+import org.terracotta.entity.map.common.ConditionalRemoveOperation;
+import org.terracotta.entity.map.common.ConditionalReplaceOperation;
+import org.terracotta.entity.map.common.EvictOperation;
 import org.terracotta.entity.map.common.MapOperation;
 import org.terracotta.entity.map.common.MapResponse;
+import org.terracotta.entity.map.common.PutAllOperation;
+import org.terracotta.entity.map.common.PutIfAbsentOperation;
+import org.terracotta.entity.map.common.PutIfPresentOperation;
+import org.terracotta.entity.map.common.PutOperation;
+import org.terracotta.entity.map.common.RemoveAllOperation;
+import org.terracotta.entity.map.common.RemoveOperation;
+import org.terracotta.entity.map.common.ReplicationOperation;
 
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 /**
  * PassiveTerracottaClusteredMap
+ * <p>
+ * Applies the mutative operations replicated from the active. Evictions and expirations are decided on the active
+ * only and reach the passive as {@link EvictOperation}s, and the writes to an evicting map come wrapped in
+ * {@link ReplicationOperation}s carrying the time the active applied them at, so the passive content never depends on
+ * its own clock.
  */
 class PassiveTerracottaClusteredMap implements PassiveServerEntity<MapOperation, MapResponse> {
 
-  private final ConcurrentMap<Object, Object> map = new ConcurrentHashMap<Object, Object>();
+  private final ConcurrentMap<Object, Object> map;
+  private final MappingStamps stamps;
+  private final MapWriter writer;
+
+  PassiveTerracottaClusteredMap() {
+    this(new ConcurrentHashMap<Object, Object>(), null);
+  }
+
+  /**
+   * @param stamps the stamps of an evicting map, {@code null} otherwise
+   */
+  PassiveTerracottaClusteredMap(ConcurrentMap<Object, Object> map, MappingStamps stamps) {
+    this.map = map;
+    this.stamps = stamps;
+    this.writer = new MapWriter(map, stamps, null);
+  }
 
   @Override
-  public void invokePassive(InvokeContext context, MapOperation message) {
-    // do assign received map to instance map
-    // or append content if message is an operation
+  public void invokePassive(InvokeContext context, MapOperation message) throws EntityUserException {
+    try {
+      if (message.operationType() == MapOperation.Type.REPLICATION) {
+        ReplicationOperation replication = (ReplicationOperation) message;
+        apply(replication.getOperation(), replication.getTimestamp());
+      } else {
+        apply(message, MappingStamps.NO_TIMESTAMP);
+      }
+    } catch (StorageFullException e) {
+      throw new EntityUserException(e.getMessage(), e);
+    }
+  }
+
+  private void apply(MapOperation message, long timestamp) {
+    // Writes are applied exactly as on the active: decisions on expiry only depend on the time the active applied them at.
+    switch (message.operationType()) {
+      case PUT: {
+        PutOperation operation = (PutOperation) message;
+        writer.put(operation.getKey(), operation.getValue(), timestamp);
+        break;
+      }
+      case REMOVE:
+        writer.remove(((RemoveOperation) message).getKey(), timestamp);
+        break;
+      case CLEAR:
+        writer.clear();
+        break;
+      case PUT_ALL: {
+        PutAllOperation operation = (PutAllOperation) message;
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> newValues = (Map<Object, Object>) operation.getMap();
+        writer.putAll(newValues, timestamp);
+        break;
+      }
+      case PUT_IF_ABSENT: {
+        PutIfAbsentOperation operation = (PutIfAbsentOperation) message;
+        writer.putIfAbsent(operation.getKey(), operation.getValue(), timestamp);
+        break;
+      }
+      case PUT_IF_PRESENT: {
+        PutIfPresentOperation operation = (PutIfPresentOperation) message;
+        writer.putIfPresent(operation.getKey(), operation.getValue(), timestamp);
+        break;
+      }
+      case CONDITIONAL_REMOVE: {
+        ConditionalRemoveOperation operation = (ConditionalRemoveOperation) message;
+        writer.remove(operation.getKey(), operation.getValue(), timestamp);
+        break;
+      }
+      case CONDITIONAL_REPLACE: {
+        ConditionalReplaceOperation operation = (ConditionalReplaceOperation) message;
+        writer.replace(operation.getKey(), operation.getOldValue(), operation.getNewValue(), timestamp);
+        break;
+      }
+      case REMOVE_ALL:
+        writer.removeAll(((RemoveAllOperation) message).getKeys(), timestamp);
+        break;
+      case EVICT: {
+        EvictOperation operation = (EvictOperation) message;
+        writer.evict(operation.getKey(), operation.getVersion());
+        break;
+      }
+      case SYNC_OP: {
+        SyncOperation operation = (SyncOperation) message;
+        map.putAll(operation.getObjectMap());
+        if (stamps != null && operation.getStamps() != null) {
+          stamps.synchronizeVersions(operation.getConcurrencyKey(), operation.getLastVersion());
+          for (Map.Entry<Object, MappingStamps.Stamp> entry : operation.getStamps().entrySet()) {
+            stamps.synchronize(entry.getKey(), entry.getValue());
+          }
+        }
+        break;
+      }
+      default:
+        // Only mutative operations get replicated.
+        throw new AssertionError("Unexpected message type on passive: " + message.operationType());
+    }
   }
 
   @Override
   public void startSyncEntity() {
-    throw new UnsupportedOperationException("TODO Implement me!");
   }
 
   @Override
   public void endSyncEntity() {
-    throw new UnsupportedOperationException("TODO Implement me!");
   }
 
   @Override
   public void startSyncConcurrencyKey(int concurrencyKey) {
-    throw new UnsupportedOperationException("TODO Implement me!");
   }
 
   @Override
   public void endSyncConcurrencyKey(int concurrencyKey) {
-    throw new UnsupportedOperationException("TODO Implement me!");
   }
 
   @Override
   public void createNew() {
-    throw new UnsupportedOperationException("TODO Implement me!");
   }
 
   @Override
   public void destroy() {
-    throw new UnsupportedOperationException("TODO Implement me!");
+    writer.clear();
   }
 }
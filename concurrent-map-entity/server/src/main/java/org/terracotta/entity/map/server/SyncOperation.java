@@ -24,9 +24,24 @@ import java.util.Map;
 
 class SyncOperation implements MapOperation {
   private final Map<Object, Object> objects;
+  private final Map<Object, MappingStamps.Stamp> stamps;
+  private final int concurrencyKey;
+  private final long lastVersion;
 
   public SyncOperation(Map<Object, Object> objects) {
+    this(objects, null, 0, MappingStamps.NO_VERSION);
+  }
+
+  /**
+   * @param stamps the stamps of the mappings of an evicting map, {@code null} otherwise
+   * @param concurrencyKey the synchronized concurrency key
+   * @param lastVersion the last version drawn for {@code concurrencyKey}
+   */
+  public SyncOperation(Map<Object, Object> objects, Map<Object, MappingStamps.Stamp> stamps, int concurrencyKey, long lastVersion) {
     this.objects = objects;
+    this.stamps = stamps;
+    this.concurrencyKey = concurrencyKey;
+    this.lastVersion = lastVersion;
   }
 
   @Override
@@ -42,4 +57,16 @@ class SyncOperation implements MapOperation {
   public Map<Object, Object> getObjectMap() {
     return objects;
   }
+
+  public Map<Object, MappingStamps.Stamp> getStamps() {
+    return stamps;
+  }
+
+  public int getConcurrencyKey() {
+    return concurrencyKey;
+  }
+
+  public long getLastVersion() {
+    return lastVersion;
+  }
 }
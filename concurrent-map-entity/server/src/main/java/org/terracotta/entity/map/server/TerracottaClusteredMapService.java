@@ -16,16 +16,25 @@
 package org.terracotta.entity.map.server;
 
 import org.terracotta.entity.ActiveServerEntity;
+import org.terracotta.entity.BasicServiceConfiguration;
 import org.terracotta.entity.ConcurrencyStrategy;
+import org.terracotta.entity.ConfigurationException;
 import org.terracotta.entity.EntityServerService;
+import org.terracotta.entity.ExecutionStrategy;
+import org.terracotta.entity.IEntityMessenger;
 import org.terracotta.entity.MessageCodec;
 import org.terracotta.entity.PassiveServerEntity;
+import org.terracotta.entity.ServiceException;
 import org.terracotta.entity.ServiceRegistry;
 import org.terracotta.entity.SyncMessageCodec;
 import org.terracotta.entity.map.common.ClusteredMapCodec;
 import org.terracotta.entity.map.common.ConcurrentClusteredMap;
+import org.terracotta.entity.map.common.ConcurrentClusteredMapConfiguration;
 import org.terracotta.entity.map.common.MapOperation;
 import org.terracotta.entity.map.common.MapResponse;
+import org.terracotta.offheapresource.OffHeapResource;
+import org.terracotta.offheapresource.OffHeapResourceIdentifier;
+
 
 /**
  * TerracottaClusteredMapService
@@ -42,18 +51,68 @@ public class TerracottaClusteredMapService implements EntityServerService<MapOpe
   }
 
   @Override
-  public ActiveServerEntity<MapOperation, MapResponse> createActiveEntity(ServiceRegistry registry, byte[] configuration) {
-    return new ActiveTerracottaClusteredMap();
+  public ActiveServerEntity<MapOperation, MapResponse> createActiveEntity(ServiceRegistry registry, byte[] configuration) throws ConfigurationException {
+    ConcurrentClusteredMapConfiguration mapConfiguration = ConcurrentClusteredMapConfiguration.decode(configuration);
+    HashOrderedMap map = createStorage(registry, mapConfiguration);
+    if (!mapConfiguration.isEvicting()) {
+      return new ActiveTerracottaClusteredMap(mapConfiguration.getConcurrency(), map);
+    }
+
+    IEntityMessenger<MapOperation, MapResponse> messenger;
+    try {
+      @SuppressWarnings("unchecked")
+      IEntityMessenger<MapOperation, MapResponse> service = registry.getService(new BasicServiceConfiguration<>(IEntityMessenger.class));
+      messenger = service;
+    } catch (ServiceException e) {
+      throw new ConfigurationException("Unable to retrieve the entity messenger", e);
+    }
+    if (messenger == null) {
+      throw new ConfigurationException("An entity messenger is required to evict or expire entries");
+    }
+    MappingStamps stamps = createStamps(mapConfiguration);
+    EvictionTracker tracker = new EvictionTracker(mapConfiguration.getCapacity(), stamps, System::currentTimeMillis);
+    return new ActiveTerracottaClusteredMap(mapConfiguration.getConcurrency(), map, stamps, tracker, messenger);
   }
 
   @Override
-  public PassiveServerEntity<MapOperation, MapResponse> createPassiveEntity(ServiceRegistry registry, byte[] configuration) {
-    return new PassiveTerracottaClusteredMap();
+  public PassiveServerEntity<MapOperation, MapResponse> createPassiveEntity(ServiceRegistry registry, byte[] configuration) throws ConfigurationException {
+    ConcurrentClusteredMapConfiguration mapConfiguration = ConcurrentClusteredMapConfiguration.decode(configuration);
+    return new PassiveTerracottaClusteredMap(createStorage(registry, mapConfiguration), createStamps(mapConfiguration));
+  }
+
+  private static MappingStamps createStamps(ConcurrentClusteredMapConfiguration mapConfiguration) {
+    if (!mapConfiguration.isEvicting()) {
+      return null;
+    }
+    return new MappingStamps(mapConfiguration.getConcurrency(), mapConfiguration.getTimeToLiveMillis());
+  }
+
+  private static HashOrderedMap createStorage(ServiceRegistry registry, ConcurrentClusteredMapConfiguration mapConfiguration) throws ConfigurationException {
+    String resourceName = mapConfiguration.getOffHeapResource();
+    if (resourceName == null) {
+      return new OnHeapConcurrentMap();
+    }
+
+    OffHeapResource resource;
+    try {
+      resource = registry.getService(OffHeapResourceIdentifier.identifier(resourceName));
+    } catch (ServiceException e) {
+      throw new ConfigurationException("Unable to retrieve off-heap resource " + resourceName, e);
+    }
+    if (resource == null) {
+      throw new ConfigurationException("Unknown off-heap resource " + resourceName);
+    }
+    return new OffHeapConcurrentMap(resource);
   }
 
   @Override
   public ConcurrencyStrategy<MapOperation> getConcurrencyStrategy(byte[] configuration) {
-    return new ActiveTerracottaClusteredMap.MapConcurrencyStrategy();
+    return new ActiveTerracottaClusteredMap.MapConcurrencyStrategy(ConcurrentClusteredMapConfiguration.decode(configuration).getConcurrency());
+  }
+
+  @Override
+  public ExecutionStrategy<MapOperation> getExecutionStrategy(byte[] configuration) {
+    return new ActiveTerracottaClusteredMap.MapExecutionStrategy(ConcurrentClusteredMapConfiguration.decode(configuration).isEvicting());
   }
 
   @Override
@@ -0,0 +1,129 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+import org.terracotta.entity.ActiveInvokeContext;
+import org.terracotta.entity.ClientDescriptor;
+import org.terracotta.entity.map.common.BooleanResponse;
+import org.terracotta.entity.map.common.ClusteredMapCodec;
+import org.terracotta.entity.map.common.GetOperation;
+import org.terracotta.entity.map.common.HandshakeOperation;
+import org.terracotta.entity.map.common.MapOperation;
+import org.terracotta.entity.map.common.MapResponse;
+import org.terracotta.entity.map.common.MapValueResponse;
+import org.terracotta.entity.map.common.PutOperation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ActiveTerracottaClusteredMapTest {
+
+  @Test
+  public void testEachConcurrencyKeySynchronizesItsOwnMappings() {
+    HashOrderedMap map = new OnHeapConcurrentMap();
+    for (long key = 0; key < 5000; key++) {
+      map.put(key, "value" + key);
+    }
+    ActiveTerracottaClusteredMap entity = new ActiveTerracottaClusteredMap(3, map);
+    ActiveTerracottaClusteredMap.MapConcurrencyStrategy strategy = new ActiveTerracottaClusteredMap.MapConcurrencyStrategy(3);
+
+    Map<Object, Object> synced = new HashMap<Object, Object>();
+    for (int concurrencyKey = 1; concurrencyKey <= 3; concurrencyKey++) {
+      int expectedKey = concurrencyKey;
+      entity.synchronizeKeyToPassive((MapOperation message) -> {
+        SyncOperation operation = (SyncOperation) message;
+        assertThat(operation.getConcurrencyKey(), is(expectedKey));
+        for (Map.Entry<Object, Object> entry : operation.getObjectMap().entrySet()) {
+          assertThat(strategy.concurrencyKeyFor(entry.getKey()), is(expectedKey));
+          assertThat(synced.put(entry.getKey(), entry.getValue()), is((Object) null));
+        }
+      }, concurrencyKey);
+    }
+    assertThat(synced, is((Map<Object, Object>) new HashMap<Object, Object>(map)));
+  }
+
+  @Test
+  public void testVersion1ClientRoundTrips() throws Exception {
+    ClusteredMapCodec codec = new ClusteredMapCodec();
+    ActiveTerracottaClusteredMap entity = new ActiveTerracottaClusteredMap(3);
+    ActiveInvokeContext<MapResponse> context = context(mock(ClientDescriptor.class));
+
+    byte[] put = invoke(codec, entity, context, encodeAsVersion1(new PutOperation("key", "value")));
+    assertThat(put[0], is((byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8)));
+    assertThat(((MapValueResponse) codec.decodeResponse(put)).getValue(), nullValue());
+
+    byte[] get = invoke(codec, entity, context, encodeAsVersion1(new GetOperation("key")));
+    assertThat(get[0], is((byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8)));
+    assertThat(((MapValueResponse) codec.decodeResponse(get)).getValue(), is((Object) "value"));
+  }
+
+  @Test
+  public void testHandshakeNegotiatesTheBinaryFormatPerClient() throws Exception {
+    ClusteredMapCodec codec = new ClusteredMapCodec();
+    ActiveTerracottaClusteredMap entity = new ActiveTerracottaClusteredMap(3);
+    ClientDescriptor client = mock(ClientDescriptor.class);
+    ActiveInvokeContext<MapResponse> binaryContext = context(client);
+    ActiveInvokeContext<MapResponse> version1Context = context(mock(ClientDescriptor.class));
+
+    byte[] handshake = invoke(codec, entity, binaryContext, codec.encodeMessage(new HandshakeOperation(ClusteredMapCodec.WIRE_VERSION)));
+    assertThat(handshake[0], is((byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8)));
+    assertThat(((BooleanResponse) codec.decodeResponse(handshake)).isTrue(), is(true));
+
+    byte[] get = invoke(codec, entity, binaryContext, codec.encodeMessage(new GetOperation("key")));
+    assertThat(get[0], is((byte) ClusteredMapCodec.WIRE_VERSION));
+    assertThat(((MapValueResponse) codec.decodeResponse(get)).getValue(), nullValue());
+    get = invoke(codec, entity, version1Context, encodeAsVersion1(new GetOperation("key")));
+    assertThat(get[0], is((byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8)));
+
+    entity.disconnected(client);
+    get = invoke(codec, entity, binaryContext, codec.encodeMessage(new GetOperation("key")));
+    assertThat(get[0], is((byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8)));
+  }
+
+  private static byte[] invoke(ClusteredMapCodec codec, ActiveTerracottaClusteredMap entity, ActiveInvokeContext<MapResponse> context, byte[] message) throws Exception {
+    return codec.encodeResponse(entity.invokeActive(context, codec.decodeMessage(message)));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ActiveInvokeContext<MapResponse> context(ClientDescriptor client) {
+    ActiveInvokeContext<MapResponse> context = mock(ActiveInvokeContext.class);
+    when(context.getClientDescriptor()).thenReturn(client);
+    return context;
+  }
+
+  /**
+   * @return {@code operation} as sent by the clients of entity version 1, which predate the binary wire format
+   */
+  private static byte[] encodeAsVersion1(MapOperation operation) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeByte(operation.operationType().ordinal());
+      operation.writeTo(output);
+    }
+    return bytes.toByteArray();
+  }
+}
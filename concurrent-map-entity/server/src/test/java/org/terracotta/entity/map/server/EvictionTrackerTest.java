@@ -0,0 +1,154 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class EvictionTrackerTest {
+
+  private final AtomicLong time = new AtomicLong(1);
+
+  @Test
+  public void testSelectsUnreferencedKeysOverCapacity() {
+    MappingStamps stamps = new MappingStamps(1, 0);
+    EvictionTracker tracker = new EvictionTracker(2, stamps, time::get);
+    write(stamps, tracker, "a");
+    write(stamps, tracker, "b");
+    write(stamps, tracker, "c");
+
+    // every key is referenced after its write, so the whole ring gets a second chance first
+    tracker.accessed("a");
+    List<EvictionTracker.Victim> victims = tracker.select(3);
+    assertThat(victims, hasSize(1));
+    assertThat(victims.get(0).getKey(), is((Object) "a"));
+    assertThat(victims.get(0).getVersion(), is(stamps.version("a")));
+    assertThat(victims.get(0).isExpired(), is(false));
+
+    // "a" is pending eviction
+    assertThat(tracker.select(3), empty());
+  }
+
+  @Test
+  public void testSecondChance() {
+    MappingStamps stamps = new MappingStamps(1, 0);
+    EvictionTracker tracker = new EvictionTracker(2, stamps, time::get);
+    write(stamps, tracker, "a");
+    write(stamps, tracker, "b");
+    write(stamps, tracker, "c");
+    // clears every reference bit, and selects "a"
+    tracker.select(3);
+    tracker.abandoned("a");
+    tracker.removed("a");
+
+    write(stamps, tracker, "d");
+    tracker.accessed("b");
+    List<EvictionTracker.Victim> victims = tracker.select(3);
+    assertThat(victims, hasSize(1));
+    assertThat(victims.get(0).getKey(), is((Object) "c"));
+  }
+
+  @Test
+  public void testPendingKeysAreNotSelectedTwice() {
+    MappingStamps stamps = new MappingStamps(1, 0);
+    EvictionTracker tracker = new EvictionTracker(1, stamps, time::get);
+    write(stamps, tracker, "a");
+    write(stamps, tracker, "b");
+
+    assertThat(tracker.select(2), hasSize(1));
+    assertThat(tracker.select(2), empty());
+  }
+
+  @Test
+  public void testExpiry() {
+    MappingStamps stamps = new MappingStamps(1, 100);
+    EvictionTracker tracker = new EvictionTracker(0, stamps, time::get);
+    write(stamps, tracker, "a");
+    time.set(50);
+    write(stamps, tracker, "b");
+    assertThat(tracker.select(2), empty());
+
+    time.set(101);
+    assertThat(stamps.isExpired("a", time.get()), is(true));
+    assertThat(stamps.isExpired("b", time.get()), is(false));
+
+    List<EvictionTracker.Victim> victims = tracker.select(2);
+    assertThat(victims, hasSize(1));
+    assertThat(victims.get(0).getKey(), is((Object) "a"));
+    assertThat(victims.get(0).isExpired(), is(true));
+  }
+
+  @Test
+  public void testWriteRestartsTimeToLive() {
+    MappingStamps stamps = new MappingStamps(1, 100);
+    write(stamps, null, "a");
+    time.set(80);
+    write(stamps, null, "a");
+    assertThat(stamps.isExpired("a", 150), is(false));
+    assertThat(stamps.isExpired("a", 180), is(true));
+  }
+
+  @Test
+  public void testConcurrentWritesTrackEachKeyOnce() throws Exception {
+    MappingStamps stamps = new MappingStamps(4, 0);
+    EvictionTracker tracker = new EvictionTracker(100, stamps, time::get);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int t = 0; t < 4; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 1000; i++) {
+            write(stamps, tracker, i);
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    // a key tracked twice would be selected twice
+    Set<Object> selected = new HashSet<Object>();
+    for (List<EvictionTracker.Victim> victims = tracker.select(1000); !victims.isEmpty(); victims = tracker.select(1000)) {
+      for (EvictionTracker.Victim victim : victims) {
+        assertThat(selected.add(victim.getKey()), is(true));
+      }
+    }
+    assertThat(selected, hasSize(900));
+  }
+
+  private void write(MappingStamps stamps, EvictionTracker tracker, Object key) {
+    stamps.written(key, time.get());
+    if (tracker != null) {
+      tracker.written(key);
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+import org.terracotta.entity.map.common.ValueWrapper;
+import org.terracotta.offheapresource.OffHeapResource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class HashOrderedMapTest {
+
+  @Test
+  public void testPagesCoverEveryMappingOnce() {
+    for (HashOrderedMap map : maps()) {
+      for (long i = 0; i < 1000; i++) {
+        map.put(i, "value-" + i);
+      }
+
+      Set<Object> keys = new HashSet<Object>();
+      long position = HashOrderedMap.START;
+      while (position != HashOrderedMap.END) {
+        List<Map.Entry<Object, Object>> page = new ArrayList<Map.Entry<Object, Object>>();
+        long next = map.page(position, 7, page);
+        assertTrue(next > position);
+        assertThat(page.size(), lessThanOrEqualTo(7));
+        for (Map.Entry<Object, Object> entry : page) {
+          assertTrue(keys.add(entry.getKey()));
+          assertThat(entry.getValue(), is((Object) ("value-" + entry.getKey())));
+        }
+        position = next;
+      }
+      assertThat(keys.size(), is(1000));
+    }
+  }
+
+  @Test
+  public void testPagesOfSmallMapsCoverEveryMappingOnce() {
+    // tables of no more than RANGE_SLOTS slots are read as a single range, whose probe wraps around their end
+    for (int size : new int[] {1, 5, 61, 200}) {
+      for (int count : new int[] {7, 1000}) {
+        for (HashOrderedMap map : maps()) {
+          for (long i = 0; i < size; i++) {
+            map.put(i, "value-" + i);
+          }
+
+          Set<Object> keys = new HashSet<Object>();
+          long position = HashOrderedMap.START;
+          while (position != HashOrderedMap.END) {
+            List<Map.Entry<Object, Object>> page = new ArrayList<Map.Entry<Object, Object>>();
+            position = map.page(position, count, page);
+            for (Map.Entry<Object, Object> entry : page) {
+              assertTrue(keys.add(entry.getKey()));
+            }
+          }
+          assertThat(keys.size(), is(size));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testIterationResumesOnAnotherMapHoldingTheSameMappings() {
+    List<HashOrderedMap> maps = maps();
+    for (int m = 0; m < maps.size(); m += 2) {
+      HashOrderedMap active = maps.get(m);
+      HashOrderedMap newActive = maps.get(m + 1);
+      // same mappings, written in a different order and through different table sizes
+      for (long i = 0; i < 1000; i++) {
+        active.put(i, "value-" + i);
+      }
+      for (long i = 5000; i >= 0; i--) {
+        newActive.put(i, "value-" + i);
+        if (i >= 1000) {
+          newActive.remove(i);
+        }
+      }
+
+      Set<Object> keys = new HashSet<Object>();
+      long position = HashOrderedMap.START;
+      for (int page = 0; page < 10; page++) {
+        position = readPage(active, position, keys);
+      }
+      while (position != HashOrderedMap.END) {
+        position = readPage(newActive, position, keys);
+      }
+      assertThat(keys.size(), is(1000));
+    }
+  }
+
+  @Test
+  public void testMappingsSharingAHashAreNotSplit() {
+    OnHeapConcurrentMap map = new OnHeapConcurrentMap();
+    for (int i = 0; i < 20; i++) {
+      map.put(new ValueWrapper(42, new byte[] {(byte) i}), i);
+    }
+    map.put(new ValueWrapper(43, new byte[0]), 20);
+
+    int read = 0;
+    long position = HashOrderedMap.START;
+    while (position != HashOrderedMap.END) {
+      List<Map.Entry<Object, Object>> page = new ArrayList<Map.Entry<Object, Object>>();
+      position = map.page(position, 7, page);
+      // the colliding mappings come in a page of their own
+      assertThat(page.size() == 1 || page.size() == 20, is(true));
+      read += page.size();
+    }
+    assertThat(read, is(21));
+  }
+
+  @Test
+  public void testOnHeapMapMatchesHashMap() {
+    OnHeapConcurrentMap map = new OnHeapConcurrentMap();
+
+    Map<Object, Object> expected = new HashMap<Object, Object>();
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      long key = random.nextInt(5000);
+      switch (random.nextInt(4)) {
+        case 0:
+          assertThat(map.remove(key), is(expected.remove(key)));
+          break;
+        case 1:
+          assertThat(map.putIfAbsent(key, "value-" + i), is(expected.putIfAbsent(key, "value-" + i)));
+          break;
+        case 2:
+          assertThat(map.replace(key, "value-" + (i - 1), "value-" + i), is(expected.replace(key, "value-" + (i - 1), "value-" + i)));
+          break;
+        default:
+          assertThat(map.put(key, "value-" + i), is(expected.put(key, "value-" + i)));
+      }
+    }
+    assertThat(map.size(), is(expected.size()));
+    for (long key = 0; key < 5000; key++) {
+      assertThat(map.get(key), is(expected.get(key)));
+    }
+    assertThat(new HashMap<Object, Object>(map), is(expected));
+
+    map.clear();
+    assertThat(map.isEmpty(), is(true));
+  }
+
+  private static long readPage(HashOrderedMap map, long position, Set<Object> keys) {
+    List<Map.Entry<Object, Object>> page = new ArrayList<Map.Entry<Object, Object>>();
+    long next = map.page(position, 13, page);
+    for (Map.Entry<Object, Object> entry : page) {
+      assertTrue(keys.add(entry.getKey()));
+    }
+    return next;
+  }
+
+  private static List<HashOrderedMap> maps() {
+    List<HashOrderedMap> maps = new ArrayList<HashOrderedMap>();
+    maps.add(new OnHeapConcurrentMap());
+    maps.add(new OnHeapConcurrentMap());
+    maps.add(new OffHeapConcurrentMap(new UnboundedResource(), PageAllocator.DEFAULT_PAGE_SIZE, 4));
+    maps.add(new OffHeapConcurrentMap(new UnboundedResource(), PageAllocator.DEFAULT_PAGE_SIZE, 4));
+    return maps;
+  }
+
+  private static class UnboundedResource implements OffHeapResource {
+    @Override
+    public boolean reserve(long size) {
+      return true;
+    }
+
+    @Override
+    public void release(long size) {
+    }
+
+    @Override
+    public long available() {
+      return Long.MAX_VALUE;
+    }
+
+    @Override
+    public long capacity() {
+      return Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean setCapacity(long size) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+import org.terracotta.entity.ExecutionStrategy.Location;
+import org.terracotta.entity.map.common.EvictOperation;
+import org.terracotta.entity.map.common.GetOperation;
+import org.terracotta.entity.map.common.PutAllOperation;
+import org.terracotta.entity.map.common.PutIfAbsentOperation;
+import org.terracotta.entity.map.common.ReplicationOperation;
+
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MapExecutionStrategyTest {
+
+  @Test
+  public void testWritesRunEverywhereWithoutEviction() {
+    ActiveTerracottaClusteredMap.MapExecutionStrategy strategy = new ActiveTerracottaClusteredMap.MapExecutionStrategy(false);
+    assertThat(strategy.getExecutionLocation(new PutIfAbsentOperation("key", "value")), is(Location.BOTH));
+    assertThat(strategy.getExecutionLocation(new GetOperation("key")), is(Location.ACTIVE));
+  }
+
+  @Test
+  public void testWritesAreReplicatedByTheActiveWithEviction() {
+    ActiveTerracottaClusteredMap.MapExecutionStrategy strategy = new ActiveTerracottaClusteredMap.MapExecutionStrategy(true);
+    PutIfAbsentOperation operation = new PutIfAbsentOperation("key", "value");
+    assertThat(strategy.getExecutionLocation(operation), is(Location.ACTIVE));
+    assertThat(strategy.getExecutionLocation(new ReplicationOperation(operation, 1234L)), is(Location.PASSIVE));
+    assertThat(strategy.getExecutionLocation(new EvictOperation("key", 1L, true)), is(Location.BOTH));
+    assertThat(strategy.getExecutionLocation(new GetOperation("key")), is(Location.ACTIVE));
+  }
+
+  @Test
+  public void testReplicationRunsOnTheConcurrencyKeyOfItsOperation() {
+    ActiveTerracottaClusteredMap.MapConcurrencyStrategy strategy = new ActiveTerracottaClusteredMap.MapConcurrencyStrategy(8);
+    PutIfAbsentOperation put = new PutIfAbsentOperation("key", "value");
+    assertThat(strategy.concurrencyKey(new ReplicationOperation(put, 1234L)), is(strategy.concurrencyKey(put)));
+    PutAllOperation putAll = new PutAllOperation(Collections.<Object, Object>singletonMap("key", "value"));
+    assertThat(strategy.concurrencyKey(new ReplicationOperation(putAll, 1234L)), is(strategy.concurrencyKey(putAll)));
+  }
+
+  @Test
+  public void testConcurrencyKeysCoverRangesOfHashes() {
+    ActiveTerracottaClusteredMap.MapConcurrencyStrategy strategy = new ActiveTerracottaClusteredMap.MapConcurrencyStrategy(7);
+    assertThat(strategy.startOf(1), is(HashOrderedMap.START));
+    assertThat(strategy.startOf(8), is(HashOrderedMap.END));
+    for (long key = 0; key < 10000; key++) {
+      int concurrencyKey = strategy.concurrencyKeyFor(key);
+      long hash = Integer.toUnsignedLong(HashOrderedMap.hash(key));
+      assertThat(hash >= strategy.startOf(concurrencyKey) && hash < strategy.startOf(concurrencyKey + 1), is(true));
+    }
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class MapWriterTest {
+
+  private final ConcurrentMap<Object, Object> map = new ConcurrentHashMap<Object, Object>();
+  private final MappingStamps stamps = new MappingStamps(4, 100);
+  private final MapWriter writer = new MapWriter(map, stamps, null);
+
+  @Test
+  public void testStaleEvictionKeepsEqualRewrite() {
+    writer.put("key", "value", 1);
+    long selected = stamps.version("key");
+
+    // the same value is written again after the key was selected for eviction
+    writer.put("key", "value", 2);
+    assertThat(writer.evict("key", selected), is(false));
+    assertThat(map.get("key"), is((Object) "value"));
+
+    assertThat(writer.evict("key", stamps.version("key")), is(true));
+    assertThat(map.containsKey("key"), is(false));
+  }
+
+  @Test
+  public void testVersionsAreNotReusedAfterRemoval() {
+    writer.put("key", "value", 1);
+    long removed = stamps.version("key");
+    writer.remove("key", 1);
+    writer.put("key", "value", 1);
+    assertThat(stamps.version("key"), not(is(removed)));
+    assertThat(writer.evict("key", removed), is(false));
+  }
+
+  @Test
+  public void testConditionalWritesTreatExpiredMappingsAsAbsent() {
+    writer.put("key", "old", 1);
+
+    assertThat(writer.putIfPresent("key", "new", 101), nullValue());
+    assertThat(writer.replace("key", "old", "new", 101), is(false));
+    assertThat(writer.remove("key", "old", 101), is(false));
+    assertThat(map.get("key"), is((Object) "old"));
+
+    assertThat(writer.putIfAbsent("key", "new", 101), nullValue());
+    assertThat(map.get("key"), is((Object) "new"));
+    assertThat(stamps.isExpired("key", 101), is(false));
+
+    // still alive at the timestamp of the operation
+    assertThat(writer.putIfAbsent("key", "other", 200), is((Object) "new"));
+    assertThat(writer.put("key", "other", 300), nullValue());
+  }
+
+  @Test
+  public void testOperationsWithoutTimestampNeverSeeExpiry() {
+    writer.put("key", "value", MappingStamps.NO_TIMESTAMP);
+    assertThat(stamps.isExpired("key", Long.MAX_VALUE - 1), is(false));
+
+    writer.put("other", "value", 1);
+    assertThat(writer.putIfPresent("other", "new", MappingStamps.NO_TIMESTAMP), is((Object) "value"));
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.entity.map.server;
+
+import org.junit.Test;
+import org.terracotta.entity.map.common.ValueWrapper;
+import org.terracotta.offheapresource.OffHeapResource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class OffHeapConcurrentMapTest {
+
+  @Test
+  public void testMapOperations() {
+    TestResource resource = new TestResource(1024 * 1024);
+    OffHeapConcurrentMap map = new OffHeapConcurrentMap(resource);
+
+    assertThat(map.put("one", 1L), nullValue());
+    assertThat(map.put("one", 2L), is((Object) 1L));
+    assertThat(map.get("one"), is((Object) 2L));
+    assertThat(map.putIfAbsent("one", 3L), is((Object) 2L));
+    assertThat(map.replace("one", 2L, 4L), is(true));
+    assertThat(map.replace("one", 2L, 5L), is(false));
+    assertThat(map.replace("two", 1L), nullValue());
+    assertThat(map.containsKey("two"), is(false));
+    assertThat(map.remove("one", 5L), is(false));
+    assertThat(map.remove("one", 4L), is(true));
+    assertThat(map.isEmpty(), is(true));
+
+    // the page holding the index of the segment, and the empty page kept for reuse until the map is cleared
+    assertThat(resource.used, is(2L * PageAllocator.DEFAULT_PAGE_SIZE));
+    map.clear();
+    assertThat(resource.used, is(0L));
+  }
+
+  @Test
+  public void testByteArraysAreComparedByContent() {
+    TestResource resource = new TestResource(1024 * 1024);
+    OffHeapConcurrentMap map = new OffHeapConcurrentMap(resource);
+
+    assertThat(map.put(new byte[] {1, 2}, new byte[] {3}), nullValue());
+    assertThat((byte[]) map.put(new byte[] {1, 2}, new byte[] {4}), is(new byte[] {3}));
+    assertThat(map.size(), is(1));
+    assertThat((byte[]) map.get(new byte[] {1, 2}), is(new byte[] {4}));
+    assertThat(map.replace(new byte[] {1, 2}, new byte[] {4}, new byte[] {5}), is(true));
+    assertThat(map.remove(new byte[] {1, 2}, new byte[] {4}), is(false));
+    assertThat(map.remove(new byte[] {1, 2}, new byte[] {5}), is(true));
+    assertThat(map.isEmpty(), is(true));
+  }
+
+  @Test
+  public void testPagesAreReused() {
+    TestResource resource = new TestResource(8 * 1024);
+    OffHeapConcurrentMap map = new OffHeapConcurrentMap(resource, 1024, 1);
+
+    for (int round = 0; round < 10; round++) {
+      for (long i = 0; i < 64; i++) {
+        map.put(i, "value-" + i);
+      }
+      assertThat(map.size(), is(64));
+      for (long i = 0; i < 64; i++) {
+        assertThat(map.remove(i), is((Object) ("value-" + i)));
+      }
+    }
+    assertThat(resource.used <= 8 * 1024L, is(true));
+    map.clear();
+    assertThat(resource.used, is(0L));
+  }
+
+  @Test
+  public void testIterationAndClear() {
+    TestResource resource = new TestResource(1024 * 1024);
+    OffHeapConcurrentMap map = new OffHeapConcurrentMap(resource);
+
+    Map<Object, Object> expected = new HashMap<Object, Object>();
+    for (int i = 0; i < 1000; i++) {
+      expected.put(new ValueWrapper(i % 10, new byte[] {(byte) i, (byte) (i >> 8)}), "value-" + i);
+    }
+    map.putAll(expected);
+    assertThat(map.size(), is(1000));
+    assertThat(new HashMap<Object, Object>(map), is(expected));
+
+    map.clear();
+    assertThat(map.size(), is(0));
+    assertThat(resource.used, is(0L));
+  }
+
+  @Test
+  public void testWritesAreRejectedWhenResourceIsExhausted() {
+    // room for the smallest index and a single page
+    TestResource resource = new TestResource(16 * 16 + 64);
+    OffHeapConcurrentMap map = new OffHeapConcurrentMap(resource, 64, 1);
+
+    map.put(1L, "small");
+    try {
+      map.put(2L, new String(new char[128]));
+      fail("Expected StorageFullException");
+    } catch (StorageFullException e) {
+      // expected
+    }
+    assertThat(map.size(), is(1));
+    assertThat(map.get(1L), is((Object) "small"));
+    assertThat(map.containsKey(2L), is(false));
+  }
+
+  @Test
+  public void testMatchesHashMapThroughGrowthAndRemovals() {
+    TestResource resource = new TestResource(16 * 1024 * 1024);
+    OffHeapConcurrentMap map = new OffHeapConcurrentMap(resource, 1024, 2);
+
+    Map<Object, Object> expected = new HashMap<Object, Object>();
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      long key = random.nextInt(5000);
+      if (random.nextInt(3) == 0) {
+        assertThat(map.remove(key), is(expected.remove(key)));
+      } else {
+        assertThat(map.put(key, "value-" + i), is(expected.put(key, "value-" + i)));
+      }
+    }
+    assertThat(map.size(), is(expected.size()));
+    for (long key = 0; key < 5000; key++) {
+      assertThat(map.get(key), is(expected.get(key)));
+    }
+    assertThat(new HashMap<Object, Object>(map), is(expected));
+
+    map.clear();
+    assertThat(resource.used, is(0L));
+  }
+
+  @Test
+  public void testConcurrentWritersAndReaders() throws Exception {
+    TestResource resource = new TestResource(64 * 1024 * 1024);
+    OffHeapConcurrentMap map = new OffHeapConcurrentMap(resource);
+
+    int threads = 8;
+    int keys = 10_000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int t = 0; t < threads; t++) {
+        long base = (long) t * keys;
+        futures.add(executor.submit(() -> {
+          for (long key = base; key < base + keys; key++) {
+            map.put(key, key);
+            assertThat(map.get(key), is((Object) key));
+          }
+          for (long key = base; key < base + keys; key += 2) {
+            assertThat(map.remove(key), is((Object) key));
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(map.size(), is(threads * keys / 2));
+    int iterated = 0;
+    for (Map.Entry<Object, Object> entry : map.entrySet()) {
+      assertThat((Long) entry.getKey() % 2, is(1L));
+      assertThat(entry.getValue(), is(entry.getKey()));
+      iterated++;
+    }
+    assertThat(iterated, is(threads * keys / 2));
+  }
+
+  @Test
+  public void testSegmentsGrowWithTheResource() {
+    assertThat(OffHeapConcurrentMap.segmentsFor(1024 * 1024, PageAllocator.DEFAULT_PAGE_SIZE), is(1));
+    assertThat(OffHeapConcurrentMap.segmentsFor(16 * 1024 * 1024, PageAllocator.DEFAULT_PAGE_SIZE), is(4));
+    assertThat(OffHeapConcurrentMap.segmentsFor(24 * 1024 * 1024, PageAllocator.DEFAULT_PAGE_SIZE), is(4));
+    assertThat(OffHeapConcurrentMap.segmentsFor(1L << 40, PageAllocator.DEFAULT_PAGE_SIZE), is(OffHeapConcurrentMap.MAX_SEGMENTS));
+  }
+
+  private static class TestResource implements OffHeapResource {
+    private final long capacity;
+    private long used;
+
+    TestResource(long capacity) {
+      this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized boolean reserve(long size) {
+      if (used + size > capacity) {
+        return false;
+      }
+      used += size;
+      return true;
+    }
+
+    @Override
+    public synchronized void release(long size) {
+      used -= size;
+    }
+
+    @Override
+    public synchronized long available() {
+      return capacity - used;
+    }
+
+    @Override
+    public long capacity() {
+      return capacity;
+    }
+
+    @Override
+    public boolean setCapacity(long size) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+/**
+ * Receives the creation and removal events of child resources, at any depth below a top-level resource.
+ */
+public interface ChildResourceHandler {
+
+  ChildResourceHandler NO_OP = new ChildResourceHandler() {
+    @Override
+    public void onChildCreated(OffHeapResourceChild child) {
+    }
+
+    @Override
+    public void onChildRemoved(OffHeapResourceChild child) {
+    }
+  };
+
+  void onChildCreated(OffHeapResourceChild child);
+
+  void onChildRemoved(OffHeapResourceChild child);
+}
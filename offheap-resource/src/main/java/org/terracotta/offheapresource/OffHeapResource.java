@@ -17,6 +17,9 @@ package org.terracotta.offheapresource;
 
 import com.tc.classloader.CommonComponent;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Represents an offheap resource, providing a reservation system that can be
  * used to control the combined memory usage of participating consumers.
@@ -40,6 +43,46 @@ public interface OffHeapResource {
    */
   boolean reserve(long size) throws IllegalArgumentException;
 
+  /**
+   * Reserves the given amount of this resource, waiting up to the given time for enough of it to be released.
+   * <p>
+   * Waiting reservations are served in FIFO order as space is released or the capacity grows. A reservation larger
+   * than the capacity does not wait. Implementations which cannot wait make a single attempt, as
+   * {@link #reserve(long)} does.
+   *
+   * @param size reservation size
+   * @param timeout the maximum time to wait
+   * @param unit the unit of the timeout
+   * @return {@code true} if the reservation succeeded within the timeout
+   * @throws IllegalArgumentException if the reservation size is negative
+   * @throws InterruptedException if the calling thread is interrupted while waiting, the reservation is then abandoned
+   */
+  default boolean reserve(long size, long timeout, TimeUnit unit) throws IllegalArgumentException, InterruptedException {
+    return reserve(size);
+  }
+
+  /**
+   * Reserves the given amount of this resource as soon as enough of it is available.
+   * <p>
+   * Waiting reservations are served in FIFO order as space is released or the capacity grows. Cancelling the
+   * returned future abandons the reservation if it was not made yet. The returned future fails right away if the
+   * reservation is larger than the capacity, and once a decrease of the capacity makes it so. Implementations which
+   * cannot wait make a single attempt, and fail the returned future if it does not succeed.
+   *
+   * @param size reservation size
+   * @return a future completed once the reservation has been made
+   * @throws IllegalArgumentException if the reservation size is negative
+   */
+  default CompletableFuture<Void> reserveAsync(long size) throws IllegalArgumentException {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    if (reserve(size)) {
+      future.complete(null);
+    } else {
+      future.completeExceptionally(new IllegalStateException("Cannot reserve " + size + " bytes"));
+    }
+    return future;
+  }
+
   /**
    * Releases the given amount of resource back to this pool.
    *
@@ -69,4 +112,44 @@ public interface OffHeapResource {
    * @throws IllegalArgumentException if the new capacity is negative
    */
   boolean setCapacity(long size) throws IllegalArgumentException;
+
+  /**
+   * Carves a child quota out of this resource.
+   * <p>
+   * The child's guaranteed minimum is reserved from this resource upfront, so that it is always available to the
+   * child's consumers. Reservations beyond the minimum are propagated to this resource, and never let the child's
+   * usage exceed its maximum. The child's {@link #capacity()} is its maximum.
+   * <p>
+   * Children can themselves have children.
+   *
+   * @param name the name of the child, unique among the children of this resource
+   * @param min the guaranteed minimum size of the child
+   * @param max the hard maximum size of the child
+   * @return the child resource, or {@code null} if this resource cannot guarantee the requested minimum
+   * @throws IllegalArgumentException if the sizes are negative, {@code min} is larger than {@code max}, or a child
+   * with the same name already exists
+   */
+  default OffHeapResource createChild(String name, long min, long max) throws IllegalArgumentException {
+    throw new UnsupportedOperationException("Child resources are not supported by " + getClass().getName());
+  }
+
+  /**
+   * @param name the name of the child
+   * @return the child resource of the given name, or {@code null} if there is none
+   */
+  default OffHeapResource getChild(String name) {
+    return null;
+  }
+
+  /**
+   * Removes a child, giving back to this resource everything that was reserved on its behalf.
+   * <p>
+   * The removed child refuses any further reservation, and releases made to it after its removal are ignored.
+   *
+   * @param name the name of the child
+   * @return {@code true} if the child existed and was removed
+   */
+  default boolean removeChild(String name) {
+    return false;
+  }
 }
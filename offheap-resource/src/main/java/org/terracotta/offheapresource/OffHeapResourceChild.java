@@ -0,0 +1,283 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import org.terracotta.offheapresource.management.OffHeapResourceBinding;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A quota carved out of a parent {@link OffHeapResource}, see {@link OffHeapResource#createChild(String, long, long)}.
+ * <p>
+ * The guaranteed minimum is reserved from the parent when the child is created. Only the usage exceeding it is
+ * propagated to the parent, before the child's own usage is updated, so neither the child's maximum nor the parent's
+ * capacity can ever be exceeded.
+ * <p>
+ * Waiting reservations queue on the child, and are served as space is released to the child or to any of its
+ * ancestors.
+ */
+public class OffHeapResourceChild implements OffHeapResource {
+
+  private static final long CLOSED = Long.MIN_VALUE;
+
+  private final String identifier;
+  private final OffHeapResource parent;
+  private final long min;
+  private final AtomicLong used = new AtomicLong();
+  private final Object capacityLock = new Object();
+  private volatile long max;
+  private final OffHeapResourceChildren children;
+  private final OffHeapResourceBinding managementBinding;
+  private final ReservationQueue waiters;
+
+  /**
+   * @param siblings the children of {@code parent}, this child among them
+   */
+  OffHeapResourceChild(String identifier, String parentIdentifier, OffHeapResource parent, OffHeapResourceChildren siblings, long min, long max, ChildResourceHandler handler) {
+    this.identifier = identifier;
+    this.parent = parent;
+    this.min = min;
+    this.max = max;
+    this.waiters = new ReservationQueue(this::reserve, this::release, this::limit, siblings::waitingChanged);
+    this.children = new OffHeapResourceChildren(this, identifier, handler, siblings);
+    this.managementBinding = new OffHeapResourceBinding(identifier, this, parentIdentifier);
+  }
+
+  public String getIdentifier() {
+    return identifier;
+  }
+
+  public OffHeapResource getParent() {
+    return parent;
+  }
+
+  public OffHeapResourceBinding getManagementBinding() {
+    return managementBinding;
+  }
+
+  /**
+   * @return the guaranteed minimum size of this child
+   */
+  public long guaranteed() {
+    return min;
+  }
+
+  /**
+   * @return the size currently reserved from this child, or 0 once it has been removed
+   */
+  public long used() {
+    return Math.max(0L, used.get());
+  }
+
+  public Collection<OffHeapResourceChild> getChildren() {
+    return children.all();
+  }
+
+  @Override
+  public boolean reserve(long size) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Reservation size cannot be negative");
+    }
+
+    while (true) {
+      long current = used.get();
+      if (current == CLOSED) {
+        return false;
+      }
+      long next = current + size;
+      if (next > max) {
+        return false;
+      }
+      long fromParent = overflow(next) - overflow(current);
+      if (fromParent > 0 && !parent.reserve(fromParent)) {
+        return false;
+      }
+      if (used.compareAndSet(current, next)) {
+        if (next > max) {
+          // raced with setCapacity lowering the maximum
+          release(size);
+          return false;
+        }
+        return true;
+      }
+      if (fromParent > 0) {
+        parent.release(fromParent);
+      }
+    }
+  }
+
+  @Override
+  public boolean reserve(long size, long timeout, TimeUnit unit) throws IllegalArgumentException, InterruptedException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Reservation size cannot be negative");
+    }
+    return waiters.reserve(size, timeout, unit);
+  }
+
+  @Override
+  public CompletableFuture<Void> reserveAsync(long size) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Reservation size cannot be negative");
+    }
+    return waiters.enqueue(size);
+  }
+
+  @Override
+  public void release(long size) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Released size cannot be negative");
+    }
+
+    while (true) {
+      long current = used.get();
+      if (current == CLOSED) {
+        return;
+      }
+      long next = current - size;
+      if (used.compareAndSet(current, next)) {
+        long toParent = overflow(current) - overflow(next);
+        if (toParent > 0) {
+          // also serves the waiters of this child, as one of the parent's children
+          parent.release(toParent);
+        } else {
+          signal();
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return the count of reservations currently waiting for space
+   */
+  public long getReservationQueueDepth() {
+    return waiters.depth();
+  }
+
+  /**
+   * @return the cumulated time, in milliseconds, spent waiting by reservations which were eventually made
+   */
+  public long getReservationWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(waiters.totalWaitNanos());
+  }
+
+  /**
+   * @return the count of reservations which were made after waiting
+   */
+  public long getReservationWaitCount() {
+    return waiters.completedWaits();
+  }
+
+  /**
+   * The size that can currently be reserved: what is left of the guaranteed minimum, plus what the parent can
+   * provide within the maximum.
+   */
+  @Override
+  public long available() {
+    long current = used.get();
+    if (current == CLOSED) {
+      return 0L;
+    }
+    long limit = max;
+    long guaranteedLeft = Math.max(0L, min - current);
+    long beyondGuaranteed = Math.min(parent.available(), limit - Math.max(current, min));
+    return Math.max(0L, Math.min(limit - current, guaranteedLeft + Math.max(0L, beyondGuaranteed)));
+  }
+
+  @Override
+  public long capacity() {
+    return max;
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}, or if it is smaller than the guaranteed minimum
+   */
+  @Override
+  public boolean setCapacity(long size) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("New capacity size cannot be negative");
+    }
+    if (size < min) {
+      throw new IllegalArgumentException("New capacity " + size + " cannot be smaller than the guaranteed minimum " + min);
+    }
+
+    synchronized (capacityLock) {
+      long oldMax = max;
+      // publish the new maximum before checking the usage, reservations check it again after updating the usage
+      max = size;
+      if (used.get() > size) {
+        max = oldMax;
+        return false;
+      }
+    }
+    limitChanged();
+    return true;
+  }
+
+  @Override
+  public OffHeapResource createChild(String name, long min, long max) throws IllegalArgumentException {
+    return children.create(name, min, max);
+  }
+
+  @Override
+  public OffHeapResource getChild(String name) {
+    return children.get(name);
+  }
+
+  @Override
+  public boolean removeChild(String name) {
+    return children.remove(name);
+  }
+
+  void close() {
+    long last = used.getAndSet(CLOSED);
+    if (last != CLOSED) {
+      waiters.close(new IllegalStateException("Child resource " + identifier + " was removed"));
+      parent.release(min + overflow(last));
+      children.clear();
+    }
+  }
+
+  void signal() {
+    waiters.signal();
+    children.signal();
+  }
+
+  void limitChanged() {
+    waiters.limitChanged();
+    children.limitChanged();
+  }
+
+  /**
+   * The largest reservation this child could ever satisfy: it is bound by its maximum, and by its parent's capacity.
+   */
+  private long limit() {
+    return Math.min(max, parent.capacity());
+  }
+
+  private long overflow(long usage) {
+    return Math.max(0L, usage - min);
+  }
+
+  @Override
+  public String toString() {
+    return "OffHeapResourceChild{" + identifier + ", min=" + min + ", max=" + max + ", used=" + used() + "}";
+  }
+}
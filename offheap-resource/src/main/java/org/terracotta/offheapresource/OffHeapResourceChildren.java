@@ -0,0 +1,143 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The children of an {@link OffHeapResource}.
+ */
+class OffHeapResourceChildren {
+
+  private final OffHeapResource owner;
+  private final String ownerIdentifier;
+  private final ChildResourceHandler handler;
+  // the children the owner belongs to, null for a top-level owner
+  private final OffHeapResourceChildren ownerSiblings;
+  // reservations waiting on any descendant of the owner, so that releases skip the walk when there are none
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final Map<String, OffHeapResourceChild> children = new ConcurrentHashMap<>();
+  // copy of the children, walked without allocating on every release of the owner
+  private volatile OffHeapResourceChild[] snapshot = new OffHeapResourceChild[0];
+
+  OffHeapResourceChildren(OffHeapResource owner, String ownerIdentifier, ChildResourceHandler handler, OffHeapResourceChildren ownerSiblings) {
+    this.owner = owner;
+    this.ownerIdentifier = ownerIdentifier;
+    this.handler = handler;
+    this.ownerSiblings = ownerSiblings;
+  }
+
+  OffHeapResourceChild create(String name, long min, long max) throws IllegalArgumentException {
+    if (name == null) {
+      throw new NullPointerException("Child name cannot be null");
+    }
+    if (min < 0 || max < 0) {
+      throw new IllegalArgumentException("Child sizes cannot be negative");
+    }
+    if (min > max) {
+      throw new IllegalArgumentException("Child minimum " + min + " cannot be larger than its maximum " + max);
+    }
+
+    synchronized (children) {
+      if (children.containsKey(name)) {
+        throw new IllegalArgumentException("Child " + name + " already exists in " + ownerIdentifier);
+      }
+      if (!owner.reserve(min)) {
+        return null;
+      }
+      OffHeapResourceChild child = new OffHeapResourceChild(ownerIdentifier + "/" + name, ownerIdentifier, owner, this, min, max, handler);
+      children.put(name, child);
+      snapshot = children.values().toArray(new OffHeapResourceChild[0]);
+      handler.onChildCreated(child);
+      return child;
+    }
+  }
+
+  OffHeapResourceChild get(String name) {
+    return children.get(name);
+  }
+
+  boolean remove(String name) {
+    OffHeapResourceChild child;
+    synchronized (children) {
+      child = children.remove(name);
+      if (child != null) {
+        snapshot = children.values().toArray(new OffHeapResourceChild[0]);
+      }
+    }
+    if (child == null) {
+      return false;
+    }
+    child.close();
+    handler.onChildRemoved(child);
+    return true;
+  }
+
+  /**
+   * Accounts for reservations starting or ceasing to wait on a child, or on any of its descendants.
+   */
+  void waitingChanged(int delta) {
+    for (OffHeapResourceChildren children = this; children != null; children = children.ownerSiblings) {
+      children.waiting.addAndGet(delta);
+    }
+  }
+
+  /**
+   * @return the count of reservations waiting on any descendant of the owner
+   */
+  int waiting() {
+    return waiting.get();
+  }
+
+  /**
+   * Serves the reservations waiting on the children, after the owner freed space. This is a single volatile read when
+   * none of the descendants of the owner has waiting reservations.
+   */
+  void signal() {
+    if (waiting.get() == 0) {
+      return;
+    }
+    for (OffHeapResourceChild child : snapshot) {
+      child.signal();
+    }
+  }
+
+  /**
+   * Fails the reservations waiting on the children that no longer fit, after the owner's capacity changed.
+   */
+  void limitChanged() {
+    if (waiting.get() == 0) {
+      return;
+    }
+    for (OffHeapResourceChild child : snapshot) {
+      child.limitChanged();
+    }
+  }
+
+  Collection<OffHeapResourceChild> all() {
+    return Collections.unmodifiableCollection(children.values());
+  }
+
+  void clear() {
+    for (String name : children.keySet()) {
+      remove(name);
+    }
+  }
+}
@@ -23,9 +23,12 @@ import org.terracotta.tripwire.TripwireFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 
 /**
@@ -40,6 +43,8 @@ class OffHeapResourceImpl implements OffHeapResource, AutoCloseable {
   private static final String OFFHEAP_WARN_KEY = "offheap.warn";
   private static final String DEFAULT_MESSAGE = "Offheap allocation for resource \"{}\" reached {}%, you may run out of memory if allocation continues.";
   private static final Properties MESSAGE_PROPERTIES;
+  // the monitor is sampled at most once per period from the reserve/release paths
+  private static final long MONITOR_SAMPLING_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
 
   static {
     Properties defaults = new Properties();
@@ -62,13 +67,22 @@ class OffHeapResourceImpl implements OffHeapResource, AutoCloseable {
     }
   }
 
-  private final AtomicReference<OffHeapResourceState> state;
+  // remaining = capacity - used: the only word touched by a reservation, so that checks are exact at the boundary
+  private final AtomicLong remaining;
+  private final Object capacityLock = new Object();
+  private volatile Limits limits;
+  // setCapacity moves remaining and then limits, under capacityLock, while this is odd: a reader combining the two
+  // retries unless it saw the same even value before and after reading them
+  private volatile long capacityVersion;
   private final String identifier;
   private final BiConsumer<OffHeapResourceImpl, ThresholdChange> onReservationThresholdReached;
   private final CapacityChangeHandler onCapacityChanged;
   private final OffHeapResourceBinding managementBinding;
   private final AtomicInteger threshold = new AtomicInteger();
   private final MemoryMonitor monitor;
+  private final OffHeapResourceChildren children;
+  private final ReservationQueue waiters = new ReservationQueue(this::reserve, this::release, this::capacity);
+  private final AtomicLong nextMonitorSample = new AtomicLong(System.nanoTime());
 
   /**
    * Creates a resource of the given initial size.
@@ -77,9 +91,11 @@ class OffHeapResourceImpl implements OffHeapResource, AutoCloseable {
    * @param size size of the resource
    * @param onReservationThresholdReached event consumer - will receive events regarding usage thresholds
    * @param onCapacityChanged event consumer - will receive an event when the capacity changes
+   * @param onChildChanged event consumer - will receive an event when a child resource is created or removed
    * @throws IllegalArgumentException if the size is negative
    */
-  OffHeapResourceImpl(String identifier, long size, BiConsumer<OffHeapResourceImpl, ThresholdChange> onReservationThresholdReached, CapacityChangeHandler onCapacityChanged) throws IllegalArgumentException {
+  OffHeapResourceImpl(String identifier, long size, BiConsumer<OffHeapResourceImpl, ThresholdChange> onReservationThresholdReached, CapacityChangeHandler onCapacityChanged, ChildResourceHandler onChildChanged) throws IllegalArgumentException {
+    this.children = new OffHeapResourceChildren(this, identifier, onChildChanged, null);
     this.onReservationThresholdReached = onReservationThresholdReached;
     this.onCapacityChanged = onCapacityChanged;
     this.managementBinding = new OffHeapResourceBinding(identifier, this);
@@ -87,12 +103,26 @@ class OffHeapResourceImpl implements OffHeapResource, AutoCloseable {
       throw new IllegalArgumentException("Resource size cannot be negative");
     }
 
-    this.state = new AtomicReference<>(new OffHeapResourceState(size));
+    this.remaining = new AtomicLong(size);
+    this.limits = new Limits(size);
     this.identifier = identifier;
     monitor = TripwireFactory.createMemoryMonitor(identifier);
     monitor.register();
   }
 
+  /**
+   * Creates a resource of the given initial size.
+   *
+   * @param identifier
+   * @param size size of the resource
+   * @param onReservationThresholdReached event consumer - will receive events regarding usage thresholds
+   * @param onCapacityChanged event consumer - will receive an event when the capacity changes
+   * @throws IllegalArgumentException if the size is negative
+   */
+  OffHeapResourceImpl(String identifier, long size, BiConsumer<OffHeapResourceImpl, ThresholdChange> onReservationThresholdReached, CapacityChangeHandler onCapacityChanged) throws IllegalArgumentException {
+    this(identifier, size, onReservationThresholdReached, onCapacityChanged, ChildResourceHandler.NO_OP);
+  }
+
   /**
    * Creates a resource of the given initial size.
    *
@@ -137,34 +167,47 @@ class OffHeapResourceImpl implements OffHeapResource, AutoCloseable {
     }
 
     while (true) {
-      OffHeapResourceState currentState = state.get();
-      OffHeapResourceState newState = currentState.reserve(size);
-
-      if (newState.isOverflowed()) {
+      long current = remaining.get();
+      if (current < size) {
         return false;
       }
-
-      if (state.compareAndSet(currentState, newState)) {
-        stateUpdated(newState);
+      if (remaining.compareAndSet(current, current - size)) {
+        stateUpdated(false);
         return true;
       }
     }
   }
 
-  private void stateUpdated(OffHeapResourceState newState) {
-    long capacity = newState.getCapacity();
-    long used = newState.getUsed();
+  /**
+   * Evaluates the usage thresholds and samples the memory monitor.
+   * <p>
+   * This runs on every reservation and release, so thresholds are compared against precomputed byte limits and
+   * the shared threshold word is only written when the threshold actually changes. The monitor is sampled at most
+   * once every {@link #MONITOR_SAMPLING_PERIOD_NANOS}, unless {@code force} is set. The remaining size is read
+   * again together with the limits, so that a concurrent capacity change is never seen half applied.
+   */
+  private void stateUpdated(boolean force) {
+    Limits currentLimits;
+    long newRemaining;
+    long version;
+    do {
+      version = capacityVersion;
+      currentLimits = limits;
+      newRemaining = remaining.get();
+    } while ((version & 1) != 0 || version != capacityVersion);
+    long capacity = currentLimits.capacity;
+    long used = capacity - newRemaining;
 
-    long percentOccupied = (used * 100L) / capacity;
     int newT, curT = threshold.get();
-    if (percentOccupied >= 90L) {
+    if (used >= currentLimits.warnLimit) {
       newT = 90;
-    } else if (percentOccupied >= 75L) {
+    } else if (used >= currentLimits.infoLimit) {
       newT = 75;
     } else {
       newT = 0;
     }
-    if (threshold.compareAndSet(curT, newT)) {
+    if (newT != curT && threshold.compareAndSet(curT, newT)) {
+      long percentOccupied = capacity == 0 ? 0 : (used * 100L) / capacity;
       if (newT > curT) {
         // increase from 0->75 or 75->90
         if (newT == 90) {
@@ -172,16 +215,26 @@ class OffHeapResourceImpl implements OffHeapResource, AutoCloseable {
         } else {
           LOGGER.info(MESSAGE_PROPERTIES.getProperty(OFFHEAP_INFO_KEY), identifier, percentOccupied);
         }
-        onReservationThresholdReached.accept(this, new ThresholdChange(curT, newT));
-      } else if (newT < curT) {
+      } else {
         // decrease from 90->75 or 75->0
         if (newT == 75) {
           LOGGER.info(MESSAGE_PROPERTIES.getProperty(OFFHEAP_INFO_KEY), identifier, percentOccupied);
         }
-        onReservationThresholdReached.accept(this, new ThresholdChange(curT, newT));
+      }
+      onReservationThresholdReached.accept(this, new ThresholdChange(curT, newT));
+      force = true;
+    }
+
+    long now = System.nanoTime();
+    if (force) {
+      nextMonitorSample.set(now + MONITOR_SAMPLING_PERIOD_NANOS);
+      monitor.sample(newRemaining, used);
+    } else {
+      long next = nextMonitorSample.get();
+      if (now - next >= 0 && nextMonitorSample.compareAndSet(next, now + MONITOR_SAMPLING_PERIOD_NANOS)) {
+        monitor.sample(newRemaining, used);
       }
     }
-    monitor.sample(capacity - used, used);
   }
 
   /**
@@ -194,15 +247,58 @@ class OffHeapResourceImpl implements OffHeapResource, AutoCloseable {
       throw new IllegalArgumentException("Released size cannot be negative");
     }
 
-    while (true) {
-      OffHeapResourceState currentState = state.get();
-      OffHeapResourceState newState = currentState.release(size);
+    remaining.addAndGet(size);
+    stateUpdated(false);
+    waiters.signal();
+    children.signal();
+  }
 
-      if (state.compareAndSet(currentState, newState)) {
-        stateUpdated(newState);
-        return;
-      }
+  /**
+   * {@inheritDoc}
+   * <p>
+   * A reservation made through {@link #reserve(long)} does not wait, and can therefore be made ahead of the waiting
+   * ones.
+   * @throws IllegalArgumentException {@inheritDoc}
+   */
+  @Override
+  public boolean reserve(long size, long timeout, TimeUnit unit) throws IllegalArgumentException, InterruptedException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Reservation size cannot be negative");
+    }
+    return waiters.reserve(size, timeout, unit);
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException {@inheritDoc}
+   */
+  @Override
+  public CompletableFuture<Void> reserveAsync(long size) throws IllegalArgumentException {
+    if (size < 0) {
+      throw new IllegalArgumentException("Reservation size cannot be negative");
     }
+    return waiters.enqueue(size);
+  }
+
+  /**
+   * @return the count of reservations currently waiting for space
+   */
+  public long getReservationQueueDepth() {
+    return waiters.depth();
+  }
+
+  /**
+   * @return the cumulated time, in milliseconds, spent waiting by reservations which were eventually made
+   */
+  public long getReservationWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(waiters.totalWaitNanos());
+  }
+
+  /**
+   * @return the count of reservations which were made after waiting
+   */
+  public long getReservationWaitCount() {
+    return waiters.completedWaits();
   }
 
   /**
@@ -210,12 +306,25 @@ class OffHeapResourceImpl implements OffHeapResource, AutoCloseable {
    */
   @Override
   public long available() {
-    return state.get().getRemaining();
+    return remaining.get();
   }
 
   @Override
   public long capacity() {
-    return state.get().getCapacity();
+    return limits.capacity;
+  }
+
+  /**
+   * @return the size currently reserved, read consistently with the capacity it is taken from
+   */
+  long used() {
+    long used;
+    long version;
+    do {
+      version = capacityVersion;
+      used = limits.capacity - remaining.get();
+    } while ((version & 1) != 0 || version != capacityVersion);
+    return used;
   }
 
   @Override
@@ -224,22 +333,59 @@ class OffHeapResourceImpl implements OffHeapResource, AutoCloseable {
       throw new IllegalArgumentException("New capacity size cannot be negative");
     }
 
-    while (true) {
-      OffHeapResourceState currentState = state.get();
-      OffHeapResourceState newState = currentState.withCapacity(size);
-
-      if (newState.isOverflowed()) {
-        return false;
-      }
-
-      if (state.compareAndSet(currentState, newState)) {
-        onCapacityChanged.onCapacityChanged(this, currentState.getCapacity(), newState.getCapacity());
-        stateUpdated(newState);
-        return true;
+    synchronized (capacityLock) {
+      long oldCapacity = limits.capacity;
+      long delta = size - oldCapacity;
+      capacityVersion++;
+      try {
+        while (true) {
+          long current = remaining.get();
+          long newRemaining = current + delta;
+          if (newRemaining < 0) {
+            return false;
+          }
+          if (remaining.compareAndSet(current, newRemaining)) {
+            break;
+          }
+        }
+        limits = new Limits(size);
+      } finally {
+        capacityVersion++;
       }
+      onCapacityChanged.onCapacityChanged(this, oldCapacity, size);
+      stateUpdated(true);
     }
+    waiters.limitChanged();
+    children.limitChanged();
+    return true;
   }
-  
+
+  @Override
+  public OffHeapResource createChild(String name, long min, long max) throws IllegalArgumentException {
+    return children.create(name, min, max);
+  }
+
+  @Override
+  public OffHeapResource getChild(String name) {
+    return children.get(name);
+  }
+
+  @Override
+  public boolean removeChild(String name) {
+    return children.remove(name);
+  }
+
+  public Collection<OffHeapResourceChild> getChildren() {
+    return children.all();
+  }
+
+  /**
+   * @return the count of reservations waiting on any descendant of this resource
+   */
+  int getDescendantQueueDepth() {
+    return children.waiting();
+  }
+
   static class ThresholdChange {
     final int old;
     final int now;
@@ -250,46 +396,23 @@ class OffHeapResourceImpl implements OffHeapResource, AutoCloseable {
     }
   }
 
-  private static class OffHeapResourceState {
+  /**
+   * The capacity and the derived threshold limits, replaced as a whole when the capacity changes.
+   */
+  private static class Limits {
     private final long capacity;
-    private final long used;
-
-    public OffHeapResourceState(long capacity) {
-      this.capacity = capacity;
-      this.used = 0;
-    }
+    private final long infoLimit;
+    private final long warnLimit;
 
-    private OffHeapResourceState(long capacity, long used) {
+    Limits(long capacity) {
       this.capacity = capacity;
-      this.used = used;
-    }
-
-    public long getCapacity() {
-      return capacity;
-    }
-
-    public long getUsed() {
-      return used;
-    }
-
-    public long getRemaining() {
-      return capacity - used;
-    }
-
-    public boolean isOverflowed() {
-      return used > capacity;
-    }
-
-    public OffHeapResourceState reserve(long size) {
-      return new OffHeapResourceState(capacity, used + size);
-    }
-
-    public OffHeapResourceState release(long size) {
-      return new OffHeapResourceState(capacity, used - size);
+      // smallest usages for which (used * 100) / capacity reaches 75 and 90
+      this.infoLimit = capacity == 0 ? Long.MAX_VALUE : ceilDiv(capacity * 75L, 100L);
+      this.warnLimit = capacity == 0 ? Long.MAX_VALUE : ceilDiv(capacity * 90L, 100L);
     }
 
-    public OffHeapResourceState withCapacity(long newCapacity) {
-      return new OffHeapResourceState(newCapacity, used);
+    private static long ceilDiv(long dividend, long divisor) {
+      return (dividend + divisor - 1) / divisor;
     }
   }
 }
@@ -43,6 +43,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import static org.terracotta.offheapresource.OffHeapResourceIdentifier.identifier;
 
@@ -109,11 +110,19 @@ public class OffHeapResourcesProvider implements OffHeapResources, ManageableSer
         LOGGER.trace("[{}] onManagementRegistryCreated() - Exposing OffHeapResource:{}", registry.getMonitoringService().getConsumerId(), identifier.getName());
         OffHeapResourceBinding managementBinding = getOffHeapResource(identifier).getManagementBinding();
         registry.register(managementBinding);
+        registerChildren(registry, getOffHeapResource(identifier).getChildren());
       }
       registry.refresh();
     }
   }
 
+  private void registerChildren(EntityManagementRegistry registry, Collection<OffHeapResourceChild> children) {
+    for (OffHeapResourceChild child : children) {
+      registry.register(child.getManagementBinding());
+      registerChildren(registry, child.getChildren());
+    }
+  }
+
   @Override
   public void onManagementRegistryClose(EntityManagementRegistry registry) {
     LOGGER.trace("[{}] onManagementRegistryClose()", registry.getMonitoringService().getConsumerId());
@@ -188,19 +197,27 @@ public class OffHeapResourcesProvider implements OffHeapResources, ManageableSer
               registry.refresh();
               registry.pushServerEntityNotification(res.getManagementBinding(), "OFFHEAP_RESOURCE_CAPACITY_CHANGED", attrs);
             }
+          },
+          new ChildResourceHandler() {
+            @Override
+            public void onChildCreated(OffHeapResourceChild child) {
+              createAllocatedMemoryStatistic(child, child.getIdentifier(), child::used);
+              createReservationStatistics(child, child.getIdentifier(), child::getReservationQueueDepth, child::getReservationWaitTime, child::getReservationWaitCount);
+              for (EntityManagementRegistry registry : registries) {
+                registry.registerAndRefresh(child.getManagementBinding());
+              }
+            }
+
+            @Override
+            public void onChildRemoved(OffHeapResourceChild child) {
+              for (EntityManagementRegistry registry : registries) {
+                registry.unregisterAndRefresh(child.getManagementBinding());
+              }
+            }
           }
       );
-      Map<String, Object> properties = new HashMap<>();
-      properties.put("discriminator", "OffHeapResource");
-      properties.put("offHeapResourceIdentifier", identifier.getName());
-      StatisticsManager.createPassThroughStatistic(
-          offHeapResource,
-          "allocatedMemory",
-          new HashSet<>(Arrays.asList("OffHeapResource", "tier")),
-          properties,
-          StatisticType.GAUGE,
-          () -> offHeapResource.capacity() - offHeapResource.available()
-      );
+      createAllocatedMemoryStatistic(offHeapResource, identifier.getName(), offHeapResource::used);
+      createReservationStatistics(offHeapResource, identifier.getName(), offHeapResource::getReservationQueueDepth, offHeapResource::getReservationWaitTime, offHeapResource::getReservationWaitCount);
 
       updateConfiguredOffheap(capacityInBytes);
       return offHeapResource;
@@ -208,6 +225,30 @@ public class OffHeapResourcesProvider implements OffHeapResources, ManageableSer
     return status.get();
   }
 
+  private static void createAllocatedMemoryStatistic(OffHeapResource offHeapResource, String identifier, Supplier<Long> allocatedMemory) {
+    createStatistic(offHeapResource, identifier, "allocatedMemory", StatisticType.GAUGE, allocatedMemory);
+  }
+
+  private static void createReservationStatistics(OffHeapResource offHeapResource, String identifier, Supplier<Long> queueDepth, Supplier<Long> waitTime, Supplier<Long> waitCount) {
+    createStatistic(offHeapResource, identifier, "reservationQueueDepth", StatisticType.GAUGE, queueDepth);
+    createStatistic(offHeapResource, identifier, "reservationWaitTime", StatisticType.COUNTER, waitTime);
+    createStatistic(offHeapResource, identifier, "reservationWaitCount", StatisticType.COUNTER, waitCount);
+  }
+
+  private static void createStatistic(OffHeapResource offHeapResource, String identifier, String name, StatisticType type, Supplier<Long> value) {
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("discriminator", "OffHeapResource");
+    properties.put("offHeapResourceIdentifier", identifier);
+    StatisticsManager.createPassThroughStatistic(
+        offHeapResource,
+        name,
+        new HashSet<>(Arrays.asList("OffHeapResource", "tier")),
+        properties,
+        type,
+        value
+    );
+  }
+
   private void updateConfiguredOffheap(long delta) {
     long current = totalConfiguredOffheap.addAndGet(delta);
     warnIfOffheapExceedsPhysicalMemory(current);
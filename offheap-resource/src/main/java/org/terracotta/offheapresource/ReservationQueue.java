@@ -0,0 +1,309 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * The reservations waiting for space in a resource, served in FIFO order.
+ * <p>
+ * Waiting reservations never overtake each other: a reservation is only attempted once all the ones queued before it
+ * were satisfied or abandoned. The owning resource calls {@link #signal()} whenever it frees space, which is a single
+ * volatile read when nobody is waiting.
+ * <p>
+ * A reservation larger than the owner's limit could never be served and would block every reservation behind it, so
+ * it fails right away, or as soon as the limit drops below it.
+ */
+class ReservationQueue {
+
+  private final LongPredicate tryReserve;
+  private final LongConsumer release;
+  private final LongSupplier limit;
+  private final IntConsumer depthChanged;
+  private final Deque<Waiter> waiters = new ArrayDeque<>();
+  private final AtomicInteger depth = new AtomicInteger();
+  private final AtomicLong totalWaitNanos = new AtomicLong();
+  private final AtomicLong completedWaits = new AtomicLong();
+  // guarded by waiters
+  private RuntimeException closed;
+
+  /**
+   * @param tryReserve the owner's non-blocking reservation
+   * @param release the owner's release, used to give back a reservation whose waiter gave up concurrently
+   * @param limit the largest reservation the owner could ever satisfy
+   */
+  ReservationQueue(LongPredicate tryReserve, LongConsumer release, LongSupplier limit) {
+    this(tryReserve, release, limit, delta -> { });
+  }
+
+  /**
+   * @param depthChanged told of every change of the count of waiting reservations, before it is visible to
+   * {@link #signal()}
+   */
+  ReservationQueue(LongPredicate tryReserve, LongConsumer release, LongSupplier limit, IntConsumer depthChanged) {
+    this.tryReserve = tryReserve;
+    this.release = release;
+    this.limit = limit;
+    this.depthChanged = depthChanged;
+  }
+
+  /**
+   * Reserves immediately if nobody is waiting and there is enough space, or queues the reservation.
+   * <p>
+   * Cancelling the returned future abandons the reservation if it has not been satisfied yet.
+   *
+   * @param size the reservation size
+   * @return a future completed once the reservation has been made, or failed if it exceeds the limit
+   */
+  CompletableFuture<Void> enqueue(long size) {
+    long currentLimit = limit.getAsLong();
+    if (size > currentLimit) {
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      future.completeExceptionally(tooLarge(size, currentLimit));
+      return future;
+    }
+
+    Waiter waiter;
+    synchronized (waiters) {
+      if (closed != null) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(closed);
+        return future;
+      }
+      // announce the waiter before trying: a concurrent release either sees it or frees space seen by the attempt
+      changeDepth(1);
+      if (waiters.isEmpty() && tryReserve.test(size)) {
+        changeDepth(-1);
+        return CompletableFuture.completedFuture(null);
+      }
+      waiter = new Waiter(size);
+      waiters.addLast(waiter);
+    }
+    waiter.future.whenComplete((v, t) -> {
+      if (t != null && remove(waiter)) {
+        // the abandoned head may have been blocking smaller reservations
+        signal();
+      }
+    });
+    return waiter.future;
+  }
+
+  /**
+   * Reserves through {@link #enqueue(long)}, waiting up to the given time for the reservation to be made.
+   *
+   * @return {@code true} if the reservation was made within the timeout, {@code false} if it timed out or exceeds the
+   * limit
+   * @throws InterruptedException if the calling thread is interrupted while waiting, the reservation is then abandoned
+   */
+  boolean reserve(long size, long timeout, TimeUnit unit) throws InterruptedException {
+    CompletableFuture<Void> reservation = enqueue(size);
+    try {
+      reservation.get(timeout, unit);
+      return true;
+    } catch (TimeoutException e) {
+      return abandon(reservation);
+    } catch (InterruptedException e) {
+      if (abandon(reservation)) {
+        release.accept(size);
+      }
+      throw e;
+    } catch (ExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Abandons a reservation whose waiter gave up, unless it was made in the meantime.
+   *
+   * @return {@code true} if the reservation was made, and its space must then be released by the caller
+   */
+  static boolean abandon(CompletableFuture<Void> reservation) {
+    // cancelling fails if the reservation was made, or failed, in the meantime
+    reservation.cancel(false);
+    return !reservation.isCompletedExceptionally();
+  }
+
+  /**
+   * Serves the queued reservations, in order, for as long as there is space for the head of the queue.
+   */
+  void signal() {
+    if (depth.get() == 0) {
+      return;
+    }
+
+    List<Waiter> satisfied = new ArrayList<>();
+    List<Waiter> failed = Collections.emptyList();
+    long currentLimit = limit.getAsLong();
+    synchronized (waiters) {
+      Waiter head;
+      while ((head = waiters.peekFirst()) != null) {
+        if (head.future.isDone()) {
+          waiters.pollFirst();
+          changeDepth(-1);
+        } else if (head.size > currentLimit) {
+          waiters.pollFirst();
+          changeDepth(-1);
+          failed = add(failed, head);
+        } else if (tryReserve.test(head.size)) {
+          waiters.pollFirst();
+          changeDepth(-1);
+          satisfied.add(head);
+        } else {
+          break;
+        }
+      }
+    }
+
+    for (Waiter waiter : satisfied) {
+      if (waiter.future.complete(null)) {
+        totalWaitNanos.addAndGet(System.nanoTime() - waiter.enqueuedAt);
+        completedWaits.incrementAndGet();
+      } else {
+        // the waiter gave up while it was being served
+        release.accept(waiter.size);
+      }
+    }
+    fail(failed, currentLimit);
+  }
+
+  /**
+   * Fails the queued reservations that no longer fit within the limit, wherever they are queued, then serves the
+   * others. Called by the owning resource after its limit changed.
+   */
+  void limitChanged() {
+    if (depth.get() == 0) {
+      return;
+    }
+
+    List<Waiter> failed = Collections.emptyList();
+    long currentLimit = limit.getAsLong();
+    synchronized (waiters) {
+      for (Iterator<Waiter> it = waiters.iterator(); it.hasNext(); ) {
+        Waiter waiter = it.next();
+        if (waiter.size > currentLimit) {
+          it.remove();
+          changeDepth(-1);
+          failed = add(failed, waiter);
+        }
+      }
+    }
+    fail(failed, currentLimit);
+    signal();
+  }
+
+  /**
+   * Fails every queued reservation, as well as all later ones, once the owning resource can no longer satisfy any.
+   *
+   * @param cause the failure of the reservations
+   */
+  void close(RuntimeException cause) {
+    List<Waiter> failed;
+    synchronized (waiters) {
+      closed = cause;
+      failed = new ArrayList<>(waiters);
+      waiters.clear();
+      changeDepth(-failed.size());
+    }
+    for (Waiter waiter : failed) {
+      waiter.future.completeExceptionally(cause);
+    }
+  }
+
+  /**
+   * @return the count of reservations currently waiting
+   */
+  int depth() {
+    return depth.get();
+  }
+
+  /**
+   * @return the cumulated time spent waiting by the reservations that were eventually satisfied, in nanoseconds
+   */
+  long totalWaitNanos() {
+    return totalWaitNanos.get();
+  }
+
+  /**
+   * @return the count of reservations that were satisfied after waiting
+   */
+  long completedWaits() {
+    return completedWaits.get();
+  }
+
+  private void changeDepth(int delta) {
+    if (delta > 0) {
+      // announced to the owner's ancestors first, so that their releases do not skip this queue
+      depthChanged.accept(delta);
+      depth.addAndGet(delta);
+    } else if (delta < 0) {
+      depth.addAndGet(delta);
+      depthChanged.accept(delta);
+    }
+  }
+
+  private static void fail(List<Waiter> failed, long limit) {
+    for (Waiter waiter : failed) {
+      waiter.future.completeExceptionally(tooLarge(waiter.size, limit));
+    }
+  }
+
+  private static IllegalStateException tooLarge(long size, long limit) {
+    return new IllegalStateException("Cannot reserve " + size + " bytes, more than the limit of " + limit + " bytes");
+  }
+
+  private static List<Waiter> add(List<Waiter> waiters, Waiter waiter) {
+    if (waiters.isEmpty()) {
+      waiters = new ArrayList<>();
+    }
+    waiters.add(waiter);
+    return waiters;
+  }
+
+  private boolean remove(Waiter waiter) {
+    synchronized (waiters) {
+      if (waiters.remove(waiter)) {
+        changeDepth(-1);
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private static class Waiter {
+    private final long size;
+    private final long enqueuedAt = System.nanoTime();
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    Waiter(long size) {
+      this.size = size;
+    }
+  }
+}
@@ -20,8 +20,22 @@ import org.terracotta.offheapresource.OffHeapResource;
 
 public class OffHeapResourceBinding extends AliasBinding {
 
+  private final String parentIdentifier;
+
   public OffHeapResourceBinding(String identifier, OffHeapResource offHeapResource) {
+    this(identifier, offHeapResource, null);
+  }
+
+  public OffHeapResourceBinding(String identifier, OffHeapResource offHeapResource, String parentIdentifier) {
     super(identifier, offHeapResource);
+    this.parentIdentifier = parentIdentifier;
+  }
+
+  /**
+   * @return the identifier of the resource this child resource was carved out of, or {@code null} for a top-level resource
+   */
+  public String getParentIdentifier() {
+    return parentIdentifier;
   }
 
   @Override
@@ -41,9 +41,18 @@ public class OffHeapResourceStatisticsManagementProvider extends AbstractStatist
 
   private static class OffHeapResourceBindingExposedStatistics extends AbstractExposedStatistics<OffHeapResourceBinding> {
     OffHeapResourceBindingExposedStatistics(Context context, OffHeapResourceBinding binding, StatisticRegistry statisticRegistry) {
-      super(context.with("type", "OffHeapResource"), binding, statisticRegistry);
+      super(withParent(context.with("type", "OffHeapResource"), binding), binding, statisticRegistry);
 
       getStatisticRegistry().registerStatistic("AllocatedMemory", descriptor("allocatedMemory", "tier", "OffHeapResource"));
+      getStatisticRegistry().registerStatistic("ReservationQueueDepth", descriptor("reservationQueueDepth", "tier", "OffHeapResource"));
+      getStatisticRegistry().registerStatistic("ReservationWaitTime", descriptor("reservationWaitTime", "tier", "OffHeapResource"));
+      getStatisticRegistry().registerStatistic("ReservationWaitCount", descriptor("reservationWaitCount", "tier", "OffHeapResource"));
+    }
+
+    // child resources are exposed like any other resource, with the alias of the resource they were carved out of
+    private static Context withParent(Context context, OffHeapResourceBinding binding) {
+      String parentIdentifier = binding.getParentIdentifier();
+      return parentIdentifier == null ? context : context.with("parentAlias", parentIdentifier);
     }
   }
 
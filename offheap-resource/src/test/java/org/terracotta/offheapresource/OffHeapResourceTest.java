@@ -18,6 +18,8 @@ package org.terracotta.offheapresource;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
@@ -26,6 +28,12 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -114,6 +122,81 @@ public class OffHeapResourceTest {
     offHeapResource.reserve(1); // Does print a warn log statement
   }
 
+  @Test
+  public void testThresholdChanges() {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl(identifier, 10L, onThresholdChange, onCapacityChange);
+    ohr.reserve(7L);
+    verifyNoMoreInteractions(onThresholdChange);
+    ohr.reserve(1L);
+    verify(onThresholdChange).accept(same(ohr), argThat(change -> change.old == 0 && change.now == 75));
+    ohr.reserve(1L);
+    verify(onThresholdChange).accept(same(ohr), argThat(change -> change.old == 75 && change.now == 90));
+    ohr.release(9L);
+    verify(onThresholdChange).accept(same(ohr), argThat(change -> change.old == 90 && change.now == 0));
+    verifyNoMoreInteractions(onThresholdChange);
+  }
+
+  @Test
+  public void testConcurrentReservationsAreExactAtTheBoundary() throws Exception {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl(identifier, 1_000_000L);
+    AtomicLong reserved = new AtomicLong();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit(() -> {
+          for (int j = 0; j < 100_000; j++) {
+            if (ohr.reserve(7L)) {
+              reserved.addAndGet(7L);
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(reserved.get(), is(1_000_000L - 1_000_000L % 7L));
+    assertThat(ohr.available(), is(1_000_000L % 7L));
+  }
+
+  @Test
+  public void testUsageIsConsistentWithTheCapacityWhileItChanges() throws Exception {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl(identifier, 100L);
+    ExecutorService executor = Executors.newFixedThreadPool(3);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 100_000; i++) {
+          if (ohr.reserve(10L)) {
+            ohr.release(10L);
+          }
+        }
+      }));
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 100_000; i++) {
+          ohr.setCapacity(i % 2 == 0 ? 1_000L : 100L);
+        }
+      }));
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 100_000; i++) {
+          long used = ohr.used();
+          if (used < 0L || used > 10L) {
+            throw new AssertionError("Inconsistent usage: " + used);
+          }
+        }
+      }));
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(ohr.used(), is(0L));
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void testSetCapacityNegative() {
     OffHeapResourceImpl ohr = new OffHeapResourceImpl(identifier, 20L, onThresholdChange, onCapacityChange);
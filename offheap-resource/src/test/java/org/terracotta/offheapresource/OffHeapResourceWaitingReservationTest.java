@@ -0,0 +1,225 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.offheapresource;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class OffHeapResourceWaitingReservationTest {
+
+  @Test
+  public void testAsyncReservationCompletesImmediatelyWhenSpaceIsAvailable() {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl("id", 20L);
+    CompletableFuture<Void> reservation = ohr.reserveAsync(10L);
+    assertThat(reservation.isDone(), is(true));
+    assertThat(ohr.available(), is(10L));
+    assertThat(ohr.getReservationQueueDepth(), is(0L));
+  }
+
+  @Test
+  public void testAsyncReservationCompletesOnRelease() {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl("id", 20L);
+    assertThat(ohr.reserve(15L), is(true));
+    CompletableFuture<Void> reservation = ohr.reserveAsync(10L);
+    assertThat(reservation.isDone(), is(false));
+    assertThat(ohr.getReservationQueueDepth(), is(1L));
+
+    ohr.release(5L);
+    assertThat(reservation.isDone(), is(true));
+    assertThat(ohr.available(), is(0L));
+    assertThat(ohr.getReservationQueueDepth(), is(0L));
+    assertThat(ohr.getReservationWaitCount(), is(1L));
+  }
+
+  @Test
+  public void testAsyncReservationCompletesOnCapacityIncrease() {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl("id", 20L);
+    assertThat(ohr.reserve(15L), is(true));
+    CompletableFuture<Void> reservation = ohr.reserveAsync(10L);
+    assertThat(reservation.isDone(), is(false));
+
+    assertThat(ohr.setCapacity(25L), is(true));
+    assertThat(reservation.isDone(), is(true));
+    assertThat(ohr.available(), is(0L));
+  }
+
+  @Test
+  public void testReservationLargerThanCapacityFailsAtOnce() throws Exception {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl("id", 20L);
+    CompletableFuture<Void> reservation = ohr.reserveAsync(30L);
+    assertThat(reservation.isCompletedExceptionally(), is(true));
+    assertThat(ohr.getReservationQueueDepth(), is(0L));
+    assertThat(ohr.reserve(30L, 1L, TimeUnit.MINUTES), is(false));
+  }
+
+  @Test
+  public void testCapacityDecreaseFailsWaitersThatNoLongerFit() {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl("id", 20L);
+    assertThat(ohr.reserve(10L), is(true));
+    CompletableFuture<Void> large = ohr.reserveAsync(15L);
+    CompletableFuture<Void> small = ohr.reserveAsync(2L);
+
+    assertThat(ohr.setCapacity(12L), is(true));
+    assertThat(large.isCompletedExceptionally(), is(true));
+    // no longer blocked behind the large reservation
+    assertThat(small.isDone(), is(true));
+    assertThat(small.isCompletedExceptionally(), is(false));
+    assertThat(ohr.available(), is(0L));
+    assertThat(ohr.getReservationQueueDepth(), is(0L));
+  }
+
+  @Test
+  public void testWaitersAreServedInOrder() {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl("id", 20L);
+    assertThat(ohr.reserve(20L), is(true));
+    CompletableFuture<Void> large = ohr.reserveAsync(15L);
+    CompletableFuture<Void> small = ohr.reserveAsync(5L);
+
+    ohr.release(10L);
+    // the small reservation would fit but must not overtake the large one
+    assertThat(large.isDone(), is(false));
+    assertThat(small.isDone(), is(false));
+
+    ohr.release(10L);
+    assertThat(large.isDone(), is(true));
+    assertThat(small.isDone(), is(true));
+    assertThat(ohr.available(), is(0L));
+  }
+
+  @Test
+  public void testCancelledWaiterNoLongerBlocksTheQueue() {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl("id", 20L);
+    assertThat(ohr.reserve(10L), is(true));
+    CompletableFuture<Void> large = ohr.reserveAsync(15L);
+    CompletableFuture<Void> small = ohr.reserveAsync(5L);
+    assertThat(small.isDone(), is(false));
+
+    large.cancel(false);
+    assertThat(small.isDone(), is(true));
+    assertThat(small.isCancelled(), is(false));
+    assertThat(ohr.available(), is(5L));
+    assertThat(ohr.getReservationQueueDepth(), is(0L));
+  }
+
+  @Test
+  public void testTimedReservationTimesOut() throws Exception {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl("id", 20L);
+    assertThat(ohr.reserve(20L), is(true));
+    assertThat(ohr.reserve(10L, 10L, TimeUnit.MILLISECONDS), is(false));
+    assertThat(ohr.getReservationQueueDepth(), is(0L));
+
+    ohr.release(20L);
+    assertThat(ohr.available(), is(20L));
+  }
+
+  @Test
+  public void testTimedReservationSucceedsWhenSpaceIsReleased() throws Exception {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl("id", 20L);
+    assertThat(ohr.reserve(20L), is(true));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      CountDownLatch started = new CountDownLatch(1);
+      Future<Boolean> reservation = executor.submit(() -> {
+        started.countDown();
+        return ohr.reserve(10L, 1L, TimeUnit.MINUTES);
+      });
+      started.await();
+      while (ohr.getReservationQueueDepth() == 0L) {
+        Thread.sleep(1L);
+      }
+      ohr.release(10L);
+      assertThat(reservation.get(), is(true));
+      assertThat(ohr.available(), is(0L));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testReservationFailedBeforeBeingAbandonedIsNotMade() {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl("id", 20L);
+    assertThat(ohr.reserve(10L), is(true));
+    CompletableFuture<Void> reservation = ohr.reserveAsync(15L);
+    // the capacity drops as the waiter times out, failing the reservation before the waiter abandons it
+    assertThat(ohr.setCapacity(12L), is(true));
+    assertThat(ReservationQueue.abandon(reservation), is(false));
+    assertThat(ohr.available(), is(2L));
+  }
+
+  @Test
+  public void testReservationMadeBeforeBeingAbandonedIsKept() {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl("id", 20L);
+    assertThat(ohr.reserve(10L), is(true));
+    CompletableFuture<Void> reservation = ohr.reserveAsync(15L);
+    ohr.release(5L);
+    assertThat(ReservationQueue.abandon(reservation), is(true));
+    assertThat(ohr.available(), is(0L));
+  }
+
+  @Test
+  public void testTimedReservationFailedByCapacityDecreaseWhileTimingOut() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // the capacity decrease races with the timeout, so that it sometimes fails the reservation as it times out
+      for (int i = 0; i < 200; i++) {
+        OffHeapResourceImpl ohr = new OffHeapResourceImpl("id", 20L);
+        assertThat(ohr.reserve(10L), is(true));
+        long delayMicros = i % 20 * 50L;
+        Future<Boolean> decrease = executor.submit(() -> {
+          TimeUnit.MICROSECONDS.sleep(delayMicros);
+          return ohr.setCapacity(12L);
+        });
+        assertThat(ohr.reserve(15L, 500L, TimeUnit.MICROSECONDS), is(false));
+        assertThat(decrease.get(), is(true));
+        assertThat(ohr.available(), is(2L));
+        assertThat(ohr.getReservationQueueDepth(), is(0L));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testInterruptedReservationIsAbandoned() throws Exception {
+    OffHeapResourceImpl ohr = new OffHeapResourceImpl("id", 20L);
+    assertThat(ohr.reserve(20L), is(true));
+    Thread.currentThread().interrupt();
+    try {
+      ohr.reserve(10L, 1L, TimeUnit.MINUTES);
+      fail("Expected InterruptedException");
+    } catch (InterruptedException e) {
+      // expected
+    }
+    assertThat(ohr.getReservationQueueDepth(), is(0L));
+    ohr.release(20L);
+    assertThat(ohr.available(), is(20L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeAsyncReservation() {
+    new OffHeapResourceImpl("id", 20L).reserveAsync(-1L);
+  }
+}
@@ -27,14 +27,17 @@ import org.terracotta.statistics.StatisticsManager;
 import org.terracotta.statistics.ValueStatistic;
 
 import java.math.BigInteger;
+import java.util.List;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static java.util.Collections.singletonList;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNull.notNullValue;
 import static org.hamcrest.core.IsNull.nullValue;
@@ -56,7 +59,6 @@ public class OffHeapResourcesProviderTest {
     configuration = mock(OffheapResourcesType.class);
   }
 
-  @SuppressWarnings("unchecked")
   @Test
   public void testObserverExposed() {
     when(resourceConfig.getName()).thenReturn("foo");
@@ -68,9 +70,53 @@ public class OffHeapResourcesProviderTest {
     OffHeapResource offHeapResource = provider.getOffHeapResource(identifier("foo"));
     assertThat(offHeapResource.available(), equalTo(2L * 1024 * 1024));
 
-    assertThat(StatisticsManager.nodeFor(offHeapResource).getChildren().size(), equalTo(1));
-    ValueStatistic<Long> valueStatistic = (ValueStatistic<Long>) StatisticsManager.nodeFor(offHeapResource).getChildren().iterator().next().getContext().attributes().get("this");
-    assertThat(valueStatistic.value(), equalTo(0L));
+    assertThat(statisticNames(offHeapResource), containsInAnyOrder("allocatedMemory", "reservationQueueDepth", "reservationWaitTime", "reservationWaitCount"));
+    assertThat(statistic(offHeapResource, "allocatedMemory").value(), equalTo(0L));
+    assertThat(statistic(offHeapResource, "reservationQueueDepth").value(), equalTo(0L));
+    assertThat(statistic(offHeapResource, "reservationWaitTime").value(), equalTo(0L));
+    assertThat(statistic(offHeapResource, "reservationWaitCount").value(), equalTo(0L));
+  }
+
+  private static List<String> statisticNames(Object context) {
+    return StatisticsManager.nodeFor(context).getChildren().stream()
+        .map(node -> (String) node.getContext().attributes().get("name"))
+        .collect(Collectors.toList());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ValueStatistic<Long> statistic(Object context, String name) {
+    return (ValueStatistic<Long>) StatisticsManager.nodeFor(context).getChildren().stream()
+        .map(node -> node.getContext().attributes())
+        .filter(attributes -> name.equals(attributes.get("name")))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("No statistic named " + name))
+        .get("this");
+  }
+
+  @Test
+  public void testChildObserverExposed() {
+    when(resourceConfig.getName()).thenReturn("foo");
+    when(resourceConfig.getUnit()).thenReturn(MemoryUnit.MB);
+    when(resourceConfig.getValue()).thenReturn(BigInteger.valueOf(2));
+    when(configuration.getResource()).thenReturn(singletonList(resourceConfig));
+
+    OffHeapResourcesProvider provider = new OffHeapResourcesProvider(configuration);
+    EntityManagementRegistry registry = mock(EntityManagementRegistry.class);
+    when(registry.getMonitoringService()).thenReturn(mock(EntityMonitoringService.class));
+    provider.onManagementRegistryCreated(registry);
+
+    OffHeapResourceChild child = (OffHeapResourceChild) provider.getOffHeapResource(identifier("foo")).createChild("bar", 1024L, 4096L);
+    assertThat(child.getIdentifier(), is("foo/bar"));
+    assertThat(child.getManagementBinding().getParentIdentifier(), is("foo"));
+    verify(registry).registerAndRefresh(child.getManagementBinding());
+
+    assertThat(child.reserve(100L), is(true));
+    assertThat(statisticNames(child), containsInAnyOrder("allocatedMemory", "reservationQueueDepth", "reservationWaitTime", "reservationWaitCount"));
+    assertThat(statistic(child, "allocatedMemory").value(), equalTo(100L));
+    assertThat(statistic(child, "reservationQueueDepth").value(), equalTo(0L));
+
+    assertThat(provider.getOffHeapResource(identifier("foo")).removeChild("bar"), is(true));
+    verify(registry).unregisterAndRefresh(child.getManagementBinding());
   }
 
   @Test
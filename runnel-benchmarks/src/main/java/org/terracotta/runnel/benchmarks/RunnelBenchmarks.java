@@ -0,0 +1,50 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all the runnel benchmarks with the GC profiler, so that allocation rates ({@code gc.alloc.rate.norm}, in
+ * bytes per operation) are reported next to the timings, and writes the results in the JMH JSON format.
+ * <p>
+ * The JSON file is the format to keep across releases to track regressions of the encoding layer: benchmark
+ * classes, methods and parameter values are part of it and must not be renamed.
+ * <p>
+ * Run with {@code java -cp <classpath> org.terracotta.runnel.benchmarks.RunnelBenchmarks [result-file [regexp]]}.
+ * The result file defaults to {@code target/runnel-benchmarks.json} and the regular expression, selecting the
+ * benchmarks to run, to all the benchmarks of this package.
+ */
+public final class RunnelBenchmarks {
+
+  private RunnelBenchmarks() {
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    String result = args.length > 0 ? args[0] : "target/runnel-benchmarks.json";
+    String include = args.length > 1 ? args[1] : RunnelBenchmarks.class.getPackage().getName() + "\\.";
+    new Runner(new OptionsBuilder()
+        .include(include)
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.JSON)
+        .result(result)
+        .build()).run();
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.terracotta.runnel.utils.StringTool;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the modified UTF-8 string codec of {@link StringTool}, for ASCII and non-ASCII content.
+ * <p>
+ * Run with {@code java -cp <classpath> org.terracotta.runnel.benchmarks.StringToolBenchmark}, or through
+ * {@link RunnelBenchmarks} to also collect allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StringToolBenchmark {
+
+  @Param({"ascii", "nonAscii"})
+  public String content;
+
+  @Param({"16", "1024"})
+  public int length;
+
+  private String string;
+  private ByteBuffer buffer;
+  private ByteBuffer encoded;
+
+  @Setup
+  public void setUp() {
+    String pattern;
+    switch (content) {
+      case "ascii":
+        pattern = "terracotta-runnel";
+        break;
+      case "nonAscii":
+        pattern = "terracott\u00e0-r\u00fcnnel-\u4e2d\u6587";
+        break;
+      default:
+        throw new AssertionError(content);
+    }
+    StringBuilder sb = new StringBuilder(length);
+    while (sb.length() < length) {
+      sb.append(pattern);
+    }
+    string = sb.substring(0, length);
+    buffer = ByteBuffer.allocate(StringTool.worstCaseByteArraySize(string));
+    StringTool.putEncoded(buffer, string, string.length());
+    buffer.flip();
+    encoded = buffer.duplicate();
+  }
+
+  @Benchmark
+  public int encodedLength() {
+    return StringTool.getLengthAsUTF(string);
+  }
+
+  @Benchmark
+  public ByteBuffer encode() {
+    buffer.clear();
+    StringTool.putEncoded(buffer, string, string.length());
+    return buffer;
+  }
+
+  @Benchmark
+  public String decode() throws UTFDataFormatException {
+    encoded.rewind();
+    return StringTool.decodeString(encoded, encoded.remaining());
+  }
+
+  @Benchmark
+  public String decodeAsciiOrFallback() throws UTFDataFormatException {
+    encoded.rewind();
+    String decoded = StringTool.attemptDecodeAsAscii(encoded);
+    return decoded != null ? decoded : StringTool.decodeString(encoded, encoded.remaining());
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(StringToolBenchmark.class.getSimpleName()).build()).run();
+  }
+}
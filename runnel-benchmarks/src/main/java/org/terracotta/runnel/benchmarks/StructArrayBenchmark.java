@@ -0,0 +1,148 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.terracotta.runnel.Struct;
+import org.terracotta.runnel.StructBuilder;
+import org.terracotta.runnel.decoding.RandomAccessStructDecoder;
+import org.terracotta.runnel.decoding.StructArrayDecoder;
+import org.terracotta.runnel.decoding.StructDecoder;
+import org.terracotta.runnel.encoding.StructArrayEncoder;
+import org.terracotta.runnel.encoding.StructEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and decoding of struct arrays nested two levels deep, as used for statistics and
+ * configuration payloads.
+ * <p>
+ * Run with {@code java -cp <classpath> org.terracotta.runnel.benchmarks.StructArrayBenchmark}, or through
+ * {@link RunnelBenchmarks} to also collect allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StructArrayBenchmark {
+
+  private static final Struct TAG = StructBuilder.newStructBuilder()
+      .string("name", 10)
+      .int64("value", 20)
+      .build();
+
+  private static final Struct ENTRY = StructBuilder.newStructBuilder()
+      .string("key", 10)
+      .int64("value", 20)
+      .structs("tags", 30, TAG)
+      .build();
+
+  private static final Struct STRUCT = StructBuilder.newStructBuilder()
+      .int64("id", 10)
+      .structs("entries", 20, ENTRY)
+      .build();
+
+  @Param({"1", "16", "256"})
+  public int entries;
+
+  @Param({"0", "4"})
+  public int tags;
+
+  private String[] keys;
+  private ByteBuffer encoded;
+
+  @Setup
+  public void setUp() {
+    keys = new String[entries];
+    for (int i = 0; i < entries; i++) {
+      keys[i] = "key-" + i;
+    }
+    encoded = encode();
+  }
+
+  @Benchmark
+  public ByteBuffer encode() {
+    StructEncoder<Void> encoder = STRUCT.encoder().int64("id", 1L);
+    StructArrayEncoder<StructEncoder<Void>> entriesEncoder = encoder.structs("entries");
+    for (int i = 0; i < entries; i++) {
+      StructEncoder<StructArrayEncoder<StructEncoder<Void>>> entryEncoder = entriesEncoder.add()
+          .string("key", keys[i])
+          .int64("value", i);
+      StructArrayEncoder<StructEncoder<StructArrayEncoder<StructEncoder<Void>>>> tagsEncoder = entryEncoder.structs("tags");
+      for (int j = 0; j < tags; j++) {
+        tagsEncoder.add().string("name", "tag").int64("value", j).end();
+      }
+      tagsEncoder.end().end();
+    }
+    return entriesEncoder.end().encode();
+  }
+
+  @Benchmark
+  public void decode(Blackhole blackhole) {
+    encoded.rewind();
+    StructDecoder<Void> decoder = STRUCT.decoder(encoded);
+    blackhole.consume(decoder.int64("id", 0L));
+    StructArrayDecoder<StructDecoder<Void>> entriesDecoder = decoder.structs("entries");
+    while (entriesDecoder.hasNext()) {
+      StructDecoder<StructArrayDecoder<StructDecoder<Void>>> entryDecoder = entriesDecoder.next();
+      blackhole.consume(entryDecoder.string("key"));
+      blackhole.consume(entryDecoder.int64("value", 0L));
+      StructArrayDecoder<StructDecoder<StructArrayDecoder<StructDecoder<Void>>>> tagsDecoder = entryDecoder.structs("tags");
+      while (tagsDecoder.hasNext()) {
+        StructDecoder<?> tagDecoder = tagsDecoder.next();
+        blackhole.consume(tagDecoder.string("name"));
+        blackhole.consume(tagDecoder.int64("value", 0L));
+      }
+      tagsDecoder.end();
+    }
+    entriesDecoder.end();
+  }
+
+  @Benchmark
+  public void randomAccessDecode(Blackhole blackhole) {
+    RandomAccessStructDecoder decoder = STRUCT.randomAccessDecoder(encoded);
+    blackhole.consume(decoder.int64("id", 0L));
+    for (RandomAccessStructDecoder entryDecoder : decoder.structs("entries")) {
+      blackhole.consume(entryDecoder.stringView("key"));
+      blackhole.consume(entryDecoder.int64("value", 0L));
+      for (RandomAccessStructDecoder tagDecoder : entryDecoder.structs("tags")) {
+        blackhole.consume(tagDecoder.stringView("name"));
+        blackhole.consume(tagDecoder.int64("value", 0L));
+      }
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(StructArrayBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.terracotta.runnel.Struct;
+import org.terracotta.runnel.StructBuilder;
+import org.terracotta.runnel.decoding.RandomAccessStructDecoder;
+import org.terracotta.runnel.decoding.StructDecoder;
+import org.terracotta.runnel.encoding.PrimitiveEncodingSupport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and decoding of a flat struct, for different mixes of field types.
+ * <p>
+ * Run with {@code java -cp <classpath> org.terracotta.runnel.benchmarks.StructCodecBenchmark}, or through
+ * {@link RunnelBenchmarks} to also collect allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StructCodecBenchmark {
+
+  private static final Struct STRUCT = StructBuilder.newStructBuilder()
+      .bool("flag", 10)
+      .int32("count", 20)
+      .int64("id", 30)
+      .fp64("ratio", 40)
+      .string("name", 50)
+      .string("description", 60)
+      .byteBuffer("payload", 70)
+      .build();
+
+  @Param({"primitives", "strings", "mixed"})
+  public String fieldMix;
+
+  private final ByteBuffer payload = ByteBuffer.wrap(new byte[64]);
+  private boolean primitives;
+  private boolean strings;
+  private ByteBuffer encoded;
+
+  @Setup
+  public void setUp() {
+    switch (fieldMix) {
+      case "primitives":
+        primitives = true;
+        break;
+      case "strings":
+        strings = true;
+        break;
+      case "mixed":
+        primitives = true;
+        strings = true;
+        break;
+      default:
+        throw new AssertionError(fieldMix);
+    }
+    encoded = encode();
+  }
+
+  @Benchmark
+  public ByteBuffer encode() {
+    return fill(STRUCT.encoder()).encode();
+  }
+
+  @Benchmark
+  public ByteBuffer streamingEncode() {
+    return fill(STRUCT.streamingEncoder()).encode();
+  }
+
+  @Benchmark
+  public void decode(Blackhole blackhole) {
+    encoded.rewind();
+    StructDecoder<Void> decoder = STRUCT.decoder(encoded);
+    blackhole.consume(decoder.bool("flag"));
+    blackhole.consume(decoder.int32("count"));
+    blackhole.consume(decoder.int64("id"));
+    blackhole.consume(decoder.fp64("ratio"));
+    blackhole.consume(decoder.string("name"));
+    blackhole.consume(decoder.string("description"));
+    blackhole.consume(decoder.byteBuffer("payload"));
+  }
+
+  @Benchmark
+  public void decodePrimitives(Blackhole blackhole) {
+    encoded.rewind();
+    StructDecoder<Void> decoder = STRUCT.decoder(encoded);
+    blackhole.consume(decoder.bool("flag", false));
+    blackhole.consume(decoder.int32("count", 0));
+    blackhole.consume(decoder.int64("id", 0L));
+    blackhole.consume(decoder.fp64("ratio", 0.0));
+    blackhole.consume(decoder.string("name"));
+    blackhole.consume(decoder.string("description"));
+    blackhole.consume(decoder.byteBuffer("payload"));
+  }
+
+  @Benchmark
+  public void decodeLastField(Blackhole blackhole) {
+    encoded.rewind();
+    blackhole.consume(STRUCT.decoder(encoded).byteBuffer("payload"));
+  }
+
+  @Benchmark
+  public void randomAccessDecodeLastField(Blackhole blackhole) {
+    blackhole.consume(STRUCT.randomAccessDecoder(encoded).byteBuffer("payload"));
+  }
+
+  @Benchmark
+  public void randomAccessDecode(Blackhole blackhole) {
+    RandomAccessStructDecoder decoder = STRUCT.randomAccessDecoder(encoded);
+    blackhole.consume(decoder.byteBuffer("payload"));
+    blackhole.consume(decoder.stringView("description"));
+    blackhole.consume(decoder.stringView("name"));
+    blackhole.consume(decoder.fp64("ratio", 0.0));
+    blackhole.consume(decoder.int64("id", 0L));
+    blackhole.consume(decoder.int32("count", 0));
+    blackhole.consume(decoder.bool("flag", false));
+  }
+
+  private <E extends PrimitiveEncodingSupport<E>> E fill(E encoder) {
+    if (primitives) {
+      encoder.bool("flag", true)
+          .int32("count", 1234)
+          .int64("id", 987654321012L)
+          .fp64("ratio", 0.75);
+    }
+    if (strings) {
+      encoder.string("name", "a-reasonably-sized-name")
+          .string("description", "a longer description of the encoded entity, as found in configuration messages");
+    }
+    payload.rewind();
+    return encoder.byteBuffer("payload", payload);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(StructCodecBenchmark.class.getSimpleName()).build()).run();
+  }
+}
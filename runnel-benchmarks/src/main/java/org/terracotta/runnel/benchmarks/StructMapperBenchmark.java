@@ -0,0 +1,149 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.terracotta.runnel.Struct;
+import org.terracotta.runnel.StructBuilder;
+import org.terracotta.runnel.decoding.StructArrayDecoder;
+import org.terracotta.runnel.decoding.StructDecoder;
+import org.terracotta.runnel.encoding.StructEncoder;
+import org.terracotta.runnel.mapping.RunnelField;
+import org.terracotta.runnel.mapping.StructMapper;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a hand-written codec, as found in the entities, with a {@link StructMapper} for the same data.
+ * <p>
+ * Run with {@code java -cp <classpath> org.terracotta.runnel.benchmarks.StructMapperBenchmark}, or through
+ * {@link RunnelBenchmarks} to also collect allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StructMapperBenchmark {
+
+  public static class Limit {
+    @RunnelField(10)
+    String name;
+    @RunnelField(20)
+    long value;
+  }
+
+  public static class License {
+    @RunnelField(10)
+    String date;
+    @RunnelField(20)
+    List<Limit> limits;
+    @RunnelField(30)
+    boolean subscription;
+  }
+
+  private static final Struct LIMIT = StructBuilder.newStructBuilder()
+      .string("name", 10)
+      .int64("value", 20)
+      .build();
+
+  private static final Struct LICENSE = StructBuilder.newStructBuilder()
+      .string("date", 10)
+      .structs("limits", 20, LIMIT)
+      .bool("subscription", 30)
+      .build();
+
+  private static final StructMapper<License> MAPPER = StructMapper.of(License.class);
+
+  private License license;
+  private ByteBuffer encoded;
+
+  @Setup
+  public void setUp() {
+    license = new License();
+    license.date = "2030/01/01";
+    license.limits = new ArrayList<>();
+    for (String name : new String[] {"OffHeap", "DataRoots", "Stripes", "Nodes"}) {
+      Limit limit = new Limit();
+      limit.name = name;
+      limit.value = name.length() * 1024L;
+      license.limits.add(limit);
+    }
+    license.subscription = true;
+    encoded = handWrittenEncode();
+  }
+
+  @Benchmark
+  public ByteBuffer handWrittenEncode() {
+    StructEncoder<Void> encoder = LICENSE.encoder()
+        .string("date", license.date)
+        .structs("limits", license.limits, (limitEncoder, limit) -> limitEncoder
+            .string("name", limit.name)
+            .int64("value", limit.value));
+    return encoder.bool("subscription", license.subscription).encode();
+  }
+
+  @Benchmark
+  public ByteBuffer mappedEncode() {
+    return MAPPER.encode(license);
+  }
+
+  @Benchmark
+  public License handWrittenDecode() {
+    encoded.rewind();
+    StructDecoder<Void> decoder = LICENSE.decoder(encoded);
+    License decoded = new License();
+    decoded.date = decoder.string("date");
+    decoded.limits = new ArrayList<>();
+    StructArrayDecoder<StructDecoder<Void>> limits = decoder.structs("limits");
+    while (limits.hasNext()) {
+      StructDecoder<?> limitDecoder = limits.next();
+      Limit limit = new Limit();
+      limit.name = limitDecoder.string("name");
+      limit.value = limitDecoder.int64("value");
+      decoded.limits.add(limit);
+    }
+    limits.end();
+    decoded.subscription = decoder.bool("subscription");
+    return decoded;
+  }
+
+  @Benchmark
+  public License mappedDecode() {
+    encoded.rewind();
+    return MAPPER.decode(encoded);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(StructMapperBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.terracotta.dynamic_config.api.model.Cluster;
+import org.terracotta.dynamic_config.api.model.Configuration;
+import org.terracotta.dynamic_config.api.model.License;
+import org.terracotta.dynamic_config.api.model.Node;
+import org.terracotta.dynamic_config.api.model.Stripe;
+import org.terracotta.dynamic_config.entity.topology.common.Codec;
+import org.terracotta.dynamic_config.entity.topology.common.Response;
+import org.terracotta.dynamic_config.entity.topology.common.Type;
+import org.terracotta.entity.MessageCodecException;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.terracotta.dynamic_config.api.model.Testing.newTestCluster;
+import static org.terracotta.dynamic_config.api.model.Testing.newTestNode;
+import static org.terracotta.dynamic_config.api.model.Testing.newTestStripe;
+
+/**
+ * Measures the topology entity {@link Codec} with the responses it exchanges in practice: a license, a runtime
+ * cluster and the cluster change events.
+ * <p>
+ * Run with {@code java -cp <classpath> org.terracotta.runnel.benchmarks.TopologyCodecBenchmark}, or through
+ * {@link RunnelBenchmarks} to also collect allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TopologyCodecBenchmark {
+
+  @Param({"REQ_LICENSE", "REQ_RUNTIME_CLUSTER", "EVENT_NODE_ADDITION", "EVENT_SETTING_CHANGED"})
+  public Type type;
+
+  private final Codec codec = new Codec();
+  private Response response;
+  private byte[] encoded;
+
+  @Setup
+  public void setUp() throws MessageCodecException {
+    Node node1 = newTestNode("node-1", "localhost", 9410);
+    Node node2 = newTestNode("node-2", "localhost", 9510);
+    Stripe stripe = newTestStripe("stripe-1").addNodes(node1, node2);
+    Cluster cluster = newTestCluster("cluster", stripe);
+
+    Object payload;
+    switch (type) {
+      case REQ_LICENSE: {
+        Map<String, Long> limits = new HashMap<>();
+        limits.put("OffHeap", 1024L);
+        limits.put("DataRoots", 4L);
+        Map<String, Boolean> flags = new HashMap<>();
+        flags.put("SubscriptionBased", false);
+        payload = new License(limits, flags, LocalDate.of(2030, 1, 1));
+        break;
+      }
+      case REQ_RUNTIME_CLUSTER:
+        payload = cluster;
+        break;
+      case EVENT_NODE_ADDITION:
+        payload = asList(cluster, node2.getUID());
+        break;
+      case EVENT_SETTING_CHANGED:
+        payload = asList(cluster, Configuration.valueOf("cluster-name=foo"));
+        break;
+      default:
+        throw new AssertionError(type);
+    }
+    response = new Response(type, payload);
+    encoded = codec.encodeResponse(response);
+  }
+
+  @Benchmark
+  public byte[] encodeResponse() throws MessageCodecException {
+    return codec.encodeResponse(response);
+  }
+
+  @Benchmark
+  public Response decodeResponse() throws MessageCodecException {
+    return codec.decodeResponse(encoded);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(TopologyCodecBenchmark.class.getSimpleName()).build()).run();
+  }
+}
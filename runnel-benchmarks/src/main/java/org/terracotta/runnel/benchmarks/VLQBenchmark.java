@@ -0,0 +1,86 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.terracotta.runnel.utils.ReadBuffer;
+import org.terracotta.runnel.utils.VLQ;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the variable-length quantity codec used for field indexes, sizes and array lengths, for values
+ * encoded over 1 to 5 bytes.
+ * <p>
+ * Run with {@code java -cp <classpath> org.terracotta.runnel.benchmarks.VLQBenchmark}, or through
+ * {@link RunnelBenchmarks} to also collect allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VLQBenchmark {
+
+  @Param({"100", "10000", "1000000", "100000000", "2147483647"})
+  public int value;
+
+  private final ByteBuffer buffer = ByteBuffer.allocate(5);
+  private final ByteBuffer encoded = ByteBuffer.allocate(5);
+
+  @Setup
+  public void setUp() {
+    VLQ.encode(value, encoded);
+    encoded.flip();
+  }
+
+  @Benchmark
+  public int encodedSize() {
+    return VLQ.encodedSize(value);
+  }
+
+  @Benchmark
+  public ByteBuffer encode() {
+    buffer.clear();
+    VLQ.encode(value, buffer);
+    return buffer;
+  }
+
+  @Benchmark
+  public int decode() {
+    encoded.rewind();
+    return VLQ.decode(new ReadBuffer(encoded));
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(VLQBenchmark.class.getSimpleName()).build()).run();
+  }
+}
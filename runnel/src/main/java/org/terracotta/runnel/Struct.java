@@ -15,10 +15,24 @@
  */
 package org.terracotta.runnel;
 
+import org.terracotta.runnel.decoding.Enm;
+import org.terracotta.runnel.decoding.RandomAccessStructDecoder;
 import org.terracotta.runnel.decoding.StructDecoder;
+import org.terracotta.runnel.decoding.fields.ArrayField;
+import org.terracotta.runnel.decoding.fields.BoolField;
+import org.terracotta.runnel.decoding.fields.ByteBufferField;
+import org.terracotta.runnel.decoding.fields.CharField;
+import org.terracotta.runnel.decoding.fields.EnumField;
 import org.terracotta.runnel.decoding.fields.Field;
+import org.terracotta.runnel.decoding.fields.FloatingPoint64Field;
+import org.terracotta.runnel.decoding.fields.Int32Field;
+import org.terracotta.runnel.decoding.fields.Int64Field;
+import org.terracotta.runnel.decoding.fields.StringField;
 import org.terracotta.runnel.decoding.fields.StructField;
+import org.terracotta.runnel.encoding.StreamingStructEncoder;
 import org.terracotta.runnel.encoding.StructEncoder;
+import org.terracotta.runnel.metadata.FieldHandle;
+import org.terracotta.runnel.utils.GrowableWriteBuffer;
 import org.terracotta.runnel.utils.ReadBuffer;
 
 import java.io.PrintStream;
@@ -54,6 +68,30 @@ public class Struct {
     return new StructEncoder<Void>(root);
   }
 
+  /**
+   * Create a non-thread safe encoder writing the fields as they are added into a buffer pooled by the calling thread.
+   * It produces the same output as {@link #encoder()}.
+   * Note: this method is thread-safe.
+   * @return the encoder.
+   */
+  public StreamingStructEncoder<Void> streamingEncoder() {
+    root.checkFullyInitialized();
+    return new StreamingStructEncoder<Void>(root, GrowableWriteBuffer.acquire());
+  }
+
+  /**
+   * Create a non-thread safe encoder writing the fields as they are added into the passed byte buffer, starting at
+   * its position. A larger buffer of the same kind is allocated if it runs out of room, see
+   * {@link StreamingStructEncoder#encodeInPlace()}.
+   * Note: this method is thread-safe.
+   * @param byteBuffer the byte buffer to write to.
+   * @return the encoder.
+   */
+  public StreamingStructEncoder<Void> streamingEncoder(ByteBuffer byteBuffer) {
+    root.checkFullyInitialized();
+    return new StreamingStructEncoder<Void>(root, new GrowableWriteBuffer(byteBuffer));
+  }
+
   /**
    * Create a non-thread safe decoder allowing decoding according to the present structure.
    * Note: this method is thread-safe.
@@ -65,6 +103,98 @@ public class Struct {
     return new StructDecoder<Void>(root, new ReadBuffer(byteBuffer));
   }
 
+  /**
+   * Create a non-thread safe decoder allowing decoding according to the present structure, with the fields
+   * read in any order and any number of times. The position of the byte buffer is left untouched.
+   * Note: this method is thread-safe.
+   * @param byteBuffer the byte buffer containing the data to be decoded.
+   * @return the decoder.
+   */
+  public RandomAccessStructDecoder randomAccessDecoder(ByteBuffer byteBuffer) {
+    root.checkFullyInitialized();
+    return new RandomAccessStructDecoder(root, new ReadBuffer(byteBuffer).fork());
+  }
+
+  /**
+   * Resolve a field of the present structure so that it can be encoded and decoded without looking it up by name.
+   * Note: this method is thread-safe.
+   * @param name the field name.
+   * @return the field's handle.
+   * @throws IllegalArgumentException if there is no such field, or if it is not a boolean field.
+   */
+  public FieldHandle<Boolean> boolField(String name) {
+    return handle(name, BoolField.class, null);
+  }
+
+  public FieldHandle<Character> chrField(String name) {
+    return handle(name, CharField.class, null);
+  }
+
+  public FieldHandle<Integer> int32Field(String name) {
+    return handle(name, Int32Field.class, null);
+  }
+
+  public FieldHandle<Long> int64Field(String name) {
+    return handle(name, Int64Field.class, null);
+  }
+
+  public FieldHandle<Double> fp64Field(String name) {
+    return handle(name, FloatingPoint64Field.class, null);
+  }
+
+  public FieldHandle<String> stringField(String name) {
+    return handle(name, StringField.class, null);
+  }
+
+  public FieldHandle<ByteBuffer> byteBufferField(String name) {
+    return handle(name, ByteBufferField.class, null);
+  }
+
+  public <E> FieldHandle<Enm<E>> enmField(String name) {
+    return handle(name, EnumField.class, null);
+  }
+
+  public FieldHandle<Struct> structField(String name) {
+    return handle(name, StructField.class, null);
+  }
+
+  public FieldHandle<Boolean[]> boolsField(String name) {
+    return handle(name, ArrayField.class, BoolField.class);
+  }
+
+  public FieldHandle<Character[]> chrsField(String name) {
+    return handle(name, ArrayField.class, CharField.class);
+  }
+
+  public FieldHandle<Integer[]> int32sField(String name) {
+    return handle(name, ArrayField.class, Int32Field.class);
+  }
+
+  public FieldHandle<Long[]> int64sField(String name) {
+    return handle(name, ArrayField.class, Int64Field.class);
+  }
+
+  public FieldHandle<Double[]> fp64sField(String name) {
+    return handle(name, ArrayField.class, FloatingPoint64Field.class);
+  }
+
+  public FieldHandle<String[]> stringsField(String name) {
+    return handle(name, ArrayField.class, StringField.class);
+  }
+
+  public FieldHandle<ByteBuffer[]> byteBuffersField(String name) {
+    return handle(name, ArrayField.class, ByteBufferField.class);
+  }
+
+  public FieldHandle<Struct[]> structsField(String name) {
+    return handle(name, ArrayField.class, StructField.class);
+  }
+
+  private <T> FieldHandle<T> handle(String name, Class<? extends Field> fieldClazz, Class<? extends Field> subFieldClazz) {
+    root.checkFullyInitialized();
+    return root.getMetadata().handle(name, fieldClazz, subFieldClazz);
+  }
+
   /**
    * Recursively decode a byte buffer according to the present structure and print the decoded outcome to a print stream.
    * Note: this method is thread-safe.
@@ -15,6 +15,11 @@
  */
 package org.terracotta.runnel.decoding;
 
+import org.terracotta.runnel.decoding.fields.BoolField;
+import org.terracotta.runnel.decoding.fields.CharField;
+import org.terracotta.runnel.decoding.fields.FloatingPoint64Field;
+import org.terracotta.runnel.decoding.fields.Int32Field;
+import org.terracotta.runnel.decoding.fields.Int64Field;
 import org.terracotta.runnel.decoding.fields.ValueField;
 import org.terracotta.runnel.utils.ReadBuffer;
 
@@ -45,6 +50,72 @@ public class ArrayDecoder<T, P> {
     return arrayedField.decode(readBuffer);
   }
 
+  public boolean boolValue() {
+    return arrayedField(BoolField.class).decodeBoolean(readBuffer);
+  }
+
+  public char chrValue() {
+    return arrayedField(CharField.class).decodeChar(readBuffer);
+  }
+
+  public int int32Value() {
+    return arrayedField(Int32Field.class).decodeInt(readBuffer);
+  }
+
+  public long int64Value() {
+    return arrayedField(Int64Field.class).decodeLong(readBuffer);
+  }
+
+  public double fp64Value() {
+    return arrayedField(FloatingPoint64Field.class).decodeDouble(readBuffer);
+  }
+
+  /**
+   * Decode up to {@code target.length - offset} 32-bit integers into the target array.
+   * @return the number of decoded values.
+   */
+  public int int32Values(int[] target, int offset) {
+    Int32Field field = arrayedField(Int32Field.class);
+    int count = 0;
+    while (offset + count < target.length && !readBuffer.limitReached()) {
+      target[offset + count++] = field.decodeInt(readBuffer);
+    }
+    return count;
+  }
+
+  /**
+   * Decode up to {@code target.length - offset} 64-bit integers into the target array.
+   * @return the number of decoded values.
+   */
+  public int int64Values(long[] target, int offset) {
+    Int64Field field = arrayedField(Int64Field.class);
+    int count = 0;
+    while (offset + count < target.length && !readBuffer.limitReached()) {
+      target[offset + count++] = field.decodeLong(readBuffer);
+    }
+    return count;
+  }
+
+  /**
+   * Decode up to {@code target.length - offset} 64-bit floating point numbers into the target array.
+   * @return the number of decoded values.
+   */
+  public int fp64Values(double[] target, int offset) {
+    FloatingPoint64Field field = arrayedField(FloatingPoint64Field.class);
+    int count = 0;
+    while (offset + count < target.length && !readBuffer.limitReached()) {
+      target[offset + count++] = field.decodeDouble(readBuffer);
+    }
+    return count;
+  }
+
+  private <F extends ValueField<?>> F arrayedField(Class<F> clazz) {
+    if (arrayedField.getClass() != clazz) {
+      throw new IllegalStateException("Array of '" + arrayedField.getClass().getSimpleName() + "' cannot be decoded as '" + clazz.getSimpleName() + "'");
+    }
+    return clazz.cast(arrayedField);
+  }
+
   public P end() {
     readBuffer.skipAll();
 
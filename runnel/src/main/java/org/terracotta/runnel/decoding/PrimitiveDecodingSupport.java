@@ -79,4 +79,52 @@ public interface PrimitiveDecodingSupport {
    */
   ByteBuffer byteBuffer(String name);
 
+  /**
+   * Check if a field is present in the data. The field itself can still be decoded after this call,
+   * but fields declared before it cannot.
+   * @param name the field name.
+   * @return true if the field is present in the data, false otherwise.
+   */
+  boolean isPresent(String name);
+
+  /**
+   * Decode a boolean without boxing it.
+   * @param name the field name.
+   * @param defaultIfAbsent the value to return if the field is absent from the data.
+   * @return the decoded value, or defaultIfAbsent if it was absent from the data.
+   */
+  boolean bool(String name, boolean defaultIfAbsent);
+
+  /**
+   * Decode a character without boxing it.
+   * @param name the field name.
+   * @param defaultIfAbsent the value to return if the field is absent from the data.
+   * @return the decoded value, or defaultIfAbsent if it was absent from the data.
+   */
+  char chr(String name, char defaultIfAbsent);
+
+  /**
+   * Decode a 32-bit integer without boxing it.
+   * @param name the field name.
+   * @param defaultIfAbsent the value to return if the field is absent from the data.
+   * @return the decoded value, or defaultIfAbsent if it was absent from the data.
+   */
+  int int32(String name, int defaultIfAbsent);
+
+  /**
+   * Decode a 64-bit integer without boxing it.
+   * @param name the field name.
+   * @param defaultIfAbsent the value to return if the field is absent from the data.
+   * @return the decoded value, or defaultIfAbsent if it was absent from the data.
+   */
+  long int64(String name, long defaultIfAbsent);
+
+  /**
+   * Decode a 64-bit, double-precision floating point number without boxing it.
+   * @param name the field name.
+   * @param defaultIfAbsent the value to return if the field is absent from the data.
+   * @return the decoded value, or defaultIfAbsent if it was absent from the data.
+   */
+  double fp64(String name, double defaultIfAbsent);
+
 }
@@ -0,0 +1,266 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.decoding;
+
+import org.terracotta.runnel.Struct;
+import org.terracotta.runnel.decoding.fields.BoolField;
+import org.terracotta.runnel.decoding.fields.ByteBufferField;
+import org.terracotta.runnel.decoding.fields.CharField;
+import org.terracotta.runnel.decoding.fields.EnumField;
+import org.terracotta.runnel.decoding.fields.FloatingPoint64Field;
+import org.terracotta.runnel.decoding.fields.Int32Field;
+import org.terracotta.runnel.decoding.fields.Int64Field;
+import org.terracotta.runnel.decoding.fields.StringField;
+import org.terracotta.runnel.decoding.fields.StructField;
+import org.terracotta.runnel.metadata.FieldHandle;
+import org.terracotta.runnel.metadata.RandomAccessFieldDecoder;
+import org.terracotta.runnel.utils.ReadBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A decoder allowing random access to structured data described by a {@link org.terracotta.runnel.Struct}:
+ * fields can be decoded in any order and any number of times. Byte buffers and string views returned by this
+ * decoder share the decoded data instead of copying it.
+ * Note: Instances of this class are not thread-safe.
+ */
+public class RandomAccessStructDecoder implements PrimitiveDecodingSupport {
+
+  private final RandomAccessFieldDecoder fieldDecoder;
+  private final ReadBuffer readBuffer;
+
+  public RandomAccessStructDecoder(StructField structField, ReadBuffer readBuffer) {
+    int size = readBuffer.getVlqInt();
+    this.readBuffer = readBuffer.limit(size);
+    this.fieldDecoder = structField.getMetadata().randomAccessFieldDecoder(this.readBuffer);
+  }
+
+  @Override
+  public boolean isPresent(String name) {
+    return fieldDecoder.isPresent(name);
+  }
+
+  @Override
+  public Boolean bool(String name) {
+    return fieldDecoder.decodeValue(name, BoolField.class);
+  }
+
+  @Override
+  public Character chr(String name) {
+    return fieldDecoder.decodeValue(name, CharField.class);
+  }
+
+  @Override
+  public Integer int32(String name) {
+    return fieldDecoder.decodeValue(name, Int32Field.class);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <E> Enm<E> enm(String name) {
+    Enm<E> enm = (Enm<E>) fieldDecoder.decodeValue(name, (Class) EnumField.class);
+    if (enm == null) {
+      return new Enm<E>(name);
+    }
+    return enm;
+  }
+
+  @Override
+  public Long int64(String name) {
+    return fieldDecoder.decodeValue(name, Int64Field.class);
+  }
+
+  @Override
+  public Double fp64(String name) {
+    return fieldDecoder.decodeValue(name, FloatingPoint64Field.class);
+  }
+
+  @Override
+  public String string(String name) {
+    return fieldDecoder.decodeValue(name, StringField.class);
+  }
+
+  /**
+   * Decode a character string as a view over its encoded bytes.
+   * @param name the field name.
+   * @return the view, or null if the string was absent from the data.
+   */
+  public StringView stringView(String name) {
+    return fieldDecoder.decodeStringView(name);
+  }
+
+  @Override
+  public ByteBuffer byteBuffer(String name) {
+    return fieldDecoder.decodeValue(name, ByteBufferField.class);
+  }
+
+  @Override
+  public boolean bool(String name, boolean defaultIfAbsent) {
+    BoolField field = fieldDecoder.seekValue(name, BoolField.class);
+    return field == null ? defaultIfAbsent : field.decodeBoolean(readBuffer);
+  }
+
+  @Override
+  public char chr(String name, char defaultIfAbsent) {
+    CharField field = fieldDecoder.seekValue(name, CharField.class);
+    return field == null ? defaultIfAbsent : field.decodeChar(readBuffer);
+  }
+
+  @Override
+  public int int32(String name, int defaultIfAbsent) {
+    Int32Field field = fieldDecoder.seekValue(name, Int32Field.class);
+    return field == null ? defaultIfAbsent : field.decodeInt(readBuffer);
+  }
+
+  @Override
+  public long int64(String name, long defaultIfAbsent) {
+    Int64Field field = fieldDecoder.seekValue(name, Int64Field.class);
+    return field == null ? defaultIfAbsent : field.decodeLong(readBuffer);
+  }
+
+  @Override
+  public double fp64(String name, double defaultIfAbsent) {
+    FloatingPoint64Field field = fieldDecoder.seekValue(name, FloatingPoint64Field.class);
+    return field == null ? defaultIfAbsent : field.decodeDouble(readBuffer);
+  }
+
+  public int[] int32Array(String name) {
+    return StructDecoder.toInt32Array(int32s(name));
+  }
+
+  public long[] int64Array(String name) {
+    return StructDecoder.toInt64Array(int64s(name));
+  }
+
+  public double[] fp64Array(String name) {
+    return StructDecoder.toFp64Array(fp64s(name));
+  }
+
+  public ArrayDecoder<Integer, Void> int32s(String name) {
+    return fieldDecoder.decodeValueArray(name, Int32Field.class);
+  }
+
+  public ArrayDecoder<Boolean, Void> bools(String name) {
+    return fieldDecoder.decodeValueArray(name, BoolField.class);
+  }
+
+  public ArrayDecoder<Character, Void> chrs(String name) {
+    return fieldDecoder.decodeValueArray(name, CharField.class);
+  }
+
+  public ArrayDecoder<Long, Void> int64s(String name) {
+    return fieldDecoder.decodeValueArray(name, Int64Field.class);
+  }
+
+  public ArrayDecoder<Double, Void> fp64s(String name) {
+    return fieldDecoder.decodeValueArray(name, FloatingPoint64Field.class);
+  }
+
+  public ArrayDecoder<String, Void> strings(String name) {
+    return fieldDecoder.decodeValueArray(name, StringField.class);
+  }
+
+  public ArrayDecoder<ByteBuffer, Void> byteBuffers(String name) {
+    return fieldDecoder.decodeValueArray(name, ByteBufferField.class);
+  }
+
+  public RandomAccessStructDecoder struct(String name) {
+    return fieldDecoder.decodeStruct(name);
+  }
+
+  public List<RandomAccessStructDecoder> structs(String name) {
+    return fieldDecoder.decodeStructArray(name);
+  }
+
+  public boolean isPresent(FieldHandle<?> handle) {
+    return fieldDecoder.isPresent(handle);
+  }
+
+  public Boolean bool(FieldHandle<Boolean> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public Character chr(FieldHandle<Character> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public Integer int32(FieldHandle<Integer> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public Long int64(FieldHandle<Long> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public Double fp64(FieldHandle<Double> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public String string(FieldHandle<String> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public ByteBuffer byteBuffer(FieldHandle<ByteBuffer> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public <E> Enm<E> enm(FieldHandle<Enm<E>> handle) {
+    Enm<E> enm = fieldDecoder.decodeValue(handle);
+    if (enm == null) {
+      return new Enm<E>(handle.name());
+    }
+    return enm;
+  }
+
+  public StringView stringView(FieldHandle<String> handle) {
+    return fieldDecoder.decodeStringView(handle);
+  }
+
+  public boolean bool(FieldHandle<Boolean> handle, boolean defaultIfAbsent) {
+    BoolField field = fieldDecoder.seekValue(handle);
+    return field == null ? defaultIfAbsent : field.decodeBoolean(readBuffer);
+  }
+
+  public char chr(FieldHandle<Character> handle, char defaultIfAbsent) {
+    CharField field = fieldDecoder.seekValue(handle);
+    return field == null ? defaultIfAbsent : field.decodeChar(readBuffer);
+  }
+
+  public int int32(FieldHandle<Integer> handle, int defaultIfAbsent) {
+    Int32Field field = fieldDecoder.seekValue(handle);
+    return field == null ? defaultIfAbsent : field.decodeInt(readBuffer);
+  }
+
+  public long int64(FieldHandle<Long> handle, long defaultIfAbsent) {
+    Int64Field field = fieldDecoder.seekValue(handle);
+    return field == null ? defaultIfAbsent : field.decodeLong(readBuffer);
+  }
+
+  public double fp64(FieldHandle<Double> handle, double defaultIfAbsent) {
+    FloatingPoint64Field field = fieldDecoder.seekValue(handle);
+    return field == null ? defaultIfAbsent : field.decodeDouble(readBuffer);
+  }
+
+  public RandomAccessStructDecoder struct(FieldHandle<Struct> handle) {
+    return fieldDecoder.decodeStruct(handle);
+  }
+
+  public List<RandomAccessStructDecoder> structs(FieldHandle<Struct[]> handle) {
+    return fieldDecoder.decodeStructArray(handle);
+  }
+
+}
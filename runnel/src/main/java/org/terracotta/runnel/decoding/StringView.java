@@ -0,0 +1,104 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.decoding;
+
+import org.terracotta.runnel.utils.CorruptDataException;
+import org.terracotta.runnel.utils.StringTool;
+
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ * A character sequence backed by the encoded bytes of a string field, without copying them.
+ * ASCII content is read straight from the encoded bytes, any other content is decoded once on first access.
+ * Note: Instances of this class are not thread-safe.
+ */
+public final class StringView implements CharSequence {
+
+  private final ByteBuffer encoded;
+  private final boolean ascii;
+  private String decoded;
+
+  public StringView(ByteBuffer encoded) {
+    this.encoded = encoded;
+    this.ascii = isAscii(encoded);
+  }
+
+  private static boolean isAscii(ByteBuffer encoded) {
+    for (int i = encoded.position(); i < encoded.limit(); i++) {
+      if ((encoded.get(i) & 0x80) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return a read-only view of the encoded bytes, suitable for forwarding the string without decoding it.
+   */
+  public ByteBuffer encoded() {
+    return encoded.asReadOnlyBuffer();
+  }
+
+  @Override
+  public int length() {
+    return ascii ? encoded.remaining() : toString().length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (!ascii) {
+      return toString().charAt(index);
+    }
+    if (index < 0 || index >= encoded.remaining()) {
+      throw new IndexOutOfBoundsException("index : " + index + ", length : " + encoded.remaining());
+    }
+    return (char) encoded.get(encoded.position() + index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (!ascii) {
+      return toString().subSequence(start, end);
+    }
+    if (start < 0 || end > encoded.remaining() || start > end) {
+      throw new IndexOutOfBoundsException("start : " + start + ", end : " + end + ", length : " + encoded.remaining());
+    }
+    ByteBuffer slice = encoded.duplicate();
+    slice.position(encoded.position() + start).limit(encoded.position() + end);
+    return new StringView(slice.slice());
+  }
+
+  @Override
+  public String toString() {
+    if (decoded == null) {
+      ByteBuffer binary = encoded.duplicate();
+      if (ascii) {
+        decoded = StringTool.attemptDecodeAsAscii(binary);
+      } else {
+        try {
+          decoded = StringTool.decodeString(binary, binary.remaining());
+        } catch (UTFDataFormatException e) {
+          CorruptDataException cde = new CorruptDataException("Unexpected encoding");
+          cde.addSuppressed(e);
+          throw cde;
+        }
+      }
+    }
+    return decoded;
+  }
+
+}
@@ -15,6 +15,7 @@
  */
 package org.terracotta.runnel.decoding;
 
+import org.terracotta.runnel.Struct;
 import org.terracotta.runnel.decoding.fields.BoolField;
 import org.terracotta.runnel.decoding.fields.ByteBufferField;
 import org.terracotta.runnel.decoding.fields.CharField;
@@ -25,6 +26,7 @@ import org.terracotta.runnel.decoding.fields.Int64Field;
 import org.terracotta.runnel.decoding.fields.StringField;
 import org.terracotta.runnel.decoding.fields.StructField;
 import org.terracotta.runnel.metadata.FieldDecoder;
+import org.terracotta.runnel.metadata.FieldHandle;
 import org.terracotta.runnel.utils.ReadBuffer;
 
 import java.nio.ByteBuffer;
@@ -95,6 +97,52 @@ public class StructDecoder<P> implements PrimitiveDecodingSupport {
     return fieldDecoder.decodeValue(name, ByteBufferField.class);
   }
 
+  @Override
+  public boolean isPresent(String name) {
+    return fieldDecoder.isPresent(name);
+  }
+
+  @Override
+  public boolean bool(String name, boolean defaultIfAbsent) {
+    BoolField field = fieldDecoder.seekValue(name, BoolField.class);
+    return field == null ? defaultIfAbsent : field.decodeBoolean(readBuffer);
+  }
+
+  @Override
+  public char chr(String name, char defaultIfAbsent) {
+    CharField field = fieldDecoder.seekValue(name, CharField.class);
+    return field == null ? defaultIfAbsent : field.decodeChar(readBuffer);
+  }
+
+  @Override
+  public int int32(String name, int defaultIfAbsent) {
+    Int32Field field = fieldDecoder.seekValue(name, Int32Field.class);
+    return field == null ? defaultIfAbsent : field.decodeInt(readBuffer);
+  }
+
+  @Override
+  public long int64(String name, long defaultIfAbsent) {
+    Int64Field field = fieldDecoder.seekValue(name, Int64Field.class);
+    return field == null ? defaultIfAbsent : field.decodeLong(readBuffer);
+  }
+
+  @Override
+  public double fp64(String name, double defaultIfAbsent) {
+    FloatingPoint64Field field = fieldDecoder.seekValue(name, FloatingPoint64Field.class);
+    return field == null ? defaultIfAbsent : field.decodeDouble(readBuffer);
+  }
+
+  public int[] int32Array(String name) {
+    return toInt32Array(int32s(name));
+  }
+
+  public long[] int64Array(String name) {
+    return toInt64Array(int64s(name));
+  }
+
+  public double[] fp64Array(String name) {
+    return toFp64Array(fp64s(name));
+  }
 
   public ArrayDecoder<Integer, StructDecoder<P>> int32s(String name) {
     return fieldDecoder.decodeValueArray(name, Int32Field.class, this);
@@ -132,6 +180,119 @@ public class StructDecoder<P> implements PrimitiveDecodingSupport {
     return fieldDecoder.decodeStructArray(name, this);
   }
 
+  public Boolean bool(FieldHandle<Boolean> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public Character chr(FieldHandle<Character> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public Integer int32(FieldHandle<Integer> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public Long int64(FieldHandle<Long> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public Double fp64(FieldHandle<Double> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public String string(FieldHandle<String> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public ByteBuffer byteBuffer(FieldHandle<ByteBuffer> handle) {
+    return fieldDecoder.decodeValue(handle);
+  }
+
+  public <E> Enm<E> enm(FieldHandle<Enm<E>> handle) {
+    Enm<E> enm = fieldDecoder.decodeValue(handle);
+    if (enm == null) {
+      return new Enm<E>(handle.name());
+    }
+    return enm;
+  }
+
+  public ArrayDecoder<Integer, StructDecoder<P>> int32s(FieldHandle<Integer[]> handle) {
+    return fieldDecoder.decodeValueArray(handle, this);
+  }
+
+  public ArrayDecoder<Boolean, StructDecoder<P>> bools(FieldHandle<Boolean[]> handle) {
+    return fieldDecoder.decodeValueArray(handle, this);
+  }
+
+  public ArrayDecoder<Character, StructDecoder<P>> chrs(FieldHandle<Character[]> handle) {
+    return fieldDecoder.decodeValueArray(handle, this);
+  }
+
+  public ArrayDecoder<Long, StructDecoder<P>> int64s(FieldHandle<Long[]> handle) {
+    return fieldDecoder.decodeValueArray(handle, this);
+  }
+
+  public ArrayDecoder<Double, StructDecoder<P>> fp64s(FieldHandle<Double[]> handle) {
+    return fieldDecoder.decodeValueArray(handle, this);
+  }
+
+  public ArrayDecoder<String, StructDecoder<P>> strings(FieldHandle<String[]> handle) {
+    return fieldDecoder.decodeValueArray(handle, this);
+  }
+
+  public ArrayDecoder<ByteBuffer, StructDecoder<P>> byteBuffers(FieldHandle<ByteBuffer[]> handle) {
+    return fieldDecoder.decodeValueArray(handle, this);
+  }
+
+  public StructDecoder<StructDecoder<P>> struct(FieldHandle<Struct> handle) {
+    return fieldDecoder.decodeStruct(handle, this);
+  }
+
+  public StructArrayDecoder<StructDecoder<P>> structs(FieldHandle<Struct[]> handle) {
+    return fieldDecoder.decodeStructArray(handle, this);
+  }
+
+  public boolean isPresent(FieldHandle<?> handle) {
+    return fieldDecoder.isPresent(handle);
+  }
+
+  public boolean bool(FieldHandle<Boolean> handle, boolean defaultIfAbsent) {
+    BoolField field = fieldDecoder.seekValue(handle);
+    return field == null ? defaultIfAbsent : field.decodeBoolean(readBuffer);
+  }
+
+  public char chr(FieldHandle<Character> handle, char defaultIfAbsent) {
+    CharField field = fieldDecoder.seekValue(handle);
+    return field == null ? defaultIfAbsent : field.decodeChar(readBuffer);
+  }
+
+  public int int32(FieldHandle<Integer> handle, int defaultIfAbsent) {
+    Int32Field field = fieldDecoder.seekValue(handle);
+    return field == null ? defaultIfAbsent : field.decodeInt(readBuffer);
+  }
+
+  public long int64(FieldHandle<Long> handle, long defaultIfAbsent) {
+    Int64Field field = fieldDecoder.seekValue(handle);
+    return field == null ? defaultIfAbsent : field.decodeLong(readBuffer);
+  }
+
+  public double fp64(FieldHandle<Double> handle, double defaultIfAbsent) {
+    FloatingPoint64Field field = fieldDecoder.seekValue(handle);
+    return field == null ? defaultIfAbsent : field.decodeDouble(readBuffer);
+  }
+
+  public int[] int32Array(FieldHandle<Integer[]> handle) {
+    return toInt32Array(int32s(handle));
+  }
+
+  public long[] int64Array(FieldHandle<Long[]> handle) {
+    return toInt64Array(int64s(handle));
+  }
+
+  public double[] fp64Array(FieldHandle<Double[]> handle) {
+    return toFp64Array(fp64s(handle));
+  }
+
   public P end() {
     if (parent == null) {
       throw new IllegalStateException("Cannot end root decoder");
@@ -142,4 +303,34 @@ public class StructDecoder<P> implements PrimitiveDecodingSupport {
     return parent;
   }
 
+  static int[] toInt32Array(ArrayDecoder<Integer, ?> decoder) {
+    if (decoder == null) {
+      return null;
+    }
+    int[] values = new int[decoder.length()];
+    decoder.int32Values(values, 0);
+    decoder.end();
+    return values;
+  }
+
+  static long[] toInt64Array(ArrayDecoder<Long, ?> decoder) {
+    if (decoder == null) {
+      return null;
+    }
+    long[] values = new long[decoder.length()];
+    decoder.int64Values(values, 0);
+    decoder.end();
+    return values;
+  }
+
+  static double[] toFp64Array(ArrayDecoder<Double, ?> decoder) {
+    if (decoder == null) {
+      return null;
+    }
+    double[] values = new double[decoder.length()];
+    decoder.fp64Values(values, 0);
+    decoder.end();
+    return values;
+  }
+
 }
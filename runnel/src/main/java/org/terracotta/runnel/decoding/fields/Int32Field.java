@@ -29,11 +29,15 @@ public class Int32Field extends AbstractValueField<Integer> {
 
   @Override
   public Integer decode(ReadBuffer readBuffer) {
+    return decodeInt(readBuffer);
+  }
+
+  public int decodeInt(ReadBuffer readBuffer) {
     int size = readBuffer.getVlqInt();
     if (size != 4) {
       throw new CorruptDataException("Expected field size of 4, read : " + size);
     }
-    return readBuffer.getInt();
+    return readBuffer.getIntValue();
   }
 
 }
@@ -29,11 +29,15 @@ public class Int64Field extends AbstractValueField<Long> {
 
   @Override
   public Long decode(ReadBuffer readBuffer) {
+    return decodeLong(readBuffer);
+  }
+
+  public long decodeLong(ReadBuffer readBuffer) {
     int size = readBuffer.getVlqInt();
     if (size != 8) {
       throw new CorruptDataException("Expected field size of 8, read : " + size);
     }
-    return readBuffer.getLong();
+    return readBuffer.getLongValue();
   }
 
 }
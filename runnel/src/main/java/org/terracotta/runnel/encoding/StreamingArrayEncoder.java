@@ -0,0 +1,112 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.encoding;
+
+import org.terracotta.runnel.utils.GrowableWriteBuffer;
+import org.terracotta.runnel.utils.VLQ;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Array encoder of a {@link StreamingStructEncoder}, writing each value as soon as it is added.
+ */
+public abstract class StreamingArrayEncoder<T, P> {
+
+  private final GrowableWriteBuffer writeBuffer;
+  private final P parent;
+  private final int depth;
+  private final int sizeSlot;
+  private final int lengthSlot;
+  private int length;
+  private boolean ended;
+
+  StreamingArrayEncoder(GrowableWriteBuffer writeBuffer, P parent, int depth) {
+    this.writeBuffer = writeBuffer;
+    this.parent = parent;
+    this.depth = depth;
+    this.sizeSlot = writeBuffer.reserveVlqInt();
+    this.lengthSlot = writeBuffer.reserveVlqInt();
+    writeBuffer.depth(depth);
+  }
+
+  public StreamingArrayEncoder<T, P> value(T value) {
+    checkWritable();
+    encodeValue(writeBuffer, value);
+    length++;
+    return this;
+  }
+
+  protected abstract void encodeValue(GrowableWriteBuffer writeBuffer, T value);
+
+  public P end() {
+    checkWritable();
+    ended = true;
+    writeBuffer.patchVlqInt(lengthSlot, length);
+    writeBuffer.patchVlqInt(sizeSlot);
+    writeBuffer.depth(depth - 1);
+    return parent;
+  }
+
+  private void checkWritable() {
+    if (ended || writeBuffer.depth() != depth) {
+      throw new IllegalStateException(ended ? "Encoder already ended" : "A nested encoder has not been ended");
+    }
+  }
+
+  // value encodings, without the field index, shared with StreamingStructEncoder
+
+  static void putBool(GrowableWriteBuffer writeBuffer, boolean value) {
+    writeBuffer.putVlqInt(1);
+    writeBuffer.putBoolean(value);
+  }
+
+  static void putChr(GrowableWriteBuffer writeBuffer, char value) {
+    writeBuffer.putVlqInt(2);
+    writeBuffer.putChar(value);
+  }
+
+  static void putEnm(GrowableWriteBuffer writeBuffer, int value) {
+    writeBuffer.putVlqInt(VLQ.encodedSize(value));
+    writeBuffer.putVlqInt(value);
+  }
+
+  static void putInt32(GrowableWriteBuffer writeBuffer, int value) {
+    writeBuffer.putVlqInt(4);
+    writeBuffer.putInt(value);
+  }
+
+  static void putInt64(GrowableWriteBuffer writeBuffer, long value) {
+    writeBuffer.putVlqInt(8);
+    writeBuffer.putLong(value);
+  }
+
+  static void putFp64(GrowableWriteBuffer writeBuffer, double value) {
+    writeBuffer.putVlqInt(8);
+    writeBuffer.putDouble(value);
+  }
+
+  static void putString(GrowableWriteBuffer writeBuffer, String value) {
+    int sizeSlot = writeBuffer.reserveVlqInt();
+    writeBuffer.putEncodedString(value);
+    writeBuffer.patchVlqInt(sizeSlot);
+  }
+
+  static void putByteBuffer(GrowableWriteBuffer writeBuffer, ByteBuffer value) {
+    writeBuffer.putVlqInt(value.remaining());
+    writeBuffer.putByteBuffer(value);
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.encoding;
+
+import org.terracotta.runnel.decoding.fields.StructField;
+import org.terracotta.runnel.utils.GrowableWriteBuffer;
+
+/**
+ * Struct array encoder of a {@link StreamingStructEncoder}. Each element is ended by the next {@link #add()} or by
+ * {@link #end()} if it has not been explicitly.
+ */
+public class StreamingStructArrayEncoder<P> {
+
+  private final GrowableWriteBuffer writeBuffer;
+  private final P parent;
+  private final StructField structField;
+  private final int depth;
+  private final int sizeSlot;
+  private final int lengthSlot;
+  private int length;
+  private StreamingStructEncoder<StreamingStructArrayEncoder<P>> current;
+  private boolean ended;
+
+  StreamingStructArrayEncoder(GrowableWriteBuffer writeBuffer, P parent, StructField structField, int depth) {
+    this.writeBuffer = writeBuffer;
+    this.parent = parent;
+    this.structField = structField;
+    this.depth = depth;
+    this.sizeSlot = writeBuffer.reserveVlqInt();
+    this.lengthSlot = writeBuffer.reserveVlqInt();
+    writeBuffer.depth(depth);
+  }
+
+  public StreamingStructEncoder<StreamingStructArrayEncoder<P>> add() {
+    closeCurrent();
+    checkWritable();
+    return current = new StreamingStructEncoder<StreamingStructArrayEncoder<P>>(structField, writeBuffer, this, depth + 1, true);
+  }
+
+  public P end() {
+    closeCurrent();
+    checkWritable();
+    ended = true;
+    writeBuffer.patchVlqInt(lengthSlot, length);
+    writeBuffer.patchVlqInt(sizeSlot);
+    writeBuffer.depth(depth - 1);
+    return parent;
+  }
+
+  private void closeCurrent() {
+    if (current != null) {
+      if (current.close()) {
+        length++;
+      }
+      current = null;
+    }
+  }
+
+  private void checkWritable() {
+    if (ended || writeBuffer.depth() != depth) {
+      throw new IllegalStateException(ended ? "Encoder already ended" : "A nested encoder has not been ended");
+    }
+  }
+
+}
@@ -0,0 +1,555 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.encoding;
+
+import org.terracotta.runnel.Struct;
+import org.terracotta.runnel.decoding.Enm;
+import org.terracotta.runnel.decoding.fields.ArrayField;
+import org.terracotta.runnel.decoding.fields.BoolField;
+import org.terracotta.runnel.decoding.fields.ByteBufferField;
+import org.terracotta.runnel.decoding.fields.CharField;
+import org.terracotta.runnel.decoding.fields.EnumField;
+import org.terracotta.runnel.decoding.fields.FloatingPoint64Field;
+import org.terracotta.runnel.decoding.fields.Int32Field;
+import org.terracotta.runnel.decoding.fields.Int64Field;
+import org.terracotta.runnel.decoding.fields.StringField;
+import org.terracotta.runnel.decoding.fields.StructField;
+import org.terracotta.runnel.metadata.FieldHandle;
+import org.terracotta.runnel.metadata.FieldSearcher;
+import org.terracotta.runnel.utils.GrowableWriteBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An encoder writing structured data described by a {@link org.terracotta.runnel.Struct} straight into a
+ * growable byte buffer, as the fields are added. Its output is byte-for-byte identical to the one of
+ * {@link StructEncoder}, but no intermediate representation of the fields is built.
+ * <p>
+ * Unlike with {@link StructEncoder}, nested struct and array encoders must be ended before encoding continues
+ * in their parent. Struct array elements are ended implicitly by the next {@code add()} or by the array's
+ * {@code end()}.
+ * Note: Instances of this class are not thread-safe.
+ */
+public class StreamingStructEncoder<P> implements PrimitiveEncodingSupport<StreamingStructEncoder<P>> {
+
+  private final FieldSearcher fieldSearcher;
+  private final GrowableWriteBuffer writeBuffer;
+  private final P parent;
+  private final int depth;
+  private final int start;
+  private final int sizeSlot;
+  private final boolean element;
+  private boolean ended;
+  private boolean kept;
+
+  public StreamingStructEncoder(StructField structField, GrowableWriteBuffer writeBuffer) {
+    this(structField, writeBuffer, null, 0, false);
+  }
+
+  StreamingStructEncoder(StructField structField, GrowableWriteBuffer writeBuffer, P parent, int depth, boolean element) {
+    this.fieldSearcher = structField.getMetadata().fieldSearcher();
+    this.writeBuffer = writeBuffer;
+    this.parent = parent;
+    this.depth = depth;
+    this.element = element;
+    this.start = writeBuffer.position();
+    this.sizeSlot = writeBuffer.reserveVlqInt();
+    writeBuffer.depth(depth);
+  }
+
+  @Override
+  public StreamingStructEncoder<P> bool(String name, boolean value) {
+    return bool(fieldSearcher.<BoolField, BoolField>findField(name, BoolField.class, null), value);
+  }
+
+  public StreamingStructEncoder<P> bool(FieldHandle<Boolean> handle, boolean value) {
+    return bool(fieldSearcher.<BoolField>findField(handle), value);
+  }
+
+  private StreamingStructEncoder<P> bool(BoolField field, boolean value) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    StreamingArrayEncoder.putBool(writeBuffer, value);
+    return this;
+  }
+
+  @Override
+  public StreamingStructEncoder<P> chr(String name, char value) {
+    return chr(fieldSearcher.<CharField, CharField>findField(name, CharField.class, null), value);
+  }
+
+  public StreamingStructEncoder<P> chr(FieldHandle<Character> handle, char value) {
+    return chr(fieldSearcher.<CharField>findField(handle), value);
+  }
+
+  private StreamingStructEncoder<P> chr(CharField field, char value) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    StreamingArrayEncoder.putChr(writeBuffer, value);
+    return this;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <E> StreamingStructEncoder<P> enm(String name, E value) {
+    return enm((EnumField<E>) fieldSearcher.findField(name, EnumField.class, null), value);
+  }
+
+  public <E> StreamingStructEncoder<P> enm(FieldHandle<Enm<E>> handle, E value) {
+    return enm(fieldSearcher.<EnumField<E>>findField(handle), value);
+  }
+
+  private <E> StreamingStructEncoder<P> enm(EnumField<E> field, E value) {
+    int intValue = field.getEnumMapping().toInt(value);
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    StreamingArrayEncoder.putEnm(writeBuffer, intValue);
+    return this;
+  }
+
+  @Override
+  public StreamingStructEncoder<P> int32(String name, int value) {
+    return int32(fieldSearcher.<Int32Field, Int32Field>findField(name, Int32Field.class, null), value);
+  }
+
+  public StreamingStructEncoder<P> int32(FieldHandle<Integer> handle, int value) {
+    return int32(fieldSearcher.<Int32Field>findField(handle), value);
+  }
+
+  private StreamingStructEncoder<P> int32(Int32Field field, int value) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    StreamingArrayEncoder.putInt32(writeBuffer, value);
+    return this;
+  }
+
+  @Override
+  public StreamingStructEncoder<P> int64(String name, long value) {
+    return int64(fieldSearcher.<Int64Field, Int64Field>findField(name, Int64Field.class, null), value);
+  }
+
+  public StreamingStructEncoder<P> int64(FieldHandle<Long> handle, long value) {
+    return int64(fieldSearcher.<Int64Field>findField(handle), value);
+  }
+
+  private StreamingStructEncoder<P> int64(Int64Field field, long value) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    StreamingArrayEncoder.putInt64(writeBuffer, value);
+    return this;
+  }
+
+  @Override
+  public StreamingStructEncoder<P> fp64(String name, double value) {
+    return fp64(fieldSearcher.<FloatingPoint64Field, FloatingPoint64Field>findField(name, FloatingPoint64Field.class, null), value);
+  }
+
+  public StreamingStructEncoder<P> fp64(FieldHandle<Double> handle, double value) {
+    return fp64(fieldSearcher.<FloatingPoint64Field>findField(handle), value);
+  }
+
+  private StreamingStructEncoder<P> fp64(FloatingPoint64Field field, double value) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    StreamingArrayEncoder.putFp64(writeBuffer, value);
+    return this;
+  }
+
+  @Override
+  public StreamingStructEncoder<P> string(String name, String value) {
+    return string(fieldSearcher.<StringField, StringField>findField(name, StringField.class, null), value);
+  }
+
+  public StreamingStructEncoder<P> string(FieldHandle<String> handle, String value) {
+    return string(fieldSearcher.<StringField>findField(handle), value);
+  }
+
+  private StreamingStructEncoder<P> string(StringField field, String value) {
+    checkWritable();
+    if (value != null) {
+      writeBuffer.putVlqInt(field.index());
+      StreamingArrayEncoder.putString(writeBuffer, value);
+    }
+    return this;
+  }
+
+  @Override
+  public StreamingStructEncoder<P> byteBuffer(String name, ByteBuffer value) {
+    return byteBuffer(fieldSearcher.<ByteBufferField, ByteBufferField>findField(name, ByteBufferField.class, null), value);
+  }
+
+  public StreamingStructEncoder<P> byteBuffer(FieldHandle<ByteBuffer> handle, ByteBuffer value) {
+    return byteBuffer(fieldSearcher.<ByteBufferField>findField(handle), value);
+  }
+
+  private StreamingStructEncoder<P> byteBuffer(ByteBufferField field, ByteBuffer value) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    StreamingArrayEncoder.putByteBuffer(writeBuffer, value);
+    return this;
+  }
+
+  public <T> StreamingStructEncoder<P> struct(String name, T value, StreamingStructEncoderFunction<T> function) {
+    StreamingStructEncoder<StreamingStructEncoder<P>> subStructEncoder = struct(name);
+    function.encode(subStructEncoder, value);
+    subStructEncoder.end();
+    return this;
+  }
+
+  public <T> StreamingStructEncoder<P> struct(FieldHandle<Struct> handle, T value, StreamingStructEncoderFunction<T> function) {
+    StreamingStructEncoder<StreamingStructEncoder<P>> subStructEncoder = struct(handle);
+    function.encode(subStructEncoder, value);
+    subStructEncoder.end();
+    return this;
+  }
+
+  public StreamingStructEncoder<StreamingStructEncoder<P>> struct(String name) {
+    return struct(fieldSearcher.<StructField, StructField>findField(name, StructField.class, null));
+  }
+
+  public StreamingStructEncoder<StreamingStructEncoder<P>> struct(FieldHandle<Struct> handle) {
+    return struct(fieldSearcher.<StructField>findField(handle));
+  }
+
+  private StreamingStructEncoder<StreamingStructEncoder<P>> struct(StructField field) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    return new StreamingStructEncoder<StreamingStructEncoder<P>>(field, writeBuffer, this, depth + 1, false);
+  }
+
+  public P end() {
+    if (parent == null) {
+      throw new IllegalStateException("Cannot end root encoder");
+    }
+    close();
+    return parent;
+  }
+
+  /**
+   * Complete this struct's encoding if it has not been yet. Struct array elements without any field are dropped,
+   * as {@link StructArrayEncoder} does.
+   * @return true if the struct has been kept in the encoded data.
+   */
+  boolean close() {
+    if (!ended) {
+      checkWritable();
+      ended = true;
+      writeBuffer.depth(depth - 1);
+      if (element && writeBuffer.position() == sizeSlot + 1) {
+        writeBuffer.position(start);
+      } else {
+        writeBuffer.patchVlqInt(sizeSlot);
+        kept = true;
+      }
+    }
+    return kept;
+  }
+
+  public StreamingArrayEncoder<Boolean, StreamingStructEncoder<P>> bools(String name) {
+    return bools(fieldSearcher.findField(name, ArrayField.class, BoolField.class));
+  }
+
+  public StreamingArrayEncoder<Boolean, StreamingStructEncoder<P>> bools(FieldHandle<Boolean[]> handle) {
+    return bools(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private StreamingArrayEncoder<Boolean, StreamingStructEncoder<P>> bools(ArrayField field) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    return new StreamingArrayEncoder<Boolean, StreamingStructEncoder<P>>(writeBuffer, this, depth + 1) {
+      @Override
+      protected void encodeValue(GrowableWriteBuffer writeBuffer, Boolean value) {
+        putBool(writeBuffer, value);
+      }
+    };
+  }
+
+  public StreamingArrayEncoder<Character, StreamingStructEncoder<P>> chrs(String name) {
+    return chrs(fieldSearcher.findField(name, ArrayField.class, CharField.class));
+  }
+
+  public StreamingArrayEncoder<Character, StreamingStructEncoder<P>> chrs(FieldHandle<Character[]> handle) {
+    return chrs(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private StreamingArrayEncoder<Character, StreamingStructEncoder<P>> chrs(ArrayField field) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    return new StreamingArrayEncoder<Character, StreamingStructEncoder<P>>(writeBuffer, this, depth + 1) {
+      @Override
+      protected void encodeValue(GrowableWriteBuffer writeBuffer, Character value) {
+        putChr(writeBuffer, value);
+      }
+    };
+  }
+
+  public StreamingArrayEncoder<Integer, StreamingStructEncoder<P>> int32s(String name) {
+    return int32s(fieldSearcher.findField(name, ArrayField.class, Int32Field.class));
+  }
+
+  public StreamingArrayEncoder<Integer, StreamingStructEncoder<P>> int32s(FieldHandle<Integer[]> handle) {
+    return int32s(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private StreamingArrayEncoder<Integer, StreamingStructEncoder<P>> int32s(ArrayField field) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    return new StreamingArrayEncoder<Integer, StreamingStructEncoder<P>>(writeBuffer, this, depth + 1) {
+      @Override
+      protected void encodeValue(GrowableWriteBuffer writeBuffer, Integer value) {
+        putInt32(writeBuffer, value);
+      }
+    };
+  }
+
+  public StreamingStructEncoder<P> int32s(String name, int[] values) {
+    return int32s(fieldSearcher.<ArrayField, Int32Field>findField(name, ArrayField.class, Int32Field.class), values);
+  }
+
+  public StreamingStructEncoder<P> int32s(FieldHandle<Integer[]> handle, int[] values) {
+    return int32s(fieldSearcher.<ArrayField>findField(handle), values);
+  }
+
+  private StreamingStructEncoder<P> int32s(ArrayField field, int[] values) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    int sizeSlot = writeBuffer.reserveVlqInt();
+    writeBuffer.putVlqInt(values.length);
+    for (int value : values) {
+      StreamingArrayEncoder.putInt32(writeBuffer, value);
+    }
+    writeBuffer.patchVlqInt(sizeSlot);
+    return this;
+  }
+
+  public StreamingArrayEncoder<Long, StreamingStructEncoder<P>> int64s(String name) {
+    return int64s(fieldSearcher.findField(name, ArrayField.class, Int64Field.class));
+  }
+
+  public StreamingArrayEncoder<Long, StreamingStructEncoder<P>> int64s(FieldHandle<Long[]> handle) {
+    return int64s(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private StreamingArrayEncoder<Long, StreamingStructEncoder<P>> int64s(ArrayField field) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    return new StreamingArrayEncoder<Long, StreamingStructEncoder<P>>(writeBuffer, this, depth + 1) {
+      @Override
+      protected void encodeValue(GrowableWriteBuffer writeBuffer, Long value) {
+        putInt64(writeBuffer, value);
+      }
+    };
+  }
+
+  public StreamingStructEncoder<P> int64s(String name, long[] values) {
+    return int64s(fieldSearcher.<ArrayField, Int64Field>findField(name, ArrayField.class, Int64Field.class), values);
+  }
+
+  public StreamingStructEncoder<P> int64s(FieldHandle<Long[]> handle, long[] values) {
+    return int64s(fieldSearcher.<ArrayField>findField(handle), values);
+  }
+
+  private StreamingStructEncoder<P> int64s(ArrayField field, long[] values) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    int sizeSlot = writeBuffer.reserveVlqInt();
+    writeBuffer.putVlqInt(values.length);
+    for (long value : values) {
+      StreamingArrayEncoder.putInt64(writeBuffer, value);
+    }
+    writeBuffer.patchVlqInt(sizeSlot);
+    return this;
+  }
+
+  public StreamingArrayEncoder<Double, StreamingStructEncoder<P>> fp64s(String name) {
+    return fp64s(fieldSearcher.findField(name, ArrayField.class, FloatingPoint64Field.class));
+  }
+
+  public StreamingArrayEncoder<Double, StreamingStructEncoder<P>> fp64s(FieldHandle<Double[]> handle) {
+    return fp64s(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private StreamingArrayEncoder<Double, StreamingStructEncoder<P>> fp64s(ArrayField field) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    return new StreamingArrayEncoder<Double, StreamingStructEncoder<P>>(writeBuffer, this, depth + 1) {
+      @Override
+      protected void encodeValue(GrowableWriteBuffer writeBuffer, Double value) {
+        putFp64(writeBuffer, value);
+      }
+    };
+  }
+
+  public StreamingStructEncoder<P> fp64s(String name, double[] values) {
+    return fp64s(fieldSearcher.<ArrayField, FloatingPoint64Field>findField(name, ArrayField.class, FloatingPoint64Field.class), values);
+  }
+
+  public StreamingStructEncoder<P> fp64s(FieldHandle<Double[]> handle, double[] values) {
+    return fp64s(fieldSearcher.<ArrayField>findField(handle), values);
+  }
+
+  private StreamingStructEncoder<P> fp64s(ArrayField field, double[] values) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    int sizeSlot = writeBuffer.reserveVlqInt();
+    writeBuffer.putVlqInt(values.length);
+    for (double value : values) {
+      StreamingArrayEncoder.putFp64(writeBuffer, value);
+    }
+    writeBuffer.patchVlqInt(sizeSlot);
+    return this;
+  }
+
+  public StreamingArrayEncoder<String, StreamingStructEncoder<P>> strings(String name) {
+    return strings(fieldSearcher.findField(name, ArrayField.class, StringField.class));
+  }
+
+  public StreamingArrayEncoder<String, StreamingStructEncoder<P>> strings(FieldHandle<String[]> handle) {
+    return strings(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private StreamingArrayEncoder<String, StreamingStructEncoder<P>> strings(ArrayField field) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    return new StreamingArrayEncoder<String, StreamingStructEncoder<P>>(writeBuffer, this, depth + 1) {
+      @Override
+      protected void encodeValue(GrowableWriteBuffer writeBuffer, String value) {
+        putString(writeBuffer, value);
+      }
+    };
+  }
+
+  public StreamingArrayEncoder<ByteBuffer, StreamingStructEncoder<P>> byteBuffers(String name) {
+    return byteBuffers(fieldSearcher.findField(name, ArrayField.class, ByteBufferField.class));
+  }
+
+  public StreamingArrayEncoder<ByteBuffer, StreamingStructEncoder<P>> byteBuffers(FieldHandle<ByteBuffer[]> handle) {
+    return byteBuffers(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private StreamingArrayEncoder<ByteBuffer, StreamingStructEncoder<P>> byteBuffers(ArrayField field) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    return new StreamingArrayEncoder<ByteBuffer, StreamingStructEncoder<P>>(writeBuffer, this, depth + 1) {
+      @Override
+      protected void encodeValue(GrowableWriteBuffer writeBuffer, ByteBuffer value) {
+        putByteBuffer(writeBuffer, value);
+      }
+    };
+  }
+
+  public StreamingStructArrayEncoder<StreamingStructEncoder<P>> structs(String name) {
+    return structs(fieldSearcher.findField(name, ArrayField.class, StructField.class));
+  }
+
+  public StreamingStructArrayEncoder<StreamingStructEncoder<P>> structs(FieldHandle<Struct[]> handle) {
+    return structs(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private StreamingStructArrayEncoder<StreamingStructEncoder<P>> structs(ArrayField field) {
+    checkWritable();
+    writeBuffer.putVlqInt(field.index());
+    return new StreamingStructArrayEncoder<StreamingStructEncoder<P>>(writeBuffer, this, (StructField) field.subField(), depth + 1);
+  }
+
+  public <T> StreamingStructEncoder<P> structs(String name, T[] array, StreamingStructEncoderFunction<T> function) {
+    return structs(name, Arrays.asList(array), function);
+  }
+
+  public <T> StreamingStructEncoder<P> structs(String name, Iterable<T> iterable, StreamingStructEncoderFunction<T> function) {
+    return structs(structs(name), iterable, function);
+  }
+
+  public <T> StreamingStructEncoder<P> structs(FieldHandle<Struct[]> handle, T[] array, StreamingStructEncoderFunction<T> function) {
+    return structs(handle, Arrays.asList(array), function);
+  }
+
+  public <T> StreamingStructEncoder<P> structs(FieldHandle<Struct[]> handle, Iterable<T> iterable, StreamingStructEncoderFunction<T> function) {
+    return structs(structs(handle), iterable, function);
+  }
+
+  private <T> StreamingStructEncoder<P> structs(StreamingStructArrayEncoder<StreamingStructEncoder<P>> subStructArrayEncoder, Iterable<T> iterable, StreamingStructEncoderFunction<T> function) {
+    for (T t : iterable) {
+      function.encode(subStructArrayEncoder.add(), t);
+    }
+    subStructArrayEncoder.end();
+    return this;
+  }
+
+  /**
+   * Complete the encoding and copy it in the passed byte buffer.
+   * @param bb the byte buffer to fill with the encoded structure.
+   * @return the passed-in byte buffer.
+   */
+  public ByteBuffer encode(ByteBuffer bb) {
+    int end = complete();
+    try {
+      writeBuffer.copyTo(start, end, bb);
+    } finally {
+      writeBuffer.release();
+    }
+    return bb;
+  }
+
+  /**
+   * Complete the encoding and return a newly allocated byte buffer containing the encoded structure of the exact size.
+   * The returned byte buffer is heap-allocated, so it supports {@link ByteBuffer#array()}.
+   * @return the encoded structure in a new byte buffer.
+   */
+  public ByteBuffer encode() {
+    int end = complete();
+    try {
+      ByteBuffer bb = ByteBuffer.allocate(end - start);
+      writeBuffer.copyTo(start, end, bb);
+      return bb;
+    } finally {
+      writeBuffer.release();
+    }
+  }
+
+  /**
+   * Complete the encoding and return the byte buffer it was written to, without copying it. The returned buffer's
+   * position and limit delimit the encoded structure. If the encoder was created over a pooled buffer, the returned
+   * buffer is only valid until the next streaming encoder is created by the calling thread.
+   * @return the byte buffer holding the encoded structure.
+   */
+  public ByteBuffer encodeInPlace() {
+    int end = complete();
+    ByteBuffer bb = writeBuffer.getByteBuffer();
+    writeBuffer.release();
+    bb.limit(end).position(start);
+    return bb;
+  }
+
+  private int complete() {
+    if (parent != null) {
+      throw new IllegalStateException("Cannot encode non-root encoder");
+    }
+    checkWritable();
+    ended = true;
+    writeBuffer.patchVlqInt(sizeSlot);
+    writeBuffer.depth(-1);
+    return writeBuffer.position();
+  }
+
+  private void checkWritable() {
+    if (ended || writeBuffer.depth() != depth) {
+      throw new IllegalStateException(ended ? "Encoder already ended" : "A nested encoder has not been ended");
+    }
+  }
+
+}
@@ -15,6 +15,8 @@
  */
 package org.terracotta.runnel.encoding;
 
+import org.terracotta.runnel.Struct;
+import org.terracotta.runnel.decoding.Enm;
 import org.terracotta.runnel.decoding.fields.ArrayField;
 import org.terracotta.runnel.decoding.fields.BoolField;
 import org.terracotta.runnel.decoding.fields.ByteBufferField;
@@ -36,7 +38,9 @@ import org.terracotta.runnel.encoding.dataholders.Int32DataHolder;
 import org.terracotta.runnel.encoding.dataholders.Int64DataHolder;
 import org.terracotta.runnel.encoding.dataholders.StringDataHolder;
 import org.terracotta.runnel.encoding.dataholders.StructDataHolder;
+import org.terracotta.runnel.metadata.FieldHandle;
 import org.terracotta.runnel.metadata.FieldSearcher;
+import org.terracotta.runnel.utils.GatheringWriteBuffer;
 import org.terracotta.runnel.utils.VLQ;
 import org.terracotta.runnel.utils.WriteBuffer;
 
@@ -51,6 +55,11 @@ import java.util.List;
  */
 public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<P>> {
 
+  /**
+   * The size from which {@link #encodeGathering()} references field values instead of copying them.
+   */
+  public static final int DEFAULT_GATHER_THRESHOLD = 4096;
+
   private final FieldSearcher fieldSearcher;
   private final List<DataHolder> data;
   private final P parent;
@@ -67,14 +76,28 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
 
   @Override
   public StructEncoder<P> bool(String name, boolean value) {
-    BoolField field = fieldSearcher.findField(name, BoolField.class, null);
+    return bool(fieldSearcher.<BoolField, BoolField>findField(name, BoolField.class, null), value);
+  }
+
+  public StructEncoder<P> bool(FieldHandle<Boolean> handle, boolean value) {
+    return bool(fieldSearcher.<BoolField>findField(handle), value);
+  }
+
+  private StructEncoder<P> bool(BoolField field, boolean value) {
     data.add(new BoolDataHolder(value, field.index()));
     return this;
   }
 
   @Override
   public StructEncoder<P> chr(String name, char value) {
-    CharField field = fieldSearcher.findField(name, CharField.class, null);
+    return chr(fieldSearcher.<CharField, CharField>findField(name, CharField.class, null), value);
+  }
+
+  public StructEncoder<P> chr(FieldHandle<Character> handle, char value) {
+    return chr(fieldSearcher.<CharField>findField(handle), value);
+  }
+
+  private StructEncoder<P> chr(CharField field, char value) {
     data.add(new CharDataHolder(value, field.index()));
     return this;
   }
@@ -82,35 +105,70 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
   @SuppressWarnings("unchecked")
   @Override
   public <E> StructEncoder<P> enm(String name, E value) {
-    EnumField<E> field = (EnumField<E>) fieldSearcher.findField(name, EnumField.class, null);
+    return enm((EnumField<E>) fieldSearcher.findField(name, EnumField.class, null), value);
+  }
+
+  public <E> StructEncoder<P> enm(FieldHandle<Enm<E>> handle, E value) {
+    return enm(fieldSearcher.<EnumField<E>>findField(handle), value);
+  }
+
+  private <E> StructEncoder<P> enm(EnumField<E> field, E value) {
     data.add(new EnumDataHolder<E>(value, field.index(), field.getEnumMapping()));
     return this;
   }
 
   @Override
   public StructEncoder<P> int32(String name, int value) {
-    Int32Field field = fieldSearcher.findField(name, Int32Field.class, null);
+    return int32(fieldSearcher.<Int32Field, Int32Field>findField(name, Int32Field.class, null), value);
+  }
+
+  public StructEncoder<P> int32(FieldHandle<Integer> handle, int value) {
+    return int32(fieldSearcher.<Int32Field>findField(handle), value);
+  }
+
+  private StructEncoder<P> int32(Int32Field field, int value) {
     data.add(new Int32DataHolder(value, field.index()));
     return this;
   }
 
   @Override
   public StructEncoder<P> int64(String name, long value) {
-    Int64Field field = fieldSearcher.findField(name, Int64Field.class, null);
+    return int64(fieldSearcher.<Int64Field, Int64Field>findField(name, Int64Field.class, null), value);
+  }
+
+  public StructEncoder<P> int64(FieldHandle<Long> handle, long value) {
+    return int64(fieldSearcher.<Int64Field>findField(handle), value);
+  }
+
+  private StructEncoder<P> int64(Int64Field field, long value) {
     data.add(new Int64DataHolder(value, field.index()));
     return this;
   }
 
   @Override
   public StructEncoder<P> fp64(String name, double value) {
-    FloatingPoint64Field field = fieldSearcher.findField(name, FloatingPoint64Field.class, null);
+    return fp64(fieldSearcher.<FloatingPoint64Field, FloatingPoint64Field>findField(name, FloatingPoint64Field.class, null), value);
+  }
+
+  public StructEncoder<P> fp64(FieldHandle<Double> handle, double value) {
+    return fp64(fieldSearcher.<FloatingPoint64Field>findField(handle), value);
+  }
+
+  private StructEncoder<P> fp64(FloatingPoint64Field field, double value) {
     data.add(new FloatingPoint64DataHolder(value, field.index()));
     return this;
   }
 
   @Override
   public StructEncoder<P> string(String name, String value) {
-    StringField field = fieldSearcher.findField(name, StringField.class, null);
+    return string(fieldSearcher.<StringField, StringField>findField(name, StringField.class, null), value);
+  }
+
+  public StructEncoder<P> string(FieldHandle<String> handle, String value) {
+    return string(fieldSearcher.<StringField>findField(handle), value);
+  }
+
+  private StructEncoder<P> string(StringField field, String value) {
     if (value != null) {
       data.add(new StringDataHolder(value, field.index()));
     }
@@ -119,7 +177,14 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
 
   @Override
   public StructEncoder<P> byteBuffer(String name, ByteBuffer value) {
-    ByteBufferField field = fieldSearcher.findField(name, ByteBufferField.class, null);
+    return byteBuffer(fieldSearcher.<ByteBufferField, ByteBufferField>findField(name, ByteBufferField.class, null), value);
+  }
+
+  public StructEncoder<P> byteBuffer(FieldHandle<ByteBuffer> handle, ByteBuffer value) {
+    return byteBuffer(fieldSearcher.<ByteBufferField>findField(handle), value);
+  }
+
+  private StructEncoder<P> byteBuffer(ByteBufferField field, ByteBuffer value) {
     data.add(new ByteBufferDataHolder(value, field.index()));
     return this;
   }
@@ -131,8 +196,22 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
     return this;
   }
 
+  public <T> StructEncoder<P> struct(FieldHandle<Struct> handle, T value, StructEncoderFunction<T> function) {
+    StructEncoder<StructEncoder<P>> subStructEncoder = struct(handle);
+    function.encode(subStructEncoder, value);
+    subStructEncoder.end();
+    return this;
+  }
+
   public StructEncoder<StructEncoder<P>> struct(String name) {
-    StructField field = fieldSearcher.findField(name, StructField.class, null);
+    return struct(fieldSearcher.<StructField, StructField>findField(name, StructField.class, null));
+  }
+
+  public StructEncoder<StructEncoder<P>> struct(FieldHandle<Struct> handle) {
+    return struct(fieldSearcher.<StructField>findField(handle));
+  }
+
+  private StructEncoder<StructEncoder<P>> struct(StructField field) {
     List<DataHolder> values = new ArrayList<DataHolder>();
     data.add(new StructDataHolder(values, field.index()));
     return new StructEncoder<StructEncoder<P>>(field, values, this);
@@ -146,7 +225,14 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
   }
 
   public ArrayEncoder<Boolean, StructEncoder<P>> bools(String name) {
-    final ArrayField field = fieldSearcher.findField(name, ArrayField.class, BoolField.class);
+    return bools(fieldSearcher.findField(name, ArrayField.class, BoolField.class));
+  }
+
+  public ArrayEncoder<Boolean, StructEncoder<P>> bools(FieldHandle<Boolean[]> handle) {
+    return bools(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private ArrayEncoder<Boolean, StructEncoder<P>> bools(final ArrayField field) {
     List<DataHolder> values = new ArrayList<DataHolder>();
     data.add(new ArrayDataHolder(values, field.index()));
     return new ArrayEncoder<Boolean, StructEncoder<P>>(values, this) {
@@ -158,7 +244,14 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
   }
 
   public ArrayEncoder<Character, StructEncoder<P>> chrs(String name) {
-    final ArrayField field = fieldSearcher.findField(name, ArrayField.class, CharField.class);
+    return chrs(fieldSearcher.findField(name, ArrayField.class, CharField.class));
+  }
+
+  public ArrayEncoder<Character, StructEncoder<P>> chrs(FieldHandle<Character[]> handle) {
+    return chrs(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private ArrayEncoder<Character, StructEncoder<P>> chrs(final ArrayField field) {
     List<DataHolder> values = new ArrayList<DataHolder>();
     data.add(new ArrayDataHolder(values, field.index()));
     return new ArrayEncoder<Character, StructEncoder<P>>(values, this) {
@@ -170,7 +263,14 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
   }
 
   public ArrayEncoder<Integer, StructEncoder<P>> int32s(String name) {
-    final ArrayField field = fieldSearcher.findField(name, ArrayField.class, Int32Field.class);
+    return int32s(fieldSearcher.findField(name, ArrayField.class, Int32Field.class));
+  }
+
+  public ArrayEncoder<Integer, StructEncoder<P>> int32s(FieldHandle<Integer[]> handle) {
+    return int32s(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private ArrayEncoder<Integer, StructEncoder<P>> int32s(final ArrayField field) {
     List<DataHolder> values = new ArrayList<DataHolder>();
     data.add(new ArrayDataHolder(values, field.index()));
     return new ArrayEncoder<Integer, StructEncoder<P>>(values, this) {
@@ -182,7 +282,14 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
   }
 
   public ArrayEncoder<Long, StructEncoder<P>> int64s(String name) {
-    final ArrayField field = fieldSearcher.findField(name, ArrayField.class, Int64Field.class);
+    return int64s(fieldSearcher.findField(name, ArrayField.class, Int64Field.class));
+  }
+
+  public ArrayEncoder<Long, StructEncoder<P>> int64s(FieldHandle<Long[]> handle) {
+    return int64s(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private ArrayEncoder<Long, StructEncoder<P>> int64s(final ArrayField field) {
     List<DataHolder> values = new ArrayList<DataHolder>();
     data.add(new ArrayDataHolder(values, field.index()));
     return new ArrayEncoder<Long, StructEncoder<P>>(values, this) {
@@ -194,7 +301,14 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
   }
 
   public ArrayEncoder<Double, StructEncoder<P>> fp64s(String name) {
-    final ArrayField field = fieldSearcher.findField(name, ArrayField.class, FloatingPoint64Field.class);
+    return fp64s(fieldSearcher.findField(name, ArrayField.class, FloatingPoint64Field.class));
+  }
+
+  public ArrayEncoder<Double, StructEncoder<P>> fp64s(FieldHandle<Double[]> handle) {
+    return fp64s(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private ArrayEncoder<Double, StructEncoder<P>> fp64s(final ArrayField field) {
     List<DataHolder> values = new ArrayList<DataHolder>();
     data.add(new ArrayDataHolder(values, field.index()));
     return new ArrayEncoder<Double, StructEncoder<P>>(values, this) {
@@ -206,7 +320,14 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
   }
 
   public ArrayEncoder<String, StructEncoder<P>> strings(String name) {
-    final ArrayField field = fieldSearcher.findField(name, ArrayField.class, StringField.class);
+    return strings(fieldSearcher.findField(name, ArrayField.class, StringField.class));
+  }
+
+  public ArrayEncoder<String, StructEncoder<P>> strings(FieldHandle<String[]> handle) {
+    return strings(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private ArrayEncoder<String, StructEncoder<P>> strings(final ArrayField field) {
     List<DataHolder> values = new ArrayList<DataHolder>();
     data.add(new ArrayDataHolder(values, field.index()));
     return new ArrayEncoder<String, StructEncoder<P>>(values, this) {
@@ -218,7 +339,14 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
   }
 
   public ArrayEncoder<ByteBuffer, StructEncoder<P>> byteBuffers(String name) {
-    final ArrayField field = fieldSearcher.findField(name, ArrayField.class, ByteBufferField.class);
+    return byteBuffers(fieldSearcher.findField(name, ArrayField.class, ByteBufferField.class));
+  }
+
+  public ArrayEncoder<ByteBuffer, StructEncoder<P>> byteBuffers(FieldHandle<ByteBuffer[]> handle) {
+    return byteBuffers(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private ArrayEncoder<ByteBuffer, StructEncoder<P>> byteBuffers(final ArrayField field) {
     List<DataHolder> values = new ArrayList<DataHolder>();
     data.add(new ArrayDataHolder(values, field.index()));
     return new ArrayEncoder<ByteBuffer, StructEncoder<P>>(values, this) {
@@ -230,7 +358,14 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
   }
 
   public StructArrayEncoder<StructEncoder<P>> structs(String name) {
-    final ArrayField field = fieldSearcher.findField(name, ArrayField.class, StructField.class);
+    return structs(fieldSearcher.findField(name, ArrayField.class, StructField.class));
+  }
+
+  public StructArrayEncoder<StructEncoder<P>> structs(FieldHandle<Struct[]> handle) {
+    return structs(fieldSearcher.<ArrayField>findField(handle));
+  }
+
+  private StructArrayEncoder<StructEncoder<P>> structs(ArrayField field) {
     List<StructDataHolder> values = new ArrayList<StructDataHolder>();
     data.add(new ArrayDataHolder(values, field.index()));
     return new StructArrayEncoder<StructEncoder<P>>(values, this, ((StructField) field.subField()));
@@ -241,7 +376,18 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
   }
 
   public <T> StructEncoder<P> structs(String name, Iterable<T> iterable, StructEncoderFunction<T> function) {
-    StructArrayEncoder<StructEncoder<P>> subStructArrayEncoder = structs(name);
+    return structs(structs(name), iterable, function);
+  }
+
+  public <T> StructEncoder<P> structs(FieldHandle<Struct[]> handle, T[] array, StructEncoderFunction<T> function) {
+    return structs(handle, Arrays.asList(array), function);
+  }
+
+  public <T> StructEncoder<P> structs(FieldHandle<Struct[]> handle, Iterable<T> iterable, StructEncoderFunction<T> function) {
+    return structs(structs(handle), iterable, function);
+  }
+
+  private <T> StructEncoder<P> structs(StructArrayEncoder<StructEncoder<P>> subStructArrayEncoder, Iterable<T> iterable, StructEncoderFunction<T> function) {
     for (T t : iterable) {
       function.encode(subStructArrayEncoder.add(), t);
     }
@@ -277,6 +423,40 @@ public class StructEncoder<P> implements PrimitiveEncodingSupport<StructEncoder<
     return performEncoding(bb, size);
   }
 
+  /**
+   * Encode the structure as a gather list, suitable for {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[])},
+   * with byte buffer fields of {@link #DEFAULT_GATHER_THRESHOLD} bytes or more referenced instead of copied.
+   * @return the encoded structure as a gather list.
+   * @see #encodeGathering(int)
+   */
+  public ByteBuffer[] encodeGathering() {
+    return encodeGathering(DEFAULT_GATHER_THRESHOLD);
+  }
+
+  /**
+   * Encode the structure as a gather list: headers, VLQs and small values are written into small heap-allocated
+   * buffers while byte buffer and string fields of at least {@code threshold} bytes are referenced in place.
+   * The concatenation of the returned buffers is identical to what {@link #encode()} returns.
+   * The referenced buffers share their content with the ones passed to this encoder, so these must not be modified
+   * until the gather list has been written out.
+   * @param threshold the minimum size of a field value for it to be referenced instead of copied.
+   * @return the encoded structure as a gather list.
+   */
+  public ByteBuffer[] encodeGathering(int threshold) {
+    if (parent != null) {
+      throw new IllegalStateException("Cannot encode non-root encoder");
+    }
+    int size = calculateSize();
+    GatheringWriteBuffer writeBuffer = new GatheringWriteBuffer(threshold, size + VLQ.encodedSize(size));
+    writeBuffer.putVlqInt(size);
+
+    for (DataHolder dataHolder : data) {
+      dataHolder.encode(writeBuffer, true);
+    }
+
+    return writeBuffer.toByteBuffers();
+  }
+
   private int calculateSize() {
     int size = 0;
     for (DataHolder dataHolder : data) {
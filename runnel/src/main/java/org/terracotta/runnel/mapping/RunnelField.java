@@ -0,0 +1,46 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.mapping;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field to be mapped by a {@link StructMapper}, or gives the encoded value of an enum constant.
+ * <p>
+ * The index is what identifies the field in the encoded data: it must be strictly positive, unique within its
+ * class hierarchy and must never change nor be reused once data has been exchanged, exactly like the indexes
+ * given to {@link org.terracotta.runnel.StructBuilder}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface RunnelField {
+
+  /**
+   * @return the field index, or the encoded value of an enum constant.
+   */
+  int value();
+
+  /**
+   * @return the field name in the struct, defaulting to the Java field name.
+   */
+  String name() default "";
+
+}
@@ -0,0 +1,953 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.mapping;
+
+import org.terracotta.runnel.EnumMapping;
+import org.terracotta.runnel.EnumMappingBuilder;
+import org.terracotta.runnel.Struct;
+import org.terracotta.runnel.StructBuilder;
+import org.terracotta.runnel.decoding.ArrayDecoder;
+import org.terracotta.runnel.decoding.Enm;
+import org.terracotta.runnel.decoding.StructArrayDecoder;
+import org.terracotta.runnel.decoding.StructDecoder;
+import org.terracotta.runnel.encoding.StreamingArrayEncoder;
+import org.terracotta.runnel.encoding.StreamingStructArrayEncoder;
+import org.terracotta.runnel.encoding.StreamingStructEncoder;
+import org.terracotta.runnel.metadata.FieldHandle;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Maps a class to a {@link Struct}, and encodes and decodes its instances without any hand-written codec.
+ * <p>
+ * The fields of the class (and of its superclasses) annotated with {@link RunnelField} become the fields of the
+ * struct, with the index given by the annotation. They can be of type {@code boolean}, {@code char}, {@code int},
+ * {@code long}, {@code double} or their boxed counterparts, {@link String}, {@link ByteBuffer}, an enum whose
+ * constants are all annotated with {@link RunnelField}, {@code int[]}, {@code long[]}, {@code double[]},
+ * {@code String[]}, a class that can itself be mapped, or an array or a {@link List} of such a class.
+ * The mapped class must have a no-argument constructor, and its mapped fields cannot be static nor final.
+ * <p>
+ * Encoding goes straight to a {@link StreamingStructEncoder} and decoding uses the primitive methods of
+ * {@link StructDecoder}, both through {@link FieldHandle}s resolved once when the mapper is created. Null fields
+ * are not encoded, and fields absent from the decoded data keep the value given by the constructor, which
+ * allows fields to be added and removed across versions as long as indexes are not reused. Note that null elements
+ * of a list or an array, and elements with all their fields null, are not encoded.
+ * <p>
+ * Mappers are expensive to create: they are meant to be created once and kept, like {@link Struct}s.
+ * Note: Instances of this class are thread-safe.
+ *
+ * @param <T> the mapped type.
+ */
+public final class StructMapper<T> {
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  private final Class<T> type;
+  private final Struct struct;
+  private final MethodHandle constructor;
+  private final Property[] properties;
+
+  private StructMapper(Class<T> type, Set<Class<?>> path) {
+    if (type.isPrimitive() || type.isArray() || type.isEnum() || type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+      throw new IllegalArgumentException("Cannot map type : " + type.getName());
+    }
+    if (!path.add(type)) {
+      throw new IllegalArgumentException("Cannot map recursive type : " + type.getName());
+    }
+    try {
+      List<Field> fields = mappedFields(type);
+      if (fields.isEmpty()) {
+        throw new IllegalArgumentException("No field annotated with @RunnelField in type : " + type.getName());
+      }
+      StructBuilder builder = StructBuilder.newStructBuilder();
+      this.properties = new Property[fields.size()];
+      for (int i = 0; i < properties.length; i++) {
+        properties[i] = property(fields.get(i), path);
+        properties[i].declare(builder);
+      }
+      this.struct = builder.build();
+      for (Property property : properties) {
+        property.bind(struct);
+      }
+    } finally {
+      path.remove(type);
+    }
+    this.type = type;
+    this.constructor = constructor(type);
+  }
+
+  /**
+   * Create a mapper for the given type.
+   * @param type the type to map.
+   * @param <T> the type to map.
+   * @return the mapper.
+   * @throws IllegalArgumentException if the type cannot be mapped.
+   */
+  public static <T> StructMapper<T> of(Class<T> type) {
+    return new StructMapper<T>(type, new HashSet<Class<?>>());
+  }
+
+  /**
+   * @return the struct describing the encoded form of the mapped type, which can be embedded in other structs.
+   */
+  public Struct struct() {
+    return struct;
+  }
+
+  public Class<T> type() {
+    return type;
+  }
+
+  public ByteBuffer encode(T value) {
+    StreamingStructEncoder<Void> encoder = struct.streamingEncoder();
+    encode(encoder, value);
+    return encoder.encode();
+  }
+
+  /**
+   * Encode the fields of a value with an encoder of this mapper's {@link #struct()}, or of a struct field
+   * declared with it.
+   */
+  public void encode(StreamingStructEncoder<?> encoder, T value) {
+    try {
+      for (Property property : properties) {
+        property.encode(encoder, value);
+      }
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new IllegalStateException("Cannot encode " + type.getName(), t);
+    }
+  }
+
+  public T decode(ByteBuffer byteBuffer) {
+    return decode(struct.decoder(byteBuffer));
+  }
+
+  /**
+   * Decode a value with a decoder of this mapper's {@link #struct()}, or of a struct field declared with it.
+   */
+  public T decode(StructDecoder<?> decoder) {
+    try {
+      Object value = constructor.invokeExact();
+      for (Property property : properties) {
+        property.decode(decoder, value);
+      }
+      return type.cast(value);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new IllegalStateException("Cannot decode " + type.getName(), t);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "StructMapper{" + type.getName() + "}";
+  }
+
+  private static List<Field> mappedFields(Class<?> type) {
+    List<Field> fields = new ArrayList<Field>();
+    for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        if (field.isAnnotationPresent(RunnelField.class)) {
+          if (Modifier.isStatic(field.getModifiers()) || Modifier.isFinal(field.getModifiers())) {
+            throw new IllegalArgumentException("Mapped field cannot be static nor final : " + field);
+          }
+          fields.add(field);
+        }
+      }
+    }
+    fields.sort(new Comparator<Field>() {
+      @Override
+      public int compare(Field f1, Field f2) {
+        return Integer.compare(f1.getAnnotation(RunnelField.class).value(), f2.getAnnotation(RunnelField.class).value());
+      }
+    });
+    return fields;
+  }
+
+  private static MethodHandle constructor(Class<?> type) {
+    try {
+      Constructor<?> constructor = type.getDeclaredConstructor();
+      constructor.setAccessible(true);
+      return LOOKUP.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+    } catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException("Mapped type must have a no-argument constructor : " + type.getName(), e);
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException("Cannot access the constructor of : " + type.getName(), e);
+    }
+  }
+
+  private static Property property(Field field, Set<Class<?>> path) {
+    Class<?> fieldType = field.getType();
+    if (fieldType == boolean.class) {
+      return new BoolProperty(field);
+    } else if (fieldType == char.class) {
+      return new ChrProperty(field);
+    } else if (fieldType == int.class) {
+      return new Int32Property(field);
+    } else if (fieldType == long.class) {
+      return new Int64Property(field);
+    } else if (fieldType == double.class) {
+      return new Fp64Property(field);
+    } else if (fieldType == Boolean.class) {
+      return new BoxedBoolProperty(field);
+    } else if (fieldType == Character.class) {
+      return new BoxedChrProperty(field);
+    } else if (fieldType == Integer.class) {
+      return new BoxedInt32Property(field);
+    } else if (fieldType == Long.class) {
+      return new BoxedInt64Property(field);
+    } else if (fieldType == Double.class) {
+      return new BoxedFp64Property(field);
+    } else if (fieldType == String.class) {
+      return new StringProperty(field);
+    } else if (fieldType == ByteBuffer.class) {
+      return new ByteBufferProperty(field);
+    } else if (fieldType.isEnum()) {
+      return new EnmProperty(field, enumMapping(fieldType));
+    } else if (fieldType == int[].class) {
+      return new Int32sProperty(field);
+    } else if (fieldType == long[].class) {
+      return new Int64sProperty(field);
+    } else if (fieldType == double[].class) {
+      return new Fp64sProperty(field);
+    } else if (fieldType == String[].class) {
+      return new StringsProperty(field);
+    } else if (fieldType.isArray()) {
+      return new StructsProperty(field, new StructMapper<Object>(objectType(fieldType.getComponentType()), path), false);
+    } else if (fieldType == List.class) {
+      return new StructsProperty(field, new StructMapper<Object>(objectType(elementType(field)), path), true);
+    } else {
+      return new StructProperty(field, new StructMapper<Object>(objectType(fieldType), path));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Class<Object> objectType(Class<?> type) {
+    return (Class<Object>) type;
+  }
+
+  private static Class<?> elementType(Field field) {
+    Type genericType = field.getGenericType();
+    if (genericType instanceof ParameterizedType) {
+      Type elementType = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+      if (elementType instanceof Class) {
+        return (Class<?>) elementType;
+      }
+    }
+    throw new IllegalArgumentException("Cannot determine the element type of : " + field);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static EnumMapping<Object> enumMapping(Class<?> enumType) {
+    EnumMappingBuilder builder = EnumMappingBuilder.newEnumMappingBuilder((Class) enumType);
+    for (Object constant : enumType.getEnumConstants()) {
+      String name = ((Enum<?>) constant).name();
+      RunnelField annotation;
+      try {
+        annotation = enumType.getField(name).getAnnotation(RunnelField.class);
+      } catch (NoSuchFieldException e) {
+        throw new AssertionError(e);
+      }
+      if (annotation == null) {
+        throw new IllegalArgumentException("Enum constant not annotated with @RunnelField : " + enumType.getName() + "." + name);
+      }
+      builder.mapping((Enum) constant, annotation.value());
+    }
+    return builder.build();
+  }
+
+  /**
+   * A mapped field, accessed through method handles typed with its primitive type, or {@code Object}.
+   */
+  private abstract static class Property {
+    final String name;
+    final int index;
+    final MethodHandle getter;
+    final MethodHandle setter;
+
+    Property(Field field) {
+      RunnelField annotation = field.getAnnotation(RunnelField.class);
+      this.name = annotation.name().isEmpty() ? field.getName() : annotation.name();
+      this.index = annotation.value();
+      Class<?> valueType = field.getType().isPrimitive() ? field.getType() : Object.class;
+      try {
+        field.setAccessible(true);
+        this.getter = LOOKUP.unreflectGetter(field).asType(MethodType.methodType(valueType, Object.class));
+        this.setter = LOOKUP.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, valueType));
+      } catch (IllegalAccessException e) {
+        throw new IllegalArgumentException("Cannot access field : " + field, e);
+      }
+    }
+
+    abstract void declare(StructBuilder builder);
+
+    abstract void bind(Struct struct);
+
+    abstract void encode(StreamingStructEncoder<?> encoder, Object target) throws Throwable;
+
+    abstract void decode(StructDecoder<?> decoder, Object target) throws Throwable;
+  }
+
+  private static final class BoolProperty extends Property {
+    private FieldHandle<Boolean> handle;
+
+    BoolProperty(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.bool(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.boolField(name);
+    }
+
+    @Override
+    void encode(StreamingStructEncoder<?> encoder, Object target) throws Throwable {
+      encoder.bool(handle, (boolean) getter.invokeExact(target));
+    }
+
+    @Override
+    void decode(StructDecoder<?> decoder, Object target) throws Throwable {
+      setter.invokeExact(target, decoder.bool(handle, (boolean) getter.invokeExact(target)));
+    }
+  }
+
+  private static final class ChrProperty extends Property {
+    private FieldHandle<Character> handle;
+
+    ChrProperty(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.chr(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.chrField(name);
+    }
+
+    @Override
+    void encode(StreamingStructEncoder<?> encoder, Object target) throws Throwable {
+      encoder.chr(handle, (char) getter.invokeExact(target));
+    }
+
+    @Override
+    void decode(StructDecoder<?> decoder, Object target) throws Throwable {
+      setter.invokeExact(target, decoder.chr(handle, (char) getter.invokeExact(target)));
+    }
+  }
+
+  private static final class Int32Property extends Property {
+    private FieldHandle<Integer> handle;
+
+    Int32Property(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.int32(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.int32Field(name);
+    }
+
+    @Override
+    void encode(StreamingStructEncoder<?> encoder, Object target) throws Throwable {
+      encoder.int32(handle, (int) getter.invokeExact(target));
+    }
+
+    @Override
+    void decode(StructDecoder<?> decoder, Object target) throws Throwable {
+      setter.invokeExact(target, decoder.int32(handle, (int) getter.invokeExact(target)));
+    }
+  }
+
+  private static final class Int64Property extends Property {
+    private FieldHandle<Long> handle;
+
+    Int64Property(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.int64(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.int64Field(name);
+    }
+
+    @Override
+    void encode(StreamingStructEncoder<?> encoder, Object target) throws Throwable {
+      encoder.int64(handle, (long) getter.invokeExact(target));
+    }
+
+    @Override
+    void decode(StructDecoder<?> decoder, Object target) throws Throwable {
+      setter.invokeExact(target, decoder.int64(handle, (long) getter.invokeExact(target)));
+    }
+  }
+
+  private static final class Fp64Property extends Property {
+    private FieldHandle<Double> handle;
+
+    Fp64Property(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.fp64(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.fp64Field(name);
+    }
+
+    @Override
+    void encode(StreamingStructEncoder<?> encoder, Object target) throws Throwable {
+      encoder.fp64(handle, (double) getter.invokeExact(target));
+    }
+
+    @Override
+    void decode(StructDecoder<?> decoder, Object target) throws Throwable {
+      setter.invokeExact(target, decoder.fp64(handle, (double) getter.invokeExact(target)));
+    }
+  }
+
+  /**
+   * A field of a reference type, which is not encoded when null, and left untouched when absent from the data.
+   */
+  private abstract static class ReferenceProperty<V> extends Property {
+
+    ReferenceProperty(Field field) {
+      super(field);
+    }
+
+    @Override
+    final void encode(StreamingStructEncoder<?> encoder, Object target) throws Throwable {
+      Object value = (Object) getter.invokeExact(target);
+      if (value != null) {
+        encodeValue(encoder, cast(value));
+      }
+    }
+
+    @Override
+    final void decode(StructDecoder<?> decoder, Object target) throws Throwable {
+      Object value = decodeValue(decoder);
+      if (value != null) {
+        setter.invokeExact(target, value);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V cast(Object value) {
+      return (V) value;
+    }
+
+    abstract void encodeValue(StreamingStructEncoder<?> encoder, V value);
+
+    abstract V decodeValue(StructDecoder<?> decoder);
+  }
+
+  private static final class BoxedBoolProperty extends ReferenceProperty<Boolean> {
+    private FieldHandle<Boolean> handle;
+
+    BoxedBoolProperty(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.bool(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.boolField(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, Boolean value) {
+      encoder.bool(handle, value);
+    }
+
+    @Override
+    Boolean decodeValue(StructDecoder<?> decoder) {
+      return decoder.bool(handle);
+    }
+  }
+
+  private static final class BoxedChrProperty extends ReferenceProperty<Character> {
+    private FieldHandle<Character> handle;
+
+    BoxedChrProperty(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.chr(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.chrField(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, Character value) {
+      encoder.chr(handle, value);
+    }
+
+    @Override
+    Character decodeValue(StructDecoder<?> decoder) {
+      return decoder.chr(handle);
+    }
+  }
+
+  private static final class BoxedInt32Property extends ReferenceProperty<Integer> {
+    private FieldHandle<Integer> handle;
+
+    BoxedInt32Property(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.int32(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.int32Field(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, Integer value) {
+      encoder.int32(handle, value);
+    }
+
+    @Override
+    Integer decodeValue(StructDecoder<?> decoder) {
+      return decoder.int32(handle);
+    }
+  }
+
+  private static final class BoxedInt64Property extends ReferenceProperty<Long> {
+    private FieldHandle<Long> handle;
+
+    BoxedInt64Property(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.int64(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.int64Field(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, Long value) {
+      encoder.int64(handle, value);
+    }
+
+    @Override
+    Long decodeValue(StructDecoder<?> decoder) {
+      return decoder.int64(handle);
+    }
+  }
+
+  private static final class BoxedFp64Property extends ReferenceProperty<Double> {
+    private FieldHandle<Double> handle;
+
+    BoxedFp64Property(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.fp64(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.fp64Field(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, Double value) {
+      encoder.fp64(handle, value);
+    }
+
+    @Override
+    Double decodeValue(StructDecoder<?> decoder) {
+      return decoder.fp64(handle);
+    }
+  }
+
+  private static final class StringProperty extends ReferenceProperty<String> {
+    private FieldHandle<String> handle;
+
+    StringProperty(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.string(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.stringField(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, String value) {
+      encoder.string(handle, value);
+    }
+
+    @Override
+    String decodeValue(StructDecoder<?> decoder) {
+      return decoder.string(handle);
+    }
+  }
+
+  private static final class ByteBufferProperty extends ReferenceProperty<ByteBuffer> {
+    private FieldHandle<ByteBuffer> handle;
+
+    ByteBufferProperty(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.byteBuffer(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.byteBufferField(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, ByteBuffer value) {
+      encoder.byteBuffer(handle, value.duplicate());
+    }
+
+    @Override
+    ByteBuffer decodeValue(StructDecoder<?> decoder) {
+      return decoder.byteBuffer(handle);
+    }
+  }
+
+  private static final class EnmProperty extends ReferenceProperty<Object> {
+    private final EnumMapping<Object> enumMapping;
+    private FieldHandle<Enm<Object>> handle;
+
+    EnmProperty(Field field, EnumMapping<Object> enumMapping) {
+      super(field);
+      this.enumMapping = enumMapping;
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.enm(name, index, enumMapping);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.enmField(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, Object value) {
+      encoder.enm(handle, value);
+    }
+
+    @Override
+    Object decodeValue(StructDecoder<?> decoder) {
+      Enm<Object> enm = decoder.enm(handle);
+      // values unknown to this version of the enum are treated as absent
+      return enm.isValid() ? enm.get() : null;
+    }
+  }
+
+  private static final class Int32sProperty extends ReferenceProperty<int[]> {
+    private FieldHandle<Integer[]> handle;
+
+    Int32sProperty(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.int32s(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.int32sField(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, int[] value) {
+      encoder.int32s(handle, value);
+    }
+
+    @Override
+    int[] decodeValue(StructDecoder<?> decoder) {
+      return decoder.int32Array(handle);
+    }
+  }
+
+  private static final class Int64sProperty extends ReferenceProperty<long[]> {
+    private FieldHandle<Long[]> handle;
+
+    Int64sProperty(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.int64s(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.int64sField(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, long[] value) {
+      encoder.int64s(handle, value);
+    }
+
+    @Override
+    long[] decodeValue(StructDecoder<?> decoder) {
+      return decoder.int64Array(handle);
+    }
+  }
+
+  private static final class Fp64sProperty extends ReferenceProperty<double[]> {
+    private FieldHandle<Double[]> handle;
+
+    Fp64sProperty(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.fp64s(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.fp64sField(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, double[] value) {
+      encoder.fp64s(handle, value);
+    }
+
+    @Override
+    double[] decodeValue(StructDecoder<?> decoder) {
+      return decoder.fp64Array(handle);
+    }
+  }
+
+  private static final class StringsProperty extends ReferenceProperty<String[]> {
+    private FieldHandle<String[]> handle;
+
+    StringsProperty(Field field) {
+      super(field);
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.strings(name, index);
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.stringsField(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, String[] value) {
+      StreamingArrayEncoder<String, ?> arrayEncoder = encoder.strings(handle);
+      for (String string : value) {
+        arrayEncoder.value(string);
+      }
+      arrayEncoder.end();
+    }
+
+    @Override
+    String[] decodeValue(StructDecoder<?> decoder) {
+      ArrayDecoder<String, ?> arrayDecoder = decoder.strings(handle);
+      if (arrayDecoder == null) {
+        return null;
+      }
+      String[] strings = new String[arrayDecoder.length()];
+      for (int i = 0; i < strings.length; i++) {
+        strings[i] = arrayDecoder.value();
+      }
+      arrayDecoder.end();
+      return strings;
+    }
+  }
+
+  private static final class StructProperty extends ReferenceProperty<Object> {
+    private final StructMapper<Object> mapper;
+    private FieldHandle<Struct> handle;
+
+    StructProperty(Field field, StructMapper<Object> mapper) {
+      super(field);
+      this.mapper = mapper;
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.struct(name, index, mapper.struct());
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.structField(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, Object value) {
+      StreamingStructEncoder<?> structEncoder = encoder.struct(handle);
+      mapper.encode(structEncoder, value);
+      structEncoder.end();
+    }
+
+    @Override
+    Object decodeValue(StructDecoder<?> decoder) {
+      StructDecoder<?> structDecoder = decoder.struct(handle);
+      if (structDecoder == null) {
+        return null;
+      }
+      Object value = mapper.decode(structDecoder);
+      structDecoder.end();
+      return value;
+    }
+  }
+
+  private static final class StructsProperty extends ReferenceProperty<Object> {
+    private final StructMapper<Object> mapper;
+    private final boolean list;
+    private FieldHandle<Struct[]> handle;
+
+    StructsProperty(Field field, StructMapper<Object> mapper, boolean list) {
+      super(field);
+      this.mapper = mapper;
+      this.list = list;
+    }
+
+    @Override
+    void declare(StructBuilder builder) {
+      builder.structs(name, index, mapper.struct());
+    }
+
+    @Override
+    void bind(Struct struct) {
+      handle = struct.structsField(name);
+    }
+
+    @Override
+    void encodeValue(StreamingStructEncoder<?> encoder, Object value) {
+      StreamingStructArrayEncoder<?> arrayEncoder = encoder.structs(handle);
+      if (list) {
+        for (Object element : (Collection<?>) value) {
+          encodeElement(arrayEncoder, element);
+        }
+      } else {
+        for (int i = 0; i < Array.getLength(value); i++) {
+          encodeElement(arrayEncoder, Array.get(value, i));
+        }
+      }
+      arrayEncoder.end();
+    }
+
+    private void encodeElement(StreamingStructArrayEncoder<?> arrayEncoder, Object element) {
+      // null elements cannot be told apart from elements with all their fields null, which are not encoded either
+      if (element != null) {
+        mapper.encode(arrayEncoder.add(), element);
+      }
+    }
+
+    @Override
+    Object decodeValue(StructDecoder<?> decoder) {
+      StructArrayDecoder<?> arrayDecoder = decoder.structs(handle);
+      if (arrayDecoder == null) {
+        return null;
+      }
+      List<Object> elements = new ArrayList<Object>(arrayDecoder.length());
+      while (arrayDecoder.hasNext()) {
+        elements.add(mapper.decode(arrayDecoder.next()));
+      }
+      arrayDecoder.end();
+      if (list) {
+        return elements;
+      }
+      Object array = Array.newInstance(mapper.type(), elements.size());
+      for (int i = 0; i < elements.size(); i++) {
+        Array.set(array, i, elements.get(i));
+      }
+      return array;
+    }
+  }
+
+}
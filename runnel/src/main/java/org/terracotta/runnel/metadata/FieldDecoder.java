@@ -72,9 +72,80 @@ public class FieldDecoder {
     return field.decode(readBuffer);
   }
 
+  public <P> StructArrayDecoder<P> decodeStructArray(FieldHandle<?> handle, P parent) {
+    ArrayField field = seek(findFieldWithIndex(handle));
+    if (field == null) {
+      return null;
+    }
+    return new StructArrayDecoder<P>(((StructField) field.subField()), readBuffer, parent);
+  }
+
+  public <P> StructDecoder<P> decodeStruct(FieldHandle<?> handle, P parent) {
+    StructField field = seek(findFieldWithIndex(handle));
+    if (field == null) {
+      return null;
+    }
+    return new StructDecoder<P>(field, readBuffer, parent);
+  }
+
+  public <T, P> ArrayDecoder<T, P> decodeValueArray(FieldHandle<T[]> handle, P parent) {
+    ArrayField field = seek(findFieldWithIndex(handle));
+    if (field == null) {
+      return null;
+    }
+    @SuppressWarnings("unchecked")
+    ValueField<T> subField = (ValueField<T>) field.subField();
+    return new ArrayDecoder<>(subField, readBuffer, parent);
+  }
+
+  public <T> T decodeValue(FieldHandle<T> handle) {
+    ValueField<T> field = seek(findFieldWithIndex(handle));
+    if (field == null) {
+      return null;
+    }
+    return field.decode(readBuffer);
+  }
+
+  /**
+   * Position the read buffer on the value of a field without decoding it, so that the caller can read it
+   * through one of the primitive decoding methods of the returned field.
+   * @return the field, or null if it was absent from the data.
+   */
+  public <F extends ValueField<?>> F seekValue(String name, Class<F> clazz) {
+    return nextField(name, clazz, null);
+  }
+
+  public <F extends ValueField<?>> F seekValue(FieldHandle<?> handle) {
+    return seek(findFieldWithIndex(handle));
+  }
+
+  /**
+   * Check if a field is present in the data without consuming it. Fields with a lower index than this one
+   * cannot be decoded anymore after this call, but this field can.
+   */
+  public boolean isPresent(String name) {
+    return peek(findFieldWithIndex(name));
+  }
+
+  public boolean isPresent(FieldHandle<?> handle) {
+    return peek(findFieldWithIndex(handle));
+  }
+
+  private boolean peek(Field field) {
+    lastIndex = field.index() - 1;
+    if (seek(field) == null) {
+      return false;
+    }
+    readAheadIndex = field.index();
+    return true;
+  }
+
+  private <T extends Field, S extends Field> T nextField(String name, Class<T> fieldClazz, Class<S> subFieldClazz) {
+    return seek(findFieldWithIndex(name, fieldClazz, subFieldClazz));
+  }
+
   @SuppressWarnings("unchecked")
-  private  <T extends Field, S extends Field> T nextField(String name, Class<T> fieldClazz, Class<S> subFieldClazz) {
-    Field field = findFieldWithIndex(name, fieldClazz, subFieldClazz);
+  private <T extends Field> T seek(Field field) {
     if (readBuffer.limitReached()) {
       return null;
     }
@@ -102,26 +173,34 @@ public class FieldDecoder {
   }
 
   private <T extends Field, S extends Field> Field findFieldWithIndex(String name, Class<T> fieldClazz, Class<S> subFieldClazz) {
+    Field field = findFieldWithIndex(name);
+    FieldSearcher.checkType(field, fieldClazz, subFieldClazz);
+    return field;
+  }
+
+  private Field findFieldWithIndex(String name) {
     Field field = metadata.getFieldByName(name);
     if (field == null) {
       throw new IllegalArgumentException("No such field : " + name);
     }
-    if (field.index() <= lastIndex) {
-      throw new IllegalArgumentException("No such field left : '" + name + "'");
-    }
-    lastIndex = field.index();
+    checkIndex(field);
+    return field;
+  }
 
-    if (field.getClass() != fieldClazz) {
-      throw new IllegalArgumentException("Invalid type for field '" + name + "', expected : '" + fieldClazz.getSimpleName() + "' but was '" + field.getClass().getSimpleName() + "'");
-    }
-    if (subFieldClazz != null) {
-      ArrayField arrayField = (ArrayField) field;
-      Field nextSubField = arrayField.subField();
-      if (!nextSubField.getClass().equals(subFieldClazz)) {
-        throw new IllegalArgumentException("Invalid subtype for field '" + name + "', expected : '" + subFieldClazz.getSimpleName() + "' but was '" + nextSubField.getClass().getSimpleName() + "'");
-      }
+  private Field findFieldWithIndex(FieldHandle<?> handle) {
+    if (handle.owner() != metadata) {
+      throw new IllegalArgumentException("Field '" + handle.name() + "' does not belong to this struct");
     }
+    Field field = handle.field();
+    checkIndex(field);
     return field;
   }
 
+  private void checkIndex(Field field) {
+    if (field.index() <= lastIndex) {
+      throw new IllegalArgumentException("No such field left : '" + field.name() + "'");
+    }
+    lastIndex = field.index();
+  }
+
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.metadata;
+
+import org.terracotta.runnel.decoding.fields.Field;
+
+/**
+ * A field of a {@link org.terracotta.runnel.Struct}, resolved once by name and type so that encoders and decoders
+ * can reach it without any lookup. Handles are obtained from the {@code Struct.*Field(String)} methods and can be
+ * used with any encoder or decoder of the struct they were obtained from, or of its aliases.
+ * Note: Instances of this class are immutable and thread-safe.
+ * @param <T> the type of the field's values, {@link org.terracotta.runnel.Struct} for a struct, or an array of
+ *           either for an array.
+ */
+public final class FieldHandle<T> {
+
+  private final Metadata owner;
+  private final Field field;
+
+  FieldHandle(Metadata owner, Field field) {
+    this.owner = owner;
+    this.field = field;
+  }
+
+  public String name() {
+    return field.name();
+  }
+
+  public int index() {
+    return field.index();
+  }
+
+  Field field() {
+    return field;
+  }
+
+  Metadata owner() {
+    return owner;
+  }
+
+  @Override
+  public String toString() {
+    return "FieldHandle{name='" + field.name() + "', index=" + field.index() + ", type=" + field.getClass().getSimpleName() + "}";
+  }
+}
@@ -41,6 +41,28 @@ public class FieldSearcher {
     }
     lastIndex = field.index();
 
+    checkType(field, fieldClazz, subFieldClazz);
+    return field;
+  }
+
+  /**
+   * Find a field from its handle. The type of the field was checked when the handle was resolved.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends Field> T findField(FieldHandle<?> handle) {
+    if (handle.owner() != metadata) {
+      throw new IllegalArgumentException("Field '" + handle.name() + "' does not belong to this struct");
+    }
+    Field field = handle.field();
+    if (field.index() <= lastIndex) {
+      throw new IllegalArgumentException("No such field left : '" + field.name() + "'");
+    }
+    lastIndex = field.index();
+    return (T) field;
+  }
+
+  static void checkType(Field field, Class<? extends Field> fieldClazz, Class<? extends Field> subFieldClazz) {
+    String name = field.name();
     if (field.getClass() != fieldClazz) {
       throw new IllegalArgumentException("Invalid type for field '" + name + "', expected : '" + fieldClazz.getSimpleName() + "' but was '" + field.getClass().getSimpleName() + "'");
     }
@@ -51,7 +73,6 @@ public class FieldSearcher {
         throw new IllegalArgumentException("Invalid subtype for field '" + name + "', expected : '" + subFieldClazz.getSimpleName() + "' but was '" + nextSubField.getClass().getSimpleName() + "'");
       }
     }
-    return field;
   }
 
 }
@@ -20,6 +20,7 @@ import org.terracotta.runnel.decoding.fields.StructField;
 import org.terracotta.runnel.utils.ReadBuffer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,6 +32,7 @@ public class Metadata {
 
   private final List<Field> fields = new ArrayList<Field>();
   private final Map<String, Field> fieldsByName = new HashMap<String, Field>();
+  private int[] indexes;
   private volatile boolean initialized = false;
   private volatile boolean initializationFullyChecked = false;
   private final ThreadLocal<Boolean> checkingForFullInitialization = new ThreadLocal<Boolean>();
@@ -49,8 +51,11 @@ public class Metadata {
     if (initialized) {
       throw new IllegalStateException("Metadata already initialized");
     }
-    for (Field field : fields) {
+    indexes = new int[fields.size()];
+    for (int i = 0; i < fields.size(); i++) {
+      Field field = fields.get(i);
       fieldsByName.put(field.name(), field);
+      indexes[i] = field.index();
     }
     initialized = true;
   }
@@ -85,6 +90,10 @@ public class Metadata {
     return new FieldDecoder(this, readBuffer);
   }
 
+  public RandomAccessFieldDecoder randomAccessFieldDecoder(ReadBuffer readBuffer) {
+    return new RandomAccessFieldDecoder(this, readBuffer);
+  }
+
   public Map<Integer, Field> buildFieldsByIndexMap() {
     Map<Integer, Field> map = new HashMap<Integer, Field>();
     for (Field field : fieldsByName.values()) {
@@ -93,8 +102,37 @@ public class Metadata {
     return map;
   }
 
+  /**
+   * Resolve a field by name, checking its type.
+   * @param name the field name.
+   * @param fieldClazz the expected field type.
+   * @param subFieldClazz the expected type of the array elements, or null if the field is not an array.
+   * @param <T> the handle's value type.
+   * @return the handle of the field.
+   */
+  public <T> FieldHandle<T> handle(String name, Class<? extends Field> fieldClazz, Class<? extends Field> subFieldClazz) {
+    checkFullyInitialized();
+    Field field = getFieldByName(name);
+    if (field == null) {
+      throw new IllegalArgumentException("No such field : " + name);
+    }
+    FieldSearcher.checkType(field, fieldClazz, subFieldClazz);
+    return new FieldHandle<T>(this, field);
+  }
+
   Field getFieldByName(String name) {
     return fieldsByName.get(name);
   }
 
+  int fieldCount() {
+    return indexes.length;
+  }
+
+  /**
+   * @return the declaration order of the field with the given index, or a negative value if there is no such field.
+   */
+  int ordinalOf(int index) {
+    return Arrays.binarySearch(indexes, index);
+  }
+
 }
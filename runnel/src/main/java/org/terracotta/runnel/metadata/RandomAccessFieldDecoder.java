@@ -0,0 +1,206 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.metadata;
+
+import org.terracotta.runnel.decoding.ArrayDecoder;
+import org.terracotta.runnel.decoding.RandomAccessStructDecoder;
+import org.terracotta.runnel.decoding.StringView;
+import org.terracotta.runnel.decoding.fields.ArrayField;
+import org.terracotta.runnel.decoding.fields.Field;
+import org.terracotta.runnel.decoding.fields.StringField;
+import org.terracotta.runnel.decoding.fields.StructField;
+import org.terracotta.runnel.decoding.fields.ValueField;
+import org.terracotta.runnel.utils.ReadBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A field decoder allowing fields to be read in any order and any number of times. The offsets of the fields
+ * present in the data are indexed by a single scan, performed on first access.
+ */
+public class RandomAccessFieldDecoder {
+
+  private final Metadata metadata;
+  private final ReadBuffer readBuffer;
+  private final int start;
+  private int[] offsets;
+
+  RandomAccessFieldDecoder(Metadata metadata, ReadBuffer readBuffer) {
+    this.metadata = metadata;
+    this.readBuffer = readBuffer;
+    this.start = readBuffer.position();
+  }
+
+  public List<RandomAccessStructDecoder> decodeStructArray(String name) {
+    return decodeStructArray(this.<ArrayField>seek(findField(name, ArrayField.class, StructField.class)));
+  }
+
+  public List<RandomAccessStructDecoder> decodeStructArray(FieldHandle<?> handle) {
+    return decodeStructArray(this.<ArrayField>seek(findField(handle)));
+  }
+
+  private List<RandomAccessStructDecoder> decodeStructArray(ArrayField field) {
+    if (field == null) {
+      return null;
+    }
+    StructField subField = (StructField) field.subField();
+    int arraySize = readBuffer.getVlqInt();
+    ReadBuffer arrayReadBuffer = readBuffer.limit(arraySize);
+    int arrayLength = readBuffer.getVlqInt();
+    List<RandomAccessStructDecoder> decoders = new ArrayList<RandomAccessStructDecoder>(Math.min(arrayLength, arraySize));
+    while (!arrayReadBuffer.limitReached()) {
+      ReadBuffer elementReadBuffer = arrayReadBuffer.fork();
+      arrayReadBuffer.skip(arrayReadBuffer.getVlqInt());
+      decoders.add(new RandomAccessStructDecoder(subField, elementReadBuffer));
+    }
+    return decoders;
+  }
+
+  public RandomAccessStructDecoder decodeStruct(String name) {
+    return decodeStruct(this.<StructField>seek(findField(name, StructField.class, null)));
+  }
+
+  public RandomAccessStructDecoder decodeStruct(FieldHandle<?> handle) {
+    return decodeStruct(this.<StructField>seek(findField(handle)));
+  }
+
+  private RandomAccessStructDecoder decodeStruct(StructField field) {
+    if (field == null) {
+      return null;
+    }
+    return new RandomAccessStructDecoder(field, readBuffer.fork());
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> ArrayDecoder<T, Void> decodeValueArray(String name, Class<? extends ValueField<T>> clazz) {
+    ArrayField field = seek(findField(name, ArrayField.class, clazz));
+    if (field == null) {
+      return null;
+    }
+    return new ArrayDecoder<T, Void>((ValueField<T>) field.subField(), readBuffer.fork(), null);
+  }
+
+  public <T> T decodeValue(String name, Class<? extends ValueField<T>> clazz) {
+    ValueField<T> field = seek(findField(name, clazz, null));
+    if (field == null) {
+      return null;
+    }
+    return field.decode(readBuffer);
+  }
+
+  public <T> T decodeValue(FieldHandle<T> handle) {
+    ValueField<T> field = seek(findField(handle));
+    if (field == null) {
+      return null;
+    }
+    return field.decode(readBuffer);
+  }
+
+  public StringView decodeStringView(String name) {
+    return decodeStringView(this.<StringField>seek(findField(name, StringField.class, null)));
+  }
+
+  public StringView decodeStringView(FieldHandle<String> handle) {
+    return decodeStringView(this.<StringField>seek(findField(handle)));
+  }
+
+  private StringView decodeStringView(StringField field) {
+    if (field == null) {
+      return null;
+    }
+    int size = readBuffer.getVlqInt();
+    return new StringView(readBuffer.getByteBuffer(size));
+  }
+
+  /**
+   * Position the read buffer on the value of a field without decoding it, so that the caller can read it
+   * through one of the primitive decoding methods of the returned field.
+   * @return the field, or null if it was absent from the data.
+   */
+  public <F extends ValueField<?>> F seekValue(String name, Class<F> clazz) {
+    return seek(findField(name, clazz, null));
+  }
+
+  public <F extends ValueField<?>> F seekValue(FieldHandle<?> handle) {
+    return seek(findField(handle));
+  }
+
+  public boolean isPresent(String name) {
+    return offset(findField(name)) >= 0;
+  }
+
+  public boolean isPresent(FieldHandle<?> handle) {
+    return offset(findField(handle)) >= 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends Field> T seek(Field field) {
+    int offset = offset(field);
+    if (offset < 0) {
+      return null;
+    }
+    readBuffer.position(offset);
+    return (T) field;
+  }
+
+  private int offset(Field field) {
+    if (offsets == null) {
+      offsets = buildOffsets();
+    }
+    return offsets[metadata.ordinalOf(field.index())];
+  }
+
+  private int[] buildOffsets() {
+    int[] offsets = new int[metadata.fieldCount()];
+    Arrays.fill(offsets, -1);
+    readBuffer.position(start);
+    while (!readBuffer.limitReached()) {
+      int index = readBuffer.getVlqInt();
+      int offset = readBuffer.position();
+      readBuffer.skip(readBuffer.getVlqInt());
+      int ordinal = metadata.ordinalOf(index);
+      // fields unknown to this version of the struct are ignored
+      if (ordinal >= 0) {
+        offsets[ordinal] = offset;
+      }
+    }
+    return offsets;
+  }
+
+  private Field findField(String name) {
+    Field field = metadata.getFieldByName(name);
+    if (field == null) {
+      throw new IllegalArgumentException("No such field : " + name);
+    }
+    return field;
+  }
+
+  private Field findField(String name, Class<? extends Field> fieldClazz, Class<? extends Field> subFieldClazz) {
+    Field field = findField(name);
+    FieldSearcher.checkType(field, fieldClazz, subFieldClazz);
+    return field;
+  }
+
+  private Field findField(FieldHandle<?> handle) {
+    if (handle.owner() != metadata) {
+      throw new IllegalArgumentException("Field '" + handle.name() + "' does not belong to this struct");
+    }
+    return handle.field();
+  }
+
+}
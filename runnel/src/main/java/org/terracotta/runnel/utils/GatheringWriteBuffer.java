@@ -0,0 +1,130 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A write buffer which produces a gather list instead of a single contiguous byte buffer.
+ * <p>
+ * Headers, VLQs and small values are written into small heap-allocated chunks, while byte buffers whose remaining
+ * size reaches the threshold are not copied: a slice of them is appended to the gather list as-is.
+ * The concatenation of the produced buffers is exactly what {@link WriteBuffer} would have written.
+ * Note: Instances of this class are not thread-safe.
+ */
+public class GatheringWriteBuffer extends WriteBuffer {
+
+  private static final int MIN_CHUNK_SIZE = 256;
+
+  private final int threshold;
+  private final int chunkSize;
+  private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+  private int expectedRemaining;
+  private ByteBuffer chunk;
+  private int segmentStart;
+
+  /**
+   * @param threshold the minimum remaining size of a byte buffer for it to be referenced instead of copied.
+   * @param expectedSize the total count of bytes expected to be written, used to size the chunks.
+   */
+  public GatheringWriteBuffer(int threshold, int expectedSize) {
+    if (threshold < 1) {
+      throw new IllegalArgumentException("Threshold must be strictly positive: " + threshold);
+    }
+    this.threshold = threshold;
+    this.chunkSize = Math.max(MIN_CHUNK_SIZE, threshold);
+    this.expectedRemaining = expectedSize;
+  }
+
+  @Override
+  public void putBoolean(boolean value) {
+    ensureRemaining(1);
+    chunk.put(value ? (byte) 1 : (byte) 0);
+  }
+
+  @Override
+  public void putChar(char value) {
+    ensureRemaining(2);
+    chunk.putChar(value);
+  }
+
+  @Override
+  public void putDouble(double value) {
+    ensureRemaining(8);
+    chunk.putDouble(value);
+  }
+
+  @Override
+  public void putLong(long value) {
+    ensureRemaining(8);
+    chunk.putLong(value);
+  }
+
+  @Override
+  public void putInt(int value) {
+    ensureRemaining(4);
+    chunk.putInt(value);
+  }
+
+  @Override
+  public void putVlqInt(int value) {
+    ensureRemaining(VLQ.encodedSize(value));
+    VLQ.encode(value, chunk);
+  }
+
+  @Override
+  public void putByteBuffer(ByteBuffer buffer) {
+    int size = buffer.remaining();
+    if (size >= threshold) {
+      closeSegment();
+      segments.add(buffer.slice());
+      buffer.position(buffer.limit());
+      expectedRemaining -= size;
+    } else {
+      ensureRemaining(size);
+      chunk.put(buffer);
+    }
+  }
+
+  /**
+   * @return the gather list. The referenced byte buffers share their content with the ones that were written.
+   */
+  public ByteBuffer[] toByteBuffers() {
+    closeSegment();
+    return segments.toArray(new ByteBuffer[segments.size()]);
+  }
+
+  private void ensureRemaining(int size) {
+    if (chunk == null || chunk.remaining() < size) {
+      closeSegment();
+      chunk = ByteBuffer.allocate(Math.max(size, Math.min(chunkSize, expectedRemaining)));
+      segmentStart = 0;
+    }
+    expectedRemaining -= size;
+  }
+
+  private void closeSegment() {
+    if (chunk != null && chunk.position() > segmentStart) {
+      ByteBuffer segment = chunk.duplicate();
+      segment.position(segmentStart).limit(chunk.position());
+      segments.add(segment.slice());
+      segmentStart = chunk.position();
+    }
+  }
+
+}
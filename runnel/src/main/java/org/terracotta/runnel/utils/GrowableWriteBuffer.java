@@ -0,0 +1,267 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A write buffer which grows its underlying byte buffer on demand, and which supports reserving a VLQ-encoded
+ * length before the data it measures has been written.
+ * <p>
+ * A reserved length takes a single byte. When it is patched with a value needing more than one byte, the data
+ * written after it is shifted to make room, so the outcome is exactly the same as if the final length had been
+ * written upfront.
+ * Note: Instances of this class are not thread-safe.
+ */
+public class GrowableWriteBuffer {
+
+  private static final int INITIAL_CAPACITY = 256;
+  // pooled buffers grown past this size are dropped on release instead of being retained by the thread
+  private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+  private static final ThreadLocal<GrowableWriteBuffer> POOL = new ThreadLocal<GrowableWriteBuffer>();
+
+  private boolean pooled;
+  private ByteBuffer byteBuffer;
+  private boolean inUse;
+  private int depth;
+
+  public GrowableWriteBuffer(ByteBuffer byteBuffer) {
+    this(byteBuffer, false);
+  }
+
+  private GrowableWriteBuffer(ByteBuffer byteBuffer, boolean pooled) {
+    this.byteBuffer = byteBuffer;
+    this.pooled = pooled;
+  }
+
+  /**
+   * Get the calling thread's pooled buffer. It should be given back with {@link #release()} once the encoded data
+   * has been copied out of it. If it is still in use, either by a nested encoding or because an encoding was
+   * abandoned, a new buffer takes its place in the pool.
+   * @return an empty write buffer.
+   */
+  public static GrowableWriteBuffer acquire() {
+    GrowableWriteBuffer buffer = POOL.get();
+    if (buffer == null || buffer.inUse) {
+      if (buffer != null) {
+        buffer.pooled = false;
+      }
+      buffer = new GrowableWriteBuffer(ByteBuffer.allocate(INITIAL_CAPACITY), true);
+      POOL.set(buffer);
+    }
+    buffer.inUse = true;
+    buffer.byteBuffer.clear();
+    buffer.depth = 0;
+    return buffer;
+  }
+
+  public void release() {
+    if (pooled) {
+      inUse = false;
+      if (byteBuffer.capacity() > MAX_RETAINED_CAPACITY) {
+        byteBuffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+      }
+    }
+  }
+
+  /**
+   * @return the byte buffer currently backing this write buffer, which changes whenever the buffer grows.
+   */
+  public ByteBuffer getByteBuffer() {
+    return byteBuffer;
+  }
+
+  public int position() {
+    return byteBuffer.position();
+  }
+
+  public void position(int position) {
+    byteBuffer.position(position);
+  }
+
+  /**
+   * @return the nesting depth of the encoder currently allowed to write to this buffer.
+   */
+  public int depth() {
+    return depth;
+  }
+
+  public void depth(int depth) {
+    this.depth = depth;
+  }
+
+  public void putBoolean(boolean value) {
+    ensureRemaining(1);
+    byteBuffer.put(value ? (byte) 1 : (byte) 0);
+  }
+
+  public void putChar(char value) {
+    ensureRemaining(2);
+    byteBuffer.putChar(value);
+  }
+
+  public void putDouble(double value) {
+    ensureRemaining(8);
+    byteBuffer.putDouble(value);
+  }
+
+  public void putLong(long value) {
+    ensureRemaining(8);
+    byteBuffer.putLong(value);
+  }
+
+  public void putInt(int value) {
+    ensureRemaining(4);
+    byteBuffer.putInt(value);
+  }
+
+  public void putVlqInt(int value) {
+    ensureRemaining(5);
+    VLQ.encode(value, byteBuffer);
+  }
+
+  public void putByteBuffer(ByteBuffer buffer) {
+    ensureRemaining(buffer.remaining());
+    byteBuffer.put(buffer);
+  }
+
+  /**
+   * Write the modified UTF-8 bytes of a string, without any header, exactly as
+   * {@link StringTool#putEncoded(ByteBuffer, String, int)} does.
+   * @param value the string to write.
+   */
+  public void putEncodedString(String value) {
+    int length = value.length();
+    ensureRemaining(3 * length);
+    if (byteBuffer.hasArray()) {
+      byte[] array = byteBuffer.array();
+      int offset = byteBuffer.arrayOffset() + byteBuffer.position();
+      int start = offset;
+      for (int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        if (c <= '\u007F' && c != '\u0000') {
+          array[offset++] = (byte) c;
+        } else if (c <= '\u07FF') {
+          array[offset++] = (byte) (0xC0 | c >>> 6);
+          array[offset++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+          array[offset++] = (byte) (0xE0 | c >>> 12);
+          array[offset++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+          array[offset++] = (byte) (0x80 | (c & 0x3F));
+        }
+      }
+      byteBuffer.position(byteBuffer.position() + offset - start);
+    } else {
+      for (int i = 0; i < length; i++) {
+        char c = value.charAt(i);
+        if (c <= '\u007F' && c != '\u0000') {
+          byteBuffer.put((byte) c);
+        } else if (c <= '\u07FF') {
+          byteBuffer.put((byte) (0xC0 | c >>> 6)).put((byte) (0x80 | (c & 0x3F)));
+        } else {
+          byteBuffer.put((byte) (0xE0 | c >>> 12)).put((byte) (0x80 | ((c >>> 6) & 0x3F))).put((byte) (0x80 | (c & 0x3F)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Reserve room for a VLQ-encoded integer to be written later with {@link #patchVlqInt(int)} or
+   * {@link #patchVlqInt(int, int)}.
+   * @return the position of the reserved slot.
+   */
+  public int reserveVlqInt() {
+    ensureRemaining(1);
+    int slot = byteBuffer.position();
+    byteBuffer.put((byte) 0);
+    return slot;
+  }
+
+  /**
+   * Write in a reserved slot the count of bytes written after it.
+   * @param slot the position returned by {@link #reserveVlqInt()}.
+   */
+  public void patchVlqInt(int slot) {
+    patchVlqInt(slot, byteBuffer.position() - slot - 1);
+  }
+
+  /**
+   * Write a value in a reserved slot, shifting the bytes written after it if the value does not fit in one byte.
+   * @param slot the position returned by {@link #reserveVlqInt()}.
+   * @param value the value to write.
+   */
+  public void patchVlqInt(int slot, int value) {
+    int size = VLQ.encodedSize(value);
+    if (size > 1) {
+      int shift = size - 1;
+      ensureRemaining(shift);
+      int from = slot + 1;
+      int end = byteBuffer.position();
+      if (byteBuffer.hasArray()) {
+        byte[] array = byteBuffer.array();
+        int offset = byteBuffer.arrayOffset();
+        System.arraycopy(array, offset + from, array, offset + from + shift, end - from);
+      } else {
+        for (int i = end - 1; i >= from; i--) {
+          byteBuffer.put(i + shift, byteBuffer.get(i));
+        }
+      }
+      byteBuffer.position(end + shift);
+    }
+    for (int i = size - 1; i >= 0; i--) {
+      int b = (value >>> (7 * i)) & 0x7F;
+      byteBuffer.put(slot++, (byte) (i > 0 ? b | 0x80 : b));
+    }
+  }
+
+  /**
+   * Copy a range of the written bytes into another byte buffer.
+   * @param from the position of the first byte to copy.
+   * @param to the position after the last byte to copy.
+   * @param target the byte buffer to copy to.
+   */
+  public void copyTo(int from, int to, ByteBuffer target) {
+    if (byteBuffer.hasArray()) {
+      target.put(byteBuffer.array(), byteBuffer.arrayOffset() + from, to - from);
+    } else {
+      ByteBuffer source = byteBuffer.duplicate();
+      source.limit(to).position(from);
+      target.put(source);
+    }
+  }
+
+  private void ensureRemaining(int size) {
+    if (byteBuffer.remaining() < size) {
+      grow(size);
+    }
+  }
+
+  private void grow(int size) {
+    int position = byteBuffer.position();
+    int required = position + size;
+    if (required < 0) {
+      throw new OutOfMemoryError("Encoded data too large");
+    }
+    int capacity = Math.max(required, byteBuffer.capacity() <= Integer.MAX_VALUE / 2 ? byteBuffer.capacity() * 2 : Integer.MAX_VALUE);
+    ByteBuffer grown = byteBuffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    grown.order(byteBuffer.order());
+    ByteBuffer written = byteBuffer.duplicate();
+    written.flip();
+    grown.put(written);
+    byteBuffer = grown;
+  }
+
+}
@@ -40,13 +40,21 @@ public class ReadBuffer {
   }
 
   public Boolean getBoolean() {
+    return getBooleanValue();
+  }
+
+  public boolean getBooleanValue() {
     if (byteBuffer.position() + 1 > limit) {
       throw new LimitReachedException();
     }
-    return byteBuffer.get() == (byte) 0 ? Boolean.FALSE : Boolean.TRUE;
+    return byteBuffer.get() != (byte) 0;
   }
 
   public Double getDouble() {
+    return getDoubleValue();
+  }
+
+  public double getDoubleValue() {
     if (byteBuffer.position() + 8 > limit) {
       throw new LimitReachedException();
     }
@@ -54,6 +62,10 @@ public class ReadBuffer {
   }
 
   public Long getLong() {
+    return getLongValue();
+  }
+
+  public long getLongValue() {
     if (byteBuffer.position() + 8 > limit) {
       throw new LimitReachedException();
     }
@@ -61,6 +73,10 @@ public class ReadBuffer {
   }
 
   public Character getChar() {
+    return getCharValue();
+  }
+
+  public char getCharValue() {
     if (byteBuffer.position() + 2 > limit) {
       throw new LimitReachedException();
     }
@@ -68,6 +84,10 @@ public class ReadBuffer {
   }
 
   public Integer getInt() {
+    return getIntValue();
+  }
+
+  public int getIntValue() {
     if (byteBuffer.position() + 4 > limit) {
       throw new LimitReachedException();
     }
@@ -183,6 +203,28 @@ public class ReadBuffer {
     byteBuffer.position(targetPosition);
   }
 
+  public int position() {
+    return byteBuffer.position();
+  }
+
+  public void position(int position) {
+    if (position < 0) {
+      throw new IllegalArgumentException("position cannot be < 0");
+    }
+    if (position > limit) {
+      throw new LimitReachedException();
+    }
+    byteBuffer.position(position);
+  }
+
+  /**
+   * Create a read buffer sharing this one's content from the current position up to the limit, but with its own
+   * position so that reading from one does not move the other.
+   */
+  public ReadBuffer fork() {
+    return new ReadBuffer(byteBuffer.duplicate().order(byteBuffer.order()), limit - byteBuffer.position());
+  }
+
   public ReadBuffer limit(int size) {
     if (size < 0) {
       throw new IllegalArgumentException("size cannot be < 0");
@@ -28,6 +28,13 @@ public class WriteBuffer {
     this.byteBuffer = byteBuffer;
   }
 
+  /**
+   * For subclasses which manage their own storage and override all the put methods.
+   */
+  protected WriteBuffer() {
+    this(null);
+  }
+
   public void putBoolean(boolean value) {
     byteBuffer.put(value ? (byte) 1 : (byte) 0);
   }
@@ -0,0 +1,173 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel;
+
+import org.junit.Test;
+import org.terracotta.runnel.decoding.ArrayDecoder;
+import org.terracotta.runnel.decoding.Enm;
+import org.terracotta.runnel.decoding.StructArrayDecoder;
+import org.terracotta.runnel.decoding.StructDecoder;
+import org.terracotta.runnel.encoding.StructEncoder;
+import org.terracotta.runnel.metadata.FieldHandle;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class FieldHandleTest {
+
+  enum Type {
+    A, B
+  }
+
+  private final EnumMapping<Type> typeMapping = EnumMappingBuilder.newEnumMappingBuilder(Type.class)
+      .mapping(Type.A, 1)
+      .mapping(Type.B, 2)
+      .build();
+
+  private final Struct entry = StructBuilder.newStructBuilder()
+      .string("key", 1)
+      .int64("value", 2)
+      .build();
+
+  private final Struct struct = StructBuilder.newStructBuilder()
+      .enm("type", 1, typeMapping)
+      .int32("count", 2)
+      .string("name", 3)
+      .struct("single", 4, entry)
+      .int32s("numbers", 5)
+      .structs("entries", 6, entry)
+      .fp64("ratio", 7)
+      .build();
+
+  private final FieldHandle<Enm<Type>> type = struct.enmField("type");
+  private final FieldHandle<Integer> count = struct.int32Field("count");
+  private final FieldHandle<String> name = struct.stringField("name");
+  private final FieldHandle<Struct> single = struct.structField("single");
+  private final FieldHandle<Integer[]> numbers = struct.int32sField("numbers");
+  private final FieldHandle<Struct[]> entries = struct.structsField("entries");
+  private final FieldHandle<Double> ratio = struct.fp64Field("ratio");
+  private final FieldHandle<String> key = entry.stringField("key");
+  private final FieldHandle<Long> value = entry.int64Field("value");
+
+  @Test
+  public void testEncodingWithHandles() {
+    ByteBuffer byName = struct.encoder()
+        .enm("type", Type.B)
+        .int32("count", 42)
+        .string("name", "joe")
+        .struct("single").string("key", "k").int64("value", 1L).end()
+        .int32s("numbers").value(1).value(2).end()
+        .structs("entries").add().string("key", "a").end().add().int64("value", 2L).end().end()
+        .fp64("ratio", 0.25)
+        .encode();
+
+    StructEncoder<Void> encoder = struct.encoder()
+        .enm(type, Type.B)
+        .int32(count, 42)
+        .string(name, "joe")
+        .struct(single).string(key, "k").int64(value, 1L).end()
+        .int32s(numbers).value(1).value(2).end()
+        .structs(entries).add().string(key, "a").end().add().int64(value, 2L).end().end()
+        .fp64(ratio, 0.25);
+
+    assertThat(encoder.encode().array(), is(byName.array()));
+    assertThat(struct.streamingEncoder()
+        .enm(type, Type.B)
+        .int32(count, 42)
+        .string(name, "joe")
+        .struct(single).string(key, "k").int64(value, 1L).end()
+        .int32s(numbers).value(1).value(2).end()
+        .structs(entries).add().string(key, "a").end().add().int64(value, 2L).end().end()
+        .fp64(ratio, 0.25)
+        .encode().array(), is(byName.array()));
+  }
+
+  @Test
+  public void testDecodingWithHandles() {
+    ByteBuffer encoded = struct.encoder()
+        .enm(type, Type.B)
+        .string(name, "joe")
+        .struct(single).string(key, "k").int64(value, 1L).end()
+        .int32s(numbers).value(1).value(2).end()
+        .structs(entries).add().string(key, "a").end().add().int64(value, 2L).end().end()
+        .fp64(ratio, 0.25)
+        .encode();
+    encoded.rewind();
+
+    StructDecoder<Void> decoder = struct.decoder(encoded);
+    assertThat(decoder.enm(type).get(), is(Type.B));
+    assertThat(decoder.int32(count), is(nullValue()));
+    assertThat(decoder.string(name), is("joe"));
+    StructDecoder<StructDecoder<Void>> singleDecoder = decoder.struct(single);
+    assertThat(singleDecoder.string(key), is("k"));
+    assertThat(singleDecoder.int64(value), is(1L));
+    singleDecoder.end();
+    ArrayDecoder<Integer, StructDecoder<Void>> numbersDecoder = decoder.int32s(numbers);
+    assertThat(numbersDecoder.length(), is(2));
+    assertThat(numbersDecoder.value(), is(1));
+    assertThat(numbersDecoder.value(), is(2));
+    numbersDecoder.end();
+    StructArrayDecoder<StructDecoder<Void>> entriesDecoder = decoder.structs(entries);
+    assertThat(entriesDecoder.next().string(key), is("a"));
+    StructDecoder<StructArrayDecoder<StructDecoder<Void>>> second = entriesDecoder.next();
+    assertThat(second.string(key), is(nullValue()));
+    assertThat(second.int64(value), is(2L));
+    entriesDecoder.end();
+    assertThat(decoder.fp64(ratio), is(0.25));
+  }
+
+  @Test
+  public void testAbsentEnum() {
+    ByteBuffer encoded = struct.encoder().int32(count, 1).encode();
+    encoded.rewind();
+    assertThat(struct.decoder(encoded).enm(type).isFound(), is(false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testHandleOfWrongType() {
+    struct.int64Field("count");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testHandleOfWrongArrayType() {
+    struct.stringsField("numbers");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testHandleOfMissingField() {
+    struct.int32Field("missing");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testHandleOfAnotherStruct() {
+    struct.encoder().string(key, "k");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testHandleOfAnotherStructWhenDecoding() {
+    ByteBuffer encoded = struct.encoder().string(name, "n").encode();
+    encoded.rewind();
+    struct.decoder(encoded).string(key);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testHandlesMustBeUsedInOrder() {
+    struct.encoder().string(name, "n").int32(count, 1);
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel;
+
+import org.junit.Test;
+import org.terracotta.runnel.decoding.ArrayDecoder;
+import org.terracotta.runnel.decoding.StructDecoder;
+import org.terracotta.runnel.encoding.StructEncoder;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+public class GatherEncodingTest {
+
+  private final Struct nested = StructBuilder.newStructBuilder()
+      .string("name", 10)
+      .byteBuffer("payload", 20)
+      .build();
+
+  private final Struct struct = StructBuilder.newStructBuilder()
+      .int32("id", 10)
+      .byteBuffer("blob", 20)
+      .struct("nested", 30, nested)
+      .byteBuffers("blobs", 40)
+      .structs("entries", 50, nested)
+      .int64("trailer", 60)
+      .build();
+
+  @Test
+  public void testGatherListIsIdenticalToContiguousEncoding() throws Exception {
+    ByteBuffer blob = buffer(10_000, 'b');
+    ByteBuffer payload = buffer(8_000, 'p');
+
+    ByteBuffer contiguous = encoder(blob.duplicate(), payload.duplicate()).encode();
+    ByteBuffer[] gathered = encoder(blob, payload).encodeGathering(4096);
+
+    contiguous.rewind();
+    assertThat(concat(gathered), is(contiguous));
+  }
+
+  @Test
+  public void testLargeBuffersAreReferencedNotCopied() throws Exception {
+    byte[] blobArray = new byte[10_000];
+    byte[] payloadArray = new byte[8_000];
+    ByteBuffer blob = ByteBuffer.wrap(blobArray);
+    ByteBuffer payload = ByteBuffer.wrap(payloadArray);
+
+    ByteBuffer[] gathered = encoder(blob, payload).encodeGathering(4096);
+
+    int referenced = 0;
+    for (ByteBuffer buffer : gathered) {
+      if (buffer.hasArray() && (buffer.array() == blobArray || buffer.array() == payloadArray)) {
+        referenced++;
+      } else {
+        assertThat(buffer.remaining() < 4096, is(true));
+      }
+    }
+    // blob, nested payload, 1 of the blobs array elements, 1 struct array payload
+    assertThat(referenced, is(4));
+    assertThat(blob.remaining(), is(0));
+    assertThat(payload.remaining(), is(0));
+  }
+
+  @Test
+  public void testGatherListDecodes() throws Exception {
+    ByteBuffer blob = buffer(10_000, 'b');
+    ByteBuffer payload = buffer(8_000, 'p');
+
+    ByteBuffer encoded = concat(encoder(blob, payload).encodeGathering(4096));
+
+    StructDecoder<Void> decoder = struct.decoder(encoded);
+    assertThat(decoder.int32("id"), is(42));
+    checkByteBuffer(decoder.byteBuffer("blob"), 10_000, 'b');
+    StructDecoder<StructDecoder<Void>> nestedDecoder = decoder.struct("nested");
+    assertThat(nestedDecoder.string("name"), is("nested"));
+    checkByteBuffer(nestedDecoder.byteBuffer("payload"), 8_000, 'p');
+    nestedDecoder.end();
+    ArrayDecoder<ByteBuffer, StructDecoder<Void>> blobs = decoder.byteBuffers("blobs");
+    assertThat(blobs.length(), is(2));
+    checkByteBuffer(blobs.value(), 16, 's');
+    checkByteBuffer(blobs.value(), 10_000, 'b');
+    blobs.end();
+    decoder.structs("entries").end();
+    assertThat(decoder.int64("trailer"), is(-1L));
+  }
+
+  @Test
+  public void testSmallStructIsASingleBuffer() throws Exception {
+    ByteBuffer[] gathered = struct.encoder()
+        .int32("id", 1)
+        .byteBuffer("blob", buffer(100, 'x'))
+        .encodeGathering();
+
+    assertThat(gathered.length, is(1));
+    ByteBuffer contiguous = struct.encoder()
+        .int32("id", 1)
+        .byteBuffer("blob", buffer(100, 'x'))
+        .encode();
+    contiguous.rewind();
+    assertThat(gathered[0], is(contiguous));
+  }
+
+  @Test
+  public void testReferencedBufferIsASliceOfTheRemainingBytes() throws Exception {
+    ByteBuffer blob = buffer(10_000, 'b');
+    blob.position(100);
+
+    ByteBuffer[] gathered = struct.encoder()
+        .byteBuffer("blob", blob)
+        .encodeGathering(4096);
+
+    assertThat(gathered.length, is(2));
+    assertThat(gathered[1].remaining(), is(9_900));
+    assertThat(gathered[1].array(), sameInstance(blob.array()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidThreshold() throws Exception {
+    struct.encoder().int32("id", 1).encodeGathering(0);
+  }
+
+  private StructEncoder<Void> encoder(ByteBuffer blob, ByteBuffer payload) {
+    return struct.encoder()
+        .int32("id", 42)
+        .byteBuffer("blob", blob)
+        .struct("nested")
+          .string("name", "nested")
+          .byteBuffer("payload", payload)
+        .end()
+        .byteBuffers("blobs")
+          .value(buffer(16, 's'))
+          .value(blob.duplicate())
+        .end()
+        .structs("entries")
+          .add()
+            .string("name", "entry")
+            .byteBuffer("payload", payload.duplicate())
+          .end()
+        .end()
+        .int64("trailer", -1L);
+  }
+
+  private static ByteBuffer concat(ByteBuffer[] buffers) {
+    int size = 0;
+    for (ByteBuffer buffer : buffers) {
+      size += buffer.remaining();
+    }
+    ByteBuffer result = ByteBuffer.allocate(size);
+    for (ByteBuffer buffer : buffers) {
+      result.put(buffer.duplicate());
+    }
+    result.flip();
+    return result;
+  }
+
+  private static void checkByteBuffer(ByteBuffer buffer, int size, char c) {
+    assertThat(buffer.remaining(), is(size));
+    for (int i = 0; i < size; i++) {
+      assertThat(buffer.get(), is((byte) c));
+    }
+  }
+
+  private static ByteBuffer buffer(int size, char c) {
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    for (int i = 0; i < size; i++) {
+      buffer.put((byte) c);
+    }
+    buffer.rewind();
+    return buffer;
+  }
+}
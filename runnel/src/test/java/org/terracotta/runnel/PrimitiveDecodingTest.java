@@ -0,0 +1,172 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel;
+
+import org.junit.Test;
+import org.terracotta.runnel.decoding.ArrayDecoder;
+import org.terracotta.runnel.decoding.StructDecoder;
+import org.terracotta.runnel.metadata.FieldHandle;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PrimitiveDecodingTest {
+
+  private final Struct struct = StructBuilder.newStructBuilder()
+      .bool("b", 1)
+      .chr("c", 2)
+      .int32("i", 3)
+      .int64("l", 4)
+      .fp64("d", 5)
+      .int32s("is", 6)
+      .int64s("ls", 7)
+      .fp64s("ds", 8)
+      .string("s", 9)
+      .build();
+
+  @Test
+  public void testPresentValues() {
+    ByteBuffer encoded = struct.encoder()
+        .bool("b", true)
+        .chr("c", 'x')
+        .int32("i", -1)
+        .int64("l", Long.MAX_VALUE)
+        .fp64("d", 1.5)
+        .encode();
+    encoded.rewind();
+
+    StructDecoder<Void> decoder = struct.decoder(encoded);
+    assertThat(decoder.bool("b", false), is(true));
+    assertThat(decoder.chr("c", ' '), is('x'));
+    assertThat(decoder.int32("i", 0), is(-1));
+    assertThat(decoder.int64("l", 0L), is(Long.MAX_VALUE));
+    assertThat(decoder.fp64("d", 0.0), is(1.5));
+  }
+
+  @Test
+  public void testAbsentValues() {
+    ByteBuffer encoded = struct.encoder().string("s", "x").encode();
+    encoded.rewind();
+
+    StructDecoder<Void> decoder = struct.decoder(encoded);
+    assertThat(decoder.bool("b", true), is(true));
+    assertThat(decoder.chr("c", 'z'), is('z'));
+    assertThat(decoder.int32("i", 42), is(42));
+    assertThat(decoder.int64("l", 43L), is(43L));
+    assertThat(decoder.fp64("d", 0.5), is(0.5));
+    assertThat(decoder.int32Array("is"), is(nullValue()));
+    assertThat(decoder.string("s"), is("x"));
+  }
+
+  @Test
+  public void testHandles() {
+    FieldHandle<Integer> i = struct.int32Field("i");
+    FieldHandle<Long> l = struct.int64Field("l");
+    FieldHandle<Long[]> ls = struct.int64sField("ls");
+    ByteBuffer encoded = struct.encoder()
+        .int64(l, 7L)
+        .int64s(ls).value(1L).value(2L).end()
+        .encode();
+    encoded.rewind();
+
+    StructDecoder<Void> decoder = struct.decoder(encoded);
+    assertThat(decoder.isPresent(i), is(false));
+    assertThat(decoder.int32(i, -1), is(-1));
+    assertThat(decoder.isPresent(l), is(true));
+    assertThat(decoder.int64(l, -1L), is(7L));
+    assertThat(decoder.int64Array(ls), is(new long[] {1L, 2L}));
+  }
+
+  @Test
+  public void testPresenceDoesNotConsumeTheField() {
+    ByteBuffer encoded = struct.encoder().int32("i", 12).int64("l", 13L).encode();
+    encoded.rewind();
+
+    StructDecoder<Void> decoder = struct.decoder(encoded);
+    assertThat(decoder.isPresent("c"), is(false));
+    assertThat(decoder.isPresent("i"), is(true));
+    assertThat(decoder.isPresent("i"), is(true));
+    assertThat(decoder.int32("i", 0), is(12));
+    assertThat(decoder.isPresent("d"), is(false));
+    assertThat(decoder.isPresent("s"), is(false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPresenceConsumesPreviousFields() {
+    ByteBuffer encoded = struct.encoder().int32("i", 12).int64("l", 13L).encode();
+    encoded.rewind();
+
+    StructDecoder<Void> decoder = struct.decoder(encoded);
+    decoder.isPresent("l");
+    decoder.int32("i", 0);
+  }
+
+  @Test
+  public void testArrays() {
+    ByteBuffer encoded = struct.encoder()
+        .int32s("is").value(1).value(-2).value(3).end()
+        .int64s("ls").value(Long.MIN_VALUE).end()
+        .fp64s("ds").end()
+        .string("s", "end")
+        .encode();
+    encoded.rewind();
+
+    StructDecoder<Void> decoder = struct.decoder(encoded);
+    assertThat(decoder.int32Array("is"), is(new int[] {1, -2, 3}));
+    assertThat(decoder.int64Array("ls"), is(new long[] {Long.MIN_VALUE}));
+    assertThat(decoder.fp64Array("ds"), is(new double[0]));
+    assertThat(decoder.string("s"), is("end"));
+  }
+
+  @Test
+  public void testFillingCallerProvidedArrays() {
+    ByteBuffer encoded = struct.encoder()
+        .int32s("is").value(1).value(2).value(3).value(4).value(5).end()
+        .string("s", "end")
+        .encode();
+    encoded.rewind();
+
+    StructDecoder<Void> decoder = struct.decoder(encoded);
+    ArrayDecoder<Integer, StructDecoder<Void>> ad = decoder.int32s("is");
+    int[] target = new int[3];
+    assertThat(ad.int32Values(target, 1), is(2));
+    assertThat(target, is(new int[] {0, 1, 2}));
+    assertThat(ad.int32Value(), is(3));
+    assertThat(ad.int32Values(target, 0), is(2));
+    assertThat(target, is(new int[] {4, 5, 2}));
+    assertThat(ad.int32Values(target, 0), is(0));
+    assertThat(ad.end().string("s"), is("end"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPrimitiveArrayTypeMismatch() {
+    ByteBuffer encoded = struct.encoder().int32s("is").value(1).end().encode();
+    encoded.rewind();
+
+    struct.decoder(encoded).int32s("is").int64Value();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPrimitiveTypeMismatch() {
+    ByteBuffer encoded = struct.encoder().int32("i", 1).encode();
+    encoded.rewind();
+
+    struct.decoder(encoded).int64("i", 0L);
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel;
+
+import org.junit.Test;
+import org.terracotta.runnel.decoding.ArrayDecoder;
+import org.terracotta.runnel.decoding.RandomAccessStructDecoder;
+import org.terracotta.runnel.decoding.StringView;
+import org.terracotta.runnel.metadata.FieldHandle;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RandomAccessDecodingTest {
+
+  enum Type {
+    GET, PUT
+  }
+
+  private final EnumMapping<Type> typeMapping = EnumMappingBuilder.newEnumMappingBuilder(Type.class)
+      .mapping(Type.GET, 1)
+      .mapping(Type.PUT, 2)
+      .build();
+
+  private final Struct entry = StructBuilder.newStructBuilder()
+      .string("key", 1)
+      .int64("value", 2)
+      .build();
+
+  private final Struct struct = StructBuilder.newStructBuilder()
+      .string("name", 1)
+      .int32s("numbers", 2)
+      .struct("single", 3, entry)
+      .structs("entries", 4, entry)
+      .byteBuffer("payload", 5)
+      .int64("id", 6)
+      .enm("type", 10, typeMapping)
+      .build();
+
+  private ByteBuffer encode(ByteOrder order) {
+    ByteBuffer payload = ByteBuffer.wrap(new byte[] {1, 2, 3});
+    ByteBuffer encoded = struct.encoder()
+        .string("name", "h\u00e9llo")
+        .int32s("numbers").value(1).value(2).value(3).end()
+        .struct("single").string("key", "s").int64("value", 10L).end()
+        .structs("entries")
+          .add().string("key", "a").int64("value", 1L).end()
+          .add().string("key", "b").end()
+        .end()
+        .byteBuffer("payload", payload)
+        .int64("id", 42L)
+        .enm("type", Type.PUT)
+        .encode(ByteBuffer.allocate(256).order(order));
+    encoded.flip();
+    return encoded;
+  }
+
+  @Test
+  public void testFieldsCanBeReadInAnyOrderAndMoreThanOnce() {
+    ByteBuffer encoded = encode(ByteOrder.BIG_ENDIAN);
+    RandomAccessStructDecoder decoder = struct.randomAccessDecoder(encoded);
+
+    assertThat(decoder.<Type>enm("type").get(), is(Type.PUT));
+    assertThat(decoder.int64("id"), is(42L));
+    assertThat(decoder.string("name"), is("h\u00e9llo"));
+    assertThat(decoder.int64("id", 0L), is(42L));
+    assertThat(decoder.int32Array("numbers"), is(new int[] {1, 2, 3}));
+    assertThat(decoder.<Type>enm("type").get(), is(Type.PUT));
+    assertThat(decoder.string("name"), is("h\u00e9llo"));
+  }
+
+  @Test
+  public void testCallerBufferIsLeftUntouched() {
+    ByteBuffer encoded = encode(ByteOrder.BIG_ENDIAN);
+    int limit = encoded.limit();
+    RandomAccessStructDecoder decoder = struct.randomAccessDecoder(encoded);
+    decoder.int64("id");
+    decoder.structs("entries");
+
+    assertThat(encoded.position(), is(0));
+    assertThat(encoded.limit(), is(limit));
+    assertThat(struct.decoder(encoded).string("name"), is("h\u00e9llo"));
+  }
+
+  @Test
+  public void testNestedStructs() {
+    RandomAccessStructDecoder decoder = struct.randomAccessDecoder(encode(ByteOrder.LITTLE_ENDIAN));
+
+    List<RandomAccessStructDecoder> entries = decoder.structs("entries");
+    RandomAccessStructDecoder single = decoder.struct("single");
+    assertThat(entries.size(), is(2));
+    assertThat(entries.get(1).int64("value"), is(nullValue()));
+    assertThat(entries.get(1).string("key"), is("b"));
+    assertThat(entries.get(0).int64("value"), is(1L));
+    assertThat(entries.get(0).string("key"), is("a"));
+    assertThat(single.int64("value"), is(10L));
+    assertThat(single.string("key"), is("s"));
+    assertThat(decoder.int64("id"), is(42L));
+  }
+
+  @Test
+  public void testValueArraysAreIndependentOfOtherReads() {
+    RandomAccessStructDecoder decoder = struct.randomAccessDecoder(encode(ByteOrder.BIG_ENDIAN));
+
+    ArrayDecoder<Integer, Void> numbers = decoder.int32s("numbers");
+    assertThat(numbers.value(), is(1));
+    assertThat(decoder.int64("id"), is(42L));
+    assertThat(numbers.value(), is(2));
+    assertThat(numbers.int32Value(), is(3));
+  }
+
+  @Test
+  public void testZeroCopyViews() {
+    ByteBuffer encoded = encode(ByteOrder.BIG_ENDIAN);
+    RandomAccessStructDecoder decoder = struct.randomAccessDecoder(encoded);
+
+    ByteBuffer payload = decoder.byteBuffer("payload");
+    assertThat(payload.remaining(), is(3));
+    encoded.array()[payload.arrayOffset()] = 9;
+    assertThat(payload.get(0), is((byte) 9));
+
+    StringView key = decoder.structs("entries").get(0).stringView("key");
+    assertThat(key.length(), is(1));
+    assertThat(key.charAt(0), is('a'));
+    assertThat(key.toString(), is("a"));
+
+    StringView name = decoder.stringView("name");
+    assertThat(name.toString(), is("h\u00e9llo"));
+    assertThat(name.length(), is(5));
+    assertThat(name.charAt(1), is('\u00e9'));
+    assertThat(name.encoded().remaining(), is(6));
+  }
+
+  @Test
+  public void testAsciiSubSequence() {
+    ByteBuffer encoded = struct.encoder().string("name", "router").encode();
+    encoded.rewind();
+
+    StringView name = struct.randomAccessDecoder(encoded).stringView("name");
+    assertThat(name.subSequence(1, 4).toString(), is("out"));
+    assertThat(name.subSequence(2, 2).length(), is(0));
+  }
+
+  @Test
+  public void testAbsentFields() {
+    ByteBuffer encoded = struct.encoder().int64("id", 1L).encode();
+    encoded.rewind();
+    RandomAccessStructDecoder decoder = struct.randomAccessDecoder(encoded);
+
+    assertThat(decoder.isPresent("name"), is(false));
+    assertThat(decoder.isPresent("id"), is(true));
+    assertThat(decoder.string("name"), is(nullValue()));
+    assertThat(decoder.stringView("name"), is(nullValue()));
+    assertThat(decoder.struct("single"), is(nullValue()));
+    assertThat(decoder.structs("entries"), is(nullValue()));
+    assertThat(decoder.int32s("numbers"), is(nullValue()));
+    assertThat(decoder.enm("type").isFound(), is(false));
+    assertThat(decoder.int32Array("numbers"), is(nullValue()));
+  }
+
+  @Test
+  public void testUnknownFieldsAreIgnored() {
+    Struct older = StructBuilder.newStructBuilder()
+        .string("name", 1)
+        .int64("id", 6)
+        .build();
+    ByteBuffer encoded = StructBuilder.newStructBuilder()
+        .string("name", 1)
+        .int64("id", 6)
+        .int32("added", 7)
+        .build().encoder().string("name", "n").int64("id", 2L).int32("added", 3).encode();
+    encoded.rewind();
+
+    RandomAccessStructDecoder decoder = older.randomAccessDecoder(encoded);
+    assertThat(decoder.int64("id"), is(2L));
+    assertThat(decoder.string("name"), is("n"));
+  }
+
+  @Test
+  public void testHandles() {
+    FieldHandle<Long> id = struct.int64Field("id");
+    FieldHandle<Struct[]> entries = struct.structsField("entries");
+    FieldHandle<String> key = entry.stringField("key");
+    RandomAccessStructDecoder decoder = struct.randomAccessDecoder(encode(ByteOrder.BIG_ENDIAN));
+
+    assertThat(decoder.int64(id, 0L), is(42L));
+    assertThat(decoder.structs(entries).get(1).stringView(key).toString(), is("b"));
+    assertThat(decoder.int64(id), is(42L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongType() {
+    struct.randomAccessDecoder(encode(ByteOrder.BIG_ENDIAN)).int32("id");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testHandleOfAnotherStruct() {
+    struct.randomAccessDecoder(encode(ByteOrder.BIG_ENDIAN)).string(entry.stringField("key"));
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.encoding;
+
+import org.junit.Test;
+import org.terracotta.runnel.EnumMapping;
+import org.terracotta.runnel.EnumMappingBuilder;
+import org.terracotta.runnel.Struct;
+import org.terracotta.runnel.StructBuilder;
+import org.terracotta.runnel.decoding.ArrayDecoder;
+import org.terracotta.runnel.decoding.StructArrayDecoder;
+import org.terracotta.runnel.decoding.StructDecoder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class StreamingStructEncoderTest {
+
+  enum Color {
+    RED, GREEN
+  }
+
+  private final EnumMapping<Color> colorMapping = EnumMappingBuilder.newEnumMappingBuilder(Color.class)
+      .mapping(Color.RED, 1)
+      .mapping(Color.GREEN, 200)
+      .build();
+
+  private final Struct entry = StructBuilder.newStructBuilder()
+      .string("key", 1)
+      .int64("value", 2)
+      .build();
+
+  private final Struct struct = StructBuilder.newStructBuilder()
+      .bool("flag", 1)
+      .chr("letter", 2)
+      .enm("color", 3, colorMapping)
+      .int32("count", 4)
+      .int64("id", 5)
+      .fp64("ratio", 6)
+      .string("name", 7)
+      .byteBuffer("payload", 8)
+      .struct("single", 9, entry)
+      .int32s("numbers", 10)
+      .strings("labels", 11)
+      .structs("entries", 300, entry)
+      .string("trailer", 301)
+      .build();
+
+  @Test
+  public void testSameOutputAsStructEncoder() {
+    String longString = repeat("long string \u00e9\u4e2d ", 2000);
+    ByteBuffer expected = encode(struct.encoder(), longString);
+    ByteBuffer actual = fill(struct.streamingEncoder(), longString).encode();
+
+    assertThat(actual.array(), is(expected.array()));
+    assertThat(actual.position(), is(expected.position()));
+  }
+
+  @Test
+  public void testSmallStructs() {
+    assertThat(struct.streamingEncoder().encode().array(), is(struct.encoder().encode().array()));
+    assertThat(struct.streamingEncoder().int32("count", 1).encode().array(), is(struct.encoder().int32("count", 1).encode().array()));
+    assertThat(struct.streamingEncoder().string("name", null).struct("single").end().encode().array(),
+        is(struct.encoder().string("name", null).struct("single").end().encode().array()));
+  }
+
+  @Test
+  public void testEmptyStructArrayElementsAreDropped() {
+    ByteBuffer expected = struct.encoder()
+        .structs("entries")
+          .add().end()
+          .add().string("key", "a").end()
+          .add().string("key", null).end()
+          .add().int64("value", 1L).end()
+          .add().end()
+        .end()
+        .encode();
+    ByteBuffer actual = struct.streamingEncoder()
+        .structs("entries")
+          .add().end()
+          .add().string("key", "a").end()
+          .add().string("key", null).end()
+          .add().int64("value", 1L).end()
+          .add().end()
+        .end()
+        .encode();
+
+    assertThat(actual.array(), is(expected.array()));
+  }
+
+  @Test
+  public void testGrowsCallerSuppliedBuffer() {
+    String longString = repeat("x", 1000);
+    for (ByteBuffer target : Arrays.asList(ByteBuffer.allocate(4), ByteBuffer.allocateDirect(4), ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN))) {
+      target.put((byte) 42);
+      ByteBuffer actual = fill(struct.streamingEncoder(target), longString).encodeInPlace();
+
+      assertThat(actual.order(), is(target.order()));
+      assertThat(actual.isDirect(), is(target.isDirect()));
+      assertThat(actual.get(0), is((byte) 42));
+      ByteBuffer reference = ByteBuffer.allocate(encode(struct.encoder(), longString).capacity()).order(target.order());
+      fill(struct.encoder(), longString).encode(reference);
+      reference.flip();
+      assertThat(actual.position(), is(1));
+      assertThat(actual.remaining(), is(reference.remaining()));
+      assertThat(actual, is(reference));
+    }
+  }
+
+  @Test
+  public void testDecoding() {
+    ByteBuffer encoded = fill(struct.streamingEncoder(), "a string").encode();
+    encoded.rewind();
+
+    StructDecoder<Void> decoder = struct.decoder(encoded);
+    assertThat(decoder.bool("flag"), is(true));
+    assertThat(decoder.chr("letter"), is('z'));
+    assertThat(decoder.<Color>enm("color").get(), is(Color.GREEN));
+    assertThat(decoder.int32("count"), is(-1));
+    assertThat(decoder.int64("id"), is(Long.MAX_VALUE));
+    assertThat(decoder.fp64("ratio"), is(0.5));
+    assertThat(decoder.string("name"), is("a string"));
+    assertThat(decoder.byteBuffer("payload").remaining(), is(300));
+    StructDecoder<StructDecoder<Void>> single = decoder.struct("single");
+    assertThat(single.string("key"), is("single"));
+    single.end();
+    ArrayDecoder<Integer, StructDecoder<Void>> numbers = decoder.int32s("numbers");
+    assertThat(numbers.length(), is(3));
+    assertThat(numbers.value(), is(1));
+    numbers.end();
+    ArrayDecoder<String, StructDecoder<Void>> labels = decoder.strings("labels");
+    assertThat(labels.length(), is(2));
+    assertThat(labels.value(), is("a string"));
+    assertThat(labels.value(), is(""));
+    labels.end();
+    StructArrayDecoder<StructDecoder<Void>> entries = decoder.structs("entries");
+    assertThat(entries.length(), is(200));
+    assertThat(entries.next().string("key"), is("key-0"));
+    entries.end();
+    assertThat(decoder.string("trailer"), is("a string"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testParentCannotBeUsedWhileNestedEncoderIsOpen() {
+    StreamingStructEncoder<Void> encoder = struct.streamingEncoder();
+    encoder.struct("single");
+    encoder.int32s("numbers");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testCannotEncodeWhileNestedEncoderIsOpen() {
+    StreamingStructEncoder<Void> encoder = struct.streamingEncoder();
+    encoder.int32s("numbers").value(1);
+    encoder.encode();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testCannotUseEncoderAfterEncoding() {
+    StreamingStructEncoder<Void> encoder = struct.streamingEncoder();
+    encoder.encode();
+    encoder.int32("count", 1);
+  }
+
+  @Test
+  public void testPooledBufferIsReused() {
+    // an abandoned encoding does not prevent pooling
+    struct.streamingEncoder().int32("count", 1);
+
+    ByteBuffer first = struct.streamingEncoder().int32("count", 1).encodeInPlace();
+    ByteBuffer second = struct.streamingEncoder().int32("count", 2).encodeInPlace();
+    assertThat(first == second, is(true));
+    assertThat(second.remaining(), is(struct.encoder().int32("count", 2).encode().capacity()));
+
+    // a second encoder created before the first one completes does not share its buffer
+    StreamingStructEncoder<Void> outer = struct.streamingEncoder().int32("count", 1);
+    ByteBuffer inner = struct.streamingEncoder().int32("count", 2).encode();
+    assertThat(outer.encode().array(), is(struct.encoder().int32("count", 1).encode().array()));
+    assertThat(inner.array(), is(struct.encoder().int32("count", 2).encode().array()));
+  }
+
+  private ByteBuffer encode(StructEncoder<Void> encoder, String string) {
+    return fill(encoder, string).encode();
+  }
+
+  private StructEncoder<Void> fill(StructEncoder<Void> encoder, String string) {
+    StructArrayEncoder<StructEncoder<Void>> entries = encoder
+        .bool("flag", true)
+        .chr("letter", 'z')
+        .enm("color", Color.GREEN)
+        .int32("count", -1)
+        .int64("id", Long.MAX_VALUE)
+        .fp64("ratio", 0.5)
+        .string("name", string)
+        .byteBuffer("payload", ByteBuffer.allocate(300))
+        .struct("single").string("key", "single").int64("value", 1L).end()
+        .int32s("numbers").value(1).value(2).value(3).end()
+        .strings("labels").value(string).value("").end()
+        .structs("entries");
+    for (int i = 0; i < 200; i++) {
+      entries.add().string("key", "key-" + i).int64("value", i);
+    }
+    return entries.end().string("trailer", string);
+  }
+
+  private StreamingStructEncoder<Void> fill(StreamingStructEncoder<Void> encoder, String string) {
+    StreamingStructArrayEncoder<StreamingStructEncoder<Void>> entries = encoder
+        .bool("flag", true)
+        .chr("letter", 'z')
+        .enm("color", Color.GREEN)
+        .int32("count", -1)
+        .int64("id", Long.MAX_VALUE)
+        .fp64("ratio", 0.5)
+        .string("name", string)
+        .byteBuffer("payload", ByteBuffer.allocate(300))
+        .struct("single").string("key", "single").int64("value", 1L).end()
+        .int32s("numbers").value(1).value(2).value(3).end()
+        .strings("labels").value(string).value("").end()
+        .structs("entries");
+    for (int i = 0; i < 200; i++) {
+      entries.add().string("key", "key-" + i).int64("value", i);
+    }
+    return entries.end().string("trailer", string);
+  }
+
+  private static String repeat(String s, int times) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      sb.append(s);
+    }
+    return sb.toString();
+  }
+}
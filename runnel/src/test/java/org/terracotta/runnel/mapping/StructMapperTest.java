@@ -0,0 +1,337 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.runnel.mapping;
+
+import org.junit.Test;
+import org.terracotta.runnel.EnumMappingBuilder;
+import org.terracotta.runnel.Struct;
+import org.terracotta.runnel.StructBuilder;
+import org.terracotta.runnel.decoding.StructArrayDecoder;
+import org.terracotta.runnel.decoding.StructDecoder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class StructMapperTest {
+
+  enum Kind {
+    @RunnelField(1) SMALL,
+    @RunnelField(2) LARGE
+  }
+
+  static class Entry {
+    @RunnelField(1)
+    String key;
+    @RunnelField(2)
+    long value;
+
+    Entry() {
+    }
+
+    Entry(String key, long value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  static class Base {
+    @RunnelField(1)
+    int id;
+  }
+
+  static class Everything extends Base {
+    @RunnelField(2)
+    boolean flag;
+    @RunnelField(3)
+    char letter;
+    @RunnelField(4)
+    long count;
+    @RunnelField(5)
+    double ratio;
+    @RunnelField(6)
+    Integer boxedInt;
+    @RunnelField(7)
+    Long boxedLong;
+    @RunnelField(8)
+    Boolean boxedBool;
+    @RunnelField(9)
+    Character boxedChar;
+    @RunnelField(10)
+    Double boxedDouble;
+    @RunnelField(value = 11, name = "label")
+    String name;
+    @RunnelField(12)
+    ByteBuffer payload;
+    @RunnelField(13)
+    Kind kind;
+    @RunnelField(14)
+    int[] ints;
+    @RunnelField(15)
+    long[] longs;
+    @RunnelField(16)
+    double[] doubles;
+    @RunnelField(17)
+    String[] strings;
+    @RunnelField(18)
+    Entry single;
+    @RunnelField(19)
+    List<Entry> entryList;
+    @RunnelField(20)
+    Entry[] entryArray;
+
+    // not mapped
+    String transientState = "untouched";
+  }
+
+  @Test
+  public void testRoundTrip() {
+    Everything everything = new Everything();
+    everything.id = 1;
+    everything.flag = true;
+    everything.letter = 'x';
+    everything.count = Long.MAX_VALUE;
+    everything.ratio = 0.5;
+    everything.boxedInt = -2;
+    everything.boxedLong = 3L;
+    everything.boxedBool = false;
+    everything.boxedChar = 'y';
+    everything.boxedDouble = 1.5;
+    everything.name = "name";
+    everything.payload = ByteBuffer.wrap(new byte[] {1, 2, 3});
+    everything.kind = Kind.LARGE;
+    everything.ints = new int[] {1, 2};
+    everything.longs = new long[] {3L};
+    everything.doubles = new double[0];
+    everything.strings = new String[] {"a", "b"};
+    everything.single = new Entry("s", 1L);
+    everything.entryList = Arrays.asList(new Entry("a", 1L), new Entry("b", 2L));
+    everything.entryArray = new Entry[] {new Entry("c", 3L)};
+    everything.transientState = "changed";
+
+    StructMapper<Everything> mapper = StructMapper.of(Everything.class);
+    ByteBuffer encoded = mapper.encode(everything);
+    encoded.rewind();
+    Everything decoded = mapper.decode(encoded);
+
+    assertThat(decoded.id, is(1));
+    assertThat(decoded.flag, is(true));
+    assertThat(decoded.letter, is('x'));
+    assertThat(decoded.count, is(Long.MAX_VALUE));
+    assertThat(decoded.ratio, is(0.5));
+    assertThat(decoded.boxedInt, is(-2));
+    assertThat(decoded.boxedLong, is(3L));
+    assertThat(decoded.boxedBool, is(false));
+    assertThat(decoded.boxedChar, is('y'));
+    assertThat(decoded.boxedDouble, is(1.5));
+    assertThat(decoded.name, is("name"));
+    assertThat(decoded.payload, is(ByteBuffer.wrap(new byte[] {1, 2, 3})));
+    assertThat(decoded.kind, is(Kind.LARGE));
+    assertThat(decoded.ints, is(new int[] {1, 2}));
+    assertThat(decoded.longs, is(new long[] {3L}));
+    assertThat(decoded.doubles, is(new double[0]));
+    assertThat(decoded.strings, is(new String[] {"a", "b"}));
+    assertThat(decoded.single.key, is("s"));
+    assertThat(decoded.single.value, is(1L));
+    assertThat(decoded.entryList.size(), is(2));
+    assertThat(decoded.entryList.get(1).key, is("b"));
+    assertThat(decoded.entryList.get(1).value, is(2L));
+    assertThat(decoded.entryArray.length, is(1));
+    assertThat(decoded.entryArray[0].key, is("c"));
+    assertThat(decoded.transientState, is("untouched"));
+    assertThat(everything.payload.position(), is(0));
+  }
+
+  @Test
+  public void testNullsAreNotEncoded() {
+    Everything everything = new Everything();
+    everything.entryList = new ArrayList<Entry>(Arrays.asList(new Entry("a", 1L), null, new Entry("b", 2L)));
+
+    StructMapper<Everything> mapper = StructMapper.of(Everything.class);
+    ByteBuffer encoded = mapper.encode(everything);
+    encoded.rewind();
+    Everything decoded = mapper.decode(encoded);
+
+    assertThat(decoded.name, is(nullValue()));
+    assertThat(decoded.boxedInt, is(nullValue()));
+    assertThat(decoded.kind, is(nullValue()));
+    assertThat(decoded.ints, is(nullValue()));
+    assertThat(decoded.single, is(nullValue()));
+    assertThat(decoded.entryArray, is(nullValue()));
+    assertThat(decoded.entryList.size(), is(2));
+    assertThat(decoded.entryList.get(1).key, is("b"));
+  }
+
+  @Test
+  public void testCompatibleWithHandWrittenStruct() {
+    Struct entry = StructBuilder.newStructBuilder()
+        .string("key", 1)
+        .int64("value", 2)
+        .build();
+    Struct struct = StructBuilder.newStructBuilder()
+        .int32("id", 1)
+        .string("label", 11)
+        .enm("kind", 13, EnumMappingBuilder.newEnumMappingBuilder(Kind.class).mapping(Kind.SMALL, 1).mapping(Kind.LARGE, 2).build())
+        .structs("entryList", 19, entry)
+        .build();
+
+    ByteBuffer encoded = struct.encoder()
+        .int32("id", 7)
+        .string("label", "hand-written")
+        .enm("kind", Kind.SMALL)
+        .structs("entryList")
+          .add().string("key", "k").int64("value", 5L).end()
+        .end()
+        .encode();
+    encoded.rewind();
+    Everything decoded = StructMapper.of(Everything.class).decode(encoded);
+    assertThat(decoded.id, is(7));
+    assertThat(decoded.name, is("hand-written"));
+    assertThat(decoded.kind, is(Kind.SMALL));
+    assertThat(decoded.entryList.get(0).value, is(5L));
+
+    Everything everything = new Everything();
+    everything.id = 8;
+    everything.name = "mapped";
+    everything.entryList = Arrays.asList(new Entry("m", 6L));
+    encoded = StructMapper.of(Everything.class).encode(everything);
+    encoded.rewind();
+    StructDecoder<Void> decoder = struct.decoder(encoded);
+    assertThat(decoder.int32("id"), is(8));
+    assertThat(decoder.string("label"), is("mapped"));
+    StructArrayDecoder<StructDecoder<Void>> entries = decoder.structs("entryList");
+    StructDecoder<StructArrayDecoder<StructDecoder<Void>>> first = entries.next();
+    assertThat(first.string("key"), is("m"));
+    assertThat(first.int64("value"), is(6L));
+  }
+
+  static class V1 {
+    @RunnelField(1)
+    String name;
+    @RunnelField(3)
+    int removedInV2;
+  }
+
+  static class V2 {
+    @RunnelField(1)
+    String name;
+    @RunnelField(2)
+    int added = 42;
+    @RunnelField(4)
+    long alsoAdded = -1L;
+  }
+
+  @Test
+  public void testVersionCompatibility() {
+    V1 v1 = new V1();
+    v1.name = "v1";
+    v1.removedInV2 = 3;
+    ByteBuffer encoded = StructMapper.of(V1.class).encode(v1);
+    encoded.rewind();
+    V2 v2 = StructMapper.of(V2.class).decode(encoded);
+    assertThat(v2.name, is("v1"));
+    assertThat(v2.added, is(42));
+    assertThat(v2.alsoAdded, is(-1L));
+
+    v2.added = 1;
+    encoded = StructMapper.of(V2.class).encode(v2);
+    encoded.rewind();
+    V1 decoded = StructMapper.of(V1.class).decode(encoded);
+    assertThat(decoded.name, is("v1"));
+    assertThat(decoded.removedInV2, is(0));
+  }
+
+  @Test
+  public void testEmbeddedInHandWrittenCodec() {
+    StructMapper<Entry> entryMapper = StructMapper.of(Entry.class);
+    Struct message = StructBuilder.newStructBuilder()
+        .int32("type", 1)
+        .struct("entry", 2, entryMapper.struct())
+        .build();
+
+    ByteBuffer encoded = message.streamingEncoder()
+        .int32("type", 9)
+        .struct("entry", new Entry("e", 4L), (encoder, entry) -> entryMapper.encode(encoder, entry))
+        .encode();
+    encoded.rewind();
+    StructDecoder<Void> decoder = message.decoder(encoded);
+    assertThat(decoder.int32("type"), is(9));
+    assertThat(entryMapper.decode(decoder.struct("entry")).key, is("e"));
+  }
+
+  static class Duplicate {
+    @RunnelField(1)
+    int a;
+    @RunnelField(1)
+    int b;
+  }
+
+  static class FinalField {
+    @RunnelField(1)
+    final int a = 1;
+  }
+
+  static class Empty {
+    int a;
+  }
+
+  enum Unmapped {
+    @RunnelField(1) A,
+    B
+  }
+
+  static class WithUnmappedEnum {
+    @RunnelField(1)
+    Unmapped value;
+  }
+
+  static class Recursive {
+    @RunnelField(1)
+    Recursive next;
+  }
+
+  static class NoDefaultConstructor {
+    @RunnelField(1)
+    int a;
+
+    NoDefaultConstructor(int a) {
+      this.a = a;
+    }
+  }
+
+  static class Unsupported {
+    @RunnelField(1)
+    Object value;
+  }
+
+  @Test
+  public void testInvalidTypes() {
+    for (Class<?> type : Arrays.asList(Duplicate.class, FinalField.class, Empty.class, WithUnmappedEnum.class,
+        Recursive.class, NoDefaultConstructor.class, Unsupported.class, Kind.class)) {
+      try {
+        StructMapper.of(type);
+        throw new AssertionError("Expected IllegalArgumentException for " + type);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.voltron.proxy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-call overhead of dispatching a proxied message to the entity.
+ * <p>
+ * The {@code reflective*} benchmarks reproduce the former dispatch path: a {@code @ClientId} scan of the parameter
+ * annotations followed by {@link Method#invoke(Object, Object...)}. The {@code descriptor*} and {@code message*}
+ * benchmarks go through {@link MethodDescriptor} and {@link ProxyEntityMessage}, which keep the {@code @ClientId}
+ * indexes and call {@link Method#invoke(Object, Object...)}. {@link #constantHandleInvoke()} calls a method handle
+ * held in a static final field, the best a handle based dispatch can do, and {@link #direct()} is the floor.
+ * <p>
+ * Run with {@code java -cp <classpath> org.terracotta.voltron.proxy.ProxyInvocationBenchmark}, adding
+ * {@code -prof gc} to the JMH options to compare allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProxyInvocationBenchmark {
+
+  private static final MethodHandle ADD;
+
+  static {
+    try {
+      ADD = MethodHandles.publicLookup().findVirtual(Counter.class, "add", MethodType.methodType(long.class, Object.class, long.class))
+          .asSpreader(Object[].class, 2)
+          .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final Object client = new Object();
+
+  private Counter counter;
+  private Method addMethod;
+  private MethodDescriptor add;
+  private Object[] args;
+
+  @Setup
+  public void setUp() throws NoSuchMethodException {
+    counter = new CounterImpl();
+    addMethod = Counter.class.getMethod("add", Object.class, long.class);
+    add = MethodDescriptor.of(addMethod);
+    args = new Object[] {null, 1L};
+  }
+
+  @Benchmark
+  public long direct() {
+    return counter.add(client, 1L);
+  }
+
+  @Benchmark
+  public Object reflectiveInvoke() throws Exception {
+    return addMethod.invoke(counter, args);
+  }
+
+  @Benchmark
+  public Object reflectiveInvokeWithClientId() throws Exception {
+    Annotation[][] allAnnotations = addMethod.getParameterAnnotations();
+    for (int i = 0; i < allAnnotations.length; i++) {
+      for (Annotation parameterAnnotation : allAnnotations[i]) {
+        if (parameterAnnotation.annotationType() == ClientId.class) {
+          args[i] = client;
+          break;
+        }
+      }
+    }
+    return addMethod.invoke(counter, args);
+  }
+
+  @Benchmark
+  public Object constantHandleInvoke() throws Throwable {
+    return (Object) ADD.invokeExact((Object) counter, args);
+  }
+
+  @Benchmark
+  public Object descriptorInvoke() throws Exception {
+    return add.invoke(counter, args);
+  }
+
+  @Benchmark
+  public Object messageInvokeWithClientId() throws Exception {
+    return new ProxyEntityMessage(add, args, MessageType.MESSAGE).invoke(counter, client);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(ProxyInvocationBenchmark.class.getSimpleName()).build()).run();
+  }
+
+  public interface Counter {
+    long add(@ClientId Object client, long delta);
+  }
+
+  public static class CounterImpl implements Counter {
+
+    private long value;
+
+    @Override
+    public long add(Object client, long delta) {
+      return value += delta;
+    }
+  }
+}
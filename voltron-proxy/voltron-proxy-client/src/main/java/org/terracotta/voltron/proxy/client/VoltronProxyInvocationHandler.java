@@ -84,18 +84,16 @@ class VoltronProxyInvocationHandler implements InvocationHandler {
 
       entityClientEndpoint.setDelegate(new EndpointDelegate<ProxyEntityResponse>() {
 
-        @SuppressWarnings({"unchecked", "rawtypes"})
         @Override
         public void handleMessage(ProxyEntityResponse response) {
           try {
             handler.execute(() -> {
-              final Class<?> aClass = response.getResponseType();
-              try {
-                for (MessageListener messageListener : listeners.get(aClass)) {
-                  messageListener.onMessage(response.getResponse());
+              if (response.getMessageType() == MessageType.BATCH) {
+                for (ProxyEntityResponse batched : (ProxyEntityResponse[]) response.getResponse()) {
+                  dispatch(batched);
                 }
-              } catch (Exception e) {
-                LOGGER.warn("Error handling incoming server message {}: {}", aClass, e.getMessage(), e);
+              } else {
+                dispatch(response);
               }
             });
           } catch (RejectedExecutionException e) {
@@ -173,6 +171,18 @@ class VoltronProxyInvocationHandler implements InvocationHandler {
     }
   }
 
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private void dispatch(ProxyEntityResponse response) {
+    final Class<?> aClass = response.getResponseType();
+    try {
+      for (MessageListener messageListener : listeners.get(aClass)) {
+        messageListener.onMessage(response.getResponse());
+      }
+    } catch (Exception e) {
+      LOGGER.warn("Error handling incoming server message {}: {}", aClass, e.getMessage(), e);
+    }
+  }
+
   private static Object getResponse(ProxyEntityResponse proxyEntityResponse) throws EntityUserException {
     if (proxyEntityResponse == null) {
       return null;
@@ -0,0 +1,602 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.voltron.proxy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A compact binary {@link Codec} driven by the declared types of the encoded values, typically the parameter and
+ * return types of the proxied methods.
+ * <p>
+ * Values of a primitive declared type are written raw. Other values are written after a one byte tag identifying their
+ * runtime type: boxed primitives, strings, enums, primitive and string arrays, as well as array lists, hash sets and
+ * hash maps (and their linked variants) of such values are written directly. Anything else goes through the fallback
+ * codec, a {@link SerializationCodec} by default.
+ * <p>
+ * Encoding happens in a per-thread scratch buffer, so that encoding a message allocates the resulting array only.
+ * <p>
+ * Both ends of the connection have to use this codec, through {@link ProxyMessageCodec#setCodec(Codec)} on the server
+ * and the codec given to the client proxy factory.
+ */
+public class BinaryCodec implements Codec {
+
+  private static final byte NULL = 0;
+  private static final byte BOOLEAN = 1;
+  private static final byte BYTE = 2;
+  private static final byte SHORT = 3;
+  private static final byte CHAR = 4;
+  private static final byte INT = 5;
+  private static final byte LONG = 6;
+  private static final byte FLOAT = 7;
+  private static final byte DOUBLE = 8;
+  private static final byte STRING = 9;
+  private static final byte ENUM = 10;
+  private static final byte DECLARED_ENUM = 11;
+  private static final byte BYTE_ARRAY = 12;
+  private static final byte INT_ARRAY = 13;
+  private static final byte LONG_ARRAY = 14;
+  private static final byte STRING_ARRAY = 15;
+  private static final byte OBJECT_ARRAY = 16;
+  private static final byte ARRAY_LIST = 17;
+  private static final byte HASH_SET = 18;
+  private static final byte LINKED_HASH_SET = 19;
+  private static final byte HASH_MAP = 20;
+  private static final byte LINKED_HASH_MAP = 21;
+  private static final byte SERIALIZED = 22;
+
+  // scratch buffers growing past this size are not kept around
+  private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+  private static final byte[] NO_HEADER = new byte[0];
+
+  private static final ThreadLocal<Writer> WRITERS = ThreadLocal.withInitial(Writer::new);
+
+  private final Codec fallback;
+
+  public BinaryCodec() {
+    this(new SerializationCodec());
+  }
+
+  /**
+   * @param fallback the codec encoding the values of types this codec does not know about
+   */
+  public BinaryCodec(Codec fallback) {
+    this.fallback = Objects.requireNonNull(fallback);
+  }
+
+  @Override
+  public byte[] encode(Class<?> type, Object value) {
+    return encode(NO_HEADER, type, value);
+  }
+
+  @Override
+  public byte[] encode(byte[] header, Class<?> type, Object value) {
+    Writer writer = Writer.acquire();
+    try {
+      writer.putBytes(header, 0, header.length);
+      writeValue(writer, type, value);
+      return writer.toByteArray();
+    } finally {
+      writer.release();
+    }
+  }
+
+  @Override
+  public byte[] encode(Class<?>[] types, Object[] values) {
+    return encode(NO_HEADER, types, values);
+  }
+
+  @Override
+  public byte[] encode(byte[] header, Class<?>[] types, Object[] values) {
+    if (values == null) {
+      values = new Object[0];
+    }
+    if (types.length != values.length) {
+      throw new IllegalArgumentException();
+    }
+    Writer writer = Writer.acquire();
+    try {
+      writer.putBytes(header, 0, header.length);
+      for (int i = 0; i < types.length; i++) {
+        writeValue(writer, types[i], values[i]);
+      }
+      return writer.toByteArray();
+    } finally {
+      writer.release();
+    }
+  }
+
+  @Override
+  public <T> T decode(Class<T> type, byte[] buffer) {
+    return decode(type, buffer, 0, buffer.length);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> T decode(Class<T> type, byte[] buffer, int offset, int len) {
+    if (len == 0) {
+      return null;
+    }
+    Object value = readValue(new Reader(buffer, offset, len), type);
+    return type.isPrimitive() ? (T) value : type.cast(value);
+  }
+
+  @Override
+  public Object[] decode(Class<?>[] types, byte[] buffer) {
+    return decode(types, buffer, 0, buffer.length);
+  }
+
+  @Override
+  public Object[] decode(Class<?>[] types, byte[] buffer, int offset, int len) {
+    Reader reader = new Reader(buffer, offset, len);
+    Object[] values = new Object[types.length];
+    for (int i = 0; i < types.length; i++) {
+      Object value = readValue(reader, types[i]);
+      values[i] = types[i].isPrimitive() ? value : types[i].cast(value);
+    }
+    return values;
+  }
+
+  private void writeValue(Writer writer, Class<?> type, Object value) {
+    if (type.isPrimitive()) {
+      writePrimitive(writer, type, value);
+      return;
+    }
+    if (value == null) {
+      writer.putByte(NULL);
+    } else if (value instanceof String) {
+      writer.putByte(STRING);
+      writer.putString((String) value);
+    } else if (value instanceof Integer) {
+      writer.putByte(INT);
+      writer.putInt((Integer) value);
+    } else if (value instanceof Long) {
+      writer.putByte(LONG);
+      writer.putLong((Long) value);
+    } else if (value instanceof Boolean) {
+      writer.putByte(BOOLEAN);
+      writer.putByte((byte) ((Boolean) value ? 1 : 0));
+    } else if (value instanceof Byte) {
+      writer.putByte(BYTE);
+      writer.putByte((Byte) value);
+    } else if (value instanceof Short) {
+      writer.putByte(SHORT);
+      writer.putShort((Short) value);
+    } else if (value instanceof Character) {
+      writer.putByte(CHAR);
+      writer.putShort((short) (char) (Character) value);
+    } else if (value instanceof Float) {
+      writer.putByte(FLOAT);
+      writer.putInt(Float.floatToRawIntBits((Float) value));
+    } else if (value instanceof Double) {
+      writer.putByte(DOUBLE);
+      writer.putLong(Double.doubleToRawLongBits((Double) value));
+    } else if (value instanceof Enum<?>) {
+      Enum<?> constant = (Enum<?>) value;
+      if (constant.getDeclaringClass() == type) {
+        writer.putByte(DECLARED_ENUM);
+      } else {
+        writer.putByte(ENUM);
+        writer.putString(constant.getDeclaringClass().getName());
+      }
+      writer.putString(constant.name());
+    } else if (value instanceof byte[]) {
+      byte[] array = (byte[]) value;
+      writer.putByte(BYTE_ARRAY);
+      writer.putInt(array.length);
+      writer.putBytes(array, 0, array.length);
+    } else if (value instanceof int[]) {
+      int[] array = (int[]) value;
+      writer.putByte(INT_ARRAY);
+      writer.putInt(array.length);
+      for (int element : array) {
+        writer.putInt(element);
+      }
+    } else if (value instanceof long[]) {
+      long[] array = (long[]) value;
+      writer.putByte(LONG_ARRAY);
+      writer.putInt(array.length);
+      for (long element : array) {
+        writer.putLong(element);
+      }
+    } else if (value.getClass() == String[].class) {
+      String[] array = (String[]) value;
+      writer.putByte(STRING_ARRAY);
+      writer.putInt(array.length);
+      for (String element : array) {
+        writeValue(writer, String.class, element);
+      }
+    } else if (value.getClass() == Object[].class) {
+      writer.putByte(OBJECT_ARRAY);
+      writeElements(writer, Arrays.asList((Object[]) value));
+    } else if (value.getClass() == ArrayList.class) {
+      writer.putByte(ARRAY_LIST);
+      writeElements(writer, (Collection<?>) value);
+    } else if (value.getClass() == HashSet.class) {
+      writer.putByte(HASH_SET);
+      writeElements(writer, (Collection<?>) value);
+    } else if (value.getClass() == LinkedHashSet.class) {
+      writer.putByte(LINKED_HASH_SET);
+      writeElements(writer, (Collection<?>) value);
+    } else if (value.getClass() == HashMap.class) {
+      writer.putByte(HASH_MAP);
+      writeEntries(writer, (Map<?, ?>) value);
+    } else if (value.getClass() == LinkedHashMap.class) {
+      writer.putByte(LINKED_HASH_MAP);
+      writeEntries(writer, (Map<?, ?>) value);
+    } else {
+      byte[] serialized = fallback.encode(type, value);
+      writer.putByte(SERIALIZED);
+      writer.putInt(serialized.length);
+      writer.putBytes(serialized, 0, serialized.length);
+    }
+  }
+
+  private void writeElements(Writer writer, Collection<?> elements) {
+    writer.putInt(elements.size());
+    for (Object element : elements) {
+      writeValue(writer, Object.class, element);
+    }
+  }
+
+  private void writeEntries(Writer writer, Map<?, ?> map) {
+    writer.putInt(map.size());
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      writeValue(writer, Object.class, entry.getKey());
+      writeValue(writer, Object.class, entry.getValue());
+    }
+  }
+
+  private static void writePrimitive(Writer writer, Class<?> type, Object value) {
+    if (type == int.class) {
+      writer.putInt((Integer) value);
+    } else if (type == long.class) {
+      writer.putLong((Long) value);
+    } else if (type == boolean.class) {
+      writer.putByte((byte) ((Boolean) value ? 1 : 0));
+    } else if (type == byte.class) {
+      writer.putByte((Byte) value);
+    } else if (type == short.class) {
+      writer.putShort((Short) value);
+    } else if (type == char.class) {
+      writer.putShort((short) (char) (Character) value);
+    } else if (type == float.class) {
+      writer.putInt(Float.floatToRawIntBits((Float) value));
+    } else if (type == double.class) {
+      writer.putLong(Double.doubleToRawLongBits((Double) value));
+    } else if (type != void.class) {
+      throw new AssertionError(type);
+    }
+  }
+
+  private Object readValue(Reader reader, Class<?> type) {
+    if (type.isPrimitive()) {
+      return readPrimitive(reader, type);
+    }
+    byte tag = reader.getByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case BOOLEAN:
+        return reader.getByte() != 0;
+      case BYTE:
+        return reader.getByte();
+      case SHORT:
+        return reader.getShort();
+      case CHAR:
+        return (char) reader.getShort();
+      case INT:
+        return reader.getInt();
+      case LONG:
+        return reader.getLong();
+      case FLOAT:
+        return Float.intBitsToFloat(reader.getInt());
+      case DOUBLE:
+        return Double.longBitsToDouble(reader.getLong());
+      case STRING:
+        return reader.getString();
+      case ENUM:
+        return enumConstant(loadClass(reader.getString(), type), reader.getString());
+      case DECLARED_ENUM:
+        return enumConstant(type, reader.getString());
+      case BYTE_ARRAY:
+        return reader.getBytes(reader.getLength(1));
+      case INT_ARRAY: {
+        int[] array = new int[reader.getLength(4)];
+        for (int i = 0; i < array.length; i++) {
+          array[i] = reader.getInt();
+        }
+        return array;
+      }
+      case LONG_ARRAY: {
+        long[] array = new long[reader.getLength(8)];
+        for (int i = 0; i < array.length; i++) {
+          array[i] = reader.getLong();
+        }
+        return array;
+      }
+      case STRING_ARRAY: {
+        String[] array = new String[reader.getLength(1)];
+        for (int i = 0; i < array.length; i++) {
+          array[i] = (String) readValue(reader, String.class);
+        }
+        return array;
+      }
+      case OBJECT_ARRAY: {
+        Object[] array = new Object[reader.getLength(1)];
+        for (int i = 0; i < array.length; i++) {
+          array[i] = readValue(reader, Object.class);
+        }
+        return array;
+      }
+      case ARRAY_LIST: {
+        int size = reader.getLength(1);
+        return readElements(reader, size, new ArrayList<>(size));
+      }
+      case HASH_SET: {
+        int size = reader.getLength(1);
+        return readElements(reader, size, new HashSet<>(capacityFor(size)));
+      }
+      case LINKED_HASH_SET: {
+        int size = reader.getLength(1);
+        return readElements(reader, size, new LinkedHashSet<>(capacityFor(size)));
+      }
+      case HASH_MAP: {
+        int size = reader.getLength(2);
+        return readEntries(reader, size, new HashMap<>(capacityFor(size)));
+      }
+      case LINKED_HASH_MAP: {
+        int size = reader.getLength(2);
+        return readEntries(reader, size, new LinkedHashMap<>(capacityFor(size)));
+      }
+      case SERIALIZED: {
+        int length = reader.getLength(1);
+        Object value = fallback.decode(type, reader.buffer, reader.position, length);
+        reader.skip(length);
+        return value;
+      }
+      default:
+        throw new IllegalArgumentException("Unknown value tag " + tag);
+    }
+  }
+
+  private Collection<Object> readElements(Reader reader, int size, Collection<Object> elements) {
+    for (int i = 0; i < size; i++) {
+      elements.add(readValue(reader, Object.class));
+    }
+    return elements;
+  }
+
+  private Map<Object, Object> readEntries(Reader reader, int size, Map<Object, Object> map) {
+    for (int i = 0; i < size; i++) {
+      map.put(readValue(reader, Object.class), readValue(reader, Object.class));
+    }
+    return map;
+  }
+
+  private static Object readPrimitive(Reader reader, Class<?> type) {
+    if (type == int.class) {
+      return reader.getInt();
+    } else if (type == long.class) {
+      return reader.getLong();
+    } else if (type == boolean.class) {
+      return reader.getByte() != 0;
+    } else if (type == byte.class) {
+      return reader.getByte();
+    } else if (type == short.class) {
+      return reader.getShort();
+    } else if (type == char.class) {
+      return (char) reader.getShort();
+    } else if (type == float.class) {
+      return Float.intBitsToFloat(reader.getInt());
+    } else if (type == double.class) {
+      return Double.longBitsToDouble(reader.getLong());
+    } else if (type == void.class) {
+      return null;
+    } else {
+      throw new AssertionError(type);
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Object enumConstant(Class<?> type, String name) {
+    return Enum.valueOf((Class) type, name);
+  }
+
+  private static Class<?> loadClass(String name, Class<?> declaredType) {
+    ClassLoader loader = declaredType.getClassLoader();
+    if (loader == null) {
+      loader = BinaryCodec.class.getClassLoader();
+    }
+    try {
+      return Class.forName(name, false, loader);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private static int capacityFor(int size) {
+    return size < 3 ? size + 1 : (int) (size / 0.75f + 1.0f);
+  }
+
+  private static final class Writer {
+
+    private byte[] buffer = new byte[256];
+    private int position;
+    private boolean inUse;
+
+    static Writer acquire() {
+      Writer writer = WRITERS.get();
+      if (writer.inUse) {
+        // reentrant encoding, from within a fallback codec
+        writer = new Writer();
+      }
+      writer.inUse = true;
+      writer.position = 0;
+      return writer;
+    }
+
+    void release() {
+      inUse = false;
+      if (buffer.length > MAX_RETAINED_BUFFER) {
+        buffer = new byte[256];
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, position);
+    }
+
+    private void ensure(int bytes) {
+      if (position + bytes > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, position + bytes));
+      }
+    }
+
+    void putByte(byte value) {
+      ensure(1);
+      buffer[position++] = value;
+    }
+
+    void putShort(short value) {
+      ensure(2);
+      buffer[position++] = (byte) (value >>> 8);
+      buffer[position++] = (byte) value;
+    }
+
+    void putInt(int value) {
+      ensure(4);
+      buffer[position++] = (byte) (value >>> 24);
+      buffer[position++] = (byte) (value >>> 16);
+      buffer[position++] = (byte) (value >>> 8);
+      buffer[position++] = (byte) value;
+    }
+
+    void putLong(long value) {
+      putInt((int) (value >>> 32));
+      putInt((int) value);
+    }
+
+    void putBytes(byte[] bytes, int offset, int length) {
+      ensure(length);
+      System.arraycopy(bytes, offset, buffer, position, length);
+      position += length;
+    }
+
+    void putString(String value) {
+      int length = value.length();
+      ensure(4 + length);
+      int start = position;
+      position += 4;
+      int i = 0;
+      // ASCII is copied straight into the buffer, the rest of the string only gets UTF-8 encoded on the first other char
+      for (; i < length; i++) {
+        char c = value.charAt(i);
+        if (c >= 0x80) {
+          break;
+        }
+        buffer[position++] = (byte) c;
+      }
+      if (i < length) {
+        byte[] rest = value.substring(i).getBytes(StandardCharsets.UTF_8);
+        putBytes(rest, 0, rest.length);
+      }
+      int bytes = position - start - 4;
+      buffer[start] = (byte) (bytes >>> 24);
+      buffer[start + 1] = (byte) (bytes >>> 16);
+      buffer[start + 2] = (byte) (bytes >>> 8);
+      buffer[start + 3] = (byte) bytes;
+    }
+  }
+
+  private static final class Reader {
+
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+
+    Reader(byte[] buffer, int offset, int length) {
+      this.buffer = buffer;
+      this.position = offset;
+      this.limit = offset + length;
+    }
+
+    private int advance(int bytes) {
+      int at = position;
+      if (bytes < 0 || bytes > limit - at) {
+        throw new IllegalArgumentException("Truncated buffer");
+      }
+      position += bytes;
+      return at;
+    }
+
+    void skip(int bytes) {
+      advance(bytes);
+    }
+
+    /**
+     * Reads the length of an array, collection or map, checked against the bytes left before anything gets allocated
+     * for it.
+     *
+     * @param minElementSize the bytes taken by an element at the very least
+     */
+    int getLength(int minElementSize) {
+      int length = getInt();
+      if (length < 0 || length > (limit - position) / minElementSize) {
+        throw new IllegalArgumentException("Invalid length " + length + " with " + (limit - position) + " bytes left");
+      }
+      return length;
+    }
+
+    byte getByte() {
+      return buffer[advance(1)];
+    }
+
+    short getShort() {
+      int at = advance(2);
+      return (short) ((buffer[at] << 8) | (buffer[at + 1] & 0xff));
+    }
+
+    int getInt() {
+      int at = advance(4);
+      return (buffer[at] << 24) | ((buffer[at + 1] & 0xff) << 16) | ((buffer[at + 2] & 0xff) << 8) | (buffer[at + 3] & 0xff);
+    }
+
+    long getLong() {
+      return ((long) getInt() << 32) | (getInt() & 0xffffffffL);
+    }
+
+    byte[] getBytes(int length) {
+      int at = advance(length);
+      return Arrays.copyOfRange(buffer, at, at + length);
+    }
+
+    String getString() {
+      int length = getInt();
+      int at = advance(length);
+      return new String(buffer, at, length, StandardCharsets.UTF_8);
+    }
+  }
+}
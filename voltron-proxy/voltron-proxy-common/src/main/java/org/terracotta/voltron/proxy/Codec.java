@@ -15,6 +15,8 @@
  */
 package org.terracotta.voltron.proxy;
 
+import java.util.Arrays;
+
 /**
  * @author Alex Snaps
  */
@@ -24,6 +26,31 @@ public interface Codec {
 
   byte[] encode(Class<?>[] types, Object[] values);
 
+  /**
+   * Encodes like {@link #encode(Class, Object)}, with {@code header} written before the encoded value.
+   * <p>
+   * The default implementation copies the encoded value after the header: codecs writing into a buffer of their own
+   * should write the header there instead.
+   */
+  default byte[] encode(byte[] header, Class<?> type, Object value) {
+    byte[] payload = encode(type, value);
+    byte[] encoded = Arrays.copyOf(header, header.length + payload.length);
+    System.arraycopy(payload, 0, encoded, header.length, payload.length);
+    return encoded;
+  }
+
+  /**
+   * Encodes like {@link #encode(Class[], Object[])}, with {@code header} written before the encoded values.
+   *
+   * @see #encode(byte[], Class, Object)
+   */
+  default byte[] encode(byte[] header, Class<?>[] types, Object[] values) {
+    byte[] payload = encode(types, values);
+    byte[] encoded = Arrays.copyOf(header, header.length + payload.length);
+    System.arraycopy(payload, 0, encoded, header.length, payload.length);
+    return encoded;
+  }
+
   /**
    * Delegates to {@link #decode(Class, byte[], int, int)}
    */
@@ -0,0 +1,66 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.voltron.proxy;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the argument a method invocation is routed on: instead of the single key of a {@link ConcurrencyStrategy},
+ * the invocation runs on a concurrency key computed from the argument on the server, between {@code 1} and
+ * {@link #keySpace()} inclusive. Invocations with equal arguments are ordered, others can run in parallel.
+ * <p>
+ * The default {@link Hash} function relies on {@link Object#hashCode()}, which must then be the same on every server:
+ * strings, numbers or anything hashing on such values are fine, enums or identity hashed objects are not.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface ConcurrencyKey {
+
+  int DEFAULT_KEY_SPACE = 16;
+
+  int keySpace() default DEFAULT_KEY_SPACE;
+
+  /**
+   * @return the function mapping the argument to its key, instantiated through its no-arg constructor
+   */
+  Class<? extends Function> function() default Hash.class;
+
+  interface Function {
+    /**
+     * @return a key between {@code 1} and {@code keySpace} inclusive
+     */
+    int keyFor(Object argument, int keySpace);
+  }
+
+  /**
+   * Spreads arguments over the key space by hash, {@code null} being mapped to the first key.
+   */
+  final class Hash implements Function {
+    @Override
+    public int keyFor(Object argument, int keySpace) {
+      if (argument == null) {
+        return 1;
+      }
+      int hash = argument.hashCode();
+      // spread the high bits down so that poorly distributed hashes still use every key
+      hash ^= (hash >>> 16);
+      return 1 + Math.floorMod(hash, keySpace);
+    }
+  }
+}
@@ -24,6 +24,7 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
 import java.lang.reflect.WildcardType;
+import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
@@ -38,9 +39,18 @@ public final class MethodDescriptor {
   private final Async.Ack ack;
   private final ExecutionStrategy.Location location;
   private final int concurrencyKey;
-  
+  // index of the @ConcurrencyKey parameter, or -1 when the key is static
+  private final int concurrencyKeyIndex;
+  private final int keySpace;
+  private final ConcurrencyKey.Function keyFunction;
+  // Method.getParameterTypes() copies the array on every call
+  private final Class<?>[] parameterTypes;
+  // indexes of the @ClientId parameters
+  private final int[] clientIdIndexes;
+
   private MethodDescriptor(Method method) {
     this.method = method;
+    this.parameterTypes = method.getParameterTypes();
 
     // @Async
     Async asyncAnnot = method.getAnnotation(Async.class);
@@ -67,12 +77,76 @@ public final class MethodDescriptor {
     // @ConcurrencyStrategy
     ConcurrencyStrategy concurrencyStrategy = method.getAnnotation(ConcurrencyStrategy.class);
     concurrencyKey = concurrencyStrategy == null ? ConcurrencyStrategy.MANAGEMENT_KEY : concurrencyStrategy.key();
+
+    // @ConcurrencyKey
+    int index = -1;
+    Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+    ConcurrencyKey concurrencyKeyAnnot = null;
+    int[] clientIds = new int[parameterAnnotations.length];
+    int clientIdCount = 0;
+    for (int i = 0; i < parameterAnnotations.length; i++) {
+      for (Annotation annotation : parameterAnnotations[i]) {
+        if (annotation.annotationType() == ClientId.class) {
+          clientIds[clientIdCount++] = i;
+        } else if (annotation.annotationType() == ConcurrencyKey.class) {
+          if (index >= 0) {
+            throw new IllegalStateException("@ConcurrencyKey can only be used on one parameter on method: " + method);
+          }
+          index = i;
+          concurrencyKeyAnnot = (ConcurrencyKey) annotation;
+        }
+      }
+    }
+    clientIdIndexes = Arrays.copyOf(clientIds, clientIdCount);
+    concurrencyKeyIndex = index;
+    if (concurrencyKeyAnnot == null) {
+      keySpace = 0;
+      keyFunction = null;
+    } else {
+      if (concurrencyStrategy != null) {
+        throw new IllegalStateException("@ConcurrencyKey and @ConcurrencyStrategy cannot be combined on method: " + method);
+      }
+      keySpace = concurrencyKeyAnnot.keySpace();
+      if (keySpace < 1) {
+        throw new IllegalStateException("@ConcurrencyKey requires a strictly positive key space on method: " + method);
+      }
+      try {
+        keyFunction = concurrencyKeyAnnot.function().getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Unable to instantiate the @ConcurrencyKey function of method: " + method, e);
+      }
+    }
   }
 
+  /**
+   * @return the static concurrency key of this method, see {@link #getConcurrencyKey(Object[])} for methods routed
+   * on an argument
+   */
   public int getConcurrencyKey() {
     return concurrencyKey;
   }
 
+  /**
+   * @return the concurrency key an invocation with the given arguments runs on
+   */
+  public int getConcurrencyKey(Object[] args) {
+    if (concurrencyKeyIndex < 0) {
+      return concurrencyKey;
+    }
+    int key = keyFunction.keyFor(args[concurrencyKeyIndex], keySpace);
+    if (key < 1 || key > keySpace) {
+      throw new IllegalStateException("Concurrency key " + key + " out of [1, " + keySpace + "] for method: " + method);
+    }
+    return key;
+  }
+
+  /**
+   * @return the number of keys invocations are spread over, or {@code 0} if this method has a static key
+   */
+  public int getKeySpace() {
+    return keySpace;
+  }
+
   public ExecutionStrategy.Location getExecutionLocation() {
     return location;
   }
@@ -116,13 +190,28 @@ public final class MethodDescriptor {
   }
 
   public Class<?>[] getParameterTypes() {
-    return method.getParameterTypes();
+    return parameterTypes.clone();
   }
 
   public Annotation[][] getParameterAnnotations() {
     return method.getParameterAnnotations();
   }
 
+  /**
+   * @return the parameter types, shared with the codecs of this package which must not modify them
+   */
+  Class<?>[] parameterTypes() {
+    return parameterTypes;
+  }
+
+  /**
+   * @return the indexes of the parameters annotated with {@link ClientId}, in ascending order, shared with the codecs
+   * of this package which must not modify them
+   */
+  int[] clientIdIndexes() {
+    return clientIdIndexes;
+  }
+
   public Object invoke(Object target, Object... args) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
     Object ret = method.invoke(target, args);
     if (async) {
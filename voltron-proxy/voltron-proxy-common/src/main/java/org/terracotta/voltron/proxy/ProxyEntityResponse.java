@@ -19,6 +19,8 @@ import com.tc.classloader.CommonComponent;
 import org.terracotta.entity.EntityResponse;
 import org.terracotta.entity.EntityUserException;
 
+import java.util.List;
+
 /**
  * @author cdennis
  */
@@ -45,10 +47,20 @@ public final class ProxyEntityResponse implements EntityResponse {
     return response(MessageType.ERROR, EntityUserException.class, error);
   }
 
+  /**
+   * Several responses for the same client, delivered as a single message and handled in order on the other side.
+   */
+  public static ProxyEntityResponse batch(List<ProxyEntityResponse> responses) {
+    return response(MessageType.BATCH, ProxyEntityResponse[].class, responses.toArray(new ProxyEntityResponse[responses.size()]));
+  }
+
   private final MessageType messageType;
   private final Class<?> responseType;
   private final Object response;
 
+  // encoded form, reused when the same response is sent to several clients
+  private volatile Encoded encoded;
+
   private ProxyEntityResponse(MessageType messageType, Class<?> responseType, Object response) {
     this.messageType = messageType;
     this.responseType = responseType;
@@ -66,4 +78,23 @@ public final class ProxyEntityResponse implements EntityResponse {
   public Object getResponse() {
     return response;
   }
+
+  byte[] getEncoded(Object codec) {
+    Encoded encoded = this.encoded;
+    return encoded != null && encoded.codec == codec ? encoded.bytes : null;
+  }
+
+  void setEncoded(Object codec, byte[] bytes) {
+    this.encoded = new Encoded(codec, bytes);
+  }
+
+  private static final class Encoded {
+    private final Object codec;
+    private final byte[] bytes;
+
+    Encoded(Object codec, byte[] bytes) {
+      this.codec = codec;
+      this.bytes = bytes;
+    }
+  }
 }
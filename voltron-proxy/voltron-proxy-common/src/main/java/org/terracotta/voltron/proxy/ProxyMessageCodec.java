@@ -19,10 +19,10 @@ import org.terracotta.entity.MessageCodec;
 import org.terracotta.entity.MessageCodecException;
 import org.terracotta.entity.EntityUserException;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.lang.annotation.Annotation;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -80,18 +80,23 @@ public class ProxyMessageCodec implements MessageCodec<ProxyEntityMessage, Proxy
     if (r == null) {
       return new byte[0];
     }
+    // a response broadcast to several clients is only encoded for the first one
+    byte[] encoded = r.getEncoded(this);
+    if (encoded != null) {
+      return encoded;
+    }
     MessageType messageType = r.getMessageType();
-    ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-    DataOutputStream output = new DataOutputStream(byteOut);
+    if (messageType == MessageType.BATCH) {
+      return encodeBatch((ProxyEntityResponse[]) r.getResponse());
+    }
     try {
-      output.writeByte(messageType.ordinal());
-      output.writeByte(messageType == MessageType.ERROR ? 0 : getMessageTypeIdentifier(r));
-      output.write(codec.encode(r.getResponseType(), r.getResponse()));
-      output.close();
+      byte responseIdentifier = messageType == MessageType.ERROR ? 0 : getMessageTypeIdentifier(r);
+      encoded = codec.encode(header(messageType, responseIdentifier), r.getResponseType(), r.getResponse());
     } catch (Exception e) {
       throw new MessageCodecException("Error encoding ProxyEntityResponse", e);
     }
-    return byteOut.toByteArray();
+    r.setEncoded(this, encoded);
+    return encoded;
   }
 
   @Override
@@ -101,6 +106,9 @@ public class ProxyMessageCodec implements MessageCodec<ProxyEntityMessage, Proxy
     }
     try {
       MessageType messageType = MessageType.values()[buffer[0]];
+      if (messageType == MessageType.BATCH) {
+        return decodeBatch(buffer);
+      }
       Class<?> responseType = messageType == MessageType.ERROR ? EntityUserException.class : getResponseType(messageType, buffer[1]);
       Object o = codec.decode(responseType, buffer, 2, buffer.length - 2);
       return ProxyEntityResponse.response(messageType, responseType, o);
@@ -109,6 +117,35 @@ public class ProxyMessageCodec implements MessageCodec<ProxyEntityMessage, Proxy
     }
   }
 
+  /**
+   * A batch is the batch header followed by each response, encoded as usual and prefixed with its length.
+   */
+  private byte[] encodeBatch(ProxyEntityResponse[] responses) throws MessageCodecException {
+    byte[][] encoded = new byte[responses.length][];
+    int size = 2;
+    for (int i = 0; i < responses.length; i++) {
+      encoded[i] = encodeResponse(responses[i]);
+      size += 4 + encoded[i].length;
+    }
+    ByteBuffer batch = ByteBuffer.allocate(size);
+    batch.put((byte) MessageType.BATCH.ordinal()).put((byte) 0);
+    for (byte[] response : encoded) {
+      batch.putInt(response.length).put(response);
+    }
+    return batch.array();
+  }
+
+  private ProxyEntityResponse decodeBatch(byte[] buffer) throws MessageCodecException {
+    ByteBuffer batch = ByteBuffer.wrap(buffer, 2, buffer.length - 2);
+    List<ProxyEntityResponse> responses = new ArrayList<ProxyEntityResponse>();
+    while (batch.hasRemaining()) {
+      byte[] response = new byte[batch.getInt()];
+      batch.get(response);
+      responses.add(decodeResponse(response));
+    }
+    return ProxyEntityResponse.batch(responses);
+  }
+
   @Override
   public byte[] encodeMessage(ProxyEntityMessage message) throws MessageCodecException {
     try {
@@ -117,25 +154,11 @@ public class ProxyMessageCodec implements MessageCodec<ProxyEntityMessage, Proxy
       Byte methodIdentifier = getMethodIdentifier(message);
 
       Object[] args = message.getArguments();
-      final Annotation[][] parameterAnnotations = method.getParameterAnnotations();
-      for (int i = 0, parameterAnnotationsLength = parameterAnnotations.length; i < parameterAnnotationsLength; i++) {
-        final Annotation[] parameterAnnotation = parameterAnnotations[i];
-        for (Annotation annotation : parameterAnnotation) {
-          if (annotation.annotationType() == ClientId.class) {
-            args[i] = null;
-          }
-        }
+      for (int index : method.clientIdIndexes()) {
+        args[index] = null;
       }
 
-      ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-      DataOutputStream output = new DataOutputStream(byteOut);
-
-      output.writeByte(messageType.ordinal()); // first, message type
-      output.writeByte(methodIdentifier); // then method mapping
-      output.write(codec.encode(method.getParameterTypes(), args));
-
-      output.close();
-      return byteOut.toByteArray();
+      return codec.encode(header(messageType, methodIdentifier), method.parameterTypes(), args);
     } catch (Exception ex) {
       throw new MessageCodecException("Error encoding ProxyEntityMessage", ex);
     }
@@ -146,12 +169,19 @@ public class ProxyMessageCodec implements MessageCodec<ProxyEntityMessage, Proxy
     try {
       MessageType messageType = MessageType.values()[buffer[0]];
       MethodDescriptor method = getMethod(messageType, buffer[1]);
-      return new ProxyEntityMessage(method, codec.decode(method.getParameterTypes(), buffer, 2, buffer.length - 2), messageType);
+      return new ProxyEntityMessage(method, codec.decode(method.parameterTypes(), buffer, 2, buffer.length - 2), messageType);
     } catch (Exception ex) {
       throw new MessageCodecException("Error decoding ProxyEntityMessage", ex);
     }
   }
 
+  /**
+   * The message type, then the method or response type mapping: the codec writes it ahead of the encoded payload.
+   */
+  private static byte[] header(MessageType messageType, byte identifier) {
+    return new byte[] {(byte) messageType.ordinal(), identifier};
+  }
+
   private MethodDescriptor getMethod(MessageType messageType, Byte b) {
     Map<Byte, MethodDescriptor> mapping = methodMappings.get(messageType);
     if (mapping == null) {
@@ -38,6 +38,13 @@ public class SerializationCodec implements Codec {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(SerializationCodec.class);
 
+  // scratch buffers growing past this size are not kept around
+  private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+  private static final byte[] NO_HEADER = new byte[0];
+
+  private static final ThreadLocal<Output> OUTPUTS = ThreadLocal.withInitial(Output::new);
+
   private final Pattern shadingPattern;
 
   public SerializationCodec() {
@@ -50,7 +57,12 @@ public class SerializationCodec implements Codec {
 
   @Override
   public byte[] encode(final Class<?> type, final Object value) {
-    return serialize(value);
+    return serialize(NO_HEADER, value);
+  }
+
+  @Override
+  public byte[] encode(byte[] header, Class<?> type, Object value) {
+    return serialize(header, value);
   }
 
   @Override
@@ -66,13 +78,18 @@ public class SerializationCodec implements Codec {
 
   @Override
   public byte[] encode(Class<?>[] types, Object[] values) {
+    return encode(NO_HEADER, types, values);
+  }
+
+  @Override
+  public byte[] encode(byte[] header, Class<?>[] types, Object[] values) {
     if (values == null) {
       values = new Object[0];
     }
     if (types.length != values.length) {
       throw new IllegalArgumentException();
     }
-    return serialize(values);
+    return serialize(header, values);
   }
 
   @Override
@@ -89,21 +106,19 @@ public class SerializationCodec implements Codec {
     return oo;
   }
 
-  private byte[] serialize(Object value) {
-    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+  private byte[] serialize(byte[] header, Object value) {
+    Output bout = Output.acquire();
     try {
+      bout.write(header, 0, header.length);
       ObjectOutputStream oout = new ObjectOutputStream(bout);
       oout.writeObject(value);
+      oout.flush();
+      return bout.toByteArray();
     } catch (IOException e) {
       throw new RuntimeException(e);
     } finally {
-      try {
-        bout.close();
-      } catch (IOException e) {
-        throw new AssertionError(e);
-      }
+      bout.release();
     }
-    return bout.toByteArray();
   }
 
   private Object deserialize(byte[] buffer, int offset, int len) {
@@ -163,4 +178,31 @@ public class SerializationCodec implements Codec {
       return substitution;
     }
   }
+
+  private static final class Output extends ByteArrayOutputStream {
+
+    private boolean inUse;
+
+    Output() {
+      super(256);
+    }
+
+    static Output acquire() {
+      Output output = OUTPUTS.get();
+      if (output.inUse) {
+        // reentrant encoding, from within a writeObject method
+        output = new Output();
+      }
+      output.inUse = true;
+      output.reset();
+      return output;
+    }
+
+    void release() {
+      inUse = false;
+      if (buf.length > MAX_RETAINED_BUFFER) {
+        buf = new byte[256];
+      }
+    }
+  }
 }
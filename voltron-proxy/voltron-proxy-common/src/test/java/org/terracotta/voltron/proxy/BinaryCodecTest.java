@@ -0,0 +1,173 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.voltron.proxy;
+
+import org.junit.Test;
+import org.terracotta.AvailableClass;
+import org.terracotta.entity.MessageCodecException;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonMap;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class BinaryCodecTest {
+
+  private final BinaryCodec codec = new BinaryCodec();
+
+  // values whose encoding starts with their tag followed by their length
+  private static final Object[] SIZED_VALUES = {
+      new byte[] {1, 2, 3}, new int[] {1, 2, 3}, new long[] {1, 2, 3}, new String[] {"a", null}, new Object[] {"a", 1L},
+      new ArrayList<>(Arrays.asList("a", 1)), new HashSet<>(Arrays.asList("a", "b")), new LinkedHashSet<>(Arrays.asList("a", "b")),
+      new HashMap<>(singletonMap("a", 1)), new LinkedHashMap<>(singletonMap("a", 1))
+  };
+
+  interface Values {
+    int[] values();
+  }
+
+  @Test
+  public void testPrimitiveParametersAreWrittenRaw() {
+    Class<?>[] types = {int.class, long.class, boolean.class, double.class};
+    byte[] encoded = codec.encode(types, new Object[] {42, 43L, true, 1.5d});
+    assertThat(encoded.length, is(4 + 8 + 1 + 8));
+
+    Object[] decoded = codec.decode(types, encoded);
+    assertThat(decoded, equalTo(new Object[] {42, 43L, true, 1.5d}));
+  }
+
+  @Test
+  public void testValues() {
+    Object[] values = {null, "foo", "\u00e9t\u00e9 \u2603", 1, 2L, (byte) 3, (short) 4, 'c', 5f, 6d, false, TimeUnit.SECONDS};
+    for (Object value : values) {
+      assertThat(codec.decode(Object.class, codec.encode(Object.class, value)), equalTo(value));
+    }
+  }
+
+  @Test
+  public void testEnums() {
+    byte[] declared = codec.encode(TimeUnit.class, TimeUnit.HOURS);
+    byte[] undeclared = codec.encode(Object.class, TimeUnit.HOURS);
+    assertThat(declared.length < undeclared.length, is(true));
+    assertThat(codec.decode(TimeUnit.class, declared), is(TimeUnit.HOURS));
+    assertThat(codec.decode(Object.class, undeclared), is((Object) TimeUnit.HOURS));
+  }
+
+  @Test
+  public void testArrays() {
+    assertArrayEquals(new byte[] {1, 2, 3}, codec.decode(byte[].class, codec.encode(byte[].class, new byte[] {1, 2, 3})));
+    assertArrayEquals(new int[] {1, 2, 3}, codec.decode(int[].class, codec.encode(int[].class, new int[] {1, 2, 3})));
+    assertArrayEquals(new long[] {1, 2, 3}, codec.decode(long[].class, codec.encode(long[].class, new long[] {1, 2, 3})));
+    assertArrayEquals(new String[] {"a", null}, codec.decode(String[].class, codec.encode(String[].class, new String[] {"a", null})));
+    assertArrayEquals(new Object[] {"a", 1L}, codec.decode(Object[].class, codec.encode(Object[].class, new Object[] {"a", 1L})));
+  }
+
+  @Test
+  public void testCollections() {
+    List<Object> list = new ArrayList<>(Arrays.asList("a", 1, null));
+    Set<Object> set = new HashSet<>(Arrays.asList("a", "b"));
+    Map<Object, Object> map = new LinkedHashMap<>();
+    map.put("b", list);
+    map.put("a", set);
+    Map<Object, Object> nested = new HashMap<>();
+    nested.put(1, map);
+
+    Object decoded = codec.decode(Map.class, codec.encode(Map.class, nested));
+    assertThat(decoded, equalTo((Object) nested));
+    assertThat(((Map<?, ?>) decoded).get(1), instanceOf(LinkedHashMap.class));
+  }
+
+  @Test
+  public void testFallbackOnSerialization() {
+    List<String> immutable = Arrays.asList("x", "y");
+    Object[] decoded = codec.decode(new Class<?>[] {AvailableClass.class, List.class},
+        codec.encode(new Class<?>[] {AvailableClass.class, List.class}, new Object[] {new AvailableClass("foobar"), immutable}));
+    assertThat(((AvailableClass) decoded[0]).string, is("foobar"));
+    assertThat(decoded[1], equalTo((Object) immutable));
+  }
+
+  @Test
+  public void testVoid() {
+    assertThat(codec.encode(Void.TYPE, null).length, is(0));
+    assertThat(codec.decode(Void.TYPE, new byte[0]), nullValue());
+  }
+
+  @Test
+  public void testHeader() {
+    byte[] encoded = codec.encode(new byte[] {7, 8}, String.class, "foo");
+    assertThat(encoded[0], is((byte) 7));
+    assertThat(encoded[1], is((byte) 8));
+    assertThat(codec.decode(String.class, encoded, 2, encoded.length - 2), is("foo"));
+
+    Class<?>[] types = {int.class, String.class};
+    encoded = codec.encode(new byte[] {9}, types, new Object[] {42, "bar"});
+    assertThat(encoded[0], is((byte) 9));
+    assertThat(codec.decode(types, encoded, 1, encoded.length - 1), equalTo(new Object[] {42, "bar"}));
+  }
+
+  @Test
+  public void testTruncatedValuesAreRejected() {
+    for (Object value : SIZED_VALUES) {
+      byte[] encoded = codec.encode(Object.class, value);
+      assertRejected(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+  }
+
+  @Test
+  public void testOversizedLengthsAreRejected() {
+    for (Object value : SIZED_VALUES) {
+      byte[] encoded = codec.encode(Object.class, value);
+      for (int length : new int[] {-1, Integer.MIN_VALUE, Integer.MAX_VALUE, encoded.length}) {
+        ByteBuffer.wrap(encoded, 1, 4).putInt(length);
+        assertRejected(encoded);
+      }
+    }
+  }
+
+  @Test(expected = MessageCodecException.class)
+  public void testOversizedLengthFailsResponseDecoding() throws Exception {
+    ProxyMessageCodec messageCodec = new ProxyMessageCodec(Values.class);
+    messageCodec.setCodec(codec);
+    byte[] response = messageCodec.encodeResponse(ProxyEntityResponse.response(MessageType.MESSAGE, int[].class, new int[0]));
+    ByteBuffer.wrap(response, response.length - 4, 4).putInt(Integer.MAX_VALUE);
+    messageCodec.decodeResponse(response);
+  }
+
+  private void assertRejected(byte[] encoded) {
+    try {
+      codec.decode(Object.class, encoded);
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terracotta.voltron.proxy;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class MethodDescriptorTest {
+
+  @Test
+  public void test_static_concurrency_key() throws Throwable {
+    MethodDescriptor clear = MethodDescriptor.of(Store.class.getMethod("clear"));
+    assertThat(clear.getKeySpace(), is(0));
+    assertThat(clear.getConcurrencyKey(new Object[0]), is(ConcurrencyStrategy.UNIVERSAL_KEY));
+  }
+
+  @Test
+  public void test_argument_concurrency_key() throws Throwable {
+    MethodDescriptor put = MethodDescriptor.of(Store.class.getMethod("put", String.class, String.class));
+    assertThat(put.getKeySpace(), is(4));
+
+    Set<Integer> keys = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      int key = put.getConcurrencyKey(new Object[] {"key-" + i, "value"});
+      assertThat(key, equalTo(put.getConcurrencyKey(new Object[] {"key-" + i, "other"})));
+      keys.add(key);
+    }
+    assertThat(keys.size(), is(4));
+    assertThat(put.getConcurrencyKey(new Object[] {null, "value"}), is(1));
+  }
+
+  @Test
+  public void test_custom_key_function() throws Throwable {
+    MethodDescriptor get = MethodDescriptor.of(Store.class.getMethod("get", int.class));
+    assertThat(get.getKeySpace(), is(ConcurrencyKey.DEFAULT_KEY_SPACE));
+    assertThat(get.getConcurrencyKey(new Object[] {3}), is(3));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void test_key_function_out_of_key_space() throws Throwable {
+    MethodDescriptor.of(Store.class.getMethod("get", int.class)).getConcurrencyKey(new Object[] {1000});
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void test_concurrency_key_and_strategy_are_exclusive() throws Throwable {
+    MethodDescriptor.of(Store.class.getMethod("remove", String.class));
+  }
+
+  @Test
+  public void test_client_id_indexes() throws Throwable {
+    assertThat(MethodDescriptor.of(Store.class.getMethod("clear")).clientIdIndexes().length, is(0));
+    int[] indexes = MethodDescriptor.of(Service.class.getMethod("echo", Object.class, int.class, Object.class)).clientIdIndexes();
+    assertThat(indexes.length, is(2));
+    assertThat(indexes[0], is(0));
+    assertThat(indexes[1], is(2));
+  }
+
+  @Test
+  public void test_parameter_getters_return_copies() throws Throwable {
+    MethodDescriptor echo = MethodDescriptor.of(Service.class.getMethod("echo", Object.class, int.class, Object.class));
+    echo.getParameterTypes()[0] = String.class;
+    echo.getParameterAnnotations()[0] = null;
+    assertThat(echo.getParameterTypes()[0], equalTo((Object) Object.class));
+    assertThat(echo.getParameterAnnotations()[0].length, is(1));
+    assertThat(echo.parameterTypes()[0], equalTo((Object) Object.class));
+  }
+
+  @Test
+  public void test_invoke() throws Throwable {
+    MethodDescriptor echo = MethodDescriptor.of(Service.class.getMethod("echo", Object.class, int.class, Object.class));
+    assertThat(echo.invoke(new ServiceImpl(), "client", 42, null), is((Object) "client:42:null"));
+    MethodDescriptor clear = MethodDescriptor.of(Store.class.getMethod("clear"));
+    assertThat(clear.invoke(new StoreImpl()), nullValue());
+  }
+
+  @Test
+  public void test_invoke_wraps_target_exception() throws Throwable {
+    MethodDescriptor failing = MethodDescriptor.of(Service.class.getMethod("fail"));
+    try {
+      failing.invoke(new ServiceImpl());
+      fail();
+    } catch (InvocationTargetException e) {
+      assertThat(e.getTargetException(), instanceOf(UnsupportedOperationException.class));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_invoke_rejects_argument_type_mismatch() throws Throwable {
+    MethodDescriptor.of(Service.class.getMethod("echo", Object.class, int.class, Object.class)).invoke(new ServiceImpl(), "client", "42", null);
+  }
+
+  @Test
+  public void test_invoke_widens_primitive_arguments() throws Throwable {
+    MethodDescriptor widen = MethodDescriptor.of(Service.class.getMethod("widen", long.class));
+    assertThat(widen.invoke(new ServiceImpl(), 42), is((Object) 43L));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_invoke_rejects_narrowing_primitive_arguments() throws Throwable {
+    MethodDescriptor.of(Service.class.getMethod("widen", long.class)).invoke(new ServiceImpl(), 1.5f);
+  }
+
+  @Test
+  public void test_invoke_reports_class_cast_from_target() throws Throwable {
+    MethodDescriptor failing = MethodDescriptor.of(Service.class.getMethod("cast", Object.class));
+    try {
+      failing.invoke(new ServiceImpl(), "foo");
+      fail();
+    } catch (InvocationTargetException e) {
+      assertThat(e.getTargetException(), instanceOf(ClassCastException.class));
+    }
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void test_invoke_rejects_null_target() throws Throwable {
+    MethodDescriptor.of(Service.class.getMethod("fail")).invoke(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_invoke_rejects_wrong_argument_count() throws Throwable {
+    MethodDescriptor.of(Service.class.getMethod("widen", long.class)).invoke(new ServiceImpl(), 1L, 2L);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_invoke_rejects_null_primitive() throws Throwable {
+    MethodDescriptor.of(Service.class.getMethod("echo", Object.class, int.class, Object.class)).invoke(new ServiceImpl(), "client", null, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_invoke_rejects_foreign_target() throws Throwable {
+    MethodDescriptor.of(Service.class.getMethod("fail")).invoke(new StoreImpl());
+  }
+
+  interface Service {
+    String echo(@ClientId Object client, int value, @ClientId Object other);
+
+    long widen(long value);
+
+    Integer cast(Object value);
+
+    void fail();
+  }
+
+  static class ServiceImpl implements Service {
+    @Override
+    public String echo(Object client, int value, Object other) {
+      return client + ":" + value + ":" + other;
+    }
+
+    @Override
+    public long widen(long value) {
+      return value + 1;
+    }
+
+    @Override
+    public Integer cast(Object value) {
+      return (Integer) value;
+    }
+
+    @Override
+    public void fail() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  static class StoreImpl implements Store {
+    @Override
+    public void clear() {
+    }
+
+    @Override
+    public void put(String key, String value) {
+    }
+
+    @Override
+    public String get(int key) {
+      return null;
+    }
+
+    @Override
+    public void remove(String key) {
+    }
+  }
+
+  interface Store {
+    @ConcurrencyStrategy(key = ConcurrencyStrategy.UNIVERSAL_KEY)
+    void clear();
+
+    void put(@ConcurrencyKey(keySpace = 4) String key, String value);
+
+    String get(@ConcurrencyKey(function = Identity.class) int key);
+
+    @ConcurrencyStrategy(key = 1)
+    void remove(@ConcurrencyKey String key);
+  }
+
+  public static class Identity implements ConcurrencyKey.Function {
+    @Override
+    public int keyFor(Object argument, int keySpace) {
+      return (Integer) argument;
+    }
+  }
+}
@@ -44,6 +44,23 @@ public class SerializationCodecTest {
     assertThat(foobar, contains("foobar"));
   }
 
+  @Test
+  public void testHeader() {
+    SerializationCodec codec = new SerializationCodec();
+
+    byte[] encoded = codec.encode(new byte[] {7, 8}, String.class, "foobar");
+    assertThat(encoded[0], is((byte) 7));
+    assertThat(encoded[1], is((byte) 8));
+    assertThat(codec.decode(String.class, encoded, 2, encoded.length - 2), is("foobar"));
+
+    Class<?>[] types = {int.class, String.class};
+    encoded = codec.encode(new byte[] {9}, types, new Object[] {42, "foobar"});
+    assertThat(encoded[0], is((byte) 9));
+    Object[] decoded = codec.decode(types, encoded, 1, encoded.length - 1);
+    assertThat(decoded[0], is((Object) 42));
+    assertThat(decoded[1], is((Object) "foobar"));
+  }
+
   @Test
   public void testMatchedShadedSubstitutionWithAvailableClass() {
     SerializationCodec codec = new SerializationCodec(Pattern.compile("^org\\.terracorra\\.voltron\\.proxy\\.shaded\\.(.*)$"));
@@ -26,6 +26,7 @@ import org.terracotta.voltron.proxy.ProxyEntityMessage;
 import org.terracotta.voltron.proxy.ProxyEntityResponse;
 
 import java.util.Collection;
+import java.util.concurrent.Executor;
 
 /**
  * @author Alex Snaps
@@ -118,6 +119,7 @@ public abstract class ActiveProxiedServerEntity<S, R, M extends Messenger> imple
     Collection<ClientDescriptor> clients = getClients();
     stateDumpCollector.addState("clientCount", String.valueOf(clients.size()));
     stateDumpCollector.addState("clients", clients);
+    stateDumpCollector.addState("droppedMessageCount", String.valueOf(getDroppedMessageCount()));
 
     // custom
     dumpState(stateDumpCollector);
@@ -141,6 +143,28 @@ public abstract class ActiveProxiedServerEntity<S, R, M extends Messenger> imple
 
   protected final Collection<ClientDescriptor> getClients() {return entityInvoker.getClients();}
 
+  /**
+   * Delivers fired messages from {@code executor}, through one queue per client, instead of from the firing thread.
+   * A client more than 1024 messages behind loses its oldest ones.
+   *
+   * @param executor the delivery executor, or {@code null} to deliver messages synchronously
+   */
+  protected final void setMessageDeliveryExecutor(Executor executor) {entityInvoker.setEventExecutor(executor);}
+
+  /**
+   * Delivers fired messages from {@code executor}, through one queue per client, instead of from the firing thread.
+   * A client more than {@code maxQueuedMessages} messages behind loses its oldest ones.
+   *
+   * @param executor the delivery executor, or {@code null} to deliver messages synchronously
+   * @param maxQueuedMessages the maximum number of messages queued for a client
+   */
+  protected final void setMessageDeliveryExecutor(Executor executor, int maxQueuedMessages) {entityInvoker.setEventExecutor(executor, maxQueuedMessages);}
+
+  /**
+   * @return the number of messages dropped because their client had too many messages queued
+   */
+  protected final long getDroppedMessageCount() {return entityInvoker.getDroppedEventCount();}
+
   protected final S getSynchronizer() {
     return synchronizer;
   }
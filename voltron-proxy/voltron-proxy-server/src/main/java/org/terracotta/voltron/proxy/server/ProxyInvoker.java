@@ -15,6 +15,8 @@
  */
 package org.terracotta.voltron.proxy.server;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.terracotta.entity.ActiveInvokeContext;
 import org.terracotta.entity.ClientCommunicator;
 import org.terracotta.entity.ClientDescriptor;
@@ -30,28 +32,50 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author Alex Snaps
  */
 class ProxyInvoker<T> implements MessageFiring {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(ProxyInvoker.class);
+  // bounds the size of a single message when a client has fallen far behind
+  private static final int MAX_BATCH_SIZE = 128;
+  static final int DEFAULT_MAX_QUEUED_EVENTS = 1024;
+
   private final T target;
   private final Set<ClientDescriptor> clients = Collections.synchronizedSet(new HashSet<>());
-  private final ThreadLocal<InvocationContext> invocationContext = new ThreadLocal<>();
+  // client of the invocation running on the current thread, set and cleared in place to avoid allocating per call
+  private final ThreadLocal<ClientDescriptor> caller = new ThreadLocal<>();
 
   private Set<Class<?>> messageTypes;
   private ClientCommunicator clientCommunicator;
 
+  // when set, events are queued per client and delivered from this executor instead of the firing thread
+  private volatile Executor eventExecutor;
+  private volatile int maxQueuedEvents = DEFAULT_MAX_QUEUED_EVENTS;
+  private final LongAdder droppedEvents = new LongAdder();
+  private final ConcurrentMap<ClientDescriptor, EventQueue> eventQueues = new ConcurrentHashMap<>();
+
   ProxyInvoker(T target) {
     this.target = target;
   }
 
   ProxyEntityResponse invoke(ActiveInvokeContext<ProxyEntityResponse> context, final ProxyEntityMessage message) {
     ClientDescriptor clientDescriptor = context.getClientDescriptor();
+    ClientDescriptor previous = caller.get();
     try {
-      invocationContext.set(new InvocationContext(clientDescriptor));
+      caller.set(clientDescriptor);
       return ProxyEntityResponse.response(message.getType(), message.messageType(), message.invoke(target, clientDescriptor));
     } catch (IllegalAccessException e) {
       throw new IllegalArgumentException(e);
@@ -68,7 +92,7 @@ class ProxyInvoker<T> implements MessageFiring {
       EntityUserException entityUserException = new EntityUserException(errorMessage.toString(), targetException);
       return ProxyEntityResponse.error(entityUserException);
     } finally {
-      invocationContext.remove();
+      caller.set(previous);
     }
   }
 
@@ -94,15 +118,12 @@ class ProxyInvoker<T> implements MessageFiring {
     if (!messageTypes.contains(type)) {
       throw new IllegalArgumentException("Event type '" + type + "' isn't supported");
     }
-    final InvocationContext invocationContext = this.invocationContext.get();
-    final ClientDescriptor caller = invocationContext == null ? null : invocationContext.caller;
-    for (ClientDescriptor client : clients) {
+    final ClientDescriptor caller = this.caller.get();
+    // the same response instance is sent to every client so that the codec only encodes it once
+    final ProxyEntityResponse response = ProxyEntityResponse.messageResponse(type, message);
+    for (ClientDescriptor client : getClients()) {
       if (echo || !client.equals(caller)) {
-        try {
-          clientCommunicator.sendNoResponse(client, ProxyEntityResponse.messageResponse(type, message));
-        } catch (MessageCodecException ex) {
-          handleExceptionOnSend(ex);
-        }
+        send(client, response);
       }
     }
   }
@@ -112,21 +133,73 @@ class ProxyInvoker<T> implements MessageFiring {
     if (!messageTypes.contains(type)) {
       throw new IllegalArgumentException("Event type '" + type + "' isn't supported");
     }
+    final ProxyEntityResponse response = ProxyEntityResponse.messageResponse(type, message);
     for (ClientDescriptor client : clients) {
+      send(client, response);
+    }
+  }
+
+  private void send(ClientDescriptor client, ProxyEntityResponse response) {
+    Executor executor = this.eventExecutor;
+    if (executor == null) {
       try {
-        clientCommunicator.sendNoResponse(client, ProxyEntityResponse.messageResponse(type, message));
+        clientCommunicator.sendNoResponse(client, response);
       } catch (MessageCodecException ex) {
         handleExceptionOnSend(ex);
       }
+    } else {
+      // queues only exist for connected clients: an event fired at a client that is gone is dropped
+      EventQueue queue = eventQueues.computeIfPresent(client, (c, q) -> q.add(response));
+      if (queue == null) {
+        LOGGER.debug("Dropping event {} for disconnected client {}", response.getResponseType().getName(), client);
+      } else {
+        queue.schedule(executor);
+      }
     }
   }
 
   void addClient(ClientDescriptor descriptor) {
     clients.add(descriptor);
+    eventQueues.putIfAbsent(descriptor, new EventQueue(descriptor));
   }
 
   void removeClient(ClientDescriptor descriptor) {
     clients.remove(descriptor);
+    EventQueue queue = eventQueues.remove(descriptor);
+    if (queue != null) {
+      queue.clear();
+    }
+  }
+
+  /**
+   * Makes events get delivered asynchronously: each client gets its own queue, drained from {@code executor},
+   * so that a client slow to accept its events does not hold the firing thread. The events that pile up while
+   * a client is being served are sent to it as a single batch message. Events are still delivered to each
+   * client in the order they were fired, and a failure to send them is thrown from the executor task.
+   * <p>
+   * A queue holds at most {@code maxQueuedEvents} events: once a client falls that far behind, its oldest events are
+   * dropped in favour of the new ones, and counted in {@link #getDroppedEventCount()}.
+   *
+   * @param executor the executor draining the queues, or {@code null} to deliver events from the firing thread
+   * @param maxQueuedEvents the maximum number of events queued for a client
+   */
+  void setEventExecutor(Executor executor, int maxQueuedEvents) {
+    if (maxQueuedEvents < 1) {
+      throw new IllegalArgumentException("Invalid maximum number of queued events: " + maxQueuedEvents);
+    }
+    this.maxQueuedEvents = maxQueuedEvents;
+    this.eventExecutor = executor;
+  }
+
+  void setEventExecutor(Executor executor) {
+    setEventExecutor(executor, DEFAULT_MAX_QUEUED_EVENTS);
+  }
+
+  /**
+   * @return the number of events dropped because the queue of their client was full
+   */
+  long getDroppedEventCount() {
+    return droppedEvents.sum();
   }
 
   public Collection<ClientDescriptor> getClients() {
@@ -155,12 +228,76 @@ class ProxyInvoker<T> implements MessageFiring {
     return this;
   }
 
-  private static final class InvocationContext {
+  private final class EventQueue implements Runnable {
 
-    private final ClientDescriptor caller;
+    private final ClientDescriptor client;
+    private final Queue<ProxyEntityResponse> events = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue.size() walks the whole queue
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile Executor executor;
 
-    public InvocationContext(final ClientDescriptor caller) {
-      this.caller = caller;
+    EventQueue(ClientDescriptor client) {
+      this.client = client;
+    }
+
+    // called under the lock of the queue mapping, so never concurrently for the same client
+    EventQueue add(ProxyEntityResponse event) {
+      events.add(event);
+      if (size.incrementAndGet() > maxQueuedEvents && poll() != null) {
+        droppedEvents.increment();
+      }
+      return this;
+    }
+
+    private ProxyEntityResponse poll() {
+      ProxyEntityResponse event = events.poll();
+      if (event != null) {
+        size.decrementAndGet();
+      }
+      return event;
+    }
+
+    void clear() {
+      while (poll() != null) {
+        // drop
+      }
+    }
+
+    void schedule(Executor executor) {
+      this.executor = executor;
+      if (scheduled.compareAndSet(false, true)) {
+        try {
+          executor.execute(this);
+        } catch (RuntimeException e) {
+          scheduled.set(false);
+          throw e;
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        List<ProxyEntityResponse> batch = new ArrayList<>();
+        ProxyEntityResponse event;
+        while (batch.size() < MAX_BATCH_SIZE && (event = poll()) != null) {
+          batch.add(event);
+        }
+        if (batch.size() == 1) {
+          clientCommunicator.sendNoResponse(client, batch.get(0));
+        } else if (!batch.isEmpty()) {
+          clientCommunicator.sendNoResponse(client, ProxyEntityResponse.batch(batch));
+        }
+      } catch (MessageCodecException ex) {
+        handleExceptionOnSend(ex);
+      } finally {
+        scheduled.set(false);
+        // events queued after the drain but before the flag was cleared would otherwise be stranded
+        if (!events.isEmpty()) {
+          schedule(executor);
+        }
+      }
     }
   }
 }
@@ -32,6 +32,8 @@ import org.terracotta.entity.ServiceException;
 import org.terracotta.entity.ServiceRegistry;
 import org.terracotta.entity.SyncMessageCodec;
 import org.terracotta.voltron.proxy.Codec;
+import org.terracotta.voltron.proxy.CommonProxyFactory;
+import org.terracotta.voltron.proxy.MethodDescriptor;
 import org.terracotta.voltron.proxy.ProxyEntityMessage;
 import org.terracotta.voltron.proxy.ProxyEntityResponse;
 import org.terracotta.voltron.proxy.ProxyMessageCodec;
@@ -40,6 +42,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * @param <C> Entity config type
@@ -56,6 +59,7 @@ public abstract class ProxyServerEntityService<C, S, R, M extends Messenger> imp
   private final ProxyMessageCodec messageCodec;
   private final DelegatingSyncMessageCodec syncMessageCodec;
   private final Class<M> messengerType;
+  private final Set<Integer> argumentKeys;
   private final ExecutionStrategy<ProxyEntityMessage> executionStrategy = message -> ExecutionStrategy.Location.valueOf(message.getExecutionLocation().name());
   private final ConcurrencyStrategy<ProxyEntityMessage> concurrencyStrategy = new ConcurrencyStrategy<ProxyEntityMessage>() {
     @Override
@@ -76,6 +80,15 @@ public abstract class ProxyServerEntityService<C, S, R, M extends Messenger> imp
     this.eventTypes = eventTypes; // can be null
     this.messageCodec = new ProxyMessageCodec(Objects.requireNonNull(proxyType), eventTypes, messengerType, synchronizerType);
 
+    // keys invocations routed with @ConcurrencyKey can run on
+    Set<Integer> keys = new TreeSet<>();
+    for (MethodDescriptor method : CommonProxyFactory.createMethodMappings(proxyType).values()) {
+      for (int key = 1; key <= method.getKeySpace(); key++) {
+        keys.add(key);
+      }
+    }
+    this.argumentKeys = Collections.unmodifiableSet(keys);
+
     // for passive sync
     this.synchronizerType = synchronizerType; // can be null
     this.syncMessageCodec = synchronizerType == null ? null : new DelegatingSyncMessageCodec(messageCodec);
@@ -191,8 +204,12 @@ public abstract class ProxyServerEntityService<C, S, R, M extends Messenger> imp
 
   // can be overriden / implemented
 
+  /**
+   * By default, the keys of the methods routed on an argument with {@link org.terracotta.voltron.proxy.ConcurrencyKey},
+   * which then need to be synchronized with {@link ActiveProxiedServerEntity#synchronizeKeyToPassive(int)}.
+   */
   protected Set<Integer> getKeysForSynchronization() {
-    return Collections.emptySet();
+    return argumentKeys;
   }
 
   protected abstract ActiveProxiedServerEntity<S, R, M> createActiveEntity(ServiceRegistry registry, C configuration) throws ConfigurationException;
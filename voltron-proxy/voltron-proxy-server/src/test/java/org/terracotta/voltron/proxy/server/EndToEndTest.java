@@ -31,6 +31,7 @@ import org.terracotta.entity.MessageCodecException;
 import org.terracotta.exception.EntityException;
 import org.terracotta.voltron.proxy.ClientId;
 import org.terracotta.voltron.proxy.MessageListener;
+import org.terracotta.voltron.proxy.MessageType;
 import org.terracotta.voltron.proxy.ProxyEntityMessage;
 import org.terracotta.voltron.proxy.ProxyEntityResponse;
 import org.terracotta.voltron.proxy.ProxyMessageCodec;
@@ -39,6 +40,9 @@ import org.terracotta.voltron.proxy.client.ClientProxyFactory;
 import org.terracotta.voltron.proxy.client.ServerMessageAware;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
@@ -57,6 +61,7 @@ import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import org.terracotta.entity.ActiveInvokeChannel;
@@ -158,6 +163,195 @@ public class EndToEndTest {
     assertThat(messageReceived.get(5, TimeUnit.SECONDS), equalTo(message));
   }
 
+  @Test
+  public void testBroadcastEncodesOnce() throws Exception {
+    final AtomicInteger encodings = new AtomicInteger();
+    final ProxyMessageCodec messageCodec = new ProxyMessageCodec(Comparable.class, new Class[] {String.class});
+    messageCodec.setCodec(new SerializationCodec() {
+      @Override
+      public byte[] encode(byte[] header, Class<?> type, Object value) {
+        encodings.incrementAndGet();
+        return super.encode(header, type, value);
+      }
+    });
+    final AtomicInteger received = new AtomicInteger();
+    final ProxyInvoker<Comparable> proxyInvoker = new ProxyInvoker<Comparable>(new Comparable() {
+      public int compareTo(final Object o) {
+        return 42;
+      }
+    }).activateEvents(new ClientCommunicator() {
+      @Override
+      public void closeClientConnection(ClientDescriptor clientDescriptor) {
+
+      }
+
+      public void sendNoResponse(final ClientDescriptor clientDescriptor, final EntityResponse message) throws MessageCodecException {
+        ProxyEntityResponse response = messageCodec.decodeResponse(messageCodec.encodeResponse((ProxyEntityResponse) message));
+        assertThat(response.getResponse(), equalTo((Object) "Hello world!"));
+        received.incrementAndGet();
+      }
+
+      public Future<Void> send(final ClientDescriptor clientDescriptor, final EntityResponse message) {
+        throw new UnsupportedOperationException("Implement me!");
+      }
+    }, new Class[] {String.class});
+    for (int i = 0; i < 10; i++) {
+      proxyInvoker.addClient(new MyClientDescriptor());
+    }
+
+    proxyInvoker.fireMessage(String.class, "Hello world!", true);
+
+    assertThat(received.get(), is(10));
+    assertThat(encodings.get(), is(1));
+  }
+
+  @Test
+  public void testAsynchronousMessageDelivery() throws Exception {
+    final ProxyMessageCodec messageCodec = new ProxyMessageCodec(Comparable.class, new Class[] {String.class});
+    final List<Runnable> tasks = new ArrayList<>();
+    final List<ProxyEntityResponse> sent = new ArrayList<>();
+    final ProxyInvoker<Comparable> proxyInvoker = new ProxyInvoker<Comparable>(new Comparable() {
+      public int compareTo(final Object o) {
+        return 42;
+      }
+    }).activateEvents(new ClientCommunicator() {
+      @Override
+      public void closeClientConnection(ClientDescriptor clientDescriptor) {
+
+      }
+
+      public void sendNoResponse(final ClientDescriptor clientDescriptor, final EntityResponse message) throws MessageCodecException {
+        sent.add(messageCodec.decodeResponse(messageCodec.encodeResponse((ProxyEntityResponse) message)));
+      }
+
+      public Future<Void> send(final ClientDescriptor clientDescriptor, final EntityResponse message) {
+        throw new UnsupportedOperationException("Implement me!");
+      }
+    }, new Class[] {String.class});
+    proxyInvoker.setEventExecutor(tasks::add);
+    proxyInvoker.addClient(new MyClientDescriptor());
+
+    proxyInvoker.fireMessage(String.class, "one", true);
+    proxyInvoker.fireMessage(String.class, "two", true);
+    assertThat(sent.isEmpty(), is(true));
+    // both events are delivered by a single drain of the client queue, as a single message
+    assertThat(tasks.size(), is(1));
+
+    tasks.get(0).run();
+    assertThat(sent.size(), is(1));
+    assertThat(sent.get(0).getMessageType(), is(MessageType.BATCH));
+    final List<Object> received = new ArrayList<>();
+    for (ProxyEntityResponse response : (ProxyEntityResponse[]) sent.get(0).getResponse()) {
+      received.add(response.getResponse());
+    }
+    assertThat(received, equalTo(Arrays.<Object>asList("one", "two")));
+  }
+
+  @Test
+  public void testAsynchronousMessageDeliveryDropsOldestEvents() throws Exception {
+    final List<Runnable> tasks = new ArrayList<>();
+    final List<Object> received = new ArrayList<>();
+    final ProxyInvoker<Comparable> proxyInvoker = new ProxyInvoker<Comparable>(new Comparable() {
+      public int compareTo(final Object o) {
+        return 42;
+      }
+    }).activateEvents(new ClientCommunicator() {
+      @Override
+      public void closeClientConnection(ClientDescriptor clientDescriptor) {
+
+      }
+
+      public void sendNoResponse(final ClientDescriptor clientDescriptor, final EntityResponse message) {
+        for (ProxyEntityResponse response : (ProxyEntityResponse[]) ((ProxyEntityResponse) message).getResponse()) {
+          received.add(response.getResponse());
+        }
+      }
+
+      public Future<Void> send(final ClientDescriptor clientDescriptor, final EntityResponse message) {
+        throw new UnsupportedOperationException("Implement me!");
+      }
+    }, new Class[] {String.class});
+    proxyInvoker.setEventExecutor(tasks::add, 2);
+    proxyInvoker.addClient(new MyClientDescriptor());
+
+    proxyInvoker.fireMessage(String.class, "one", true);
+    proxyInvoker.fireMessage(String.class, "two", true);
+    proxyInvoker.fireMessage(String.class, "three", true);
+    assertThat(proxyInvoker.getDroppedEventCount(), is(1L));
+
+    tasks.get(0).run();
+    assertThat(received, equalTo(Arrays.<Object>asList("two", "three")));
+  }
+
+  @Test
+  public void testAsynchronousMessageDeliveryToRemovedClient() throws Exception {
+    final List<Runnable> tasks = new ArrayList<>();
+    final ProxyInvoker<Comparable> proxyInvoker = new ProxyInvoker<Comparable>(new Comparable() {
+      public int compareTo(final Object o) {
+        return 42;
+      }
+    }).activateEvents(new ClientCommunicator() {
+      @Override
+      public void closeClientConnection(ClientDescriptor clientDescriptor) {
+
+      }
+
+      public void sendNoResponse(final ClientDescriptor clientDescriptor, final EntityResponse message) {
+        throw new AssertionError("Client was removed");
+      }
+
+      public Future<Void> send(final ClientDescriptor clientDescriptor, final EntityResponse message) {
+        throw new UnsupportedOperationException("Implement me!");
+      }
+    }, new Class[] {String.class});
+    proxyInvoker.setEventExecutor(tasks::add);
+    final ClientDescriptor client = new MyClientDescriptor();
+    proxyInvoker.addClient(client);
+    proxyInvoker.fireMessage(String.class, "one", true);
+    proxyInvoker.removeClient(client);
+
+    // a late fire must not bring the queue of the removed client back
+    proxyInvoker.fireMessage(String.class, "two", new ClientDescriptor[] {client});
+    assertThat(tasks.size(), is(1));
+    tasks.get(0).run();
+  }
+
+  @Test
+  public void testAsynchronousMessageDeliveryFailure() throws Exception {
+    final List<Runnable> tasks = new ArrayList<>();
+    final ProxyInvoker<Comparable> proxyInvoker = new ProxyInvoker<Comparable>(new Comparable() {
+      public int compareTo(final Object o) {
+        return 42;
+      }
+    }).activateEvents(new ClientCommunicator() {
+      @Override
+      public void closeClientConnection(ClientDescriptor clientDescriptor) {
+
+      }
+
+      public void sendNoResponse(final ClientDescriptor clientDescriptor, final EntityResponse message) throws MessageCodecException {
+        throw new MessageCodecException("boom", null);
+      }
+
+      public Future<Void> send(final ClientDescriptor clientDescriptor, final EntityResponse message) {
+        throw new UnsupportedOperationException("Implement me!");
+      }
+    }, new Class[] {String.class});
+    proxyInvoker.setEventExecutor(tasks::add);
+    proxyInvoker.addClient(new MyClientDescriptor());
+    proxyInvoker.fireMessage(String.class, "one", true);
+
+    try {
+      tasks.get(0).run();
+      fail("Expected RuntimeException");
+    } catch (RuntimeException e) {
+      assertThat(e.getCause(), instanceOf(MessageCodecException.class));
+    }
+    // the queue can still be scheduled after a failed delivery
+    proxyInvoker.fireMessage(String.class, "two", true);
+    assertThat(tasks.size(), is(2));
+  }
+
   @Test
   public void testClientInvokeInitiatedMessageFiring() throws ExecutionException, InterruptedException {
     final SerializationCodec codec = new SerializationCodec();